@@ -0,0 +1,379 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Search the compression quality that best matches a target encoded size or a target similarity to the source
+ * bitmap.<br>
+ * Each search round encodes a few qualities in parallel into reusable in-memory buffers and narrows the quality
+ * range by the results, only the winning buffer is returned to be written to the destination.
+ */
+final class BitmapCompressSearch {
+
+    //region: Fields and Consts
+
+    /**
+     * The lowest quality the search will go down to
+     */
+    private static final int MIN_QUALITY = 1;
+
+    /**
+     * The max dimension of the images compared for SSIM, larger doesn't change the score by much but costs a lot
+     */
+    private static final int SSIM_MAX_SIZE = 256;
+
+    /**
+     * The size of the blocks the SSIM is calculated on
+     */
+    private static final int SSIM_BLOCK_SIZE = 8;
+
+    /**
+     * SSIM stabilization constant for the mean: (0.01 * 255)^2
+     */
+    private static final double SSIM_C1 = 6.5025;
+
+    /**
+     * SSIM stabilization constant for the variance: (0.03 * 255)^2
+     */
+    private static final double SSIM_C2 = 58.5225;
+    //endregion
+
+    private BitmapCompressSearch() {
+    }
+
+    /**
+     * Encode the given bitmap by the given compression format with the quality found by the given mode.<br>
+     * {@link CropImageView.OutputCompressMode#TARGET_SIZE}: the highest quality (up to max quality) that fits into
+     * the target size, if none fits the lowest quality is used.<br>
+     * {@link CropImageView.OutputCompressMode#TARGET_SSIM}: the lowest quality (up to max quality) that has SSIM
+     * to the bitmap of at least the target, if none does the max quality is used.
+     *
+     * @return the buffer with the encoded image data
+     */
+    public static EncodedBuffer search(Bitmap bitmap, Bitmap.CompressFormat compressFormat, int maxQuality,
+                                       CropImageView.OutputCompressMode compressMode, int targetSize, float targetSsim) throws Exception {
+
+        maxQuality = Math.max(MIN_QUALITY, Math.min(100, maxQuality));
+        boolean higherIsGood = compressMode == CropImageView.OutputCompressMode.TARGET_SSIM;
+        int limit = compressMode == CropImageView.OutputCompressMode.TARGET_SIZE ? targetSize : Integer.MAX_VALUE;
+        SsimReference reference = higherIsGood ? new SsimReference(bitmap) : null;
+
+        // the closest qualities known to pass/fail the target, start outside the quality range
+        int good = higherIsGood ? maxQuality + 1 : MIN_QUALITY - 1;
+        int bad = higherIsGood ? MIN_QUALITY - 1 : maxQuality + 1;
+        EncodedBuffer goodBuffer = null;
+
+        ArrayDeque<EncodedBuffer> freeBuffers = new ArrayDeque<>();
+        int initialCapacity = limit < Integer.MAX_VALUE ? limit + 1 : bitmap.getWidth() * bitmap.getHeight() / 4;
+        int parallelism = BitmapWorkerPool.getParallelism();
+
+        List<Probe> probes = new ArrayList<>(parallelism);
+        while (Math.abs(good - bad) > 1) {
+
+            // spread the probes evenly between the known bounds (exclusive)
+            int lo = Math.min(good, bad);
+            int hi = Math.max(good, bad);
+            int count = Math.min(parallelism, hi - lo - 1);
+            double step = (hi - lo) / (double) (count + 1);
+
+            probes.clear();
+            for (int i = 1; i <= count; i++) {
+                EncodedBuffer buffer = freeBuffers.isEmpty() ? new EncodedBuffer(initialCapacity) : freeBuffers.poll();
+                probes.add(new Probe(bitmap, compressFormat, lo + (int) Math.round(i * step), buffer, limit, targetSsim, reference));
+            }
+
+            List<Boolean> results = BitmapWorkerPool.invokeAll(probes);
+
+            for (int i = 0; i < probes.size(); i++) {
+                Probe probe = probes.get(i);
+                boolean better = higherIsGood ? probe.mQuality < good : probe.mQuality > good;
+                if (results.get(i) && better) {
+                    if (goodBuffer != null) {
+                        freeBuffers.add(goodBuffer);
+                    }
+                    good = probe.mQuality;
+                    goodBuffer = probe.mBuffer;
+                } else {
+                    if (!results.get(i) && (higherIsGood ? probe.mQuality > bad : probe.mQuality < bad)) {
+                        bad = probe.mQuality;
+                    }
+                    freeBuffers.add(probe.mBuffer);
+                }
+            }
+        }
+
+        if (goodBuffer == null) {
+            // target can't be reached, use the closest quality
+            goodBuffer = freeBuffers.isEmpty() ? new EncodedBuffer(initialCapacity) : freeBuffers.poll();
+            goodBuffer.reset(Integer.MAX_VALUE);
+            bitmap.compress(compressFormat, higherIsGood ? maxQuality : MIN_QUALITY, goodBuffer);
+        }
+        return goodBuffer;
+    }
+
+    //region: Private methods
+
+    /**
+     * Get the luminance (0-255) of each of the given pixels, stored in the same array.
+     */
+    private static void toLuminance(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            pixels[i] = (((pixel >> 16) & 0xff) * 299 + ((pixel >> 8) & 0xff) * 587 + (pixel & 0xff) * 114) / 1000;
+        }
+    }
+
+    /**
+     * Calculate the mean structural similarity of the 2 luminance images of the given size.
+     */
+    private static double calculateSsim(int[] lumaA, int[] lumaB, int width, int height) {
+        int block = Math.min(SSIM_BLOCK_SIZE, Math.min(width, height));
+        double total = 0;
+        int blocks = 0;
+        for (int by = 0; by + block <= height; by += block) {
+            for (int bx = 0; bx + block <= width; bx += block) {
+                long sumA = 0, sumB = 0, sumAA = 0, sumBB = 0, sumAB = 0;
+                for (int y = by; y < by + block; y++) {
+                    int offset = y * width;
+                    for (int x = bx; x < bx + block; x++) {
+                        int a = lumaA[offset + x];
+                        int b = lumaB[offset + x];
+                        sumA += a;
+                        sumB += b;
+                        sumAA += a * a;
+                        sumBB += b * b;
+                        sumAB += a * b;
+                    }
+                }
+                double n = block * block;
+                double meanA = sumA / n;
+                double meanB = sumB / n;
+                double varA = sumAA / n - meanA * meanA;
+                double varB = sumBB / n - meanB * meanB;
+                double covar = sumAB / n - meanA * meanB;
+                total += ((2 * meanA * meanB + SSIM_C1) * (2 * covar + SSIM_C2)) /
+                        ((meanA * meanA + meanB * meanB + SSIM_C1) * (varA + varB + SSIM_C2));
+                blocks++;
+            }
+        }
+        return blocks > 0 ? total / blocks : 1;
+    }
+    //endregion
+
+    //region: Inner class: EncodedBuffer
+
+    /**
+     * Reusable in-memory output stream for encoded image data.<br>
+     * Fails the write when more than the set limit is written so encoding that can't fit the target stops early.
+     */
+    static final class EncodedBuffer extends OutputStream {
+
+        /**
+         * The buffer holding the written data, grows as needed
+         */
+        private byte[] mBuffer;
+
+        /**
+         * The number of valid bytes in the buffer
+         */
+        private int mCount;
+
+        /**
+         * the max number of bytes allowed to be written
+         */
+        private int mLimit = Integer.MAX_VALUE;
+
+        EncodedBuffer(int initialCapacity) {
+            mBuffer = new byte[Math.max(1024, initialCapacity)];
+        }
+
+        /**
+         * Clear the written data, keeping the allocated buffer, and set the max number of bytes allowed to be written.
+         */
+        public void reset(int limit) {
+            mCount = 0;
+            mLimit = limit;
+        }
+
+        /**
+         * The number of valid bytes written to the buffer.
+         */
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * The underlying buffer, valid up to {@link #size()}.
+         */
+        public byte[] getBuffer() {
+            return mBuffer;
+        }
+
+        /**
+         * Write all the valid bytes to the given output stream.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(mBuffer, 0, mCount);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureCapacity(1);
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
+            System.arraycopy(b, off, mBuffer, mCount, len);
+            mCount += len;
+        }
+
+        private void ensureCapacity(int len) throws IOException {
+            if (mCount + len > mLimit) {
+                throw new IOException("Encoded data exceeds limit: " + mLimit);
+            }
+            if (mCount + len > mBuffer.length) {
+                byte[] buffer = new byte[Math.max(mBuffer.length * 2, mCount + len)];
+                System.arraycopy(mBuffer, 0, buffer, 0, mCount);
+                mBuffer = buffer;
+            }
+        }
+    }
+    //endregion
+
+    //region: Inner class: SsimReference
+
+    /**
+     * The down-sampled luminance of the source bitmap the encoded probes are compared to.
+     */
+    private static final class SsimReference {
+
+        /**
+         * The width of the compared luminance image
+         */
+        final int mWidth;
+
+        /**
+         * The height of the compared luminance image
+         */
+        final int mHeight;
+
+        /**
+         * The power of 2 sample size to decode the probes with so they are close to the compared size
+         */
+        final int mSampleSize;
+
+        /**
+         * The luminance of the down-sampled source bitmap
+         */
+        final int[] mLuma;
+
+        SsimReference(Bitmap bitmap) {
+            int sampleSize = 1;
+            while (Math.max(bitmap.getWidth(), bitmap.getHeight()) / sampleSize > SSIM_MAX_SIZE) {
+                sampleSize *= 2;
+            }
+            mSampleSize = sampleSize;
+            mWidth = Math.max(1, bitmap.getWidth() / sampleSize);
+            mHeight = Math.max(1, bitmap.getHeight() / sampleSize);
+            mLuma = getLuminance(bitmap);
+        }
+
+        /**
+         * Get the luminance of the given bitmap scaled to the compared size.
+         */
+        int[] getLuminance(Bitmap bitmap) {
+            Bitmap scaled = bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight
+                    ? Bitmap.createScaledBitmap(bitmap, mWidth, mHeight, true)
+                    : bitmap;
+            int[] luma = new int[mWidth * mHeight];
+            scaled.getPixels(luma, 0, mWidth, 0, 0, mWidth, mHeight);
+            if (scaled != bitmap) {
+                scaled.recycle();
+            }
+            toLuminance(luma);
+            return luma;
+        }
+    }
+    //endregion
+
+    //region: Inner class: Probe
+
+    /**
+     * Encode the bitmap at a single quality and check if the result passes the target.
+     */
+    private static final class Probe implements Callable<Boolean> {
+
+        final Bitmap mBitmap;
+
+        final Bitmap.CompressFormat mCompressFormat;
+
+        final int mQuality;
+
+        final EncodedBuffer mBuffer;
+
+        final int mLimit;
+
+        final float mTargetSsim;
+
+        final SsimReference mReference;
+
+        Probe(Bitmap bitmap, Bitmap.CompressFormat compressFormat, int quality, EncodedBuffer buffer,
+              int limit, float targetSsim, SsimReference reference) {
+            mBitmap = bitmap;
+            mCompressFormat = compressFormat;
+            mQuality = quality;
+            mBuffer = buffer;
+            mLimit = limit;
+            mTargetSsim = targetSsim;
+            mReference = reference;
+        }
+
+        @Override
+        public Boolean call() {
+            mBuffer.reset(mLimit);
+            if (!mBitmap.compress(mCompressFormat, mQuality, mBuffer)) {
+                // failed to encode or exceeded the size limit
+                return false;
+            }
+            if (mReference == null) {
+                return true;
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = mReference.mSampleSize;
+            Bitmap decoded = BitmapFactory.decodeByteArray(mBuffer.getBuffer(), 0, mBuffer.size(), options);
+            if (decoded == null) {
+                return false;
+            }
+            try {
+                int[] luma = mReference.getLuminance(decoded);
+                return calculateSsim(mReference.mLuma, luma, mReference.mWidth, mReference.mHeight) >= mTargetSsim;
+            } finally {
+                decoded.recycle();
+            }
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,213 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.util.Arrays;
+
+/**
+ * Speculative decode of the cropped image region from URI, started while the crop window is idle so a
+ * following crop request with the same parameters doesn't have to wait for the full resolution decode.<br>
+ * The result can be taken by a single {@link BitmapCroppingWorkerTask}, if not taken it must be cancelled
+ * to release the bitmap.
+ */
+final class BitmapCroppingSpeculation implements Runnable {
+
+    //region: Fields and Consts
+
+    /**
+     * The context used for loading of bitmap by Android URI
+     */
+    private final Context mContext;
+
+    /**
+     * The Android URI of the image to crop
+     */
+    private final Uri mUri;
+
+    /**
+     * Cropping 4 points (x0,y0,x1,y1,x2,y2,x3,y3)
+     */
+    private final float[] mCropPoints;
+
+    /**
+     * Degrees the image was rotated after loading
+     */
+    private final float mDegreesRotated;
+
+    /**
+     * the original width of the image to be cropped
+     */
+    private final int mOrgWidth;
+
+    /**
+     * the original height of the image to be cropped
+     */
+    private final int mOrgHeight;
+
+    /**
+     * is there is fixed aspect ratio for the crop rectangle
+     */
+    private final boolean mFixAspectRatio;
+
+    /**
+     * the X aspect ration of the crop rectangle
+     */
+    private final int mAspectRatioX;
+
+    /**
+     * the Y aspect ration of the crop rectangle
+     */
+    private final int mAspectRatioY;
+
+    /**
+     * required width of the cropping image, used for sampling
+     */
+    private final int mReqWidth;
+
+    /**
+     * required height of the cropping image, used for sampling
+     */
+    private final int mReqHeight;
+
+    /**
+     * the cropped bitmap, null until decode is complete or if it failed
+     */
+    private BitmapUtils.BitmapSampled mResult;
+
+    /**
+     * if the decode has finished, successfully or not
+     */
+    private boolean mDone;
+
+    /**
+     * if the speculation was cancelled, the result is not relevant anymore
+     */
+    private boolean mCancelled;
+
+    /**
+     * if the result was taken by crop worker task
+     */
+    private boolean mTaken;
+    //endregion
+
+    public BitmapCroppingSpeculation(Context context, Uri uri, float[] cropPoints, float degreesRotated,
+                                     int orgWidth, int orgHeight, boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
+                                     int reqWidth, int reqHeight) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mCropPoints = cropPoints;
+        mDegreesRotated = degreesRotated;
+        mOrgWidth = orgWidth;
+        mOrgHeight = orgHeight;
+        mFixAspectRatio = fixAspectRatio;
+        mAspectRatioX = aspectRatioX;
+        mAspectRatioY = aspectRatioY;
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+    }
+
+    /**
+     * Is the speculation for the exact same crop as the given parameters.
+     */
+    public boolean matches(Uri uri, float[] cropPoints, float degreesRotated, int orgWidth, int orgHeight,
+                           boolean fixAspectRatio, int aspectRatioX, int aspectRatioY, int reqWidth, int reqHeight) {
+        return mUri.equals(uri) &&
+                Arrays.equals(mCropPoints, cropPoints) &&
+                mDegreesRotated == degreesRotated &&
+                mOrgWidth == orgWidth &&
+                mOrgHeight == orgHeight &&
+                mFixAspectRatio == fixAspectRatio &&
+                mAspectRatioX == aspectRatioX &&
+                mAspectRatioY == aspectRatioY &&
+                mReqWidth == reqWidth &&
+                mReqHeight == reqHeight;
+    }
+
+    /**
+     * Start the speculative decode on background thread.
+     */
+    public void start() {
+        BitmapWorkerPool.executeBackground(this);
+    }
+
+    /**
+     * Cancel the speculation, the decode is skipped if not started yet and the result is released.<br>
+     * No effect if the result was already taken.
+     */
+    public synchronized void cancel() {
+        if (!mTaken) {
+            mCancelled = true;
+            if (mResult != null) {
+                mResult.bitmap.recycle();
+                mResult = null;
+            }
+        }
+    }
+
+    /**
+     * Take the speculation result waiting for the decode to finish if still in progress.<br>
+     * The caller owns the returned bitmap.
+     *
+     * @return the cropped bitmap or null if the speculation was cancelled or failed
+     */
+    public synchronized BitmapUtils.BitmapSampled take() throws InterruptedException {
+        if (mCancelled || mTaken) {
+            return null;
+        }
+        while (!mDone) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // the waiting crop is cancelled so no one will take the result
+                mCancelled = true;
+                throw e;
+            }
+        }
+        mTaken = true;
+        BitmapUtils.BitmapSampled result = mResult;
+        mResult = null;
+        return result;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (mCancelled) {
+                mDone = true;
+                notifyAll();
+                return;
+            }
+        }
+
+        BitmapUtils.BitmapSampled result = null;
+        try {
+            result = BitmapUtils.cropBitmap(mContext, mUri, mCropPoints, mDegreesRotated, mOrgWidth, mOrgHeight,
+                    mFixAspectRatio, mAspectRatioX, mAspectRatioY, mReqWidth, mReqHeight);
+        } catch (Exception ignored) {
+            // the requested crop will decode again and report the error
+        }
+
+        synchronized (this) {
+            if (mCancelled && result != null) {
+                result.bitmap.recycle();
+                result = null;
+            }
+            mResult = result;
+            mDone = true;
+            notifyAll();
+        }
+    }
+}
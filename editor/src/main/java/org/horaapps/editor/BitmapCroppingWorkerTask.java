@@ -54,7 +54,7 @@ final class BitmapCroppingWorkerTask extends AsyncTask<Void, Void, BitmapCroppin
     /**
      * Degrees the image was rotated after loading
      */
-    private final int mDegreesRotated;
+    private final float mDegreesRotated;
 
     /**
      * the original width of the image to be cropped (for image loaded from URI)
@@ -110,12 +110,39 @@ final class BitmapCroppingWorkerTask extends AsyncTask<Void, Void, BitmapCroppin
      * the quality (if applicable) to use when writing the image (0 - 100)
      */
     private final int mSaveCompressQuality;
+
+    /**
+     * how to choose the quality used to write the image
+     */
+    private final CropImageView.OutputCompressMode mSaveCompressMode;
+
+    /**
+     * the max size in bytes of the written image (for target size compress mode)
+     */
+    private final int mSaveCompressTargetSize;
+
+    /**
+     * the min SSIM of the written image to the cropped image (for target SSIM compress mode)
+     */
+    private final float mSaveCompressTargetSsim;
+
+    /**
+     * the per-pixel pass to apply on the cropped bitmap after resize
+     */
+    private final CropOutputPass mOutputPass;
+
+    /**
+     * optional speculative decode of the same crop to use instead of decoding again (for image loaded from URI)
+     */
+    private final BitmapCroppingSpeculation mSpeculation;
     //endregion
 
     public BitmapCroppingWorkerTask(CropImageView cropImageView, Bitmap bitmap, float[] cropPoints,
-                                    int degreesRotated, boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
+                                    float degreesRotated, boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
                                     int reqWidth, int reqHeight, CropImageView.RequestSizeOptions options,
-                                    Uri saveUri, Bitmap.CompressFormat saveCompressFormat, int saveCompressQuality) {
+                                    Uri saveUri, Bitmap.CompressFormat saveCompressFormat, int saveCompressQuality,
+                                    CropImageView.OutputCompressMode saveCompressMode, int saveCompressTargetSize, float saveCompressTargetSsim,
+                                    CropOutputPass outputPass) {
 
         mCropImageViewReference = new WeakReference<>(cropImageView);
         mContext = cropImageView.getContext();
@@ -132,15 +159,22 @@ final class BitmapCroppingWorkerTask extends AsyncTask<Void, Void, BitmapCroppin
         mSaveUri = saveUri;
         mSaveCompressFormat = saveCompressFormat;
         mSaveCompressQuality = saveCompressQuality;
+        mSaveCompressMode = saveCompressMode;
+        mSaveCompressTargetSize = saveCompressTargetSize;
+        mSaveCompressTargetSsim = saveCompressTargetSsim;
+        mOutputPass = outputPass;
+        mSpeculation = null;
         mOrgWidth = 0;
         mOrgHeight = 0;
     }
 
     public BitmapCroppingWorkerTask(CropImageView cropImageView, Uri uri, float[] cropPoints,
-                                    int degreesRotated, int orgWidth, int orgHeight,
+                                    float degreesRotated, int orgWidth, int orgHeight,
                                     boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
                                     int reqWidth, int reqHeight, CropImageView.RequestSizeOptions options,
-                                    Uri saveUri, Bitmap.CompressFormat saveCompressFormat, int saveCompressQuality) {
+                                    Uri saveUri, Bitmap.CompressFormat saveCompressFormat, int saveCompressQuality,
+                                    CropImageView.OutputCompressMode saveCompressMode, int saveCompressTargetSize, float saveCompressTargetSsim,
+                                    CropOutputPass outputPass, BitmapCroppingSpeculation speculation) {
 
         mCropImageViewReference = new WeakReference<>(cropImageView);
         mContext = cropImageView.getContext();
@@ -158,6 +192,11 @@ final class BitmapCroppingWorkerTask extends AsyncTask<Void, Void, BitmapCroppin
         mSaveUri = saveUri;
         mSaveCompressFormat = saveCompressFormat;
         mSaveCompressQuality = saveCompressQuality;
+        mSaveCompressMode = saveCompressMode;
+        mSaveCompressTargetSize = saveCompressTargetSize;
+        mSaveCompressTargetSsim = saveCompressTargetSsim;
+        mOutputPass = outputPass;
+        mSpeculation = speculation;
         mBitmap = null;
     }
 
@@ -181,28 +220,45 @@ final class BitmapCroppingWorkerTask extends AsyncTask<Void, Void, BitmapCroppin
 
                 Bitmap bitmap = null;
                 int sampleSize = 1;
-                if (mUri != null) {
-                    BitmapUtils.BitmapSampled bitmapSampled =
-                            BitmapUtils.cropBitmap(mContext, mUri, mCropPoints, mDegreesRotated, mOrgWidth, mOrgHeight,
+                CropImageMetrics.beginSection("AIC#cropBitmap");
+                try {
+                    if (mUri != null) {
+                        BitmapUtils.BitmapSampled bitmapSampled = mSpeculation != null ? mSpeculation.take() : null;
+                        if (bitmapSampled == null) {
+                            bitmapSampled = BitmapUtils.cropBitmap(mContext, mUri, mCropPoints, mDegreesRotated, mOrgWidth, mOrgHeight,
                                     mFixAspectRatio, mAspectRatioX, mAspectRatioY, mReqWidth, mReqHeight);
-                    bitmap = bitmapSampled.bitmap;
-                    sampleSize = bitmapSampled.sampleSize;
-                } else if (mBitmap != null) {
-                    bitmap = BitmapUtils.cropBitmap(mBitmap, mCropPoints, mDegreesRotated, mFixAspectRatio, mAspectRatioX, mAspectRatioY);
-                }
+                        }
+                        bitmap = bitmapSampled.bitmap;
+                        sampleSize = bitmapSampled.sampleSize;
+                    } else if (mBitmap != null) {
+                        bitmap = BitmapUtils.cropBitmap(mBitmap, mCropPoints, mDegreesRotated, mFixAspectRatio, mAspectRatioX, mAspectRatioY);
+                    }
+
+                    bitmap = BitmapUtils.resizeBitmap(bitmap, mReqWidth, mReqHeight, mReqSizeOptions);
 
-                bitmap = BitmapUtils.resizeBitmap(bitmap, mReqWidth, mReqHeight, mReqSizeOptions);
+                    bitmap = mOutputPass.apply(bitmap);
+                } finally {
+                    CropImageMetrics.endSection();
+                }
 
                 if (mSaveUri == null) {
                     return new Result(bitmap, sampleSize);
                 } else {
-                    BitmapUtils.writeBitmapToUri(mContext, bitmap, mSaveUri, mSaveCompressFormat, mSaveCompressQuality);
+                    CropImageMetrics.beginSection("AIC#writeBitmap");
+                    try {
+                        BitmapUtils.writeBitmapToUri(mContext, bitmap, mSaveUri, mSaveCompressFormat, mSaveCompressQuality,
+                                mSaveCompressMode, mSaveCompressTargetSize, mSaveCompressTargetSsim);
+                    } finally {
+                        CropImageMetrics.endSection();
+                    }
                     if (bitmap != null) {
                         bitmap.recycle();
                     }
                     return new Result(mSaveUri, sampleSize);
                 }
             }
+            // cancelled before the crop started, release the speculative crop result no one will take
+            cancelSpeculation();
             return null;
         } catch (Exception e) {
             return new Result(e, mSaveUri != null);
@@ -232,6 +288,26 @@ final class BitmapCroppingWorkerTask extends AsyncTask<Void, Void, BitmapCroppin
         }
     }
 
+    /**
+     * Cancelled while or after cropping, release the speculative crop result if not taken yet.
+     */
+    @Override
+    protected void onCancelled() {
+        cancelSpeculation();
+    }
+
+    //region: Private methods
+
+    /**
+     * Cancel the speculative crop this task would take its result from, if any.
+     */
+    private void cancelSpeculation() {
+        if (mSpeculation != null) {
+            mSpeculation.cancel();
+        }
+    }
+    //endregion
+
     //region: Inner class: Result
 
     /**
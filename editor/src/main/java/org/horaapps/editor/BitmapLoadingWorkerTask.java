@@ -14,9 +14,12 @@ package org.horaapps.editor;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.Pair;
 
 import java.lang.ref.WeakReference;
 
@@ -51,6 +54,12 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
      * required height of the cropping image after density adjustment
      */
     private final int mHeight;
+
+    /**
+     * The aspect ratio of the content-aware initial crop window to find, 0 for the image aspect ratio, negative if
+     * not requested
+     */
+    private final float mContentAwareAspectRatio;
     //endregion
 
     public BitmapLoadingWorkerTask(CropImageView cropImageView, Uri uri) {
@@ -63,6 +72,13 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
         double densityAdj = metrics.density > 1 ? 1 / metrics.density : 1;
         mWidth = (int) (metrics.widthPixels * densityAdj);
         mHeight = (int) (metrics.heightPixels * densityAdj);
+
+        if (cropImageView.isContentAwareInitialCropWindow()) {
+            Pair<Integer, Integer> aspectRatio = cropImageView.getAspectRatio();
+            mContentAwareAspectRatio = cropImageView.isFixAspectRatio() ? aspectRatio.first / (float) aspectRatio.second : 0;
+        } else {
+            mContentAwareAspectRatio = -1;
+        }
     }
 
     /**
@@ -83,15 +99,25 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
         try {
             if (!isCancelled()) {
 
-                BitmapUtils.BitmapSampled decodeResult =
-                        BitmapUtils.decodeSampledBitmap(mContext, mUri, mWidth, mHeight);
+                CropImageMetrics.beginSection("AIC#decodeBitmap");
+                BitmapUtils.BitmapSampled decodeResult;
+                try {
+                    decodeResult = BitmapUtils.decodeSampledBitmap(mContext, mUri, mWidth, mHeight);
+                } finally {
+                    CropImageMetrics.endSection();
+                }
 
                 if (!isCancelled()) {
 
                     BitmapUtils.RotateBitmapResult rotateResult =
                             BitmapUtils.rotateBitmapByExif(decodeResult.bitmap, mContext, mUri);
 
-                    return new Result(mUri, rotateResult.bitmap, decodeResult.sampleSize, rotateResult.degrees);
+                    RectF contentAwareCropWindow = null;
+                    if (mContentAwareAspectRatio >= 0 && !isCancelled()) {
+                        contentAwareCropWindow = findContentAwareCropWindow(rotateResult.bitmap, rotateResult.degrees);
+                    }
+
+                    return new Result(mUri, rotateResult.bitmap, decodeResult.sampleSize, rotateResult.degrees, contentAwareCropWindow);
                 }
             }
             return null;
@@ -123,6 +149,33 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
         }
     }
 
+    //region: Private methods
+
+    /**
+     * Find the initial crop window on the most salient region of the loaded bitmap.
+     *
+     * @return the window in fractions of the shown (rotated) image size, null if failed
+     */
+    private RectF findContentAwareCropWindow(Bitmap bitmap, int degreesRotated) {
+        CropImageMetrics.beginSection("AIC#contentAwareCropWindow");
+        try {
+            CropSaliency saliency = BitmapUtils.computeSaliency(bitmap, degreesRotated);
+            float aspectRatio = mContentAwareAspectRatio > 0
+                    ? mContentAwareAspectRatio
+                    : saliency.getWidth() / (float) saliency.getHeight();
+            float[] window = new float[4];
+            saliency.findBestWindow(aspectRatio, window);
+            return new RectF(window[CropWindowGeometry.LEFT], window[CropWindowGeometry.TOP],
+                    window[CropWindowGeometry.RIGHT], window[CropWindowGeometry.BOTTOM]);
+        } catch (OutOfMemoryError e) {
+            Log.w("AIC", "Failed to find content-aware initial crop window", e);
+            return null;
+        } finally {
+            CropImageMetrics.endSection();
+        }
+    }
+    //endregion
+
     //region: Inner class: Result
 
     /**
@@ -150,16 +203,22 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
          */
         public final int degreesRotated;
 
+        /**
+         * The content-aware initial crop window in fractions of the shown image size, null if not requested
+         */
+        public final RectF contentAwareCropWindow;
+
         /**
          * The error that occurred during async bitmap loading.
          */
         public final Exception error;
 
-        Result(Uri uri, Bitmap bitmap, int loadSampleSize, int degreesRotated) {
+        Result(Uri uri, Bitmap bitmap, int loadSampleSize, int degreesRotated, RectF contentAwareCropWindow) {
             this.uri = uri;
             this.bitmap = bitmap;
             this.loadSampleSize = loadSampleSize;
             this.degreesRotated = degreesRotated;
+            this.contentAwareCropWindow = contentAwareCropWindow;
             this.error = null;
         }
 
@@ -168,6 +227,7 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
             this.bitmap = null;
             this.loadSampleSize = 0;
             this.degreesRotated = 0;
+            this.contentAwareCropWindow = null;
             this.error = error;
         }
     }
@@ -0,0 +1,297 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Base of the tasks that compute a result from a down-scaled copy of the cropping image (or a region of it) in the
+ * background and deliver it to the view on the UI thread.<br>
+ * The bitmap is read in strips of {@link #STRIP_ROWS} rows that are box-averaged into a pixels snapshot, the lock
+ * that keeps the bitmap from being recycled is held for a single strip read at a time, so {@link #cancel()} never
+ * waits for more than that. The result is computed from the snapshot without the lock. Must be cancelled before
+ * the bitmap is recycled.
+ *
+ * @param <T> the type of the computed result
+ */
+abstract class BitmapSnapshotTask<T> implements Runnable {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of bitmap rows read at a time under the lock
+     */
+    private static final int STRIP_ROWS = 16;
+
+    /**
+     * Use a WeakReference to ensure the ImageView can be garbage collected
+     */
+    private final WeakReference<CropImageView> mCropImageViewReference;
+
+    /**
+     * The bitmap to snapshot, not read after the task is cancelled
+     */
+    private final Bitmap mBitmap;
+
+    /**
+     * The region of the bitmap to snapshot, null for the whole bitmap
+     */
+    private final Rect mRegion;
+
+    /**
+     * The max size of the snapshot larger dimension
+     */
+    private final int mMaxSize;
+
+    /**
+     * Used to deliver the result on the UI thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * if the task was cancelled, the bitmap must not be read anymore and the result is not delivered
+     */
+    private boolean mCancelled;
+    //endregion
+
+    /**
+     * @param bitmap the cropping image bitmap
+     * @param maxSize the max size of the snapshot larger dimension, the bitmap is not scaled up
+     */
+    protected BitmapSnapshotTask(CropImageView cropImageView, Bitmap bitmap, int maxSize) {
+        this(cropImageView, bitmap, null, maxSize);
+    }
+
+    /**
+     * @param bitmap the cropping image bitmap
+     * @param region the region of the bitmap to snapshot, must be inside the bitmap, null for the whole bitmap
+     * @param maxSize the max size of the snapshot larger dimension, the region is not scaled up
+     */
+    protected BitmapSnapshotTask(CropImageView cropImageView, Bitmap bitmap, Rect region, int maxSize) {
+        mCropImageViewReference = new WeakReference<>(cropImageView);
+        mBitmap = bitmap;
+        mRegion = region;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Start the task on the background executor.
+     */
+    public void start() {
+        BitmapWorkerPool.executeBackground(this);
+    }
+
+    /**
+     * Cancel the task, waits if a strip of the bitmap is being read so it can be recycled after. Called on the UI
+     * thread.
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+    }
+
+    @Override
+    public void run() {
+        final T result;
+        try {
+            int[] size = new int[2];
+            int[] pixels = readSnapshot(size);
+            if (pixels == null) {
+                return;
+            }
+            result = compute(pixels, size[0], size[1]);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            Log.w("AIC", "Failed to compute " + getClass().getSimpleName() + " result", e);
+            return;
+        }
+        if (result == null) {
+            return;
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CropImageView cropImageView = mCropImageViewReference.get();
+                if (isCancelled() || cropImageView == null) {
+                    discard(result);
+                } else {
+                    deliver(cropImageView, result);
+                }
+            }
+        });
+    }
+
+    //region: Protected methods
+
+    /**
+     * Compute the result from the snapshot of the bitmap, called on the background thread without the lock.
+     *
+     * @param pixels the snapshot ARGB pixels, owned by the task
+     * @return the result, null to deliver nothing
+     */
+    protected abstract T compute(int[] pixels, int width, int height);
+
+    /**
+     * Deliver the result to the view, called on the UI thread if the task was not cancelled.
+     */
+    protected abstract void deliver(CropImageView cropImageView, T result);
+
+    /**
+     * Release the result that is not delivered because the task was cancelled, called on the UI thread.
+     */
+    protected void discard(T result) {
+    }
+
+    /**
+     * if the task was cancelled.
+     */
+    protected synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * The handler of the UI thread the result is delivered on.
+     */
+    protected Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * The region of the bitmap the snapshot is of, null for the whole bitmap.
+     */
+    protected Rect getRegion() {
+        return mRegion;
+    }
+
+    /**
+     * The view the task is of, null if it was garbage collected.
+     */
+    protected CropImageView getCropImageView() {
+        return mCropImageViewReference.get();
+    }
+    //endregion
+
+    //region: Private methods
+
+    /**
+     * Read the bitmap region a strip at a time and box-average it to the snapshot size.
+     *
+     * @param outSize set to the snapshot width and height
+     * @return the snapshot pixels, null if the task was cancelled
+     */
+    private int[] readSnapshot(int[] outSize) {
+        int left = 0;
+        int top = 0;
+        int bitmapWidth;
+        int bitmapHeight;
+        synchronized (this) {
+            if (mCancelled) {
+                return null;
+            }
+            bitmapWidth = mBitmap.getWidth();
+            bitmapHeight = mBitmap.getHeight();
+        }
+        if (mRegion != null) {
+            left = mRegion.left;
+            top = mRegion.top;
+            bitmapWidth = mRegion.width();
+            bitmapHeight = mRegion.height();
+        }
+        float scale = Math.min(1, mMaxSize / (float) Math.max(bitmapWidth, bitmapHeight));
+        int width = Math.max(1, (int) (bitmapWidth * scale));
+        int height = Math.max(1, (int) (bitmapHeight * scale));
+        outSize[0] = width;
+        outSize[1] = height;
+
+        int[] pixels = new int[width * height];
+        if (width == bitmapWidth && height == bitmapHeight) {
+            // not scaled, read the strips directly to the snapshot
+            for (int startY = 0; startY < bitmapHeight; startY += STRIP_ROWS) {
+                synchronized (this) {
+                    if (mCancelled) {
+                        return null;
+                    }
+                    mBitmap.getPixels(pixels, startY * width, width, left, top + startY, width, Math.min(STRIP_ROWS, bitmapHeight - startY));
+                }
+            }
+            return pixels;
+        }
+
+        // the snapshot column of each bitmap column
+        int[] columns = new int[bitmapWidth];
+        for (int x = 0; x < bitmapWidth; x++) {
+            columns[x] = (int) ((long) x * width / bitmapWidth);
+        }
+
+        int[] strip = new int[bitmapWidth * Math.min(STRIP_ROWS, bitmapHeight)];
+        int[] sums = new int[width * 4];
+        int[] counts = new int[width];
+        int row = 0;
+        for (int startY = 0; startY < bitmapHeight; startY += STRIP_ROWS) {
+            int rows = Math.min(STRIP_ROWS, bitmapHeight - startY);
+            synchronized (this) {
+                if (mCancelled) {
+                    return null;
+                }
+                mBitmap.getPixels(strip, 0, bitmapWidth, left, top + startY, bitmapWidth, rows);
+            }
+            for (int i = 0; i < rows; i++) {
+                int y = (int) ((long) (startY + i) * height / bitmapHeight);
+                if (y != row) {
+                    flushRow(sums, counts, pixels, row * width, width);
+                    row = y;
+                }
+                for (int x = 0, offset = i * bitmapWidth; x < bitmapWidth; x++) {
+                    int pixel = strip[offset + x];
+                    int column = columns[x];
+                    int sum = column * 4;
+                    sums[sum] += pixel >>> 24;
+                    sums[sum + 1] += (pixel >> 16) & 0xff;
+                    sums[sum + 2] += (pixel >> 8) & 0xff;
+                    sums[sum + 3] += pixel & 0xff;
+                    counts[column]++;
+                }
+            }
+        }
+        flushRow(sums, counts, pixels, row * width, width);
+        return pixels;
+    }
+
+    /**
+     * Write the rounded averages of the accumulated row of snapshot pixels and reset the sums.
+     */
+    private static void flushRow(int[] sums, int[] counts, int[] pixels, int offset, int width) {
+        for (int x = 0; x < width; x++) {
+            int count = counts[x];
+            if (count > 0) {
+                int half = count / 2;
+                int sum = x * 4;
+                pixels[offset + x] = ((sums[sum] + half) / count) << 24
+                        | ((sums[sum + 1] + half) / count) << 16
+                        | ((sums[sum + 2] + half) / count) << 8
+                        | (sums[sum + 3] + half) / count;
+            }
+            sums[x * 4] = 0;
+            sums[x * 4 + 1] = 0;
+            sums[x * 4 + 2] = 0;
+            sums[x * 4 + 3] = 0;
+            counts[x] = 0;
+        }
+    }
+    //endregion
+}
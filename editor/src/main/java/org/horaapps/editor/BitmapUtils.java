@@ -23,9 +23,9 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.MediaStore;
 import android.util.Log;
-import android.util.Pair;
 
 import java.io.Closeable;
 import java.io.File;
@@ -33,12 +33,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.ref.WeakReference;
-
-import javax.microedition.khronos.egl.EGL10;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLContext;
-import javax.microedition.khronos.egl.EGLDisplay;
 
 /**
  * Utility class that deals with operations with an ImageView.
@@ -64,16 +58,6 @@ final class BitmapUtils {
      */
     static final float[] POINTS2 = new float[6];
 
-    /**
-     * Used to know the max texture size allowed to be rendered
-     */
-    static int mMaxTextureSize;
-
-    /**
-     * used to save bitmaps during state save and restore so not to reload them.
-     */
-    static Pair<String, WeakReference<Bitmap>> mStateBitmap;
-
     /**
      * Rotate the given image by reading the Exif value of the image (uri).<br>
      * If no rotation is required the image will not be rotated.<br>
@@ -130,7 +114,7 @@ final class BitmapUtils {
             // Calculate inSampleSize
             options.inSampleSize = Math.max(
                     calculateInSampleSizeByReqestedSize(options.outWidth, options.outHeight, reqWidth, reqHeight),
-                    calculateInSampleSizeByMaxTextureSize(options.outWidth, options.outHeight));
+                    calculateInSampleSizeByMemory(options.outWidth, options.outHeight));
 
             // Decode bitmap with inSampleSize set
             Bitmap bitmap = decodeImage(resolver, uri, options);
@@ -147,7 +131,7 @@ final class BitmapUtils {
      * if the rotation is not 0,90,180 or 270 degrees then we must first crop a larger area of the image that
      * contains the requires rectangle, rotate and then crop again a sub rectangle.
      */
-    public static Bitmap cropBitmap(Bitmap bitmap, float[] points, int degreesRotated,
+    public static Bitmap cropBitmap(Bitmap bitmap, float[] points, float degreesRotated,
                                     boolean fixAspectRatio, int aspectRatioX, int aspectRatioY) {
 
         // get the rectangle in original image that contains the required cropped area (larger for non rectangular crop)
@@ -160,7 +144,7 @@ final class BitmapUtils {
 
         if (result == bitmap) {
             // corner case when all bitmap is selected, no worth optimizing for it
-            result = bitmap.copy(bitmap.getConfig(), false);
+            result = bitmap.copy(bitmap.getConfig(), true);
         }
 
         // rotating by 0, 90, 180 or 270 degrees doesn't require extra cropping
@@ -178,7 +162,7 @@ final class BitmapUtils {
      * Additionally if OOM is thrown try to increase the sampling (2,4,8).
      */
     public static BitmapSampled cropBitmap(Context context, Uri loadedImageUri, float[] points,
-                                           int degreesRotated, int orgWidth, int orgHeight, boolean fixAspectRatio,
+                                           float degreesRotated, int orgWidth, int orgHeight, boolean fixAspectRatio,
                                            int aspectRatioX, int aspectRatioY, int reqWidth, int reqHeight) {
         int sampleMulti = 1;
         while (true) {
@@ -299,6 +283,37 @@ final class BitmapUtils {
         }
     }
 
+    /**
+     * Write the given bitmap to the given uri using the given compression and compression mode.<br>
+     * For target compression modes the given quality is the max quality that will be used, the bitmap is encoded
+     * in memory until the best quality for the target is found and only the winning encoding is written.<br>
+     * PNG compression ignores quality so target compression modes don't apply to it.
+     */
+    public static void writeBitmapToUri(Context context, Bitmap bitmap, Uri uri, Bitmap.CompressFormat compressFormat, int compressQuality,
+                                        CropImageView.OutputCompressMode compressMode, int targetSize, float targetSsim) throws FileNotFoundException {
+        if (compressMode == null || compressMode == CropImageView.OutputCompressMode.QUALITY || compressFormat == Bitmap.CompressFormat.PNG) {
+            writeBitmapToUri(context, bitmap, uri, compressFormat, compressQuality);
+            return;
+        }
+
+        BitmapCompressSearch.EncodedBuffer buffer;
+        try {
+            buffer = BitmapCompressSearch.search(bitmap, compressFormat, compressQuality, compressMode, targetSize, targetSsim);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to search compress quality: " + uri + "\r\n" + e.getMessage(), e);
+        }
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = context.getContentResolver().openOutputStream(uri);
+            buffer.writeTo(outputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write compressed image: " + uri + "\r\n" + e.getMessage(), e);
+        } finally {
+            closeSafe(outputStream);
+        }
+    }
+
     /**
      * Resize the given bitmap to the given width/height by the given option.<br>
      */
@@ -332,6 +347,55 @@ final class BitmapUtils {
         return bitmap;
     }
 
+    /**
+     * Compute the saliency of the given bitmap from a down-scaled copy of it, in the orientation the bitmap is shown
+     * when rotated by the given degrees (0, 90, 180 or 270) so found windows are relative to the shown image.
+     */
+    public static CropSaliency computeSaliency(Bitmap bitmap, int degreesRotated) {
+        float scale = Math.min(1, CropSaliency.MAX_MAP_SIZE / (float) Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        int width = Math.max(1, (int) (bitmap.getWidth() * scale));
+        int height = Math.max(1, (int) (bitmap.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        int[] pixels = new int[width * height];
+        scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+
+        boolean swapAxes = degreesRotated == 90 || degreesRotated == 270;
+        int[] luma = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = pixels[y * width + x];
+                // clockwise rotation of the pixel position to the shown orientation
+                int i;
+                switch (degreesRotated) {
+                    case 90:
+                        i = x * height + height - 1 - y;
+                        break;
+                    case 180:
+                        i = (height - 1 - y) * width + width - 1 - x;
+                        break;
+                    case 270:
+                        i = (width - 1 - x) * height + y;
+                        break;
+                    default:
+                        i = y * width + x;
+                        break;
+                }
+                luma[i] = luma(color);
+            }
+        }
+        return swapAxes ? CropSaliency.compute(luma, height, width) : CropSaliency.compute(luma, width, height);
+    }
+
+    /**
+     * Get the luma of the given ARGB color by the Rec. 601 weights in 8 bit fixed point, 0-255.
+     */
+    static int luma(int color) {
+        return (((color >> 16) & 0xff) * 77 + ((color >> 8) & 0xff) * 150 + (color & 0xff) * 29) >> 8;
+    }
+
     //region: Private methods
 
     /**
@@ -342,7 +406,7 @@ final class BitmapUtils {
      * @param sampleMulti used to increase the sampling of the image to handle memory issues.
      */
     private static BitmapSampled cropBitmap(Context context, Uri loadedImageUri, float[] points,
-                                            int degreesRotated, int orgWidth, int orgHeight, boolean fixAspectRatio,
+                                            float degreesRotated, int orgWidth, int orgHeight, boolean fixAspectRatio,
                                             int aspectRatioX, int aspectRatioY, int reqWidth, int reqHeight, int sampleMulti) {
 
         // get the rectangle in original image that contains the required cropped area (larger for non rectangular crop)
@@ -389,7 +453,7 @@ final class BitmapUtils {
      * Crop bitmap by fully loading the original and then cropping it, fallback in case cropping region failed.
      */
     private static BitmapSampled cropBitmap(Context context, Uri loadedImageUri, float[] points,
-                                            int degreesRotated, boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
+                                            float degreesRotated, boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
                                             int sampleMulti, Rect rect, int width, int height) {
         Bitmap result = null;
         int sampleSize;
@@ -472,6 +536,10 @@ final class BitmapUtils {
         try {
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inSampleSize = sampleMulti * calculateInSampleSizeByReqestedSize(rect.width(), rect.height(), reqWidth, reqHeight);
+            if (Build.VERSION.SDK_INT >= 11) {
+                // so the output pass can be applied in place
+                options.inMutable = true;
+            }
 
             stream = context.getContentResolver().openInputStream(uri);
             decoder = BitmapRegionDecoder.newInstance(stream, false);
@@ -499,7 +567,7 @@ final class BitmapUtils {
      * rectangle.<br>
      * Note: rotating by 0, 90, 180 or 270 degrees doesn't require extra cropping.
      */
-    private static Bitmap cropForRotatedImage(Bitmap bitmap, float[] points, Rect rect, int degreesRotated,
+    private static Bitmap cropForRotatedImage(Bitmap bitmap, float[] points, Rect rect, float degreesRotated,
                                               boolean fixAspectRatio, int aspectRatioX, int aspectRatioY) {
         if (degreesRotated % 90 != 0) {
 
@@ -545,18 +613,15 @@ final class BitmapUtils {
     }
 
     /**
-     * Calculate the largest inSampleSize value that is a power of 2 and keeps both
-     * height and width smaller than max texture size allowed for the device.
+     * Calculate the smallest inSampleSize value that is a power of 2 and keeps the decoded bitmap within the
+     * memory allowed for the cropping image, 1/8 of the app max heap.<br>
+     * The texture size doesn't limit the bitmap as it is drawn in tiles.
      */
-    private static int calculateInSampleSizeByMaxTextureSize(int width, int height) {
+    private static int calculateInSampleSizeByMemory(int width, int height) {
+        long maxBytes = Runtime.getRuntime().maxMemory() / 8;
         int inSampleSize = 1;
-        if (mMaxTextureSize == 0) {
-            mMaxTextureSize = getMaxTextureSize();
-        }
-        if (mMaxTextureSize > 0) {
-            while ((height / inSampleSize) > mMaxTextureSize || (width / inSampleSize) > mMaxTextureSize) {
-                inSampleSize *= 2;
-            }
+        while ((long) (width / inSampleSize) * (height / inSampleSize) * 4 > maxBytes) {
+            inSampleSize *= 2;
         }
         return inSampleSize;
     }
@@ -596,7 +661,7 @@ final class BitmapUtils {
      * Rotate the given bitmap by the given degrees.<br>
      * New bitmap is created and the old one is recycled.
      */
-    private static Bitmap rotateBitmapInt(Bitmap bitmap, int degrees) {
+    private static Bitmap rotateBitmapInt(Bitmap bitmap, float degrees) {
         if (degrees > 0) {
             Matrix matrix = new Matrix();
             matrix.setRotate(degrees);
@@ -610,55 +675,6 @@ final class BitmapUtils {
         }
     }
 
-    /**
-     * Get the max size of bitmap allowed to be rendered on the device.<br>
-     * http://stackoverflow.com/questions/7428996/hw-accelerated-activity-how-to-get-opengl-texture-size-limit.
-     */
-    private static int getMaxTextureSize() {
-        // Safe minimum default size
-        final int IMAGE_MAX_BITMAP_DIMENSION = 2048;
-
-        try {
-            // Get EGL Display
-            EGL10 egl = (EGL10) EGLContext.getEGL();
-            EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
-
-            // Initialise
-            int[] version = new int[2];
-            egl.eglInitialize(display, version);
-
-            // Query total number of configurations
-            int[] totalConfigurations = new int[1];
-            egl.eglGetConfigs(display, null, 0, totalConfigurations);
-
-            // Query actual list configurations
-            EGLConfig[] configurationsList = new EGLConfig[totalConfigurations[0]];
-            egl.eglGetConfigs(display, configurationsList, totalConfigurations[0], totalConfigurations);
-
-            int[] textureSize = new int[1];
-            int maximumTextureSize = 0;
-
-            // Iterate through all the configurations to located the maximum texture size
-            for (int i = 0; i < totalConfigurations[0]; i++) {
-                // Only need to check for width since opengl textures are always squared
-                egl.eglGetConfigAttrib(display, configurationsList[i], EGL10.EGL_MAX_PBUFFER_WIDTH, textureSize);
-
-                // Keep track of the maximum texture size
-                if (maximumTextureSize < textureSize[0]) {
-                    maximumTextureSize = textureSize[0];
-                }
-            }
-
-            // Release
-            egl.eglTerminate(display);
-
-            // Return largest texture size found, or default
-            return Math.max(maximumTextureSize, IMAGE_MAX_BITMAP_DIMENSION);
-        } catch (Exception e) {
-            return IMAGE_MAX_BITMAP_DIMENSION;
-        }
-    }
-
     /**
      * Close the given closeable object (Stream) in a safe way: check if it is null and catch-log
      * exception thrown.
@@ -0,0 +1,156 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of background threads used to split heavy pixel work of a single async task across the
+ * available cores.<br>
+ * Must not be used from inside a task that is itself running in the pool.
+ */
+final class BitmapWorkerPool {
+
+    //region: Fields and Consts
+
+    /**
+     * The max number of threads to use, more threads don't help on mobile as they fight over memory bandwidth
+     */
+    private static final int MAX_PARALLELISM = 4;
+
+    /**
+     * The lazy created executor used to run the parallel work
+     */
+    private static ExecutorService mExecutor;
+
+    /**
+     * The lazy created executor used to run speculative work one at a time, out of the parallel pool
+     */
+    private static ExecutorService mBackgroundExecutor;
+    //endregion
+
+    private BitmapWorkerPool() {
+    }
+
+    /**
+     * The number of parts work should be split to so all the pool threads (and the calling thread) are used.
+     */
+    public static int getParallelism() {
+        return Math.max(1, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Execute all the given tasks in parallel and wait for all of them to complete.<br>
+     * The first task is executed on the calling thread so single task work doesn't pay for thread hand-off.
+     *
+     * @return the results of the tasks in the same order as the given tasks
+     * @throws Exception the first error thrown by any of the tasks
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.size() == 1) {
+            results.add(tasks.get(0).call());
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        ExecutorService executor = getExecutor();
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(executor.submit(tasks.get(i)));
+        }
+
+        Exception error = null;
+        try {
+            results.add(tasks.get(0).call());
+        } catch (Exception e) {
+            error = e;
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return results;
+    }
+
+    /**
+     * Execute the given work on a single background thread that is separate from the parallel pool, so
+     * speculative work doesn't delay the parallel work of a requested task.<br>
+     * Work is executed in the order it was given.
+     */
+    public static void executeBackground(Runnable work) {
+        getBackgroundExecutor().execute(work);
+    }
+
+    //region: Private methods
+
+    /**
+     * Get the shared executor, create it on first use.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(getParallelism(), createThreadFactory("CropWorker #"));
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Get the single thread executor for background work, create it on first use.
+     */
+    private static synchronized ExecutorService getBackgroundExecutor() {
+        if (mBackgroundExecutor == null) {
+            mBackgroundExecutor = Executors.newSingleThreadExecutor(createThreadFactory("CropBackground #"));
+        }
+        return mBackgroundExecutor;
+    }
+
+    /**
+     * Create factory of daemon threads with background priority named by the given prefix.
+     */
+    private static ThreadFactory createThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, namePrefix + mCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    //endregion
+}
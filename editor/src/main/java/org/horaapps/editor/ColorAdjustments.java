@@ -0,0 +1,251 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.ColorMatrix;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Non-destructive color adjustments of the cropping image, the values of the adjustment sliders.<br>
+ * The adjustments are applied as a stack in fixed order: exposure, temperature, brightness, contrast and
+ * saturation, composed into a single {@link ColorMatrix}. The shown image is drawn through the matrix, the pixels
+ * are changed only in the output of the crop.<br>
+ * All values are 0 for no adjustment.
+ */
+public final class ColorAdjustments implements Parcelable {
+
+    public static final Creator<ColorAdjustments> CREATOR = new Creator<ColorAdjustments>() {
+        @Override
+        public ColorAdjustments createFromParcel(Parcel in) {
+            return new ColorAdjustments(in);
+        }
+
+        @Override
+        public ColorAdjustments[] newArray(int size) {
+            return new ColorAdjustments[size];
+        }
+    };
+
+    //region: Fields and Consts
+
+    /**
+     * The max exposure change in stops
+     */
+    private static final float MAX_EXPOSURE = 2;
+
+    /**
+     * The max change of the red and blue channels scale by temperature
+     */
+    private static final float MAX_TEMPERATURE_SCALE = 0.2f;
+
+    /**
+     * The max brightness offset of the channels (0-255)
+     */
+    private static final float MAX_BRIGHTNESS_OFFSET = 128;
+
+    /**
+     * exposure change, -1 to 1 for -2 to 2 stops
+     */
+    private float mExposure;
+
+    /**
+     * white balance change, -1 (cool) to 1 (warm)
+     */
+    private float mTemperature;
+
+    /**
+     * brightness change, -1 to 1
+     */
+    private float mBrightness;
+
+    /**
+     * contrast change, -1 (flat gray) to 1 (double contrast)
+     */
+    private float mContrast;
+
+    /**
+     * saturation change, -1 (grayscale) to 1 (double saturation)
+     */
+    private float mSaturation;
+    //endregion
+
+    public ColorAdjustments() {
+    }
+
+    /**
+     * Create a copy of the given adjustments.
+     */
+    public ColorAdjustments(ColorAdjustments other) {
+        mExposure = other.mExposure;
+        mTemperature = other.mTemperature;
+        mBrightness = other.mBrightness;
+        mContrast = other.mContrast;
+        mSaturation = other.mSaturation;
+    }
+
+    protected ColorAdjustments(Parcel in) {
+        mExposure = in.readFloat();
+        mTemperature = in.readFloat();
+        mBrightness = in.readFloat();
+        mContrast = in.readFloat();
+        mSaturation = in.readFloat();
+    }
+
+    /**
+     * exposure change, -1 to 1 for -2 to 2 stops
+     */
+    public float getExposure() {
+        return mExposure;
+    }
+
+    /**
+     * exposure change, -1 to 1 for -2 to 2 stops
+     */
+    public ColorAdjustments setExposure(float exposure) {
+        mExposure = clamp(exposure);
+        return this;
+    }
+
+    /**
+     * white balance change, -1 (cool) to 1 (warm)
+     */
+    public float getTemperature() {
+        return mTemperature;
+    }
+
+    /**
+     * white balance change, -1 (cool) to 1 (warm)
+     */
+    public ColorAdjustments setTemperature(float temperature) {
+        mTemperature = clamp(temperature);
+        return this;
+    }
+
+    /**
+     * brightness change, -1 to 1
+     */
+    public float getBrightness() {
+        return mBrightness;
+    }
+
+    /**
+     * brightness change, -1 to 1
+     */
+    public ColorAdjustments setBrightness(float brightness) {
+        mBrightness = clamp(brightness);
+        return this;
+    }
+
+    /**
+     * contrast change, -1 (flat gray) to 1 (double contrast)
+     */
+    public float getContrast() {
+        return mContrast;
+    }
+
+    /**
+     * contrast change, -1 (flat gray) to 1 (double contrast)
+     */
+    public ColorAdjustments setContrast(float contrast) {
+        mContrast = clamp(contrast);
+        return this;
+    }
+
+    /**
+     * saturation change, -1 (grayscale) to 1 (double saturation)
+     */
+    public float getSaturation() {
+        return mSaturation;
+    }
+
+    /**
+     * saturation change, -1 (grayscale) to 1 (double saturation)
+     */
+    public ColorAdjustments setSaturation(float saturation) {
+        mSaturation = clamp(saturation);
+        return this;
+    }
+
+    /**
+     * Is there no adjustment, the image is not changed.
+     */
+    public boolean isIdentity() {
+        return mExposure == 0 && mTemperature == 0 && mBrightness == 0 && mContrast == 0 && mSaturation == 0;
+    }
+
+    /**
+     * Compose the adjustments stack into the given color matrix.
+     *
+     * @param matrix the matrix to set, its values are replaced
+     * @return the given matrix
+     */
+    public ColorMatrix getColorMatrix(ColorMatrix matrix) {
+        matrix.reset();
+        ColorMatrix step = new ColorMatrix();
+
+        if (mExposure != 0) {
+            float scale = (float) Math.pow(2, mExposure * MAX_EXPOSURE);
+            step.setScale(scale, scale, scale, 1);
+            matrix.postConcat(step);
+        }
+
+        if (mTemperature != 0) {
+            float change = mTemperature * MAX_TEMPERATURE_SCALE;
+            step.setScale(1 + change, 1, 1 - change, 1);
+            matrix.postConcat(step);
+        }
+
+        if (mBrightness != 0 || mContrast != 0) {
+            // contrast around the middle gray, then brightness offset
+            float scale = 1 + mContrast;
+            float offset = 128 * (1 - scale) + mBrightness * MAX_BRIGHTNESS_OFFSET;
+            step.set(new float[]{
+                    scale, 0, 0, 0, offset,
+                    0, scale, 0, 0, offset,
+                    0, 0, scale, 0, offset,
+                    0, 0, 0, 1, 0});
+            matrix.postConcat(step);
+        }
+
+        if (mSaturation != 0) {
+            step.setSaturation(1 + mSaturation);
+            matrix.postConcat(step);
+        }
+        return matrix;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeFloat(mExposure);
+        dest.writeFloat(mTemperature);
+        dest.writeFloat(mBrightness);
+        dest.writeFloat(mContrast);
+        dest.writeFloat(mSaturation);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    //region: Private methods
+
+    /**
+     * Clamp the given adjustment value to -1 to 1.
+     */
+    private static float clamp(float value) {
+        return Math.max(-1, Math.min(1, value));
+    }
+    //endregion
+}
@@ -0,0 +1,320 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * 3D color lookup table for color grading, as loaded from Adobe/Resolve .cube file.<br>
+ * The table is packed as a single int per entry, 10 bits per channel, red changing fastest as in the file. Pixels
+ * are mapped by tetrahedral interpolation between the 4 table entries of the tetrahedron around the color, in
+ * fixed point integer math so rows of pixels are graded without float conversion.<br>
+ * Immutable, safe to apply from multiple threads.
+ */
+public final class ColorLut {
+
+    //region: Fields and Consts
+
+    /**
+     * The max size of the table cube, 256 covers every 8 bit color
+     */
+    private static final int MAX_SIZE = 256;
+
+    /**
+     * The table channel value of 1.0, 4 x 255 so the interpolated value shifts right to 8 bit
+     */
+    private static final int CHANNEL_ONE = 1020;
+
+    /**
+     * The fixed point precision (bits) of the interpolation fractions
+     */
+    private static final int FRACTION_SHIFT = 8;
+
+    /**
+     * The title of the LUT, null if the file has none
+     */
+    private final String mTitle;
+
+    /**
+     * The number of entries on each side of the table cube
+     */
+    private final int mSize;
+
+    /**
+     * The table entries, red << 20 | green << 10 | blue, index (blue * size + green) * size + red
+     */
+    private final int[] mTable;
+
+    /**
+     * The index of the lower table entry for each 8 bit channel value
+     */
+    private final int[] mLower = new int[256];
+
+    /**
+     * The fraction of the way to the next table entry for each 8 bit channel value, 0 to 256
+     */
+    private final int[] mFraction = new int[256];
+    //endregion
+
+    private ColorLut(String title, int size, int[] table) {
+        mTitle = title;
+        mSize = size;
+        mTable = table;
+        for (int c = 0; c < 256; c++) {
+            int position = (c * (size - 1) << FRACTION_SHIFT) / 255;
+            int lower = Math.min(position >> FRACTION_SHIFT, size - 2);
+            mLower[c] = lower;
+            mFraction[c] = position - (lower << FRACTION_SHIFT);
+        }
+    }
+
+    /**
+     * Parse 3D LUT in .cube format from the given stream, the stream is read line by line and not closed.<br>
+     * The table values are mapped from the DOMAIN_MIN-DOMAIN_MAX range to 0-1 and clamped.
+     *
+     * @param in the stream of the .cube file content
+     * @return the parsed LUT
+     * @throws IOException failed to read the stream, or the content is not a valid 3D LUT
+     */
+    public static ColorLut parseCube(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+        String title = null;
+        int size = 0;
+        int[] table = null;
+        int count = 0;
+        float[] domainMin = {0, 0, 0};
+        float[] domainMax = {1, 1, 1};
+        float[] values = new float[3];
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+
+            char first = line.charAt(0);
+            if ((first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.') {
+                if (table == null) {
+                    throw new IOException("LUT_3D_SIZE missing before table data, line " + lineNumber);
+                }
+                if (count >= table.length || parseValues(line, values, 0) != 3) {
+                    throw new IOException("Invalid table data, line " + lineNumber);
+                }
+                int packed = 0;
+                for (int i = 0; i < 3; i++) {
+                    float value = (values[i] - domainMin[i]) / (domainMax[i] - domainMin[i]);
+                    packed = packed << 10 | Math.round(Math.max(0, Math.min(1, value)) * CHANNEL_ONE);
+                }
+                table[count++] = packed;
+            } else if (line.startsWith("TITLE")) {
+                int start = line.indexOf('"');
+                int end = line.lastIndexOf('"');
+                title = start >= 0 && end > start ? line.substring(start + 1, end) : line.substring(5).trim();
+            } else if (line.startsWith("LUT_3D_SIZE")) {
+                size = (int) parseKeywordValue(line, "LUT_3D_SIZE".length(), lineNumber);
+                if (size < 2 || size > MAX_SIZE || table != null) {
+                    throw new IOException("Invalid LUT_3D_SIZE, line " + lineNumber);
+                }
+                table = new int[size * size * size];
+            } else if (line.startsWith("LUT_1D_SIZE")) {
+                throw new IOException("1D LUT is not supported");
+            } else if (line.startsWith("DOMAIN_MIN")) {
+                parseDomain(line, "DOMAIN_MIN".length(), domainMin, lineNumber);
+            } else if (line.startsWith("DOMAIN_MAX")) {
+                parseDomain(line, "DOMAIN_MAX".length(), domainMax, lineNumber);
+            } else if (line.startsWith("LUT_3D_INPUT_RANGE")) {
+                float[] range = new float[2];
+                if (parseValues(line, range, "LUT_3D_INPUT_RANGE".length()) != 2) {
+                    throw new IOException("Invalid LUT_3D_INPUT_RANGE, line " + lineNumber);
+                }
+                domainMin[0] = domainMin[1] = domainMin[2] = range[0];
+                domainMax[0] = domainMax[1] = domainMax[2] = range[1];
+            }
+            // other keywords don't affect the 3D table
+        }
+
+        if (table == null || count != table.length) {
+            throw new IOException("Incomplete LUT table, " + count + " of " + (table != null ? table.length : 0) + " entries");
+        }
+        for (int i = 0; i < 3; i++) {
+            if (domainMax[i] <= domainMin[i]) {
+                throw new IOException("Invalid LUT domain");
+            }
+        }
+        return new ColorLut(title, size, table);
+    }
+
+    /**
+     * The title of the LUT, null if the file has none.
+     */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * The number of entries on each side of the table cube.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Grade the given (not premultiplied) ARGB pixels in place, alpha is kept.
+     *
+     * @param pixels the pixels to grade
+     * @param offset the index of the first pixel to grade
+     * @param count the number of pixels to grade
+     */
+    void apply(int[] pixels, int offset, int count) {
+        int[] table = mTable;
+        int[] lower = mLower;
+        int[] fraction = mFraction;
+        int strideGreen = mSize;
+        int strideBlue = mSize * mSize;
+        int one = 1 << FRACTION_SHIFT;
+        int round = 1 << (FRACTION_SHIFT + 1);
+
+        for (int i = offset, end = offset + count; i < end; i++) {
+            int pixel = pixels[i];
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+            int fr = fraction[r];
+            int fg = fraction[g];
+            int fb = fraction[b];
+            int base = (lower[b] * strideBlue) + (lower[g] * strideGreen) + lower[r];
+
+            // the tetrahedron of the cube is the path from the lower corner along the axes in fraction order
+            int f1;
+            int f2;
+            int f3;
+            int cornerA;
+            int cornerB;
+            if (fr > fg) {
+                if (fg > fb) {
+                    f1 = fr;
+                    f2 = fg;
+                    f3 = fb;
+                    cornerA = 1;
+                    cornerB = 1 + strideGreen;
+                } else if (fr > fb) {
+                    f1 = fr;
+                    f2 = fb;
+                    f3 = fg;
+                    cornerA = 1;
+                    cornerB = 1 + strideBlue;
+                } else {
+                    f1 = fb;
+                    f2 = fr;
+                    f3 = fg;
+                    cornerA = strideBlue;
+                    cornerB = 1 + strideBlue;
+                }
+            } else {
+                if (fb > fg) {
+                    f1 = fb;
+                    f2 = fg;
+                    f3 = fr;
+                    cornerA = strideBlue;
+                    cornerB = strideGreen + strideBlue;
+                } else if (fb > fr) {
+                    f1 = fg;
+                    f2 = fb;
+                    f3 = fr;
+                    cornerA = strideGreen;
+                    cornerB = strideGreen + strideBlue;
+                } else {
+                    f1 = fg;
+                    f2 = fr;
+                    f3 = fb;
+                    cornerA = strideGreen;
+                    cornerB = 1 + strideGreen;
+                }
+            }
+
+            int c0 = table[base];
+            int c1 = table[base + cornerA];
+            int c2 = table[base + cornerB];
+            int c3 = table[base + 1 + strideGreen + strideBlue];
+            int w0 = one - f1;
+            int w1 = f1 - f2;
+            int w2 = f2 - f3;
+
+            // channel 0-1020 by weights summing to 256, shift by 10 to 0-255
+            int nr = (w0 * (c0 >>> 20) + w1 * (c1 >>> 20) + w2 * (c2 >>> 20) + f3 * (c3 >>> 20) + round) >> (FRACTION_SHIFT + 2);
+            int ng = (w0 * ((c0 >> 10) & 0x3ff) + w1 * ((c1 >> 10) & 0x3ff) + w2 * ((c2 >> 10) & 0x3ff) + f3 * ((c3 >> 10) & 0x3ff) + round) >> (FRACTION_SHIFT + 2);
+            int nb = (w0 * (c0 & 0x3ff) + w1 * (c1 & 0x3ff) + w2 * (c2 & 0x3ff) + f3 * (c3 & 0x3ff) + round) >> (FRACTION_SHIFT + 2);
+            pixels[i] = (pixel & 0xff000000) | (Math.min(255, nr) << 16) | (Math.min(255, ng) << 8) | Math.min(255, nb);
+        }
+    }
+
+    //region: Private methods
+
+    /**
+     * Parse the single number value of the keyword line.
+     */
+    private static float parseKeywordValue(String line, int start, int lineNumber) throws IOException {
+        float[] value = new float[1];
+        if (parseValues(line, value, start) != 1) {
+            throw new IOException("Invalid keyword value, line " + lineNumber);
+        }
+        return value[0];
+    }
+
+    /**
+     * Parse the 3 channel values of a DOMAIN_MIN/DOMAIN_MAX keyword line.
+     */
+    private static void parseDomain(String line, int start, float[] domain, int lineNumber) throws IOException {
+        if (parseValues(line, domain, start) != 3) {
+            throw new IOException("Invalid domain, line " + lineNumber);
+        }
+    }
+
+    /**
+     * Parse whitespace separated numbers of the given line from the given index into the given array.
+     *
+     * @return the number of values parsed, more than the array length if the line has too many values
+     */
+    private static int parseValues(String line, float[] values, int start) throws IOException {
+        int count = 0;
+        int length = line.length();
+        int i = start;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int tokenStart = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i > tokenStart) {
+                if (count >= values.length) {
+                    return count + 1;
+                }
+                try {
+                    values[count++] = Float.parseFloat(line.substring(tokenStart, i));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid number: " + line.substring(tokenStart, i));
+                }
+            }
+        }
+        return count;
+    }
+    //endregion
+}
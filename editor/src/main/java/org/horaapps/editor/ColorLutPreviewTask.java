@@ -0,0 +1,62 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+
+/**
+ * Task to grade a down-scaled proxy of the cropping image by {@link ColorLut} in the background, for live preview
+ * of the LUT.<br>
+ * The proxy is made from a snapshot of the image (see {@link BitmapSnapshotTask}), the grading runs on the proxy in
+ * parallel row bands.
+ */
+final class ColorLutPreviewTask extends BitmapSnapshotTask<Bitmap> {
+
+    //region: Fields and Consts
+
+    /**
+     * The LUT to grade the proxy by
+     */
+    private final ColorLut mColorLut;
+    //endregion
+
+    /**
+     * @param proxySize the max size of the proxy larger dimension
+     */
+    public ColorLutPreviewTask(CropImageView cropImageView, Bitmap bitmap, ColorLut colorLut, int proxySize) {
+        super(cropImageView, bitmap, proxySize);
+        mColorLut = colorLut;
+    }
+
+    @Override
+    protected Bitmap compute(int[] pixels, int width, int height) {
+        Bitmap proxy = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        proxy.setPixels(pixels, 0, width, 0, 0, width, height);
+        CropImageMetrics.beginSection("AIC#gradeLutPreview");
+        try {
+            return new CropOutputPass(false, null, mColorLut, null).apply(proxy);
+        } finally {
+            CropImageMetrics.endSection();
+        }
+    }
+
+    @Override
+    protected void deliver(CropImageView cropImageView, Bitmap proxy) {
+        cropImageView.onColorLutPreview(this, proxy);
+    }
+
+    @Override
+    protected void discard(Bitmap proxy) {
+        proxy.recycle();
+    }
+}
@@ -0,0 +1,245 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Convolution filter applied on the cropped image after resize, see
+ * {@link CropImageView#setOutputFilter(ConvolutionFilter)}.<br>
+ * Gaussian blur and unsharp mask are applied as separable horizontal and vertical passes, custom 3x3/5x5 kernels
+ * as a single 2D pass. The image edges are extended by their edge pixels, the alpha channel is not filtered.
+ */
+public final class ConvolutionFilter implements Parcelable {
+
+    public static final Creator<ConvolutionFilter> CREATOR = new Creator<ConvolutionFilter>() {
+        @Override
+        public ConvolutionFilter createFromParcel(Parcel in) {
+            return new ConvolutionFilter(in);
+        }
+
+        @Override
+        public ConvolutionFilter[] newArray(int size) {
+            return new ConvolutionFilter[size];
+        }
+    };
+
+    //region: Fields and Consts
+
+    /**
+     * The max Gaussian sigma, larger blur is better done on a down-scaled image
+     */
+    public static final float MAX_SIGMA = 8;
+
+    /**
+     * The max sum of the absolute custom kernel weights, keeps the fixed point sums in int range
+     */
+    private static final float MAX_KERNEL_WEIGHT = 256;
+
+    /**
+     * The type of the filter
+     */
+    private final Type mType;
+
+    /**
+     * The Gaussian standard deviation in pixels, for blur and unsharp mask
+     */
+    private final float mSigma;
+
+    /**
+     * The unsharp mask amount of the difference from the blur added to the pixel
+     */
+    private final float mAmount;
+
+    /**
+     * The unsharp mask min difference from the blur (0-255) for a pixel channel to be sharpened
+     */
+    private final int mThreshold;
+
+    /**
+     * The custom kernel weights row by row, null for Gaussian filters
+     */
+    private final float[] mKernel;
+    //endregion
+
+    private ConvolutionFilter(Type type, float sigma, float amount, int threshold, float[] kernel) {
+        mType = type;
+        mSigma = sigma;
+        mAmount = amount;
+        mThreshold = threshold;
+        mKernel = kernel;
+    }
+
+    protected ConvolutionFilter(Parcel in) {
+        mType = Type.values()[in.readInt()];
+        mSigma = in.readFloat();
+        mAmount = in.readFloat();
+        mThreshold = in.readInt();
+        mKernel = in.createFloatArray();
+    }
+
+    /**
+     * Gaussian blur of the given standard deviation.
+     *
+     * @param sigma the standard deviation in pixels, 0.5 to {@link #MAX_SIGMA}
+     */
+    public static ConvolutionFilter gaussianBlur(float sigma) {
+        validateSigma(sigma);
+        return new ConvolutionFilter(Type.GAUSSIAN_BLUR, sigma, 0, 0, null);
+    }
+
+    /**
+     * Unsharp mask sharpening, adds the difference of each pixel from its Gaussian blur.<br>
+     * Typical values after downscale: sigma 0.5-1, amount 0.5-1.5, threshold 0-4.
+     *
+     * @param sigma the standard deviation in pixels of the blur, 0.5 to {@link #MAX_SIGMA}
+     * @param amount the amount of the difference added, 0 to 5
+     * @param threshold the min difference (0-255) for a pixel channel to be sharpened, so noise is not sharpened
+     */
+    public static ConvolutionFilter unsharpMask(float sigma, float amount, int threshold) {
+        validateSigma(sigma);
+        if (amount < 0 || amount > 5) {
+            throw new IllegalArgumentException("Cannot set unsharp amount to a number < 0 or > 5.");
+        }
+        if (threshold < 0 || threshold > 255) {
+            throw new IllegalArgumentException("Cannot set unsharp threshold to a number < 0 or > 255.");
+        }
+        return new ConvolutionFilter(Type.UNSHARP_MASK, sigma, amount, threshold, null);
+    }
+
+    /**
+     * Custom 3x3 kernel, the weights are applied as given so they should sum to 1 to keep the brightness.
+     *
+     * @param weights the 9 weights row by row
+     */
+    public static ConvolutionFilter kernel3x3(float... weights) {
+        return kernel(3, weights);
+    }
+
+    /**
+     * Custom 5x5 kernel, the weights are applied as given so they should sum to 1 to keep the brightness.
+     *
+     * @param weights the 25 weights row by row
+     */
+    public static ConvolutionFilter kernel5x5(float... weights) {
+        return kernel(5, weights);
+    }
+
+    /**
+     * The type of the filter.
+     */
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * The Gaussian standard deviation in pixels, 0 for custom kernel.
+     */
+    public float getSigma() {
+        return mSigma;
+    }
+
+    /**
+     * The unsharp mask amount, 0 for other filters.
+     */
+    public float getAmount() {
+        return mAmount;
+    }
+
+    /**
+     * The unsharp mask threshold, 0 for other filters.
+     */
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    /**
+     * The custom kernel weights row by row, a copy, null for Gaussian filters.
+     */
+    public float[] getKernel() {
+        return mKernel != null ? mKernel.clone() : null;
+    }
+
+    /**
+     * The number of pixels on each side of a pixel the filter reads.
+     */
+    int getRadius() {
+        if (mKernel != null) {
+            return (int) Math.sqrt(mKernel.length) / 2;
+        }
+        return Math.max(1, (int) Math.ceil(3 * mSigma));
+    }
+
+    /**
+     * The custom kernel weights, not copied, null for Gaussian filters.
+     */
+    float[] getKernelWeights() {
+        return mKernel;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mType.ordinal());
+        dest.writeFloat(mSigma);
+        dest.writeFloat(mAmount);
+        dest.writeInt(mThreshold);
+        dest.writeFloatArray(mKernel);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    //region: Private methods
+
+    /**
+     * Create custom kernel filter of the given size after validating the weights.
+     */
+    private static ConvolutionFilter kernel(int size, float[] weights) {
+        if (weights == null || weights.length != size * size) {
+            throw new IllegalArgumentException("Kernel " + size + "x" + size + " must have " + size * size + " weights.");
+        }
+        float sum = 0;
+        for (float weight : weights) {
+            sum += Math.abs(weight);
+        }
+        if (sum > MAX_KERNEL_WEIGHT) {
+            throw new IllegalArgumentException("Kernel absolute weights sum must not exceed " + MAX_KERNEL_WEIGHT + ".");
+        }
+        return new ConvolutionFilter(Type.KERNEL, 0, 0, 0, weights.clone());
+    }
+
+    /**
+     * Validate the Gaussian standard deviation is in the supported range.
+     */
+    private static void validateSigma(float sigma) {
+        if (sigma < 0.5f || sigma > MAX_SIGMA) {
+            throw new IllegalArgumentException("Cannot set sigma to a number < 0.5 or > " + MAX_SIGMA + ".");
+        }
+    }
+    //endregion
+
+    //region: Inner class: Type
+
+    /**
+     * The filter types.
+     */
+    public enum Type {
+        GAUSSIAN_BLUR,
+        UNSHARP_MASK,
+        KERNEL
+    }
+    //endregion
+}
@@ -0,0 +1,432 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+
+/**
+ * Applies {@link ConvolutionFilter} on a bitmap in place, split to row bands that are filtered in parallel.<br>
+ * Each band captures the rows around it (the halo) before any band writes, then filters its rows in strips of
+ * {@link #STRIP_ROWS} through a window of the strip and its halo rows. The window and the horizontal pass sums of
+ * the rows shared with the next strip are carried over, so each source row is read and horizontally filtered once,
+ * and the same scratch buffers are reused for all the strips of the band.<br>
+ * The math is fixed point integer, the rows are padded by their edge pixels so the inner loops don't clamp.
+ */
+final class ConvolutionStage {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of rows filtered at a time by a band
+     */
+    static final int STRIP_ROWS = 32;
+
+    /**
+     * The fixed point precision (bits) of the weights
+     */
+    private static final int WEIGHT_SHIFT = 14;
+
+    /**
+     * The bits the horizontal pass sums are shifted right by, keeps 8 fraction bits so the vertical pass fits in int
+     */
+    private static final int HORIZONTAL_SHIFT = 6;
+
+    /**
+     * The bits the vertical pass sums are shifted right by to the 0-255 channel value
+     */
+    private static final int VERTICAL_SHIFT = 2 * WEIGHT_SHIFT - HORIZONTAL_SHIFT;
+
+    /**
+     * The type of the filter
+     */
+    private final ConvolutionFilter.Type mType;
+
+    /**
+     * The number of pixels on each side of a pixel the filter reads
+     */
+    private final int mRadius;
+
+    /**
+     * The fixed point weights, the 1D Gaussian for separable filters or the 2D kernel row by row
+     */
+    private final int[] mWeights;
+
+    /**
+     * The unsharp mask amount, 8 bits fixed point
+     */
+    private final int mAmount;
+
+    /**
+     * The unsharp mask threshold, 8 bits fixed point
+     */
+    private final int mThreshold;
+    //endregion
+
+    /**
+     * @param filter the filter to apply
+     */
+    ConvolutionStage(ConvolutionFilter filter) {
+        mType = filter.getType();
+        mRadius = filter.getRadius();
+        mAmount = Math.round(filter.getAmount() * 256);
+        mThreshold = filter.getThreshold() << 8;
+        if (mType == ConvolutionFilter.Type.KERNEL) {
+            float[] kernel = filter.getKernelWeights();
+            mWeights = new int[kernel.length];
+            for (int i = 0; i < kernel.length; i++) {
+                mWeights[i] = Math.round(kernel[i] * (1 << WEIGHT_SHIFT));
+            }
+        } else {
+            mWeights = createGaussianWeights(filter.getSigma(), mRadius);
+        }
+    }
+
+    /**
+     * Create the band of the given rows of the bitmap, captures the band halo rows.<br>
+     * All the bands of the bitmap must be created before any of them writes to the bitmap.
+     */
+    Band createBand(final Bitmap bitmap, int startY, int endY) {
+        return new Band(new RowSource() {
+            @Override
+            public void readRow(int y, int[] buffer, int offset, int width) {
+                bitmap.getPixels(buffer, offset, width, 0, y, width, 1);
+            }
+        }, bitmap.getWidth(), bitmap.getHeight(), startY, endY);
+    }
+
+    /**
+     * Create the band of the given rows of the image read from the given source, captures the band halo rows.
+     */
+    Band createBand(RowSource source, int width, int height, int startY, int endY) {
+        return new Band(source, width, height, startY, endY);
+    }
+
+    //region: Private methods
+
+    /**
+     * Create the fixed point weights of the 1D Gaussian, the rounding error is added to the center so they sum
+     * exactly to 1.
+     */
+    private static int[] createGaussianWeights(float sigma, int radius) {
+        double[] gaussian = new double[2 * radius + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            gaussian[i + radius] = Math.exp(-i * i / (2.0 * sigma * sigma));
+            sum += gaussian[i + radius];
+        }
+        int[] weights = new int[gaussian.length];
+        int total = 0;
+        for (int i = 0; i < gaussian.length; i++) {
+            weights[i] = (int) Math.round(gaussian[i] / sum * (1 << WEIGHT_SHIFT));
+            total += weights[i];
+        }
+        weights[radius] += (1 << WEIGHT_SHIFT) - total;
+        return weights;
+    }
+    //endregion
+
+    //region: Inner class: Band
+
+    /**
+     * The rows of the bitmap filtered by a single thread with its scratch buffers.
+     */
+    final class Band {
+
+        private final RowSource mSource;
+
+        private final int mWidth;
+
+        private final int mStartY;
+
+        private final int mEndY;
+
+        /**
+         * The padded row length, the row and the radius edge pixels on each side
+         */
+        private final int mStride;
+
+        /**
+         * The padded rows above the band, captured before any band writes
+         */
+        private final int[] mTopHalo;
+
+        /**
+         * The padded rows below the band, captured before any band writes
+         */
+        private final int[] mBottomHalo;
+
+        /**
+         * The padded source rows of the current strip and its halo
+         */
+        private final int[] mWindow;
+
+        /**
+         * The horizontal pass sums of the window rows per channel, separable filters only
+         */
+        private final int[] mHorizontalRed;
+
+        private final int[] mHorizontalGreen;
+
+        private final int[] mHorizontalBlue;
+
+        /**
+         * The vertical pass sums of a row per channel, separable filters only
+         */
+        private final int[] mSumRed;
+
+        private final int[] mSumGreen;
+
+        private final int[] mSumBlue;
+
+        /**
+         * The number of rows of the previous strip, 0 before the first strip
+         */
+        private int mPreviousRows;
+
+        Band(RowSource source, int width, int height, int startY, int endY) {
+            mSource = source;
+            mWidth = width;
+            mStartY = startY;
+            mEndY = endY;
+            mStride = mWidth + 2 * mRadius;
+
+            mTopHalo = new int[mRadius * mStride];
+            mBottomHalo = new int[mRadius * mStride];
+            for (int i = 0; i < mRadius; i++) {
+                readRow(Math.max(0, startY - mRadius + i), mTopHalo, i * mStride);
+                readRow(Math.min(height - 1, endY + i), mBottomHalo, i * mStride);
+            }
+
+            int windowRows = STRIP_ROWS + 2 * mRadius;
+            mWindow = new int[windowRows * mStride];
+            if (mType != ConvolutionFilter.Type.KERNEL) {
+                mHorizontalRed = new int[windowRows * mWidth];
+                mHorizontalGreen = new int[windowRows * mWidth];
+                mHorizontalBlue = new int[windowRows * mWidth];
+                mSumRed = new int[mWidth];
+                mSumGreen = new int[mWidth];
+                mSumBlue = new int[mWidth];
+            } else {
+                mHorizontalRed = mHorizontalGreen = mHorizontalBlue = null;
+                mSumRed = mSumGreen = mSumBlue = null;
+            }
+        }
+
+        /**
+         * Filter the strip of rows starting at the given row into the given buffer.<br>
+         * Strips must be filtered in order from the band start, the rows of a strip may be written to the bitmap
+         * before the next strip is filtered.
+         *
+         * @param y the first row of the strip, the band start or the end of the previous strip
+         * @param out the buffer of {@link #STRIP_ROWS} rows to write the filtered pixels to
+         * @return the number of rows filtered, 0 if the band is done
+         */
+        int filterStrip(int y, int[] out) {
+            int rows = Math.min(STRIP_ROWS, mEndY - y);
+            if (rows <= 0) {
+                return 0;
+            }
+
+            // the 2 * radius rows around the strip start were loaded by the previous strip, before it wrote its rows
+            int loaded = 0;
+            if (mPreviousRows > 0) {
+                loaded = 2 * mRadius;
+                System.arraycopy(mWindow, mPreviousRows * mStride, mWindow, 0, loaded * mStride);
+                if (mHorizontalRed != null) {
+                    System.arraycopy(mHorizontalRed, mPreviousRows * mWidth, mHorizontalRed, 0, loaded * mWidth);
+                    System.arraycopy(mHorizontalGreen, mPreviousRows * mWidth, mHorizontalGreen, 0, loaded * mWidth);
+                    System.arraycopy(mHorizontalBlue, mPreviousRows * mWidth, mHorizontalBlue, 0, loaded * mWidth);
+                }
+            }
+            for (int i = loaded; i < rows + 2 * mRadius; i++) {
+                loadRow(y - mRadius + i, i);
+                if (mHorizontalRed != null) {
+                    filterHorizontal(i);
+                }
+            }
+            mPreviousRows = rows;
+
+            for (int j = 0; j < rows; j++) {
+                if (mHorizontalRed != null) {
+                    filterVertical(j, out, j * mWidth);
+                } else {
+                    filterKernel(j, out, j * mWidth);
+                }
+            }
+            return rows;
+        }
+
+        /**
+         * Load the padded source row into the given window row, from the halo if outside the band.
+         */
+        private void loadRow(int y, int windowRow) {
+            if (y < mStartY) {
+                System.arraycopy(mTopHalo, (y - mStartY + mRadius) * mStride, mWindow, windowRow * mStride, mStride);
+            } else if (y >= mEndY) {
+                System.arraycopy(mBottomHalo, (y - mEndY) * mStride, mWindow, windowRow * mStride, mStride);
+            } else {
+                readRow(y, mWindow, windowRow * mStride);
+            }
+        }
+
+        /**
+         * Read the given source row into the given buffer padded by the radius edge pixels on each side.
+         */
+        private void readRow(int y, int[] buffer, int offset) {
+            mSource.readRow(y, buffer, offset + mRadius, mWidth);
+            int first = buffer[offset + mRadius];
+            int last = buffer[offset + mRadius + mWidth - 1];
+            for (int i = 0; i < mRadius; i++) {
+                buffer[offset + i] = first;
+                buffer[offset + mRadius + mWidth + i] = last;
+            }
+        }
+
+        /**
+         * The horizontal pass of the separable filter on the given window row.
+         */
+        private void filterHorizontal(int windowRow) {
+            int[] window = mWindow;
+            int[] weights = mWeights;
+            int taps = weights.length;
+            int round = 1 << (HORIZONTAL_SHIFT - 1);
+            int rowOffset = windowRow * mStride;
+            int outOffset = windowRow * mWidth;
+            for (int x = 0; x < mWidth; x++) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                int offset = rowOffset + x;
+                for (int k = 0; k < taps; k++) {
+                    int pixel = window[offset + k];
+                    int weight = weights[k];
+                    red += weight * ((pixel >> 16) & 0xff);
+                    green += weight * ((pixel >> 8) & 0xff);
+                    blue += weight * (pixel & 0xff);
+                }
+                mHorizontalRed[outOffset + x] = (red + round) >> HORIZONTAL_SHIFT;
+                mHorizontalGreen[outOffset + x] = (green + round) >> HORIZONTAL_SHIFT;
+                mHorizontalBlue[outOffset + x] = (blue + round) >> HORIZONTAL_SHIFT;
+            }
+        }
+
+        /**
+         * The vertical pass of the separable filter for the given strip row, unsharp mask is applied on the blur.
+         */
+        private void filterVertical(int stripRow, int[] out, int outOffset) {
+            int[] sumRed = mSumRed;
+            int[] sumGreen = mSumGreen;
+            int[] sumBlue = mSumBlue;
+            int width = mWidth;
+            for (int x = 0; x < width; x++) {
+                sumRed[x] = 0;
+                sumGreen[x] = 0;
+                sumBlue[x] = 0;
+            }
+            for (int k = 0; k < mWeights.length; k++) {
+                int weight = mWeights[k];
+                int offset = (stripRow + k) * width;
+                for (int x = 0; x < width; x++) {
+                    sumRed[x] += weight * mHorizontalRed[offset + x];
+                    sumGreen[x] += weight * mHorizontalGreen[offset + x];
+                    sumBlue[x] += weight * mHorizontalBlue[offset + x];
+                }
+            }
+
+            int centerOffset = (stripRow + mRadius) * mStride + mRadius;
+            if (mType == ConvolutionFilter.Type.UNSHARP_MASK) {
+                // the blur with 8 fraction bits so small differences are not lost to rounding
+                int shift = VERTICAL_SHIFT - 8;
+                int round = 1 << (shift - 1);
+                for (int x = 0; x < width; x++) {
+                    int pixel = mWindow[centerOffset + x];
+                    out[outOffset + x] = (pixel & 0xff000000)
+                            | sharpen((pixel >> 16) & 0xff, (sumRed[x] + round) >> shift) << 16
+                            | sharpen((pixel >> 8) & 0xff, (sumGreen[x] + round) >> shift) << 8
+                            | sharpen(pixel & 0xff, (sumBlue[x] + round) >> shift);
+                }
+            } else {
+                int round = 1 << (VERTICAL_SHIFT - 1);
+                for (int x = 0; x < width; x++) {
+                    out[outOffset + x] = (mWindow[centerOffset + x] & 0xff000000)
+                            | Math.min(255, (sumRed[x] + round) >> VERTICAL_SHIFT) << 16
+                            | Math.min(255, (sumGreen[x] + round) >> VERTICAL_SHIFT) << 8
+                            | Math.min(255, (sumBlue[x] + round) >> VERTICAL_SHIFT);
+                }
+            }
+        }
+
+        /**
+         * Add the amount of the difference of the channel value from its blur, if above the threshold.
+         *
+         * @param value the channel value 0-255
+         * @param blur the channel blur, 8 bits fixed point
+         */
+        private int sharpen(int value, int blur) {
+            int difference = (value << 8) - blur;
+            if (Math.abs(difference) < mThreshold) {
+                return value;
+            }
+            int sharpened = value + ((mAmount * difference + (1 << 15)) >> 16);
+            return sharpened < 0 ? 0 : sharpened > 255 ? 255 : sharpened;
+        }
+
+        /**
+         * The single 2D pass of custom kernel for the given strip row.
+         */
+        private void filterKernel(int stripRow, int[] out, int outOffset) {
+            int[] window = mWindow;
+            int[] weights = mWeights;
+            int size = 2 * mRadius + 1;
+            int round = 1 << (WEIGHT_SHIFT - 1);
+            int centerOffset = (stripRow + mRadius) * mStride + mRadius;
+            for (int x = 0; x < mWidth; x++) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                for (int ky = 0; ky < size; ky++) {
+                    int offset = (stripRow + ky) * mStride + x;
+                    for (int kx = 0; kx < size; kx++) {
+                        int pixel = window[offset + kx];
+                        int weight = weights[ky * size + kx];
+                        red += weight * ((pixel >> 16) & 0xff);
+                        green += weight * ((pixel >> 8) & 0xff);
+                        blue += weight * (pixel & 0xff);
+                    }
+                }
+                red = (red + round) >> WEIGHT_SHIFT;
+                green = (green + round) >> WEIGHT_SHIFT;
+                blue = (blue + round) >> WEIGHT_SHIFT;
+                out[outOffset + x] = (window[centerOffset + x] & 0xff000000)
+                        | (red < 0 ? 0 : red > 255 ? 255 : red) << 16
+                        | (green < 0 ? 0 : green > 255 ? 255 : green) << 8
+                        | (blue < 0 ? 0 : blue > 255 ? 255 : blue);
+            }
+        }
+    }
+    //endregion
+
+    //region: Inner class: RowSource
+
+    /**
+     * The source of the image rows a band reads, the bitmap or a pixels array.
+     */
+    interface RowSource {
+
+        /**
+         * Read the given row of the image into the given buffer.
+         */
+        void readRow(int y, int[] buffer, int offset, int width);
+    }
+    //endregion
+}
@@ -0,0 +1,204 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+
+/**
+ * Undo/redo history of the crop edits, each entry is the small set of parameters the edit state is replayed from,
+ * no pixels are kept.<br>
+ * The entry values are indexed by the state constants, the crop window is kept by its center and size in the
+ * original image pixels so it replays exactly for any rotation and loaded sample size.<br>
+ * Parcelable so the history survives in the instance state.
+ */
+final class CropEditHistory implements Parcelable {
+
+    public static final Creator<CropEditHistory> CREATOR = new Creator<CropEditHistory>() {
+        @Override
+        public CropEditHistory createFromParcel(Parcel in) {
+            return new CropEditHistory(in);
+        }
+
+        @Override
+        public CropEditHistory[] newArray(int size) {
+            return new CropEditHistory[size];
+        }
+    };
+
+    //region: Fields and Consts
+
+    static final int DEGREES_ROTATED = 0;
+
+    static final int ZOOM = 1;
+
+    static final int ZOOM_OFFSET_X = 2;
+
+    static final int ZOOM_OFFSET_Y = 3;
+
+    static final int CROP_CENTER_X = 4;
+
+    static final int CROP_CENTER_Y = 5;
+
+    static final int CROP_WIDTH = 6;
+
+    static final int CROP_HEIGHT = 7;
+
+    static final int ASPECT_RATIO_X = 8;
+
+    static final int ASPECT_RATIO_Y = 9;
+
+    static final int FIXED_ASPECT_RATIO = 10;
+
+    /**
+     * The number of values of an entry
+     */
+    static final int STATE_SIZE = 11;
+
+    /**
+     * The max number of entries, the oldest is dropped when full
+     */
+    private static final int MAX_ENTRIES = 50;
+
+    /**
+     * The max difference between values of entries considered the same state, less than a pixel
+     */
+    private static final float EPSILON = 0.01f;
+
+    /**
+     * The entries, oldest first
+     */
+    private final ArrayList<float[]> mEntries;
+
+    /**
+     * The index of the entry of the current state, -1 if empty
+     */
+    private int mIndex;
+    //endregion
+
+    CropEditHistory() {
+        mEntries = new ArrayList<>();
+        mIndex = -1;
+    }
+
+    private CropEditHistory(Parcel in) {
+        int count = in.readInt();
+        mEntries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] state = new float[STATE_SIZE];
+            in.readFloatArray(state);
+            mEntries.add(state);
+        }
+        mIndex = in.readInt();
+    }
+
+    /**
+     * If there is no recorded state.
+     */
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * If there is a state before the current to undo to.
+     */
+    public boolean canUndo() {
+        return mIndex > 0;
+    }
+
+    /**
+     * If there is an undone state to redo to.
+     */
+    public boolean canRedo() {
+        return mIndex < mEntries.size() - 1;
+    }
+
+    /**
+     * Record the given state as the current, the undone states are dropped.<br>
+     * Nothing is recorded if the state is the same as the current.
+     *
+     * @param state the state values, owned by the history after the call
+     * @return true if recorded
+     */
+    public boolean record(float[] state) {
+        if (mIndex >= 0 && isSameState(mEntries.get(mIndex), state)) {
+            return false;
+        }
+        while (mEntries.size() > mIndex + 1) {
+            mEntries.remove(mEntries.size() - 1);
+        }
+        mEntries.add(state);
+        if (mEntries.size() > MAX_ENTRIES) {
+            mEntries.remove(0);
+        }
+        mIndex = mEntries.size() - 1;
+        return true;
+    }
+
+    /**
+     * Move to the state before the current.
+     *
+     * @return the state to replay, null if nothing to undo
+     */
+    public float[] undo() {
+        return canUndo() ? mEntries.get(--mIndex) : null;
+    }
+
+    /**
+     * Move to the undone state after the current.
+     *
+     * @return the state to replay, null if nothing to redo
+     */
+    public float[] redo() {
+        return canRedo() ? mEntries.get(++mIndex) : null;
+    }
+
+    /**
+     * Remove all the recorded states.
+     */
+    public void clear() {
+        mEntries.clear();
+        mIndex = -1;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mEntries.size());
+        for (float[] state : mEntries) {
+            dest.writeFloatArray(state);
+        }
+        dest.writeInt(mIndex);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    //region: Private methods
+
+    /**
+     * If the given states are the same up to {@link #EPSILON}.
+     */
+    private static boolean isSameState(float[] state1, float[] state2) {
+        for (int i = 0; i < STATE_SIZE; i++) {
+            if (Math.abs(state1[i] - state2[i]) > EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+    //endregion
+}
@@ -0,0 +1,98 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+/**
+ * Luminance and RGB histogram of the crop window region of the image, see
+ * {@link CropImageView#setOnCropHistogramListener(CropImageView.OnCropHistogramListener)}.<br>
+ * Counted on a down-scaled preview of the image, so the counts are of preview pixels, use them relative to
+ * {@link #getPixelCount()}.
+ */
+public final class CropHistogram {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of bins of each channel, one per 8 bit value
+     */
+    public static final int BINS = 256;
+
+    /**
+     * The bins of the red channel
+     */
+    private final int[] mRed;
+
+    /**
+     * The bins of the green channel
+     */
+    private final int[] mGreen;
+
+    /**
+     * The bins of the blue channel
+     */
+    private final int[] mBlue;
+
+    /**
+     * The bins of the luminance
+     */
+    private final int[] mLuminance;
+
+    /**
+     * The number of pixels counted
+     */
+    private final int mPixelCount;
+    //endregion
+
+    CropHistogram(int[] red, int[] green, int[] blue, int[] luminance, int pixelCount) {
+        mRed = red;
+        mGreen = green;
+        mBlue = blue;
+        mLuminance = luminance;
+        mPixelCount = pixelCount;
+    }
+
+    /**
+     * The bins of the red channel, the array is owned by the histogram and must not be changed.
+     */
+    public int[] getRed() {
+        return mRed;
+    }
+
+    /**
+     * The bins of the green channel, the array is owned by the histogram and must not be changed.
+     */
+    public int[] getGreen() {
+        return mGreen;
+    }
+
+    /**
+     * The bins of the blue channel, the array is owned by the histogram and must not be changed.
+     */
+    public int[] getBlue() {
+        return mBlue;
+    }
+
+    /**
+     * The bins of the luminance (Rec. 601 weights), the array is owned by the histogram and must not be changed.
+     */
+    public int[] getLuminance() {
+        return mLuminance;
+    }
+
+    /**
+     * The number of preview pixels counted, the sum of the bins of each channel.
+     */
+    public int getPixelCount() {
+        return mPixelCount;
+    }
+}
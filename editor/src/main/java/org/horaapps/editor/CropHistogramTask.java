@@ -0,0 +1,192 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+/**
+ * Task to keep the histogram of the crop window region up to date while the crop window changes.<br>
+ * The {@link HistogramTileIndex} of a down-scaled snapshot of the image (see {@link BitmapSnapshotTask}) is built
+ * once in the background when the task starts. Each histogram is computed in the background from the index and
+ * delivered on the UI thread; requests are throttled to one per {@link #THROTTLE_INTERVAL} and coalesced while a
+ * histogram is computed, so only the latest crop window is counted.<br>
+ * The state other than the index build is accessed on the UI thread only.
+ */
+final class CropHistogramTask extends BitmapSnapshotTask<HistogramTileIndex> {
+
+    //region: Fields and Consts
+
+    /**
+     * The max size of the down-scaled image the histograms are counted on
+     */
+    private static final int MAX_PREVIEW_SIZE = 512;
+
+    /**
+     * The min time between histograms while the crop window changes (milliseconds)
+     */
+    private static final long THROTTLE_INTERVAL = 100;
+
+    /**
+     * The width of the image the crop rect is relative to, the bitmap width by its load sample size
+     */
+    private final int mImageWidth;
+
+    /**
+     * The height of the image the crop rect is relative to, the bitmap height by its load sample size
+     */
+    private final int mImageHeight;
+
+    /**
+     * Start computing the histogram of the current crop window, on the UI thread when the throttle interval passed
+     */
+    private final Runnable mComputeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled = false;
+            computeHistogram();
+        }
+    };
+
+    /**
+     * The index to compute the histograms from, null until built
+     */
+    private HistogramTileIndex mIndex;
+
+    /**
+     * if the crop window changed since the last histogram computation started
+     */
+    private boolean mPending;
+
+    /**
+     * if the computation is scheduled by the throttle
+     */
+    private boolean mScheduled;
+
+    /**
+     * if a histogram is being computed in the background
+     */
+    private boolean mComputing;
+
+    /**
+     * The time the last histogram computation started ({@link SystemClock#uptimeMillis()})
+     */
+    private long mLastComputeTime;
+    //endregion
+
+    /**
+     * @param bitmap the cropping image bitmap
+     * @param loadedSampleSize the sample size the bitmap was loaded by, see {@link CropImageView#getCropRect()}
+     */
+    public CropHistogramTask(CropImageView cropImageView, Bitmap bitmap, int loadedSampleSize) {
+        super(cropImageView, bitmap, MAX_PREVIEW_SIZE);
+        mImageWidth = bitmap.getWidth() * loadedSampleSize;
+        mImageHeight = bitmap.getHeight() * loadedSampleSize;
+    }
+
+    /**
+     * Start building the index on the background executor, the first histogram is computed when it is built.
+     */
+    @Override
+    public void start() {
+        mPending = true;
+        super.start();
+    }
+
+    /**
+     * Request the histogram of the changed crop window, computed when the throttle interval passed and the previous
+     * histogram is delivered. Called on the UI thread.
+     */
+    public void request() {
+        mPending = true;
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        getHandler().removeCallbacks(mComputeRunnable);
+    }
+
+    @Override
+    protected HistogramTileIndex compute(int[] pixels, int width, int height) {
+        CropImageMetrics.beginSection("AIC#buildHistogramIndex");
+        try {
+            return HistogramTileIndex.build(pixels, width, height);
+        } finally {
+            CropImageMetrics.endSection();
+        }
+    }
+
+    @Override
+    protected void deliver(CropImageView cropImageView, HistogramTileIndex index) {
+        mIndex = index;
+        schedule();
+    }
+
+    //region: Private methods
+
+    /**
+     * Schedule the histogram computation if pending and can run, not before the throttle interval passed.
+     */
+    private void schedule() {
+        if (mPending && !mScheduled && !mComputing && mIndex != null) {
+            mScheduled = true;
+            long delay = mLastComputeTime + THROTTLE_INTERVAL - SystemClock.uptimeMillis();
+            getHandler().postDelayed(mComputeRunnable, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Compute the histogram of the current crop window in the background and deliver it on the UI thread.
+     */
+    private void computeHistogram() {
+        CropImageView cropImageView = getCropImageView();
+        Rect cropRect = cropImageView != null ? cropImageView.getCropRect() : null;
+        if (cropRect == null) {
+            return;
+        }
+
+        final HistogramTileIndex index = mIndex;
+        float scaleX = index.getWidth() / (float) mImageWidth;
+        float scaleY = index.getHeight() / (float) mImageHeight;
+        final int left = Math.round(cropRect.left * scaleX);
+        final int top = Math.round(cropRect.top * scaleY);
+        final int right = Math.max(left + 1, Math.round(cropRect.right * scaleX));
+        final int bottom = Math.max(top + 1, Math.round(cropRect.bottom * scaleY));
+
+        mPending = false;
+        mComputing = true;
+        mLastComputeTime = SystemClock.uptimeMillis();
+        BitmapWorkerPool.executeBackground(new Runnable() {
+            @Override
+            public void run() {
+                final CropHistogram histogram = index.compute(left, top, right, bottom);
+                getHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mComputing = false;
+                        CropImageView cropImageView = getCropImageView();
+                        if (isCancelled() || cropImageView == null) {
+                            return;
+                        }
+                        cropImageView.onCropHistogram(CropHistogramTask.this, histogram);
+                        schedule();
+                    }
+                });
+            }
+        });
+    }
+    //endregion
+}
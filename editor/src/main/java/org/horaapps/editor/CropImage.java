@@ -101,7 +101,9 @@ public final class CropImage {
 
     /**
      * Create a new bitmap that has all pixels beyond the oval shape transparent.
-     * Old bitmap is recycled.
+     * Old bitmap is recycled.<br>
+     * Prefer {@link CropImageView#setOutputOvalMask(boolean)} that applies the mask while cropping without
+     * allocating another bitmap.
      */
     public static Bitmap toOvalBitmap(@NonNull Bitmap bitmap) {
         int width = bitmap.getWidth();
@@ -127,6 +129,35 @@ public final class CropImage {
         return output;
     }
 
+    /**
+     * Find the crop rectangle of the given aspect ratio on the most salient region of the given bitmap, the same
+     * used for the content-aware initial crop window, without any view.<br>
+     * The bitmap is down-scaled to a small size, so it is fast enough for batch jobs; but should not be called on
+     * the UI thread.
+     *
+     * @param bitmap the bitmap to find the crop rectangle in, not modified
+     * @param aspectRatioX the width of the aspect ratio, 0 to use the bitmap aspect ratio
+     * @param aspectRatioY the height of the aspect ratio, 0 to use the bitmap aspect ratio
+     * @return the crop rectangle in the bitmap pixels
+     */
+    public static Rect getContentAwareCropRect(@NonNull Bitmap bitmap, int aspectRatioX, int aspectRatioY) {
+        CropSaliency saliency = BitmapUtils.computeSaliency(bitmap, 0);
+        float aspectRatio = aspectRatioX > 0 && aspectRatioY > 0
+                ? aspectRatioX / (float) aspectRatioY
+                : bitmap.getWidth() / (float) bitmap.getHeight();
+        float[] window = new float[4];
+        saliency.findBestWindow(aspectRatio, window);
+        Rect rect = new Rect(
+                Math.round(window[CropWindowGeometry.LEFT] * bitmap.getWidth()),
+                Math.round(window[CropWindowGeometry.TOP] * bitmap.getHeight()),
+                Math.round(window[CropWindowGeometry.RIGHT] * bitmap.getWidth()),
+                Math.round(window[CropWindowGeometry.BOTTOM] * bitmap.getHeight()));
+        if (aspectRatioX > 0 && aspectRatioY > 0) {
+            BitmapUtils.fixRectForAspectRatio(rect, aspectRatioX, aspectRatioY);
+        }
+        return rect;
+    }
+
     /**
      * Start an activity to get image for cropping using chooser intent that will have all the available
      * applications for the device like camera (MyCamera), galery (Photos), store apps (Dropbox), etc.<br>
@@ -471,6 +502,16 @@ public final class CropImage {
             return this;
         }
 
+        /**
+         * if crop window edges also snap to strong edges in the image, like document or product borders, when
+         * resized within the snap radius.<br>
+         * <i>Default: false</i>
+         */
+        public ActivityBuilder setSnapToImageEdges(boolean snapToImageEdges) {
+            mOptions.snapToImageEdges = snapToImageEdges;
+            return this;
+        }
+
         /**
          * The radius of the touchable area around the handle (in pixels).<br>
          * We are basing this value off of the recommended 48dp Rhythm.<br>
@@ -528,6 +569,24 @@ public final class CropImage {
             return this;
         }
 
+        /**
+         * if touch outside the crop window pans and pinch zooms the image under the crop window, with fling.<br>
+         * <i>Default: false</i>
+         */
+        public ActivityBuilder setImageGesturesEnabled(boolean imageGesturesEnabled) {
+            mOptions.imageGesturesEnabled = imageGesturesEnabled;
+            return this;
+        }
+
+        /**
+         * if two-finger rotate of image gesture rotates the image freely, requires image gestures.<br>
+         * <i>Default: false</i>
+         */
+        public ActivityBuilder setImageRotateGestureEnabled(boolean imageRotateGestureEnabled) {
+            mOptions.imageRotateGestureEnabled = imageRotateGestureEnabled;
+            return this;
+        }
+
         /**
          * The max zoom allowed during cropping.<br>
          * <i>Default: 4</i>
@@ -546,6 +605,16 @@ public final class CropImage {
             return this;
         }
 
+        /**
+         * if the initial crop window is placed on the most salient region of the image for the aspect ratio instead
+         * of centered, ignored if initial crop window rectangle is set.<br>
+         * <i>Default: false</i>
+         */
+        public ActivityBuilder setContentAwareInitialCropWindow(boolean contentAwareInitialCropWindow) {
+            mOptions.contentAwareInitialCropWindow = contentAwareInitialCropWindow;
+            return this;
+        }
+
         /**
          * whether the width to height aspect ratio should be maintained or free to change.<br>
          * <i>Default: false</i>
@@ -728,6 +797,60 @@ public final class CropImage {
             return this;
         }
 
+        /**
+         * the max size in bytes of the saved cropped image, the highest compression quality (up to output compress
+         * quality) that fits is used.<br>
+         * Not applicable to PNG compression format.<br>
+         * <i>Default: NONE - compress once by output compress quality</i>
+         */
+        public ActivityBuilder setOutputCompressTargetSize(int outputCompressTargetSize) {
+            mOptions.outputCompressMode = CropImageView.OutputCompressMode.TARGET_SIZE;
+            mOptions.outputCompressTargetSize = outputCompressTargetSize;
+            return this;
+        }
+
+        /**
+         * the min structural similarity (SSIM) of the saved cropped image to the cropped image (0 - 1), the lowest
+         * compression quality (up to output compress quality) that reaches it is used.<br>
+         * Not applicable to PNG compression format.<br>
+         * <i>Default: NONE - compress once by output compress quality</i>
+         */
+        public ActivityBuilder setOutputCompressTargetSsim(float outputCompressTargetSsim) {
+            mOptions.outputCompressMode = CropImageView.OutputCompressMode.TARGET_SSIM;
+            mOptions.outputCompressTargetSsim = outputCompressTargetSsim;
+            return this;
+        }
+
+        /**
+         * if to make the cropped image pixels beyond the oval transparent when crop shape is oval.<br>
+         * JPEG compression format is replaced by PNG so the transparency is kept.<br>
+         * <i>Default: false</i>
+         */
+        public ActivityBuilder setOutputOvalMask(boolean outputOvalMask) {
+            mOptions.outputOvalMask = outputOvalMask;
+            return this;
+        }
+
+        /**
+         * the convolution filter to apply on the cropped image after resize, e.g. unsharp mask to restore the
+         * sharpness lost by downscale.<br>
+         * <i>Default: null - no filter</i>
+         */
+        public ActivityBuilder setOutputFilter(ConvolutionFilter outputFilter) {
+            mOptions.outputFilter = outputFilter;
+            return this;
+        }
+
+        /**
+         * if to decode the cropped image in the background while the crop window is idle so cropping completes
+         * faster, costs extra decoding if the crop window is changed again.<br>
+         * <i>Default: false</i>
+         */
+        public ActivityBuilder setSpeculativeCrop(boolean speculativeCrop) {
+            mOptions.speculativeCrop = speculativeCrop;
+            return this;
+        }
+
         /**
          * the size to resize the cropped image to.<br>
          * Uses {@link CropImageView.RequestSizeOptions#RESIZE_INSIDE} option.<br>
@@ -829,13 +952,19 @@ public final class CropImage {
             super(bitmap, uri, error, cropPoints, cropRect, rotation, sampleSize);
         }
 
+        public ActivityResult(Bitmap bitmap, Uri uri, Exception error, float[] cropPoints, Rect cropRect, int rotation, int sampleSize,
+                              ColorAdjustments colorAdjustments) {
+            super(bitmap, uri, error, cropPoints, cropRect, rotation, sampleSize, colorAdjustments, false);
+        }
+
         protected ActivityResult(Parcel in) {
             super(null,
                     (Uri) in.readParcelable(Uri.class.getClassLoader()),
                     (Exception) in.readSerializable(),
                     in.createFloatArray(),
                     (Rect) in.readParcelable(Rect.class.getClassLoader()),
-                    in.readInt(), in.readInt());
+                    in.readInt(), in.readInt(),
+                    (ColorAdjustments) in.readParcelable(ColorAdjustments.class.getClassLoader()), false);
         }
 
         @Override
@@ -846,6 +975,7 @@ public final class CropImage {
             dest.writeParcelable(getCropRect(), flags);
             dest.writeInt(getRotation());
             dest.writeInt(getSampleSize());
+            dest.writeParcelable(getColorAdjustments(), flags);
         }
 
         @Override
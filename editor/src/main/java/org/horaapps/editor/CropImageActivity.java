@@ -157,6 +157,10 @@ public class CropImageActivity extends AppCompatActivity implements CropImageVie
 
     @Override
     public void onCropImageComplete(CropImageView view, CropImageView.CropResult result) {
+        if (result.isPreview()) {
+            // wait for the full resolution result
+            return;
+        }
         setResult(result.getUri(), result.getError(), result.getSampleSize());
     }
 
@@ -171,7 +175,7 @@ public class CropImageActivity extends AppCompatActivity implements CropImageVie
         } else {
             Uri outputUri = getOutputUri();
             mCropImageView.saveCroppedImageAsync(outputUri,
-                    mOptions.outputCompressFormat,
+                    getOutputCompressFormat(),
                     mOptions.outputCompressQuality,
                     mOptions.outputRequestWidth,
                     mOptions.outputRequestHeight,
@@ -194,8 +198,9 @@ public class CropImageActivity extends AppCompatActivity implements CropImageVie
         Uri outputUri = mOptions.outputUri;
         if (outputUri.equals(Uri.EMPTY)) {
             try {
-                String ext = mOptions.outputCompressFormat == Bitmap.CompressFormat.JPEG ? ".jpg" :
-                        mOptions.outputCompressFormat == Bitmap.CompressFormat.PNG ? ".png" : ".webp";
+                Bitmap.CompressFormat compressFormat = getOutputCompressFormat();
+                String ext = compressFormat == Bitmap.CompressFormat.JPEG ? ".jpg" :
+                        compressFormat == Bitmap.CompressFormat.PNG ? ".png" : ".webp";
                 outputUri = Uri.fromFile(File.createTempFile("cropped", ext, getCacheDir()));
             } catch (IOException e) {
                 throw new RuntimeException("Failed to create temp file for output image", e);
@@ -204,6 +209,18 @@ public class CropImageActivity extends AppCompatActivity implements CropImageVie
         return outputUri;
     }
 
+    /**
+     * Get the compression format to save the cropped image with.<br>
+     * JPEG can't keep the transparency of oval mask so PNG is used instead.
+     */
+    protected Bitmap.CompressFormat getOutputCompressFormat() {
+        if (mOptions.outputCompressFormat == Bitmap.CompressFormat.JPEG && mOptions.outputOvalMask &&
+                mCropImageView.getCropShape() == CropImageView.CropShape.OVAL) {
+            return Bitmap.CompressFormat.PNG;
+        }
+        return mOptions.outputCompressFormat;
+    }
+
     /**
      * Result with cropped image data or error if failed.
      */
@@ -231,7 +248,8 @@ public class CropImageActivity extends AppCompatActivity implements CropImageVie
                 mCropImageView.getCropPoints(),
                 mCropImageView.getCropRect(),
                 mCropImageView.getRotatedDegrees(),
-                sampleSize);
+                sampleSize,
+                mCropImageView.getColorAdjustments());
         Intent intent = new Intent();
         intent.putExtra(CropImage.CROP_IMAGE_EXTRA_RESULT, result);
         return intent;
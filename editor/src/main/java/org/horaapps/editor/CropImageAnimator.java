@@ -0,0 +1,374 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.WindowManager;
+import android.widget.ImageView;
+
+/**
+ * Frame driven animator to handle smooth cropping image matrix transformation change, specifically for zoom-in/out.
+ * <br>
+ * The change between start and end image matrix is a scale around a fixed point (or a translation), the animation
+ * interpolates the scale in log space so the zoom speed is perceived constant, and the crop window and image bounds
+ * follow the exact same transformation as the image.<br>
+ * Frames are driven by Choreographer (API 16+) or by posting to the image view on older versions.
+ */
+final class CropImageAnimator implements Runnable {
+
+    //region: Fields and Consts
+
+    /**
+     * The duration of the animation in milliseconds
+     */
+    private static final int DURATION = 300;
+
+    /**
+     * The frame delay used when Choreographer is not available
+     */
+    private static final int FALLBACK_FRAME_DELAY = 16;
+
+    private final ImageView mImageView;
+
+    private final CropOverlayView mCropOverlayView;
+
+    private final float[] mStartBoundPoints = new float[8];
+
+    private final float[] mEndBoundPoints = new float[8];
+
+    private final RectF mStartCropWindowRect = new RectF();
+
+    private final RectF mEndCropWindowRect = new RectF();
+
+    private final Matrix mStartImageMatrix = new Matrix();
+
+    private final Matrix mEndImageMatrix = new Matrix();
+
+    /**
+     * The transformation from start to end state at the current animation fraction
+     */
+    private final Matrix mRelativeMatrix = new Matrix();
+
+    private final Matrix mAnimMatrix = new Matrix();
+
+    private final RectF mAnimRect = new RectF();
+
+    private final float[] mAnimPoints = new float[8];
+
+    private final float[] mMatrixValues = new float[9];
+
+    /**
+     * Frame callback used to drive the animation, null if Choreographer is not available
+     */
+    private final AnimatorFrameCallback mFrameCallback;
+
+    /**
+     * The expected time between frames by the display refresh rate
+     */
+    private final long mFrameIntervalNanos;
+
+    /**
+     * The scale from start to end state
+     */
+    private float mScale;
+
+    /**
+     * The fixed point of the scale from start to end state, used if scale is not 1
+     */
+    private float mFixedX;
+
+    /**
+     * The fixed point of the scale from start to end state, used if scale is not 1
+     */
+    private float mFixedY;
+
+    /**
+     * The translation from start to end state, used if scale is 1
+     */
+    private float mTranslateX;
+
+    /**
+     * The translation from start to end state, used if scale is 1
+     */
+    private float mTranslateY;
+
+    /**
+     * if the animation is in progress
+     */
+    private boolean mRunning;
+
+    /**
+     * The current interpolated animation time (0 - 1)
+     */
+    private float mInterpolatedTime;
+
+    /**
+     * The time of the first animation frame, -1 if no frame yet
+     */
+    private long mStartTimeNanos;
+
+    /**
+     * The time of the last animation frame
+     */
+    private long mLastFrameTimeNanos;
+
+    /**
+     * The number of animation frames
+     */
+    private int mFrames;
+
+    /**
+     * The number of frames missed between animation frames
+     */
+    private int mDroppedFrames;
+
+    /**
+     * The performance metrics to record to, null if metrics are not collected
+     */
+    private CropImageMetrics mMetrics;
+    //endregion
+
+    public CropImageAnimator(ImageView cropImageView, CropOverlayView cropOverlayView) {
+        mImageView = cropImageView;
+        mCropOverlayView = cropOverlayView;
+        mFrameCallback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new AnimatorFrameCallback() : null;
+
+        float refreshRate = 60;
+        WindowManager windowManager = (WindowManager) cropImageView.getContext().getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager != null && windowManager.getDefaultDisplay().getRefreshRate() >= 24) {
+            refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        }
+        mFrameIntervalNanos = (long) (1000000000 / refreshRate);
+    }
+
+    /**
+     * Set the state to animate from, the current crop window is used.<br>
+     * Cancels animation in progress.
+     */
+    public void setStartState(float[] boundPoints, Matrix imageMatrix) {
+        cancel();
+        System.arraycopy(boundPoints, 0, mStartBoundPoints, 0, 8);
+        mStartCropWindowRect.set(mCropOverlayView.getCropWindowRect());
+        mStartImageMatrix.set(imageMatrix);
+    }
+
+    /**
+     * Set the state to animate to, the current crop window is used.
+     */
+    public void setEndState(float[] boundPoints, Matrix imageMatrix) {
+        System.arraycopy(boundPoints, 0, mEndBoundPoints, 0, 8);
+        mEndCropWindowRect.set(mCropOverlayView.getCropWindowRect());
+        mEndImageMatrix.set(imageMatrix);
+    }
+
+    /**
+     * Start the animation from the start state to the end state, the start state is applied immediately.
+     */
+    public void start() {
+        // the change from start to end is a scale around fixed point: end = relative * start
+        mStartImageMatrix.invert(mRelativeMatrix);
+        mRelativeMatrix.postConcat(mEndImageMatrix);
+        mRelativeMatrix.getValues(mMatrixValues);
+        mScale = (float) Math.sqrt(mMatrixValues[Matrix.MSCALE_X] * mMatrixValues[Matrix.MSCALE_X] +
+                mMatrixValues[Matrix.MSKEW_Y] * mMatrixValues[Matrix.MSKEW_Y]);
+        if (Math.abs(1 - mScale) > 0.0001f) {
+            mFixedX = mMatrixValues[Matrix.MTRANS_X] / (1 - mScale);
+            mFixedY = mMatrixValues[Matrix.MTRANS_Y] / (1 - mScale);
+        } else {
+            mScale = 1;
+            mTranslateX = mMatrixValues[Matrix.MTRANS_X];
+            mTranslateY = mMatrixValues[Matrix.MTRANS_Y];
+        }
+
+        mRunning = true;
+        mStartTimeNanos = -1;
+        mFrames = 0;
+        mDroppedFrames = 0;
+        apply(0);
+        scheduleFrame();
+    }
+
+    /**
+     * Set the performance metrics to record to, null to not collect.
+     */
+    public void setMetrics(CropImageMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Is the animation in progress.
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Stop the animation leaving the image and crop window in the current animation state.
+     */
+    public void cancel() {
+        if (mRunning) {
+            mRunning = false;
+            removeFrame();
+        }
+    }
+
+    /**
+     * Stop the animation jumping to the end state.
+     */
+    public void end() {
+        if (mRunning) {
+            cancel();
+            apply(1);
+        }
+    }
+
+    /**
+     * Get the image matrix of the current animation state.
+     */
+    public void getImageMatrix(Matrix matrix) {
+        matrix.set(mAnimMatrix);
+    }
+
+    /**
+     * Get the scale of the current animation state relative to the end state.
+     */
+    public float getScaleToEnd() {
+        return (float) Math.pow(mScale, mInterpolatedTime - 1);
+    }
+
+    @Override
+    public void run() {
+        doFrame(SystemClock.uptimeMillis() * 1000000);
+    }
+
+    //region: Private methods
+
+    /**
+     * Handle animation frame, apply the animation state by the frame time and schedule the next frame.
+     */
+    private void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+
+        if (mStartTimeNanos < 0) {
+            mStartTimeNanos = frameTimeNanos;
+        } else {
+            long frames = Math.round((frameTimeNanos - mLastFrameTimeNanos) / (double) mFrameIntervalNanos);
+            int dropped = (int) Math.max(0, frames - 1);
+            mDroppedFrames += dropped;
+            if (mMetrics != null) {
+                mMetrics.recordZoomFrame(frameTimeNanos - mLastFrameTimeNanos, dropped);
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        mFrames++;
+
+        float fraction = Math.min(1, (frameTimeNanos - mStartTimeNanos) / (DURATION * 1000000f));
+        CropImageMetrics.beginSection("AIC#zoomFrame");
+        apply(fraction);
+        CropImageMetrics.endSection();
+
+        if (fraction < 1) {
+            scheduleFrame();
+        } else {
+            mRunning = false;
+            if (mDroppedFrames > 0 && Log.isLoggable("AIC", Log.DEBUG)) {
+                Log.d("AIC", "Zoom animation dropped " + mDroppedFrames + " frames of " + (mFrames + mDroppedFrames));
+            }
+        }
+    }
+
+    /**
+     * Apply the animation state at the given fraction of the animation time to the image and crop overlay.
+     */
+    private void apply(float fraction) {
+        if (fraction >= 1) {
+            mInterpolatedTime = 1;
+            mAnimMatrix.set(mEndImageMatrix);
+            mAnimRect.set(mEndCropWindowRect);
+            System.arraycopy(mEndBoundPoints, 0, mAnimPoints, 0, 8);
+        } else {
+            // accelerate-decelerate interpolation
+            mInterpolatedTime = (float) (Math.cos((fraction + 1) * Math.PI) / 2) + 0.5f;
+            if (mScale != 1) {
+                float scale = (float) Math.pow(mScale, mInterpolatedTime);
+                mRelativeMatrix.setScale(scale, scale, mFixedX, mFixedY);
+            } else {
+                mRelativeMatrix.setTranslate(mTranslateX * mInterpolatedTime, mTranslateY * mInterpolatedTime);
+            }
+            mAnimMatrix.set(mStartImageMatrix);
+            mAnimMatrix.postConcat(mRelativeMatrix);
+            mRelativeMatrix.mapRect(mAnimRect, mStartCropWindowRect);
+            mRelativeMatrix.mapPoints(mAnimPoints, mStartBoundPoints);
+        }
+
+        mImageView.setImageMatrix(mAnimMatrix);
+        mCropOverlayView.setCropWindowRect(mAnimRect);
+        mCropOverlayView.setBounds(mAnimPoints, mImageView.getWidth(), mImageView.getHeight());
+        mCropOverlayView.invalidateChange();
+    }
+
+    /**
+     * Schedule the next animation frame.
+     */
+    private void scheduleFrame() {
+        if (mFrameCallback != null) {
+            mFrameCallback.post();
+        } else {
+            mImageView.postDelayed(this, FALLBACK_FRAME_DELAY);
+        }
+    }
+
+    /**
+     * Remove scheduled animation frame.
+     */
+    private void removeFrame() {
+        if (mFrameCallback != null) {
+            mFrameCallback.remove();
+        } else {
+            mImageView.removeCallbacks(this);
+        }
+    }
+    //endregion
+
+    //region: Inner class: AnimatorFrameCallback
+
+    /**
+     * Drive the animation by Choreographer frames.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class AnimatorFrameCallback implements Choreographer.FrameCallback {
+
+        public void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        public void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            CropImageAnimator.this.doFrame(frameTimeNanos);
+        }
+    }
+    //endregion
+}
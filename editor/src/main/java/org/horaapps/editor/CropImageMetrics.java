@@ -0,0 +1,307 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Aggregated performance metrics of crop image view interaction, collected only if
+ * {@link CropImageView#setOnMetricsListener(CropImageView.OnMetricsListener)} is set.<br>
+ * Every metric is a histogram of the samples since the previous report.
+ */
+public final class CropImageMetrics {
+
+    //region: Fields and Consts
+
+    /**
+     * Crop overlay draw duration in milliseconds
+     */
+    private final Histogram mOverlayDrawTime = new Histogram(0.25f);
+
+    /**
+     * Latency from touch event to crop overlay invalidation in milliseconds
+     */
+    private final Histogram mTouchLatency = new Histogram(1);
+
+    /**
+     * Image matrix calculation and apply duration in milliseconds
+     */
+    private final Histogram mApplyImageMatrixTime = new Histogram(0.25f);
+
+    /**
+     * Time between auto-zoom animation frames in milliseconds
+     */
+    private final Histogram mZoomFrameInterval = new Histogram(4);
+
+    /**
+     * Size of bitmaps set to be shown (uploaded to GPU) in kilobytes
+     */
+    private final Histogram mBitmapUploadSize = new Histogram(256);
+
+    /**
+     * Number of frames missed during auto-zoom animations
+     */
+    private int mZoomDroppedFrames;
+    //endregion
+
+    CropImageMetrics() {
+    }
+
+    /**
+     * Crop overlay draw duration in milliseconds.
+     */
+    public Histogram getOverlayDrawTime() {
+        return mOverlayDrawTime;
+    }
+
+    /**
+     * Latency from touch event to crop overlay invalidation in milliseconds.
+     */
+    public Histogram getTouchLatency() {
+        return mTouchLatency;
+    }
+
+    /**
+     * Image matrix calculation and apply duration in milliseconds.
+     */
+    public Histogram getApplyImageMatrixTime() {
+        return mApplyImageMatrixTime;
+    }
+
+    /**
+     * Time between auto-zoom animation frames in milliseconds, values over the display frame interval are jank.
+     */
+    public Histogram getZoomFrameInterval() {
+        return mZoomFrameInterval;
+    }
+
+    /**
+     * Size of bitmaps set to be shown (uploaded to GPU) in kilobytes.
+     */
+    public Histogram getBitmapUploadSize() {
+        return mBitmapUploadSize;
+    }
+
+    /**
+     * Number of display frames missed during auto-zoom animations.
+     */
+    public int getZoomDroppedFrames() {
+        return mZoomDroppedFrames;
+    }
+
+    /**
+     * Is there any sample collected.
+     */
+    public boolean isEmpty() {
+        return mOverlayDrawTime.getCount() == 0 &&
+                mTouchLatency.getCount() == 0 &&
+                mApplyImageMatrixTime.getCount() == 0 &&
+                mZoomFrameInterval.getCount() == 0 &&
+                mBitmapUploadSize.getCount() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CropImageMetrics{" +
+                "overlayDrawTime=" + mOverlayDrawTime +
+                ", touchLatency=" + mTouchLatency +
+                ", applyImageMatrixTime=" + mApplyImageMatrixTime +
+                ", zoomFrameInterval=" + mZoomFrameInterval +
+                ", zoomDroppedFrames=" + mZoomDroppedFrames +
+                ", bitmapUploadSize=" + mBitmapUploadSize +
+                '}';
+    }
+
+    //region: Package methods
+
+    void recordOverlayDraw(long startNanos) {
+        mOverlayDrawTime.add((System.nanoTime() - startNanos) / 1000000f);
+    }
+
+    void recordTouchLatency(long latencyMillis) {
+        mTouchLatency.add(latencyMillis);
+    }
+
+    void recordApplyImageMatrix(long startNanos) {
+        mApplyImageMatrixTime.add((System.nanoTime() - startNanos) / 1000000f);
+    }
+
+    void recordZoomFrame(long intervalNanos, int droppedFrames) {
+        mZoomFrameInterval.add(intervalNanos / 1000000f);
+        mZoomDroppedFrames += droppedFrames;
+    }
+
+    void recordBitmapUpload(int bytes) {
+        mBitmapUploadSize.add(bytes / 1024f);
+    }
+
+    /**
+     * Create a copy of the current metrics and reset this instance for the next report.
+     */
+    CropImageMetrics snapshotAndReset() {
+        CropImageMetrics snapshot = new CropImageMetrics();
+        snapshot.mOverlayDrawTime.set(mOverlayDrawTime);
+        snapshot.mTouchLatency.set(mTouchLatency);
+        snapshot.mApplyImageMatrixTime.set(mApplyImageMatrixTime);
+        snapshot.mZoomFrameInterval.set(mZoomFrameInterval);
+        snapshot.mBitmapUploadSize.set(mBitmapUploadSize);
+        snapshot.mZoomDroppedFrames = mZoomDroppedFrames;
+        mOverlayDrawTime.reset();
+        mTouchLatency.reset();
+        mApplyImageMatrixTime.reset();
+        mZoomFrameInterval.reset();
+        mBitmapUploadSize.reset();
+        mZoomDroppedFrames = 0;
+        return snapshot;
+    }
+
+    /**
+     * Begin a systrace section so library stages show in systrace/Perfetto captures (API 18+).
+     */
+    static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * End the systrace section started by {@link #beginSection(String)}.
+     */
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+    //endregion
+
+    //region: Inner class: Histogram
+
+    /**
+     * Histogram of samples with exponential buckets, each bucket upper bound is double the previous.
+     */
+    public static final class Histogram {
+
+        /**
+         * The number of buckets, the last one is unbounded
+         */
+        public static final int BUCKETS = 12;
+
+        /**
+         * The upper bound of the first bucket
+         */
+        private final float mFirstBound;
+
+        /**
+         * The number of samples in each bucket
+         */
+        private final int[] mCounts = new int[BUCKETS];
+
+        private int mCount;
+
+        private double mSum;
+
+        private float mMax;
+
+        Histogram(float firstBound) {
+            mFirstBound = firstBound;
+        }
+
+        /**
+         * The number of samples.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * The mean of the samples, 0 if no samples.
+         */
+        public float getMean() {
+            return mCount > 0 ? (float) (mSum / mCount) : 0;
+        }
+
+        /**
+         * The max sample, 0 if no samples.
+         */
+        public float getMax() {
+            return mMax;
+        }
+
+        /**
+         * The number of samples in the given bucket.
+         */
+        public int getBucketCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        /**
+         * The upper bound (exclusive) of the given bucket, infinity for the last bucket.
+         */
+        public float getBucketUpperBound(int bucket) {
+            return bucket < BUCKETS - 1 ? mFirstBound * (1 << bucket) : Float.POSITIVE_INFINITY;
+        }
+
+        /**
+         * The estimated value below which the given percent (0 - 100) of the samples fall, the upper bound of the
+         * bucket containing the percentile limited by the max sample.
+         */
+        public float getPercentile(float percent) {
+            int target = (int) Math.ceil(mCount * percent / 100f);
+            int count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += mCounts[i];
+                if (count >= target && count > 0) {
+                    return Math.min(getBucketUpperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + mCount + ", mean=" + getMean() + ", p50=" + getPercentile(50) +
+                    ", p90=" + getPercentile(90) + ", p99=" + getPercentile(99) + ", max=" + mMax + "}";
+        }
+
+        void add(float value) {
+            int bucket = 0;
+            float bound = mFirstBound;
+            while (bucket < BUCKETS - 1 && value >= bound) {
+                bucket++;
+                bound *= 2;
+            }
+            mCounts[bucket]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        void set(Histogram other) {
+            System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKETS);
+            mCount = other.mCount;
+            mSum = other.mSum;
+            mMax = other.mMax;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mCounts[i] = 0;
+            }
+            mCount = 0;
+            mSum = 0;
+            mMax = 0;
+        }
+    }
+    //endregion
+}
@@ -51,6 +51,12 @@ public class CropImageOptions implements Parcelable {
      */
     public float snapRadius;
 
+    /**
+     * if crop window edges also snap to strong edges in the image (within the snap radius) when resized.<br>
+     * default: false
+     */
+    public boolean snapToImageEdges;
+
     /**
      * The radius of the touchable area around the handle. (in pixels)<br>
      * We are basing this value off of the recommended 48dp Rhythm.<br>
@@ -93,6 +99,18 @@ public class CropImageOptions implements Parcelable {
    */
     public boolean multiTouchEnabled;
 
+    /**
+     * if touch outside the crop window pans and pinch zooms the image under the crop window.<br>
+     * default: false
+     */
+    public boolean imageGesturesEnabled;
+
+    /**
+     * if two-finger rotate of image gesture rotates the image freely, requires image gestures.<br>
+     * default: false
+     */
+    public boolean imageRotateGestureEnabled;
+
     /**
      * The max zoom allowed during cropping.
      */
@@ -103,6 +121,11 @@ public class CropImageOptions implements Parcelable {
      */
     public float initialCropWindowPaddingRatio;
 
+    /**
+     * if the initial crop window is placed on the most salient region of the image instead of centered.
+     */
+    public boolean contentAwareInitialCropWindow;
+
     /**
      * whether the width to height aspect ratio should be maintained or free to change.
      */
@@ -218,6 +241,40 @@ public class CropImageOptions implements Parcelable {
      */
     public int outputCompressQuality;
 
+    /**
+     * how to choose the compression quality when writing the image
+     */
+    public CropImageView.OutputCompressMode outputCompressMode;
+
+    /**
+     * the max size in bytes of the written image, used with {@link CropImageView.OutputCompressMode#TARGET_SIZE}
+     */
+    public int outputCompressTargetSize;
+
+    /**
+     * the min structural similarity (SSIM) of the written image to the cropped image (0 - 1),
+     * used with {@link CropImageView.OutputCompressMode#TARGET_SSIM}
+     */
+    public float outputCompressTargetSsim;
+
+    /**
+     * if to make the cropped image pixels beyond the oval transparent when crop shape is oval.<br>
+     * JPEG compression format is replaced by PNG so the transparency is kept.
+     */
+    public boolean outputOvalMask;
+
+    /**
+     * the convolution filter (blur, sharpen or custom kernel) to apply on the cropped image after resize, null for
+     * none
+     */
+    public ConvolutionFilter outputFilter;
+
+    /**
+     * if to decode the cropped image in the background while the crop window is idle so cropping by the
+     * output request size completes faster
+     */
+    public boolean speculativeCrop;
+
     /**
      * the width to resize the cropped image to (see options)
      */
@@ -272,6 +329,7 @@ public class CropImageOptions implements Parcelable {
 
         cropShape = CropImageView.CropShape.RECTANGLE;
         snapRadius = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 3, dm);
+        snapToImageEdges = false;
         touchRadius = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 24, dm);
         guidelines = CropImageView.Guidelines.ON_TOUCH;
         scaleType = CropImageView.ScaleType.FIT_CENTER;
@@ -279,8 +337,11 @@ public class CropImageOptions implements Parcelable {
         showProgressBar = true;
         autoZoomEnabled = true;
         multiTouchEnabled = false;
+        imageGesturesEnabled = false;
+        imageRotateGestureEnabled = false;
         maxZoom = 4;
         initialCropWindowPaddingRatio = 0.1f;
+        contentAwareInitialCropWindow = false;
 
         fixAspectRatio = false;
         aspectRatioX = 1;
@@ -310,6 +371,12 @@ public class CropImageOptions implements Parcelable {
         outputUri = Uri.EMPTY;
         outputCompressFormat = Bitmap.CompressFormat.JPEG;
         outputCompressQuality = 90;
+        outputCompressMode = CropImageView.OutputCompressMode.QUALITY;
+        outputCompressTargetSize = 0;
+        outputCompressTargetSsim = 0.95f;
+        outputOvalMask = false;
+        outputFilter = null;
+        speculativeCrop = false;
         outputRequestWidth = 0;
         outputRequestHeight = 0;
         outputRequestSizeOptions = CropImageView.RequestSizeOptions.NONE;
@@ -328,6 +395,7 @@ public class CropImageOptions implements Parcelable {
     protected CropImageOptions(Parcel in) {
         cropShape = CropImageView.CropShape.values()[in.readInt()];
         snapRadius = in.readFloat();
+        snapToImageEdges = in.readByte() != 0;
         touchRadius = in.readFloat();
         guidelines = CropImageView.Guidelines.values()[in.readInt()];
         scaleType = CropImageView.ScaleType.values()[in.readInt()];
@@ -335,8 +403,11 @@ public class CropImageOptions implements Parcelable {
         showProgressBar = in.readByte() != 0;
         autoZoomEnabled = in.readByte() != 0;
         multiTouchEnabled = in.readByte() != 0;
+        imageGesturesEnabled = in.readByte() != 0;
+        imageRotateGestureEnabled = in.readByte() != 0;
         maxZoom = in.readInt();
         initialCropWindowPaddingRatio = in.readFloat();
+        contentAwareInitialCropWindow = in.readByte() != 0;
         fixAspectRatio = in.readByte() != 0;
         aspectRatioX = in.readInt();
         aspectRatioY = in.readInt();
@@ -360,6 +431,12 @@ public class CropImageOptions implements Parcelable {
         outputUri = in.readParcelable(Uri.class.getClassLoader());
         outputCompressFormat = Bitmap.CompressFormat.valueOf(in.readString());
         outputCompressQuality = in.readInt();
+        outputCompressMode = CropImageView.OutputCompressMode.values()[in.readInt()];
+        outputCompressTargetSize = in.readInt();
+        outputCompressTargetSsim = in.readFloat();
+        outputOvalMask = in.readByte() != 0;
+        outputFilter = in.readParcelable(ConvolutionFilter.class.getClassLoader());
+        speculativeCrop = in.readByte() != 0;
         outputRequestWidth = in.readInt();
         outputRequestHeight = in.readInt();
         outputRequestSizeOptions = CropImageView.RequestSizeOptions.values()[in.readInt()];
@@ -375,6 +452,7 @@ public class CropImageOptions implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeInt(cropShape.ordinal());
         dest.writeFloat(snapRadius);
+        dest.writeByte((byte) (snapToImageEdges ? 1 : 0));
         dest.writeFloat(touchRadius);
         dest.writeInt(guidelines.ordinal());
         dest.writeInt(scaleType.ordinal());
@@ -382,8 +460,11 @@ public class CropImageOptions implements Parcelable {
         dest.writeByte((byte) (showProgressBar ? 1 : 0));
         dest.writeByte((byte) (autoZoomEnabled ? 1 : 0));
         dest.writeByte((byte) (multiTouchEnabled ? 1 : 0));
+        dest.writeByte((byte) (imageGesturesEnabled ? 1 : 0));
+        dest.writeByte((byte) (imageRotateGestureEnabled ? 1 : 0));
         dest.writeInt(maxZoom);
         dest.writeFloat(initialCropWindowPaddingRatio);
+        dest.writeByte((byte) (contentAwareInitialCropWindow ? 1 : 0));
         dest.writeByte((byte) (fixAspectRatio ? 1 : 0));
         dest.writeInt(aspectRatioX);
         dest.writeInt(aspectRatioY);
@@ -407,6 +488,12 @@ public class CropImageOptions implements Parcelable {
         dest.writeParcelable(outputUri, flags);
         dest.writeString(outputCompressFormat.name());
         dest.writeInt(outputCompressQuality);
+        dest.writeInt(outputCompressMode.ordinal());
+        dest.writeInt(outputCompressTargetSize);
+        dest.writeFloat(outputCompressTargetSsim);
+        dest.writeByte((byte) (outputOvalMask ? 1 : 0));
+        dest.writeParcelable(outputFilter, flags);
+        dest.writeByte((byte) (speculativeCrop ? 1 : 0));
         dest.writeInt(outputRequestWidth);
         dest.writeInt(outputRequestHeight);
         dest.writeInt(outputRequestSizeOptions.ordinal());
@@ -474,6 +561,12 @@ public class CropImageOptions implements Parcelable {
         if (outputRequestHeight < 0) {
             throw new IllegalArgumentException("Cannot set request height value to a number < 0 ");
         }
+        if (outputCompressMode == CropImageView.OutputCompressMode.TARGET_SIZE && outputCompressTargetSize <= 0) {
+            throw new IllegalArgumentException("Cannot set output compress target size to a number <= 0 ");
+        }
+        if (outputCompressMode == CropImageView.OutputCompressMode.TARGET_SSIM && (outputCompressTargetSsim <= 0 || outputCompressTargetSsim > 1)) {
+            throw new IllegalArgumentException("Cannot set output compress target SSIM to a number <= 0 or > 1");
+        }
         if (rotationDegrees < 0 || rotationDegrees > 360) {
             throw new IllegalArgumentException("Cannot set rotation degrees value to a number < 0 or > 360");
         }
@@ -18,24 +18,30 @@ import android.content.Intent;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.util.Pair;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
+import android.widget.OverScroller;
 import android.widget.ProgressBar;
 
 import java.lang.ref.WeakReference;
-import java.util.UUID;
 
 /**
  * Custom view that provides cropping capabilities to an image.
@@ -44,6 +50,26 @@ public class CropImageView extends FrameLayout {
 
     //region: Fields and Consts
 
+    /**
+     * The time in milliseconds the crop window must be idle before speculative crop is started
+     */
+    private static final int SPECULATIVE_CROP_IDLE_DELAY = 300;
+
+    /**
+     * The time in milliseconds after crop window change to report the aggregated metrics, includes auto-zoom
+     */
+    private static final int METRICS_REPORT_DELAY = 1000;
+
+    /**
+     * The degrees two-finger gesture must rotate before it starts rotating the image, so pinch doesn't rotate
+     */
+    private static final float ROTATE_GESTURE_SLOP = 5;
+
+    /**
+     * The max size of the LUT preview proxy larger dimension, the max texture size every device supports
+     */
+    private static final int MAX_LUT_PREVIEW_SIZE = 2048;
+
     /**
      * Image view widget used to show the image for cropping.
      */
@@ -74,14 +100,57 @@ public class CropImageView extends FrameLayout {
      */
     private final float[] mImagePoints = new float[8];
 
+    /**
+     * Used to read the image matrix scale (reusing array instance)
+     */
+    private final float[] mImageMatrixValues = new float[9];
+
+    /**
+     * Drawable of the shown image that draws the mip level matching the on-screen scale
+     */
+    private MipBitmapDrawable mImageDrawable;
+
+    /**
+     * if crop window edges also snap to strong edges in the image
+     */
+    private boolean mSnapToImageEdges;
+
+    /**
+     * The on-disk instance state snapshot of the image set by bitmap, written in the background, null if none
+     */
+    private ImageStateSnapshot mStateSnapshot;
+
+    /**
+     * The restore of the image from its instance state snapshot in progress, null if none
+     */
+    private ImageStateSnapshot.RestoreTask mStateRestoreTask;
+
+    /**
+     * The key the loaded bitmap is retained by in {@link RetainedBitmapRegistry} on state save, null if not retained
+     */
+    private String mRetainedBitmapKey;
+
+    /**
+     * Task computing the strong image edges for crop window snapping, null if not running
+     */
+    private EdgeSnapMapTask mEdgeSnapMapTask;
+
+    /**
+     * if the initial crop window of image loaded by URI is placed on the most salient region of the image
+     */
+    private boolean mContentAwareInitialCropWindow;
+
     /**
      * Animation class to smooth animate zoom-in/out
      */
-    private CropImageAnimation mAnimation;
+    private CropImageAnimator mAnimation;
 
     private Bitmap mBitmap;
 
-    private int mDegreesRotated;
+    /**
+     * The image rotation clockwise 0-360, fractional after free rotation and straighten
+     */
+    private float mDegreesRotated;
 
     private int mLayoutWidth;
 
@@ -118,6 +187,130 @@ public class CropImageView extends FrameLayout {
      */
     private int mMaxZoom;
 
+    /**
+     * if touch outside the crop window pans and pinch zooms the image.<br>
+     * default: false.
+     */
+    private boolean mImageGesturesEnabled;
+
+    /**
+     * if two-finger rotate of image gesture rotates the image freely.<br>
+     * default: false.
+     */
+    private boolean mImageRotateGestureEnabled;
+
+    /**
+     * The degrees the current image gesture rotated, used to start free rotation after the slop
+     */
+    private float mImageGestureRotation;
+
+    /**
+     * if the image is rotated freely by gesture or dial, only the image matrix is changed until it ends
+     */
+    private boolean mFreeRotating;
+
+    /**
+     * The image rotation when free rotation started
+     */
+    private float mFreeRotationStartDegrees;
+
+    /**
+     * The image matrix when free rotation started, free rotation is applied on top of it
+     */
+    private final Matrix mFreeRotationStartMatrix = new Matrix();
+
+    /**
+     * The current free rotation of the image, not limited to 0-360
+     */
+    private float mFreeRotationDegrees;
+
+    /**
+     * The scale applied on top of free rotation so the image covers the crop window
+     */
+    private float mFreeRotationScale = 1;
+
+    /**
+     * Used to map the crop window center and corners to the image on free rotation (reusing array instance)
+     */
+    private final float[] mFreeRotationPoints = new float[10];
+
+    /**
+     * Used to compute the image fling after pan gesture, lazy created
+     */
+    private OverScroller mFlingScroller;
+
+    /**
+     * Used to limit image pan, zoom and fling by the rotated image quad so the image keeps covering the crop window
+     */
+    private final InscribedRectSolver mImageQuad = new InscribedRectSolver();
+
+    /**
+     * Used to pass the crop window and the translation or its bounds to {@link #mImageQuad} (reusing array instances)
+     */
+    private final float[] mImageQuadRect = new float[4];
+
+    private final float[] mImageQuadDelta = new float[4];
+
+    /**
+     * The last fling scroller position applied to the image
+     */
+    private int mFlingLastX;
+
+    /**
+     * The last fling scroller position applied to the image
+     */
+    private int mFlingLastY;
+
+    /**
+     * Apply fling frame to the image and schedule the next frame until the fling is finished
+     */
+    private final Runnable mFlingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mFlingScroller != null && mBitmap != null && mFlingScroller.computeScrollOffset()) {
+                int x = mFlingScroller.getCurrX();
+                int y = mFlingScroller.getCurrY();
+                panImage(x - mFlingLastX, y - mFlingLastY);
+                mFlingLastX = x;
+                mFlingLastY = y;
+                postFlingFrame();
+            } else {
+                scheduleSpeculativeCrop();
+                recordEditState();
+            }
+        }
+    };
+
+    /**
+     * how to choose the compression quality when saving the cropped image
+     */
+    private OutputCompressMode mOutputCompressMode;
+
+    /**
+     * the max size in bytes of the saved cropped image (for {@link OutputCompressMode#TARGET_SIZE})
+     */
+    private int mOutputCompressTargetSize;
+
+    /**
+     * the min SSIM of the saved cropped image to the cropped bitmap (for {@link OutputCompressMode#TARGET_SSIM})
+     */
+    private float mOutputCompressTargetSsim;
+
+    /**
+     * if to make the cropped image pixels beyond the oval transparent when crop shape is oval
+     */
+    private boolean mOutputOvalMask;
+
+    /**
+     * the convolution filter applied on the cropped image after resize, null if none
+     */
+    private ConvolutionFilter mOutputFilter;
+
+    /**
+     * if to deliver preview quality crop result before the full resolution result
+     */
+    private boolean mPreviewCropResult;
+
     /**
      * callback to be invoked when image async loading is complete.
      */
@@ -140,6 +333,64 @@ public class CropImageView extends FrameLayout {
     @Deprecated
     private OnSaveCroppedImageCompleteListener mOnSaveCroppedImageCompleteListener;
 
+    /**
+     * callback to be invoked with aggregated performance metrics
+     */
+    private OnMetricsListener mOnMetricsListener;
+
+    /**
+     * callback to be invoked when straighten angle async detection is complete
+     */
+    private OnStraightenDetectedListener mOnStraightenDetectedListener;
+
+    /**
+     * Task detecting the straighten angle of the image, null if not running
+     */
+    private StraightenTask mStraightenTask;
+
+    /**
+     * The 3D LUT the image is graded by, null if none
+     */
+    private ColorLut mColorLut;
+
+    /**
+     * Task creating the LUT graded proxy of the image for preview, null if not running
+     */
+    private ColorLutPreviewTask mColorLutPreviewTask;
+
+    /**
+     * callback to be invoked with the histogram of the crop window region when it changes
+     */
+    private OnCropHistogramListener mOnCropHistogramListener;
+
+    /**
+     * Task keeping the histogram of the crop window region up to date, null if no listener or image
+     */
+    private CropHistogramTask mCropHistogramTask;
+
+    /**
+     * Task to crop the in-memory image in the background for the preview crop result, null if none in progress
+     */
+    private PreviewCropTask mPreviewCropTask;
+
+    /**
+     * The performance metrics collected since last report, null if metrics are not collected
+     */
+    private CropImageMetrics mMetrics;
+
+    /**
+     * Report the collected metrics to metrics listener
+     */
+    private final Runnable mMetricsReportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            OnMetricsListener listener = mOnMetricsListener;
+            if (listener != null && mMetrics != null && !mMetrics.isEmpty()) {
+                listener.onMetrics(CropImageView.this, mMetrics.snapshotAndReset());
+            }
+        }
+    };
+
     /**
      * The URI that the image was loaded from (if loaded from URI)
      */
@@ -170,6 +421,31 @@ public class CropImageView extends FrameLayout {
      */
     private RectF mRestoreCropWindowRect;
 
+    /**
+     * Used to restore the edit history after state restore, once the image is laid out
+     */
+    private CropEditHistory mRestoreEditHistory;
+
+    /**
+     * The undo/redo history of the crop window, rotation, zoom and aspect ratio edits
+     */
+    private CropEditHistory mEditHistory = new CropEditHistory();
+
+    /**
+     * If edits are not recorded in the edit history, for edits made of other edits to record only once
+     */
+    private boolean mEditHistorySuspended;
+
+    /**
+     * The color adjustments the image is shown with and applied to the crop output, null if none
+     */
+    private ColorAdjustments mColorAdjustments;
+
+    /**
+     * The composed color matrix of {@link #mColorAdjustments}, null if none
+     */
+    private ColorMatrix mColorMatrix;
+
     /**
      * Used to detect size change to handle auto-zoom using {@link #handleCropWindowChanged(boolean, boolean)} in
      * {@link #layout(int, int, int, int)}.
@@ -185,6 +461,36 @@ public class CropImageView extends FrameLayout {
      * Task used to crop bitmap async from UI thread
      */
     private WeakReference<BitmapCroppingWorkerTask> mBitmapCroppingWorkerTask;
+
+    /**
+     * the resize method of the expected crop request to speculate on, null if speculative crop is disabled
+     */
+    private RequestSizeOptions mSpeculativeCropOptions;
+
+    /**
+     * the width of the expected crop request to speculate on
+     */
+    private int mSpeculativeCropReqWidth;
+
+    /**
+     * the height of the expected crop request to speculate on
+     */
+    private int mSpeculativeCropReqHeight;
+
+    /**
+     * The current speculative crop decode, cancelled when crop window changes
+     */
+    private BitmapCroppingSpeculation mCropSpeculation;
+
+    /**
+     * Start speculative crop after the crop window was idle
+     */
+    private final Runnable mSpeculativeCropRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSpeculativeCrop();
+        }
+    };
     //endregion
 
     public CropImageView(Context context) {
@@ -255,8 +561,22 @@ public class CropImageView extends FrameLayout {
         mScaleType = options.scaleType;
         mAutoZoomEnabled = options.autoZoomEnabled;
         mMaxZoom = options.maxZoom;
+        mImageGesturesEnabled = options.imageGesturesEnabled;
+        mImageRotateGestureEnabled = options.imageRotateGestureEnabled;
+        mSnapToImageEdges = options.snapToImageEdges;
+        mContentAwareInitialCropWindow = options.contentAwareInitialCropWindow;
         mShowCropOverlay = options.showCropOverlay;
         mShowProgressBar = options.showProgressBar;
+        mOutputCompressMode = options.outputCompressMode;
+        mOutputCompressTargetSize = options.outputCompressTargetSize;
+        mOutputCompressTargetSsim = options.outputCompressTargetSsim;
+        mOutputOvalMask = options.outputOvalMask;
+        mOutputFilter = options.outputFilter;
+        if (options.speculativeCrop) {
+            mSpeculativeCropOptions = options.outputRequestSizeOptions;
+            mSpeculativeCropReqWidth = options.outputRequestWidth;
+            mSpeculativeCropReqHeight = options.outputRequestHeight;
+        }
 
         LayoutInflater inflater = LayoutInflater.from(context);
         View v = inflater.inflate(R.layout.crop_image_view, this, true);
@@ -269,9 +589,19 @@ public class CropImageView extends FrameLayout {
             @Override
             public void onCropWindowChanged(boolean inProgress) {
                 handleCropWindowChanged(inProgress, true);
+                if (inProgress) {
+                    cancelSpeculativeCrop();
+                } else {
+                    scheduleSpeculativeCrop();
+                    scheduleMetricsReport();
+                    recordEditState();
+                }
             }
         });
         mCropOverlayView.setInitialAttributeValues(options);
+        if (mImageGesturesEnabled) {
+            mCropOverlayView.setImageGestureListener(new ImageGestureHandler());
+        }
 
         mProgressBar = (ProgressBar) v.findViewById(R.id.CropProgressBar);
         setProgressBarVisibility();
@@ -312,6 +642,88 @@ public class CropImageView extends FrameLayout {
         mCropOverlayView.setCropShape(cropShape);
     }
 
+    /**
+     * if the cropped image pixels beyond the oval are made transparent when crop shape is oval.<br>
+     * default: false.
+     */
+    public boolean isOutputOvalMask() {
+        return mOutputOvalMask;
+    }
+
+    /**
+     * Set if the cropped image pixels beyond the oval are made transparent when crop shape is oval.<br>
+     * The mask is applied in the cropping pass, no need for {@link CropImage#toOvalBitmap(Bitmap)}.<br>
+     * Use PNG or WEBP compression format to keep the transparency when saving the cropped image.
+     */
+    public void setOutputOvalMask(boolean outputOvalMask) {
+        mOutputOvalMask = outputOvalMask;
+    }
+
+    /**
+     * the convolution filter applied on the cropped image after resize, null if none.<br>
+     * default: null.
+     */
+    public ConvolutionFilter getOutputFilter() {
+        return mOutputFilter;
+    }
+
+    /**
+     * Set the convolution filter to apply on the cropped image after resize, before the color grading and
+     * adjustments.<br>
+     * The filter runs on the output resolution so its radius is in output pixels, the shown image is not filtered.
+     *
+     * @param outputFilter the filter, null for none
+     */
+    public void setOutputFilter(ConvolutionFilter outputFilter) {
+        mOutputFilter = outputFilter;
+    }
+
+    /**
+     * if preview quality crop result is delivered before the full resolution result.<br>
+     * default: false.
+     */
+    public boolean isPreviewCropResult() {
+        return mPreviewCropResult;
+    }
+
+    /**
+     * Set if to deliver preview quality crop result before the full resolution result.<br>
+     * When the cropped image is decoded again from the loaded URI (the loaded image was sampled or
+     * {@link RequestSizeOptions#SAMPLING} is used) the listener set by
+     * {@link #setOnCropImageCompleteListener(OnCropImageCompleteListener)} is first called with the crop of the
+     * in-memory image, see {@link CropResult#isPreview()}, and then again with the full resolution result.
+     */
+    public void setPreviewCropResult(boolean previewCropResult) {
+        mPreviewCropResult = previewCropResult;
+    }
+
+    /**
+     * Enable decoding of the cropped image region in the background once the crop window is idle, so a following
+     * {@link #getCroppedImageAsync(int, int, RequestSizeOptions)} or
+     * {@link #saveCroppedImageAsync(Uri, Bitmap.CompressFormat, int, int, int, RequestSizeOptions)} with the same
+     * request size doesn't wait for the full resolution decode.<br>
+     * Only relevant for image loaded by URI where the cropped image is decoded again from the URI, i.e. the loaded
+     * image was sampled or {@link RequestSizeOptions#SAMPLING} is used.
+     *
+     * @param reqWidth the width of the expected crop request
+     * @param reqHeight the height of the expected crop request
+     * @param options the resize method of the expected crop request
+     */
+    public void setSpeculativeCrop(int reqWidth, int reqHeight, RequestSizeOptions options) {
+        mSpeculativeCropReqWidth = reqWidth;
+        mSpeculativeCropReqHeight = reqHeight;
+        mSpeculativeCropOptions = options;
+        scheduleSpeculativeCrop();
+    }
+
+    /**
+     * Disable the speculative crop set by {@link #setSpeculativeCrop(int, int, RequestSizeOptions)}.
+     */
+    public void clearSpeculativeCrop() {
+        mSpeculativeCropOptions = null;
+        cancelSpeculativeCrop();
+    }
+
     /**
      * if auto-zoom functionality is enabled. default: true.
      */
@@ -340,6 +752,44 @@ public class CropImageView extends FrameLayout {
         }
     }
 
+    /**
+     * if touch outside the crop window pans and pinch zooms the image. default: false.
+     */
+    public boolean isImageGesturesEnabled() {
+        return mImageGesturesEnabled;
+    }
+
+    /**
+     * Set if touch outside the crop window pans and pinch zooms the image under the crop window, with fling.<br>
+     * Pinch zoom is handled anywhere if crop window multi-touch is disabled. The zoom is limited by
+     * {@link #setMaxZoom(int)} and the image always covers the crop window.
+     */
+    public void setImageGesturesEnabled(boolean imageGesturesEnabled) {
+        if (mImageGesturesEnabled != imageGesturesEnabled) {
+            mImageGesturesEnabled = imageGesturesEnabled;
+            mCropOverlayView.setImageGestureListener(imageGesturesEnabled ? new ImageGestureHandler() : null);
+            if (!imageGesturesEnabled) {
+                stopFling();
+            }
+        }
+    }
+
+    /**
+     * if two-finger rotate of image gesture rotates the image freely. default: false.
+     */
+    public boolean isImageRotateGestureEnabled() {
+        return mImageRotateGestureEnabled;
+    }
+
+    /**
+     * Set if two-finger rotate of image gesture rotates the image freely, like {@link #setFreeRotatedDegrees(float)}.
+     * <br>
+     * Requires image gestures, see {@link #setImageGesturesEnabled(boolean)}.
+     */
+    public void setImageRotateGestureEnabled(boolean imageRotateGestureEnabled) {
+        mImageRotateGestureEnabled = imageRotateGestureEnabled;
+    }
+
     /**
      * The max zoom allowed during cropping.
      */
@@ -377,11 +827,12 @@ public class CropImageView extends FrameLayout {
 
     /**
      * Get the amount of degrees the cropping image is rotated cloackwise.<br>
+     * Rounded to whole degrees, see {@link #getFreeRotatedDegrees()} for the fractional rotation.
      *
      * @return 0-360
      */
     public int getRotatedDegrees() {
-        return mDegreesRotated;
+        return Math.round(mDegreesRotated) % 360;
     }
 
     /**
@@ -391,10 +842,20 @@ public class CropImageView extends FrameLayout {
      */
     public void setRotatedDegrees(int degrees) {
         if (mDegreesRotated != degrees) {
-            rotateImage(degrees - mDegreesRotated);
+            rotateImageInt(degrees - mDegreesRotated);
         }
     }
 
+    /**
+     * Get the amount of degrees the cropping image is rotated cloackwise, including the fractional degrees of free
+     * rotation and straighten.<br>
+     *
+     * @return 0-360
+     */
+    public float getFreeRotatedDegrees() {
+        return mDegreesRotated;
+    }
+
     /**
      * whether the aspect ratio is fixed or not; true fixes the aspect ratio, while false allows it to be changed.
      */
@@ -407,6 +868,7 @@ public class CropImageView extends FrameLayout {
      */
     public void setFixedAspectRatio(boolean fixAspectRatio) {
         mCropOverlayView.setFixedAspectRatio(fixAspectRatio);
+        recordEditState();
     }
 
     /**
@@ -440,7 +902,8 @@ public class CropImageView extends FrameLayout {
     public void setAspectRatio(int aspectRatioX, int aspectRatioY) {
         mCropOverlayView.setAspectRatioX(aspectRatioX);
         mCropOverlayView.setAspectRatioY(aspectRatioY);
-        setFixedAspectRatio(true);
+        mCropOverlayView.setFixedAspectRatio(true);
+        recordEditState();
     }
 
     /**
@@ -449,7 +912,8 @@ public class CropImageView extends FrameLayout {
     public void clearAspectRatio() {
         mCropOverlayView.setAspectRatioX(1);
         mCropOverlayView.setAspectRatioY(1);
-        setFixedAspectRatio(false);
+        mCropOverlayView.setFixedAspectRatio(false);
+        recordEditState();
     }
 
     /**
@@ -464,45 +928,180 @@ public class CropImageView extends FrameLayout {
     }
 
     /**
-     * if to show progress bar when image async loading/cropping is in progress.<br>
-     * default: true, disable to provide custom progress bar UI.
+     * if crop window edges also snap to strong edges in the image. default: false.
      */
-    public boolean isShowProgressBar() {
-        return mShowProgressBar;
+    public boolean isSnapToImageEdges() {
+        return mSnapToImageEdges;
     }
 
     /**
-     * if to show progress bar when image async loading/cropping is in progress.<br>
-     * default: true, disable to provide custom progress bar UI.
+     * Set if crop window edges also snap to strong edges in the image, like document or product borders, when
+     * resized within the snap radius.<br>
+     * The image edges are computed once per image in the background.
      */
-    public void setShowProgressBar(boolean showProgressBar) {
-        if (mShowProgressBar != showProgressBar) {
-            mShowProgressBar = showProgressBar;
-            setProgressBarVisibility();
+    public void setSnapToImageEdges(boolean snapToImageEdges) {
+        if (mSnapToImageEdges != snapToImageEdges) {
+            mSnapToImageEdges = snapToImageEdges;
+            if (snapToImageEdges) {
+                startEdgeSnapMap();
+            } else {
+                cancelEdgeSnapMap();
+            }
         }
     }
 
     /**
-     * if to show crop overlay UI what contains the crop window UI surrounded by background over the cropping
-     * image.<br>
-     * default: true, may disable for animation or frame transition.
+     * if the initial crop window of image loaded by URI is placed on the most salient region of the image.
+     * default: false.
      */
-    public boolean isShowCropOverlay() {
-        return mShowCropOverlay;
+    public boolean isContentAwareInitialCropWindow() {
+        return mContentAwareInitialCropWindow;
     }
 
     /**
-     * if to show crop overlay UI what contains the crop window UI surrounded by background over the cropping
-     * image.<br>
-     * default: true, may disable for animation or frame transition.
+     * Set if the initial crop window of image loaded by {@link #setImageUriAsync(Uri)} is placed on the most salient
+     * region of the image for the aspect ratio instead of centered.<br>
+     * The region is found in the loading task from a small down-scaled copy of the image, applies to the next image
+     * loaded. See {@link CropImage#getContentAwareCropRect(Bitmap, int, int)} for bitmaps set directly.
      */
-    public void setShowCropOverlay(boolean showCropOverlay) {
-        if (mShowCropOverlay != showCropOverlay) {
-            mShowCropOverlay = showCropOverlay;
+    public void setContentAwareInitialCropWindow(boolean contentAwareInitialCropWindow) {
+        mContentAwareInitialCropWindow = contentAwareInitialCropWindow;
+    }
+
+    /**
+     * How the compression quality is chosen when saving the cropped image.
+     */
+    public OutputCompressMode getOutputCompressMode() {
+        return mOutputCompressMode;
+    }
+
+    /**
+     * Save the cropped image with the highest compression quality that keeps it within the given size.<br>
+     * The compression quality given on save is used as the max quality, not applicable to PNG.
+     *
+     * @param targetSize the max size in bytes of the saved cropped image
+     */
+    public void setOutputCompressTargetSize(int targetSize) {
+        if (targetSize <= 0) {
+            throw new IllegalArgumentException("Cannot set target size value to a number less than or equal to 0.");
+        }
+        mOutputCompressMode = OutputCompressMode.TARGET_SIZE;
+        mOutputCompressTargetSize = targetSize;
+    }
+
+    /**
+     * Save the cropped image with the lowest compression quality that keeps its structural similarity (SSIM)
+     * to the cropped image at least the given value.<br>
+     * The compression quality given on save is used as the max quality, not applicable to PNG.
+     *
+     * @param targetSsim the min SSIM of the saved cropped image (0 - 1)
+     */
+    public void setOutputCompressTargetSsim(float targetSsim) {
+        if (targetSsim <= 0 || targetSsim > 1) {
+            throw new IllegalArgumentException("Cannot set target SSIM value to a number <= 0 or > 1.");
+        }
+        mOutputCompressMode = OutputCompressMode.TARGET_SSIM;
+        mOutputCompressTargetSsim = targetSsim;
+    }
+
+    /**
+     * Clears set compression target and saves the cropped image with the given compression quality.
+     */
+    public void clearOutputCompressTarget() {
+        mOutputCompressMode = OutputCompressMode.QUALITY;
+    }
+
+    /**
+     * if to show progress bar when image async loading/cropping is in progress.<br>
+     * default: true, disable to provide custom progress bar UI.
+     */
+    public boolean isShowProgressBar() {
+        return mShowProgressBar;
+    }
+
+    /**
+     * if to show progress bar when image async loading/cropping is in progress.<br>
+     * default: true, disable to provide custom progress bar UI.
+     */
+    public void setShowProgressBar(boolean showProgressBar) {
+        if (mShowProgressBar != showProgressBar) {
+            mShowProgressBar = showProgressBar;
+            setProgressBarVisibility();
+        }
+    }
+
+    /**
+     * if to show crop overlay UI what contains the crop window UI surrounded by background over the cropping
+     * image.<br>
+     * default: true, may disable for animation or frame transition.
+     */
+    public boolean isShowCropOverlay() {
+        return mShowCropOverlay;
+    }
+
+    /**
+     * if to show crop overlay UI what contains the crop window UI surrounded by background over the cropping
+     * image.<br>
+     * default: true, may disable for animation or frame transition.
+     */
+    public void setShowCropOverlay(boolean showCropOverlay) {
+        if (mShowCropOverlay != showCropOverlay) {
+            mShowCropOverlay = showCropOverlay;
             setCropOverlayVisibility();
         }
     }
 
+    /**
+     * Get the color adjustments of the image, a copy, null if none.
+     */
+    public ColorAdjustments getColorAdjustments() {
+        return mColorAdjustments != null ? new ColorAdjustments(mColorAdjustments) : null;
+    }
+
+    /**
+     * Set the color adjustments of the image, cheap enough to call on every slider change.<br>
+     * The shown image is drawn through the composed color matrix, the image pixels are not changed. The adjustments
+     * are applied to the cropped image in the crop output pass.
+     *
+     * @param colorAdjustments the adjustments, copied, null or identity to clear
+     */
+    public void setColorAdjustments(ColorAdjustments colorAdjustments) {
+        if (colorAdjustments == null || colorAdjustments.isIdentity()) {
+            mColorAdjustments = null;
+            mColorMatrix = null;
+        } else {
+            mColorAdjustments = new ColorAdjustments(colorAdjustments);
+            mColorMatrix = mColorAdjustments.getColorMatrix(mColorMatrix != null ? mColorMatrix : new ColorMatrix());
+        }
+        updateImageColorFilter();
+    }
+
+    /**
+     * Get the 3D LUT the image is graded by, null if none.
+     */
+    public ColorLut getColorLut() {
+        return mColorLut;
+    }
+
+    /**
+     * Set the 3D LUT to grade the image by, see {@link ColorLut#parseCube(java.io.InputStream)}.<br>
+     * The shown image is replaced by a down-scaled proxy graded in the background, the full resolution pixels are
+     * graded in the crop output pass, before the color adjustments.<br>
+     * The LUT is not saved in the instance state, set it again after state restore.
+     *
+     * @param colorLut the LUT, null to clear
+     */
+    public void setColorLut(ColorLut colorLut) {
+        if (mColorLut != colorLut) {
+            mColorLut = colorLut;
+            cancelColorLutPreview();
+            if (mImageDrawable != null) {
+                mImageDrawable.setProxy(null);
+            }
+            startColorLutPreview();
+        }
+    }
+
     /**
      * Returns the integer of the imageResource
      */
@@ -627,7 +1226,7 @@ public class CropImageView extends FrameLayout {
     public Bitmap getCroppedImage(int reqWidth, int reqHeight, RequestSizeOptions options) {
         Bitmap croppedBitmap = null;
         if (mBitmap != null) {
-            mImageView.clearAnimation();
+            endAnimation();
 
             reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
             reqHeight = options != RequestSizeOptions.NONE ? reqHeight : 0;
@@ -647,6 +1246,8 @@ public class CropImageView extends FrameLayout {
             }
 
             croppedBitmap = BitmapUtils.resizeBitmap(croppedBitmap, reqWidth, reqHeight, options);
+
+            croppedBitmap = createOutputPass(true).apply(croppedBitmap);
         }
 
         return croppedBitmap;
@@ -770,6 +1371,47 @@ public class CropImageView extends FrameLayout {
         mOnGetCroppedImageCompleteListener = listener;
     }
 
+    /**
+     * Set the callback to be invoked when straighten angle detection started by {@link #detectStraightenAngleAsync()}
+     * is complete.
+     */
+    public void setOnStraightenDetectedListener(OnStraightenDetectedListener listener) {
+        mOnStraightenDetectedListener = listener;
+    }
+
+    /**
+     * Set the callback to be invoked with the luminance and RGB histogram of the crop window region, null to stop.<br>
+     * The histogram is counted in the background on a down-scaled preview of the image, by tiles precomputed once
+     * per image, and is delivered at most every 100 milliseconds while the crop window changes.
+     */
+    public void setOnCropHistogramListener(OnCropHistogramListener listener) {
+        mOnCropHistogramListener = listener;
+        if (listener == null) {
+            cancelCropHistogram();
+        } else if (mCropHistogramTask == null) {
+            startCropHistogram();
+        }
+    }
+
+    /**
+     * Set the callback to be invoked with aggregated performance metrics of the crop image view, setting the listener
+     * enables metrics collection, null to disable.<br>
+     * The metrics since the previous report are reported shortly after the crop window change ends.
+     */
+    public void setOnMetricsListener(OnMetricsListener listener) {
+        mOnMetricsListener = listener;
+        if (listener == null) {
+            mMetrics = null;
+            removeCallbacks(mMetricsReportRunnable);
+        } else if (mMetrics == null) {
+            mMetrics = new CropImageMetrics();
+        }
+        mCropOverlayView.setMetrics(mMetrics);
+        if (mAnimation != null) {
+            mAnimation.setMetrics(mMetrics);
+        }
+    }
+
     /**
      * Set the callback to be invoked when image async save cropping image ({@link #saveCroppedImageAsync(Uri)})
      * is complete (successful or failed).
@@ -865,6 +1507,13 @@ public class CropImageView extends FrameLayout {
      * @param degrees Integer specifying the number of degrees to rotate.
      */
     public void rotateImage(int degrees) {
+        rotateImageInt(degrees);
+    }
+
+    /**
+     * Rotate the image by the given degrees clockwise, fractional for free rotation and straighten.
+     */
+    private void rotateImageInt(float degrees) {
         if (mBitmap != null) {
 
             boolean flipAxes = !mCropOverlayView.isFixAspectRatio() && (degrees > 45 && degrees < 135) || (degrees > 215 && degrees < 305);
@@ -912,9 +1561,161 @@ public class CropImageView extends FrameLayout {
 
             // make sure the crop window rectangle is within the cropping image bounds after all the changes
             mCropOverlayView.fixCurrentCropWindowRect();
+
+            scheduleSpeculativeCrop();
+            recordEditState();
+        }
+    }
+
+    /**
+     * Rotate the image freely to the given degrees clockwise, for rotation dial to call continuously.<br>
+     * Only the image matrix is changed, the crop window stays in place and the image is scaled up to cover it.
+     * The rotation is applied to the crop window by {@link #endFreeRotation()}, the image keeps the exact degrees.
+     *
+     * @param degrees the rotation of the image, not limited to 0-360
+     */
+    public void setFreeRotatedDegrees(float degrees) {
+        if (mBitmap != null) {
+            if (!mFreeRotating) {
+                startFreeRotation();
+            }
+            mFreeRotationDegrees = degrees;
+            mDegreesRotated = degrees >= 0 ? degrees % 360 : degrees % 360 + 360;
+
+            RectF cropRect = mCropOverlayView.getCropWindowRect();
+            float centerX = cropRect.centerX();
+            float centerY = cropRect.centerY();
+            mImageMatrix.set(mFreeRotationStartMatrix);
+            mImageMatrix.postRotate(degrees - mFreeRotationStartDegrees, centerX, centerY);
+            mFreeRotationScale = getFreeRotationCoverScale(cropRect);
+            mImageMatrix.postScale(mFreeRotationScale, mFreeRotationScale, centerX, centerY);
+            onImageMatrixChanged();
+        }
+    }
+
+    /**
+     * End free rotation started by {@link #setFreeRotatedDegrees(float)}, rotates the image by the exact degrees of
+     * the free rotation keeping the image region under the crop window.
+     */
+    public void endFreeRotation() {
+        if (mFreeRotating) {
+            mFreeRotating = false;
+            float rotate = mFreeRotationDegrees - mFreeRotationStartDegrees;
+
+            // the image was scaled up to cover the crop window, shrink the window instead to keep the shown region
+            RectF cropRect = mCropOverlayView.getCropWindowRect();
+            float halfWidth = cropRect.width() / 2 / mFreeRotationScale;
+            float halfHeight = cropRect.height() / 2 / mFreeRotationScale;
+            BitmapUtils.RECT.set(cropRect.centerX() - halfWidth, cropRect.centerY() - halfHeight,
+                    cropRect.centerX() + halfWidth, cropRect.centerY() + halfHeight);
+            mCropOverlayView.setCropWindowRect(BitmapUtils.RECT);
+
+            mImageMatrix.set(mFreeRotationStartMatrix);
+            mDegreesRotated = mFreeRotationStartDegrees;
+            onImageMatrixChanged();
+
+            if (rotate != 0) {
+                rotateImageInt(rotate);
+            } else {
+                mCropOverlayView.fixCurrentCropWindowRect();
+                handleCropWindowChanged(false, false);
+                scheduleSpeculativeCrop();
+                recordEditState();
+            }
+        }
+    }
+
+    /**
+     * Detect the small rotation that straightens the horizon and the dominant vertical lines of the image, in the
+     * background on a down-scaled copy of the image.<br>
+     * The result is delivered to {@link OnStraightenDetectedListener}, apply it by {@link #straightenImage(float)}.
+     */
+    public void detectStraightenAngleAsync() {
+        cancelStraightenDetection();
+        if (mBitmap != null) {
+            mStraightenTask = new StraightenTask(this, mBitmap);
+            mStraightenTask.start();
+        }
+    }
+
+    /**
+     * Rotate the image by the given small degrees and set the crop window to the largest window of the image aspect
+     * ratio that has no empty corners.<br>
+     * The image is rotated by the exact given degrees, including the sub-degree part.
+     *
+     * @param degrees the degrees to rotate the image clockwise by, as detected by {@link #detectStraightenAngleAsync()}
+     */
+    public void straightenImage(float degrees) {
+        if (mBitmap != null) {
+            if (degrees != 0) {
+                // the rotation and the crop window are a single edit
+                mEditHistorySuspended = true;
+                rotateImageInt(degrees);
+                mEditHistorySuspended = false;
+            }
+
+            mZoom = 1;
+            mZoomOffsetX = 0;
+            mZoomOffsetY = 0;
+            applyImageMatrix(getWidth(), getHeight(), false, false);
+
+            float[] points = getStraightenCropPoints(mDegreesRotated);
+            for (int i = 0; i < points.length; i++) {
+                points[i] /= mLoadedSampleSize;
+            }
+            mImageMatrix.mapPoints(points);
+            BitmapUtils.RECT.set(BitmapUtils.getRectLeft(points), BitmapUtils.getRectTop(points),
+                    BitmapUtils.getRectRight(points), BitmapUtils.getRectBottom(points));
+
+            mCropOverlayView.setCropWindowRect(BitmapUtils.RECT);
+            mCropOverlayView.fixCurrentCropWindowRect();
+            handleCropWindowChanged(false, false);
+            scheduleSpeculativeCrop();
+            recordEditState();
+        }
+    }
+
+    /**
+     * If there is an edit of the crop window, rotation, zoom or aspect ratio to undo.
+     */
+    public boolean canUndo() {
+        return mEditHistory.canUndo();
+    }
+
+    /**
+     * If there is an undone edit to redo.
+     */
+    public boolean canRedo() {
+        return mEditHistory.canRedo();
+    }
+
+    /**
+     * Undo the last edit of the crop window, rotation, zoom or aspect ratio.<br>
+     * The edits are kept as parameters and replayed on the image matrix, no image copy is made.
+     */
+    public void undo() {
+        if (mBitmap != null && !mFreeRotating && mEditHistory.canUndo()) {
+            applyEditState(mEditHistory.undo());
         }
     }
 
+    /**
+     * Redo the last undone edit, a new edit after undo drops the undone edits.
+     */
+    public void redo() {
+        if (mBitmap != null && !mFreeRotating && mEditHistory.canRedo()) {
+            applyEditState(mEditHistory.redo());
+        }
+    }
+
+    /**
+     * Clear the edit history, the current state is kept as the first state to undo to.
+     */
+    public void clearEditHistory() {
+        mEditHistory.clear();
+        recordEditState();
+    }
+
     //region: Private methods
 
     /**
@@ -930,6 +1731,10 @@ public class CropImageView extends FrameLayout {
 
         if (result.error == null) {
             setBitmap(result.bitmap, result.uri, result.loadSampleSize, result.degreesRotated);
+            if (result.contentAwareCropWindow != null) {
+                setContentAwareCropWindow(result.contentAwareCropWindow);
+            }
+            scheduleSpeculativeCrop();
         }
 
         OnSetImageUriCompleteListener listener = mOnSetImageUriCompleteListener;
@@ -946,11 +1751,14 @@ public class CropImageView extends FrameLayout {
     void onImageCroppingAsyncComplete(BitmapCroppingWorkerTask.Result result) {
 
         mBitmapCroppingWorkerTask = null;
+        // the preview is late, the full resolution result is delivered instead
+        cancelPreviewCrop();
         setProgressBarVisibility();
 
         OnCropImageCompleteListener listener = mOnCropImageCompleteListener;
         if (listener != null) {
-            CropResult cropResult = new CropResult(result.bitmap, result.uri, result.error, getCropPoints(), getCropRect(), getRotatedDegrees(), result.sampleSize);
+            CropResult cropResult = new CropResult(result.bitmap, result.uri, result.error, getCropPoints(), getCropRect(), getRotatedDegrees(),
+                    result.sampleSize, getColorAdjustments(), false);
             listener.onCropImageComplete(this, cropResult);
         }
 
@@ -968,23 +1776,23 @@ public class CropImageView extends FrameLayout {
     }
 
     /**
-     * {@link #setBitmap(Bitmap, int, Uri, int, int)}}
+     * {@link #setBitmap(Bitmap, int, Uri, int, float)}}
      */
     private void setBitmap(Bitmap bitmap) {
         setBitmap(bitmap, 0, null, 1, 0);
     }
 
     /**
-     * {@link #setBitmap(Bitmap, int, Uri, int, int)}}
+     * {@link #setBitmap(Bitmap, int, Uri, int, float)}}
      */
     private void setBitmap(Bitmap bitmap, int imageResource) {
         setBitmap(bitmap, imageResource, null, 1, 0);
     }
 
     /**
-     * {@link #setBitmap(Bitmap, int, Uri, int, int)}}
+     * {@link #setBitmap(Bitmap, int, Uri, int, float)}}
      */
-    private void setBitmap(Bitmap bitmap, Uri imageUri, int loadSampleSize, int degreesRotated) {
+    private void setBitmap(Bitmap bitmap, Uri imageUri, int loadSampleSize, float degreesRotated) {
         setBitmap(bitmap, 0, imageUri, loadSampleSize, degreesRotated);
     }
 
@@ -992,21 +1800,57 @@ public class CropImageView extends FrameLayout {
      * Set the given bitmap to be used in for cropping<br>
      * Optionally clear full if the bitmap is new, or partial clear if the bitmap has been manipulated.
      */
-    private void setBitmap(Bitmap bitmap, int imageResource, Uri imageUri, int loadSampleSize, int degreesRotated) {
+    private void setBitmap(Bitmap bitmap, int imageResource, Uri imageUri, int loadSampleSize, float degreesRotated) {
+        setBitmap(bitmap, imageResource, imageUri, loadSampleSize, degreesRotated, null);
+    }
+
+    /**
+     * Set the given bitmap to be used in for cropping<br>
+     * Optionally clear full if the bitmap is new, or partial clear if the bitmap has been manipulated.
+     *
+     * @param stateSnapshot the written snapshot of the bitmap if restored from one, null to snapshot it if needed
+     */
+    private void setBitmap(Bitmap bitmap, int imageResource, Uri imageUri, int loadSampleSize, float degreesRotated,
+                           ImageStateSnapshot stateSnapshot) {
         if (mBitmap == null || !mBitmap.equals(bitmap)) {
 
-            mImageView.clearAnimation();
+            if (mAnimation != null) {
+                mAnimation.cancel();
+            }
+            stopFling();
 
             clearImageInt();
 
             mBitmap = bitmap;
-            mImageView.setImageBitmap(mBitmap);
+            if (mBitmap != null) {
+                mImageDrawable = new MipBitmapDrawable(mBitmap);
+                mImageDrawable.buildLevels();
+                updateImageColorFilter();
+                startColorLutPreview();
+            }
+            mImageView.setImageDrawable(mImageDrawable);
+            if (mMetrics != null && mBitmap != null) {
+                mMetrics.recordBitmapUpload(mImageDrawable.getLevelByteCount());
+                scheduleMetricsReport();
+            }
+            if (mSnapToImageEdges) {
+                startEdgeSnapMap();
+            }
 
             mLoadedImageUri = imageUri;
             mImageResource = imageResource;
             mLoadedSampleSize = loadSampleSize;
             mDegreesRotated = degreesRotated;
 
+            if (mBitmap != null && imageUri == null && imageResource < 1) {
+                // the bitmap can't be reloaded, write it to disk now so instance state save only puts its key
+                mStateSnapshot = stateSnapshot != null ? stateSnapshot : ImageStateSnapshot.save(getContext(), mBitmap);
+            }
+
+            if (mOnCropHistogramListener != null) {
+                startCropHistogram();
+            }
+
             applyImageMatrix(getWidth(), getHeight(), true, false);
 
             if (mCropOverlayView != null) {
@@ -1017,76 +1861,520 @@ public class CropImageView extends FrameLayout {
     }
 
     /**
-     * Clear the current image set for cropping.<br>
-     * Full clear will also clear the data of the set image like Uri or Resource id while partial clear
-     * will only clear the bitmap and recycle if required.
-     */
-    private void clearImageInt() {
-
-        // if we allocated the bitmap, release it as fast as possible
-        if (mBitmap != null && (mImageResource > 0 || mLoadedImageUri != null)) {
-            mBitmap.recycle();
+     * Clear the current image set for cropping.<br>
+     * Full clear will also clear the data of the set image like Uri or Resource id while partial clear
+     * will only clear the bitmap and recycle if required.
+     */
+    private void clearImageInt() {
+
+        cancelSpeculativeCrop();
+        cancelEdgeSnapMap();
+        cancelStraightenDetection();
+        cancelColorLutPreview();
+        cancelCropHistogram();
+        cancelPreviewCrop();
+        mFreeRotating = false;
+        mEditHistory.clear();
+
+        // the snapshot is of the bitmap being cleared
+        if (mStateSnapshot != null) {
+            mStateSnapshot.delete();
+            mStateSnapshot = null;
+        }
+        cancelStateRestore();
+        if (mRetainedBitmapKey != null) {
+            RetainedBitmapRegistry.release(mRetainedBitmapKey);
+            mRetainedBitmapKey = null;
+        }
+
+        // the mip levels are made from the bitmap, release them before it
+        if (mImageDrawable != null) {
+            mImageDrawable.release();
+            mImageDrawable = null;
+        }
+
+        // if we allocated the bitmap, release it as fast as possible
+        if (mBitmap != null && (mImageResource > 0 || mLoadedImageUri != null)) {
+            mBitmap.recycle();
+        }
+        mBitmap = null;
+
+        // clean the loaded image flags for new image
+        mImageResource = 0;
+        mLoadedImageUri = null;
+        mLoadedSampleSize = 1;
+        mDegreesRotated = 0;
+        mZoom = 1;
+        mZoomOffsetX = 0;
+        mZoomOffsetY = 0;
+        mImageMatrix.reset();
+
+        mImageView.setImageBitmap(null);
+
+        setCropOverlayVisibility();
+    }
+
+    /**
+     * Gets the cropped image based on the current crop window.<br>
+     * If (reqWidth,reqHeight) is given AND image is loaded from URI cropping will try to use sample size to fit in
+     * the requested width and height down-sampling if possible - optimization to get best size to quality.<br>
+     * The result will be invoked to listener set by {@link #setOnGetCroppedImageCompleteListener(OnGetCroppedImageCompleteListener)}.
+     *
+     * @param reqWidth the width to resize the cropped image to (see options)
+     * @param reqHeight the height to resize the cropped image to (see options)
+     * @param options the resize method to use on the cropped bitmap
+     * @param saveUri optional: to save the cropped image to
+     * @param saveCompressFormat if saveUri is given, the given compression will be used for saving the image
+     * @param saveCompressQuality if saveUri is given, the given quality will be used for the compression (max quality
+     * if compression target is set).
+     */
+    public void startCropWorkerTask(int reqWidth, int reqHeight, RequestSizeOptions options, Uri saveUri, Bitmap.CompressFormat saveCompressFormat, int saveCompressQuality) {
+        if (mBitmap != null) {
+            endAnimation();
+
+            BitmapCroppingWorkerTask currentTask = mBitmapCroppingWorkerTask != null ? mBitmapCroppingWorkerTask.get() : null;
+            if (currentTask != null) {
+                // cancel previous cropping
+                currentTask.cancel(true);
+            }
+
+            reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
+            reqHeight = options != RequestSizeOptions.NONE ? reqHeight : 0;
+
+            int orgWidth = mBitmap.getWidth() * mLoadedSampleSize;
+            int orgHeight = mBitmap.getHeight() * mLoadedSampleSize;
+            if (mLoadedImageUri != null && (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING)) {
+                float[] cropPoints = getCropPoints();
+                BitmapCroppingSpeculation speculation = takeCropSpeculation(cropPoints, orgWidth, orgHeight, reqWidth, reqHeight);
+                mBitmapCroppingWorkerTask = new WeakReference<>(new BitmapCroppingWorkerTask(this, mLoadedImageUri, cropPoints,
+                        mDegreesRotated, orgWidth, orgHeight,
+                        mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
+                        reqWidth, reqHeight, options,
+                        saveUri, saveCompressFormat, saveCompressQuality,
+                        mOutputCompressMode, mOutputCompressTargetSize, mOutputCompressTargetSsim,
+                        createOutputPass(true), speculation));
+                if (mPreviewCropResult && mOnCropImageCompleteListener != null) {
+                    startPreviewCrop(cropPoints, reqWidth, reqHeight, options);
+                }
+            } else {
+                cancelSpeculativeCrop();
+                mBitmapCroppingWorkerTask = new WeakReference<>(new BitmapCroppingWorkerTask(this, mBitmap, getCropPoints(), mDegreesRotated,
+                        mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
+                        reqWidth, reqHeight, options,
+                        saveUri, saveCompressFormat, saveCompressQuality,
+                        mOutputCompressMode, mOutputCompressTargetSize, mOutputCompressTargetSsim,
+                        createOutputPass(true)));
+            }
+            mBitmapCroppingWorkerTask.get().execute();
+            setProgressBarVisibility();
+        }
+    }
+
+    /**
+     * Start cropping the in-memory (sampled) image by the given crop points in the background, the result is posted
+     * as preview to crop complete listener, before the full resolution result is delivered.
+     */
+    private void startPreviewCrop(float[] cropPoints, int reqWidth, int reqHeight, RequestSizeOptions options) {
+        cancelPreviewCrop();
+        mPreviewCropTask = new PreviewCropTask(this, mBitmap, cropPoints, getCropRect(), mLoadedSampleSize, mDegreesRotated,
+                mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
+                reqWidth, reqHeight, options, createOutputPass(false), getColorAdjustments());
+        mPreviewCropTask.start();
+    }
+
+    /**
+     * Cancel the preview crop if in progress, the preview is not delivered.
+     */
+    private void cancelPreviewCrop() {
+        if (mPreviewCropTask != null) {
+            mPreviewCropTask.cancel();
+            mPreviewCropTask = null;
+        }
+    }
+
+    /**
+     * On complete of the preview crop call the crop complete listener if set.
+     */
+    void onPreviewCropResult(PreviewCropTask task, CropResult cropResult) {
+        OnCropImageCompleteListener listener = task == mPreviewCropTask ? mOnCropImageCompleteListener : null;
+        if (task == mPreviewCropTask) {
+            mPreviewCropTask = null;
+        }
+        if (listener != null) {
+            listener.onCropImageComplete(this, cropResult);
+        } else if (cropResult.getBitmap() != null) {
+            cropResult.getBitmap().recycle();
+        }
+    }
+
+    /**
+     * Schedule report of the collected metrics, postponed by following changes.
+     */
+    private void scheduleMetricsReport() {
+        if (mOnMetricsListener != null) {
+            removeCallbacks(mMetricsReportRunnable);
+            postDelayed(mMetricsReportRunnable, METRICS_REPORT_DELAY);
+        }
+    }
+
+    /**
+     * Schedule speculative crop to start after the crop window is idle, if enabled.
+     */
+    private void scheduleSpeculativeCrop() {
+        removeCallbacks(mSpeculativeCropRunnable);
+        if (mSpeculativeCropOptions != null) {
+            postDelayed(mSpeculativeCropRunnable, SPECULATIVE_CROP_IDLE_DELAY);
+        }
+    }
+
+    /**
+     * Cancel scheduled and current speculative crop as it is stale.
+     */
+    private void cancelSpeculativeCrop() {
+        removeCallbacks(mSpeculativeCropRunnable);
+        if (mCropSpeculation != null) {
+            mCropSpeculation.cancel();
+            mCropSpeculation = null;
+        }
+    }
+
+    /**
+     * Start speculative decode of the current crop window by the expected crop request, replacing the current
+     * speculation if it is for a different crop.<br>
+     * Only if the crop request will decode the cropped image from URI and no crop is in progress.
+     */
+    private void startSpeculativeCrop() {
+        RequestSizeOptions options = mSpeculativeCropOptions;
+        if (mBitmap == null || options == null || mBitmapCroppingWorkerTask != null ||
+                mLoadedImageUri == null || (mLoadedSampleSize < 2 && options != RequestSizeOptions.SAMPLING)) {
+            return;
+        }
+
+        int reqWidth = options != RequestSizeOptions.NONE ? mSpeculativeCropReqWidth : 0;
+        int reqHeight = options != RequestSizeOptions.NONE ? mSpeculativeCropReqHeight : 0;
+        int orgWidth = mBitmap.getWidth() * mLoadedSampleSize;
+        int orgHeight = mBitmap.getHeight() * mLoadedSampleSize;
+        float[] cropPoints = getCropPoints();
+
+        if (mCropSpeculation != null) {
+            if (mCropSpeculation.matches(mLoadedImageUri, cropPoints, mDegreesRotated, orgWidth, orgHeight,
+                    mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
+                    reqWidth, reqHeight)) {
+                return;
+            }
+            mCropSpeculation.cancel();
+        }
+
+        mCropSpeculation = new BitmapCroppingSpeculation(getContext(), mLoadedImageUri, cropPoints,
+                mDegreesRotated, orgWidth, orgHeight,
+                mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
+                reqWidth, reqHeight);
+        mCropSpeculation.start();
+    }
+
+    /**
+     * Take the current speculative crop for crop request if it matches the request, otherwise cancel it.
+     *
+     * @return the matching speculation, owned by the caller, or null if none
+     */
+    private BitmapCroppingSpeculation takeCropSpeculation(float[] cropPoints, int orgWidth, int orgHeight, int reqWidth, int reqHeight) {
+        removeCallbacks(mSpeculativeCropRunnable);
+        BitmapCroppingSpeculation speculation = mCropSpeculation;
+        mCropSpeculation = null;
+        if (speculation != null && !speculation.matches(mLoadedImageUri, cropPoints, mDegreesRotated, orgWidth, orgHeight,
+                mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
+                reqWidth, reqHeight)) {
+            speculation.cancel();
+            speculation = null;
+        }
+        return speculation;
+    }
+
+    /**
+     * Set the initial crop window to the content-aware window found by the loading task.<br>
+     * The initial crop window rectangle is mapped to the shown image by the bitmap size scale factors (see
+     * {@link #updateImageBounds}), so the window in fractions of the shown image is given in those units.
+     */
+    private void setContentAwareCropWindow(RectF window) {
+        float width = mBitmap.getWidth() * mLoadedSampleSize;
+        float height = mBitmap.getHeight() * mLoadedSampleSize;
+        mCropOverlayView.setInitialCropWindowRect(new Rect(
+                Math.round(window.left * width), Math.round(window.top * height),
+                Math.round(window.right * width), Math.round(window.bottom * height)));
+    }
+
+    /**
+     * Start computing the strong image edges of the current image for crop window snapping.
+     */
+    private void startEdgeSnapMap() {
+        cancelEdgeSnapMap();
+        if (mBitmap != null) {
+            mEdgeSnapMapTask = new EdgeSnapMapTask(this, mBitmap);
+            mEdgeSnapMapTask.start();
+        }
+    }
+
+    /**
+     * Cancel computing the strong image edges and stop snapping to them.
+     */
+    private void cancelEdgeSnapMap() {
+        if (mEdgeSnapMapTask != null) {
+            mEdgeSnapMapTask.cancel();
+            mEdgeSnapMapTask = null;
+        }
+        mCropOverlayView.setEdgeSnapMap(null);
+    }
+
+    /**
+     * On complete of the strong image edges computation set them to the crop overlay for snapping.
+     */
+    void onEdgeSnapMapComputed(EdgeSnapMapTask task, EdgeSnapMap map) {
+        if (task == mEdgeSnapMapTask) {
+            mEdgeSnapMapTask = null;
+            mCropOverlayView.setEdgeSnapMap(map);
+        }
+    }
+
+    /**
+     * Start free rotation from the current image state.
+     */
+    private void startFreeRotation() {
+        stopFling();
+        interruptAnimation();
+        cancelSpeculativeCrop();
+        mFreeRotating = true;
+        mFreeRotationStartDegrees = mDegreesRotated;
+        mFreeRotationDegrees = mDegreesRotated;
+        mFreeRotationScale = 1;
+        mFreeRotationStartMatrix.set(mImageMatrix);
+    }
+
+    /**
+     * Get the min scale around the crop window center for the rotated image (the current image matrix) to cover the
+     * crop window.<br>
+     * The window corners are mapped to the image, scaling by s around the center moves each corner to
+     * center + (corner - center) / s, so each image edge gives the scale in closed form.
+     */
+    private float getFreeRotationCoverScale(RectF cropRect) {
+        float[] points = mFreeRotationPoints;
+        points[0] = cropRect.centerX();
+        points[1] = cropRect.centerY();
+        points[2] = cropRect.left;
+        points[3] = cropRect.top;
+        points[4] = cropRect.right;
+        points[5] = cropRect.top;
+        points[6] = cropRect.right;
+        points[7] = cropRect.bottom;
+        points[8] = cropRect.left;
+        points[9] = cropRect.bottom;
+        mImageMatrix.invert(mImageInverseMatrix);
+        mImageInverseMatrix.mapPoints(points);
+
+        float centerX = points[0];
+        float centerY = points[1];
+        float width = mBitmap.getWidth();
+        float height = mBitmap.getHeight();
+        if (centerX <= 0 || centerX >= width || centerY <= 0 || centerY >= height) {
+            // no scale around the center covers the window, fixed when free rotation ends
+            return 1;
+        }
+        float scale = 1;
+        for (int i = 2; i < points.length; i += 2) {
+            float dx = points[i] - centerX;
+            float dy = points[i + 1] - centerY;
+            scale = Math.max(scale, dx > 0 ? dx / (width - centerX) : -dx / centerX);
+            scale = Math.max(scale, dy > 0 ? dy / (height - centerY) : -dy / centerY);
+        }
+        return Math.min(scale, mMaxZoom);
+    }
+
+    /**
+     * Cancel the straighten angle detection, the result is not delivered.
+     */
+    private void cancelStraightenDetection() {
+        if (mStraightenTask != null) {
+            mStraightenTask.cancel();
+            mStraightenTask = null;
+        }
+    }
+
+    /**
+     * On complete of the straighten angle detection call listener if set.
+     */
+    void onStraightenDetected(StraightenTask task, float degrees) {
+        if (task == mStraightenTask) {
+            mStraightenTask = null;
+            OnStraightenDetectedListener listener = mOnStraightenDetectedListener;
+            if (listener != null) {
+                listener.onStraightenDetected(this, degrees, getStraightenCropPoints(mDegreesRotated + degrees));
+            }
+        }
+    }
+
+    /**
+     * Start creating the LUT graded proxy of the image in the background, if there is LUT and image.<br>
+     * The proxy is the size of the view so the preview is as sharp as the image is shown un-zoomed.
+     */
+    private void startColorLutPreview() {
+        if (mColorLut != null && mBitmap != null) {
+            int size = Math.max(getWidth(), getHeight());
+            mColorLutPreviewTask = new ColorLutPreviewTask(this, mBitmap, mColorLut,
+                    size > 0 ? Math.min(size, MAX_LUT_PREVIEW_SIZE) : MAX_LUT_PREVIEW_SIZE / 2);
+            mColorLutPreviewTask.start();
+        }
+    }
+
+    /**
+     * Cancel the LUT preview proxy creation if running.
+     */
+    private void cancelColorLutPreview() {
+        if (mColorLutPreviewTask != null) {
+            mColorLutPreviewTask.cancel();
+            mColorLutPreviewTask = null;
+        }
+    }
+
+    /**
+     * On complete of the LUT preview proxy show it instead of the image.
+     */
+    void onColorLutPreview(ColorLutPreviewTask task, Bitmap proxy) {
+        if (task == mColorLutPreviewTask && mImageDrawable != null) {
+            mColorLutPreviewTask = null;
+            mImageDrawable.setProxy(proxy);
+        } else {
+            proxy.recycle();
+        }
+    }
+
+    /**
+     * Start keeping the histogram of the crop window region up to date, if there is image.
+     */
+    private void startCropHistogram() {
+        cancelCropHistogram();
+        if (mBitmap != null) {
+            mCropHistogramTask = new CropHistogramTask(this, mBitmap, mLoadedSampleSize);
+            mCropHistogramTask.start();
+        }
+    }
+
+    /**
+     * Cancel keeping the histogram of the crop window region up to date, the pending histogram is not delivered.
+     */
+    private void cancelCropHistogram() {
+        if (mCropHistogramTask != null) {
+            mCropHistogramTask.cancel();
+            mCropHistogramTask = null;
+        }
+    }
+
+    /**
+     * On the histogram of the crop window region computed call listener if set.
+     */
+    void onCropHistogram(CropHistogramTask task, CropHistogram histogram) {
+        if (task == mCropHistogramTask) {
+            OnCropHistogramListener listener = mOnCropHistogramListener;
+            if (listener != null) {
+                listener.onCropHistogram(this, histogram);
+            }
+        }
+    }
+
+    /**
+     * Cancel the restore of the image from its instance state snapshot in progress, if any.<br>
+     * The snapshot is deleted unless its key was saved to state again.
+     */
+    private void cancelStateRestore() {
+        if (mStateRestoreTask != null) {
+            if (!mStateRestoreTask.isKeySaved()) {
+                ImageStateSnapshot.delete(getContext(), mStateRestoreTask.getKey());
+            }
+            mStateRestoreTask = null;
+        }
+    }
+
+    /**
+     * On the image loaded from its instance state snapshot set it, unless another image was set meanwhile.<br>
+     * The restored snapshot is kept as the snapshot of the set bitmap, so the image is not written again.
+     */
+    void onImageStateRestored(ImageStateSnapshot.RestoreTask task, Bitmap bitmap) {
+        if (task == mStateRestoreTask) {
+            mStateRestoreTask = null;
+            if (bitmap != null) {
+                setBitmap(bitmap, 0, null, 1, mDegreesRotated, ImageStateSnapshot.adopt(getContext(), task.getKey()));
+            } else if (!task.isKeySaved()) {
+                ImageStateSnapshot.delete(getContext(), task.getKey());
+            }
+        } else if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Get the 4 points of the largest crop window of the shown image aspect ratio, centered, that has no empty
+     * corners when the image is rotated by the given degrees.
+     *
+     * @return the points relative to the source image, the same as {@link #getCropPoints()}
+     */
+    private float[] getStraightenCropPoints(float degreesRotated) {
+        float width = mBitmap.getWidth() * mLoadedSampleSize;
+        float height = mBitmap.getHeight() * mLoadedSampleSize;
+
+        // the shown width/height by the nearest straight angle and the small rotation from it
+        int straightAngle = Math.round(degreesRotated / 90) * 90;
+        boolean swapAxes = straightAngle % 180 != 0;
+        float shownWidth = swapAxes ? height : width;
+        float shownHeight = swapAxes ? width : height;
+        float scale = StraightenDetector.getCropScale(degreesRotated - straightAngle, shownWidth, shownHeight);
+        float halfWidth = shownWidth * scale / 2;
+        float halfHeight = shownHeight * scale / 2;
+
+        // rotate the window corners from the shown orientation back to the source image around its center
+        double radians = Math.toRadians(-degreesRotated);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        float[] points = new float[]{
+                -halfWidth, -halfHeight,
+                halfWidth, -halfHeight,
+                halfWidth, halfHeight,
+                -halfWidth, halfHeight
+        };
+        for (int i = 0; i < points.length; i += 2) {
+            float x = points[i];
+            float y = points[i + 1];
+            points[i] = width / 2 + x * cos - y * sin;
+            points[i + 1] = height / 2 + x * sin + y * cos;
         }
-        mBitmap = null;
-
-        // clean the loaded image flags for new image
-        mImageResource = 0;
-        mLoadedImageUri = null;
-        mLoadedSampleSize = 1;
-        mDegreesRotated = 0;
-        mZoom = 1;
-        mZoomOffsetX = 0;
-        mZoomOffsetY = 0;
-        mImageMatrix.reset();
-
-        mImageView.setImageBitmap(null);
-
-        setCropOverlayVisibility();
+        return points;
     }
 
     /**
-     * Gets the cropped image based on the current crop window.<br>
-     * If (reqWidth,reqHeight) is given AND image is loaded from URI cropping will try to use sample size to fit in
-     * the requested width and height down-sampling if possible - optimization to get best size to quality.<br>
-     * The result will be invoked to listener set by {@link #setOnGetCroppedImageCompleteListener(OnGetCroppedImageCompleteListener)}.
+     * Create the per-pixel pass to apply on the cropped image by the current crop shape and output options.
      *
-     * @param reqWidth the width to resize the cropped image to (see options)
-     * @param reqHeight the height to resize the cropped image to (see options)
-     * @param options the resize method to use on the cropped bitmap
-     * @param saveUri optional: to save the cropped image to
-     * @param saveCompressFormat if saveUri is given, the given compression will be used for saving the image
-     * @param saveCompressQuality if saveUri is given, the given quality will be used for the compression.
+     * @param withFilter if to include the convolution filter, its radius is in output pixels so it is only applied
+     * on crops made at the output resolution
      */
-    public void startCropWorkerTask(int reqWidth, int reqHeight, RequestSizeOptions options, Uri saveUri, Bitmap.CompressFormat saveCompressFormat, int saveCompressQuality) {
-        if (mBitmap != null) {
-            mImageView.clearAnimation();
-
-            BitmapCroppingWorkerTask currentTask = mBitmapCroppingWorkerTask != null ? mBitmapCroppingWorkerTask.get() : null;
-            if (currentTask != null) {
-                // cancel previous cropping
-                currentTask.cancel(true);
-            }
+    private CropOutputPass createOutputPass(boolean withFilter) {
+        return new CropOutputPass(mOutputOvalMask && mCropOverlayView.getCropShape() == CropShape.OVAL,
+                withFilter ? mOutputFilter : null, mColorLut, mColorMatrix);
+    }
 
-            reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
-            reqHeight = options != RequestSizeOptions.NONE ? reqHeight : 0;
+    /**
+     * Draw the shown image through the color adjustments matrix, a color filter of the image layer.
+     */
+    private void updateImageColorFilter() {
+        if (mImageDrawable != null) {
+            mImageDrawable.setColorFilter(mColorMatrix != null ? new ColorMatrixColorFilter(mColorMatrix) : null);
+        }
+    }
 
-            int orgWidth = mBitmap.getWidth() * mLoadedSampleSize;
-            int orgHeight = mBitmap.getHeight() * mLoadedSampleSize;
-            if (mLoadedImageUri != null && (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING)) {
-                mBitmapCroppingWorkerTask = new WeakReference<>(new BitmapCroppingWorkerTask(this, mLoadedImageUri, getCropPoints(),
-                        mDegreesRotated, orgWidth, orgHeight,
-                        mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
-                        reqWidth, reqHeight, options,
-                        saveUri, saveCompressFormat, saveCompressQuality));
-            } else {
-                mBitmapCroppingWorkerTask = new WeakReference<>(new BitmapCroppingWorkerTask(this, mBitmap, getCropPoints(), mDegreesRotated,
-                        mCropOverlayView.isFixAspectRatio(), mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY(),
-                        reqWidth, reqHeight, options,
-                        saveUri, saveCompressFormat, saveCompressQuality));
-            }
-            mBitmapCroppingWorkerTask.get().execute();
-            setProgressBarVisibility();
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent ev) {
+        if (ev.getAction() == MotionEvent.ACTION_DOWN) {
+            // user touch stops the zoom animation and fling where they are
+            interruptAnimation();
+            stopFling();
         }
+        return super.onInterceptTouchEvent(ev);
     }
 
     @Override
@@ -1095,13 +2383,28 @@ public class CropImageView extends FrameLayout {
         bundle.putParcelable("instanceState", super.onSaveInstanceState());
         bundle.putParcelable("LOADED_IMAGE_URI", mLoadedImageUri);
         bundle.putInt("LOADED_IMAGE_RESOURCE", mImageResource);
-        if (mLoadedImageUri == null && mImageResource < 1) {
-            bundle.putParcelable("SET_BITMAP", mBitmap);
+
+        BitmapUtils.RECT.set(mCropOverlayView.getCropWindowRect());
+
+        mImageMatrix.invert(mImageInverseMatrix);
+        mImageInverseMatrix.mapRect(BitmapUtils.RECT);
+
+        if (mLoadedImageUri == null && mImageResource < 1 && mBitmap != null) {
+            // the bitmap can't be reloaded, only the key of its snapshot is in the bundle, a pending write is finished
+            // now as the bitmap is too large to parcel, it is parceled only if the snapshot can't be written
+            if (mStateSnapshot != null && mStateSnapshot.awaitWritten()) {
+                bundle.putString("SET_BITMAP_STATE_KEY", mStateSnapshot.getKey());
+            } else {
+                bundle.putParcelable("SET_BITMAP", mBitmap);
+            }
+        } else if (mStateRestoreTask != null) {
+            // the snapshot is still being restored, keep it for the restore of this state
+            mStateRestoreTask.setKeySaved();
+            bundle.putString("SET_BITMAP_STATE_KEY", mStateRestoreTask.getKey());
         }
         if (mLoadedImageUri != null && mBitmap != null) {
-            String key = UUID.randomUUID().toString();
-            BitmapUtils.mStateBitmap = new Pair<>(key, new WeakReference<>(mBitmap));
-            bundle.putString("LOADED_IMAGE_STATE_BITMAP_KEY", key);
+            mRetainedBitmapKey = RetainedBitmapRegistry.retain(mBitmap, mRetainedBitmapKey);
+            bundle.putString("LOADED_IMAGE_STATE_BITMAP_KEY", mRetainedBitmapKey);
         }
         if (mBitmapLoadingWorkerTask != null) {
             BitmapLoadingWorkerTask task = mBitmapLoadingWorkerTask.get();
@@ -1110,18 +2413,14 @@ public class CropImageView extends FrameLayout {
             }
         }
         bundle.putInt("LOADED_SAMPLE_SIZE", mLoadedSampleSize);
-        bundle.putInt("DEGREES_ROTATED", mDegreesRotated);
+        bundle.putFloat("DEGREES_ROTATED", mDegreesRotated);
         bundle.putParcelable("INITIAL_CROP_RECT", mCropOverlayView.getInitialCropWindowRect());
-
-        BitmapUtils.RECT.set(mCropOverlayView.getCropWindowRect());
-
-        mImageMatrix.invert(mImageInverseMatrix);
-        mImageInverseMatrix.mapRect(BitmapUtils.RECT);
-
         bundle.putParcelable("CROP_WINDOW_RECT", BitmapUtils.RECT);
+        bundle.putParcelable("EDIT_HISTORY", mEditHistory);
         bundle.putString("CROP_SHAPE", mCropOverlayView.getCropShape().name());
         bundle.putBoolean("CROP_AUTO_ZOOM_ENABLED", mAutoZoomEnabled);
         bundle.putInt("CROP_MAX_ZOOM", mMaxZoom);
+        bundle.putParcelable("COLOR_ADJUSTMENTS", mColorAdjustments);
 
         return bundle;
     }
@@ -1139,10 +2438,8 @@ public class CropImageView extends FrameLayout {
                 if (uri != null) {
                     String key = bundle.getString("LOADED_IMAGE_STATE_BITMAP_KEY");
                     if (key != null) {
-                        Bitmap stateBitmap = BitmapUtils.mStateBitmap != null && BitmapUtils.mStateBitmap.first.equals(key)
-                                ? BitmapUtils.mStateBitmap.second.get() : null;
-                        if (stateBitmap != null && !stateBitmap.isRecycled()) {
-                            BitmapUtils.mStateBitmap = null;
+                        Bitmap stateBitmap = RetainedBitmapRegistry.take(key);
+                        if (stateBitmap != null) {
                             setBitmap(stateBitmap, uri, bundle.getInt("LOADED_SAMPLE_SIZE"), 0);
                         }
                     }
@@ -1153,6 +2450,10 @@ public class CropImageView extends FrameLayout {
                     int resId = bundle.getInt("LOADED_IMAGE_RESOURCE");
                     if (resId > 0) {
                         setImageResource(resId);
+                    } else if (bundle.getString("SET_BITMAP_STATE_KEY") != null) {
+                        // the snapshot is read in the background, the bitmap is set when it is loaded
+                        mStateRestoreTask = new ImageStateSnapshot.RestoreTask(this, bundle.getString("SET_BITMAP_STATE_KEY"));
+                        mStateRestoreTask.start();
                     } else {
                         Bitmap bitmap = bundle.getParcelable("SET_BITMAP");
                         if (bitmap != null) {
@@ -1166,16 +2467,19 @@ public class CropImageView extends FrameLayout {
                     }
                 }
 
-                mDegreesRotated = bundle.getInt("DEGREES_ROTATED");
+                mDegreesRotated = bundle.getFloat("DEGREES_ROTATED");
 
                 mCropOverlayView.setInitialCropWindowRect((Rect) bundle.getParcelable("INITIAL_CROP_RECT"));
 
                 mRestoreCropWindowRect = bundle.getParcelable("CROP_WINDOW_RECT");
 
+                mRestoreEditHistory = bundle.getParcelable("EDIT_HISTORY");
+
                 mCropOverlayView.setCropShape(CropShape.valueOf(bundle.getString("CROP_SHAPE")));
 
                 mAutoZoomEnabled = bundle.getBoolean("CROP_AUTO_ZOOM_ENABLED");
                 mMaxZoom = bundle.getInt("CROP_MAX_ZOOM");
+                setColorAdjustments((ColorAdjustments) bundle.getParcelable("COLOR_ADJUSTMENTS"));
             }
 
             super.onRestoreInstanceState(bundle.getParcelable("instanceState"));
@@ -1242,6 +2546,26 @@ public class CropImageView extends FrameLayout {
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // the retained bitmap is not restored if the activity finishes for good, release it now instead of on timeout
+        if ((mRetainedBitmapKey != null || mStateSnapshot != null) && getContext() instanceof Activity) {
+            Activity activity = (Activity) getContext();
+            if (activity.isFinishing() && (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !activity.isChangingConfigurations())) {
+                if (mRetainedBitmapKey != null) {
+                    RetainedBitmapRegistry.release(mRetainedBitmapKey);
+                    mRetainedBitmapKey = null;
+                }
+                // same for the snapshot, it is not needed by any state
+                if (mStateSnapshot != null) {
+                    mStateSnapshot.delete();
+                    mStateSnapshot = null;
+                }
+            }
+        }
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
 
@@ -1268,6 +2592,15 @@ public class CropImageView extends FrameLayout {
                     mSizeChanged = false;
                     handleCropWindowChanged(false, false);
                 }
+
+                // the history of restored state replaces the history of the image load, else the first state of
+                // the image is recorded to undo to
+                if (mRestoreEditHistory != null) {
+                    mEditHistory = mRestoreEditHistory;
+                    mRestoreEditHistory = null;
+                } else if (mEditHistory.isEmpty()) {
+                    recordEditState();
+                }
             } else {
                 updateImageBounds(true);
             }
@@ -1300,6 +2633,9 @@ public class CropImageView extends FrameLayout {
         int height = getHeight();
         if (mBitmap != null && width > 0 && height > 0) {
 
+            // continue from what is shown if zoom animation is in progress
+            interruptAnimation();
+
             RectF cropRect = mCropOverlayView.getCropWindowRect();
             if (inProgress) {
                 if (cropRect.left < 0 || cropRect.top < 0 || cropRect.right > width || cropRect.bottom > height) {
@@ -1322,7 +2658,8 @@ public class CropImageView extends FrameLayout {
                     if (animate) {
                         if (mAnimation == null) {
                             // lazy create animation single instance
-                            mAnimation = new CropImageAnimation(mImageView, mCropOverlayView);
+                            mAnimation = new CropImageAnimator(mImageView, mCropOverlayView);
+                            mAnimation.setMetrics(mMetrics);
                         }
                         // set the state for animation to start from
                         mAnimation.setStartState(mImagePoints, mImageMatrix);
@@ -1333,6 +2670,18 @@ public class CropImageView extends FrameLayout {
                     applyImageMatrix(width, height, true, animate);
                 }
             }
+
+            onCropRegionChanged();
+        }
+    }
+
+    /**
+     * The image region under the crop window changed, by the crop window, the image matrix or the rotation.<br>
+     * Called by every path changing them, continuously while a gesture or free rotation is in progress.
+     */
+    private void onCropRegionChanged() {
+        if (mCropHistogramTask != null) {
+            mCropHistogramTask.request();
         }
     }
 
@@ -1345,6 +2694,12 @@ public class CropImageView extends FrameLayout {
     private void applyImageMatrix(float width, float height, boolean center, boolean animate) {
         if (mBitmap != null && width > 0 && height > 0) {
 
+            long startTime = mMetrics != null ? System.nanoTime() : 0;
+            CropImageMetrics.beginSection("AIC#applyImageMatrix");
+
+            // the animation starts from the current scale, the shown level must cover it too
+            float startDisplayScale = animate ? getImageDisplayScale() : 0;
+
             mImageMatrix.invert(mImageInverseMatrix);
             RectF cropRect = mCropOverlayView.getCropWindowRect();
             mImageInverseMatrix.mapRect(cropRect);
@@ -1396,13 +2751,181 @@ public class CropImageView extends FrameLayout {
             if (animate) {
                 // set the state for animation to end in, start animation now
                 mAnimation.setEndState(mImagePoints, mImageMatrix);
-                mImageView.startAnimation(mAnimation);
+                mAnimation.start();
             } else {
                 mImageView.setImageMatrix(mImageMatrix);
             }
 
             // update the image rectangle in the crop overlay
             updateImageBounds(false);
+            updateImageDisplayLevel(startDisplayScale);
+            onCropRegionChanged();
+
+            CropImageMetrics.endSection();
+            if (mMetrics != null) {
+                mMetrics.recordApplyImageMatrix(startTime);
+            }
+        }
+    }
+
+    /**
+     * Stop zoom animation in progress keeping the currently shown state: the image matrix, zoom and zoom offset are
+     * updated to the animation state so the following changes continue from it.
+     */
+    private void interruptAnimation() {
+        if (mAnimation != null && mAnimation.isRunning()) {
+            mAnimation.cancel();
+            mAnimation.getImageMatrix(mImageMatrix);
+            mZoom = Math.max(1, mZoom * mAnimation.getScaleToEnd());
+            mapImagePointsByImageMatrix();
+
+            // the image center is translated by the zoom offset from the view center
+            mZoomOffsetX = (BitmapUtils.getRectCenterX(mImagePoints) - getWidth() / 2f) / mZoom;
+            mZoomOffsetY = (BitmapUtils.getRectCenterY(mImagePoints) - getHeight() / 2f) / mZoom;
+            updateImageBounds(false);
+            updateImageDisplayLevel(0);
+        }
+    }
+
+    /**
+     * Pan the image by the given delta in view pixels, limited so the image keeps covering the crop window.<br>
+     * The image matrix is changed incrementally, the crop window stays in place.
+     */
+    private void panImage(float dx, float dy) {
+        setImageQuad();
+        mImageQuadDelta[0] = dx;
+        mImageQuadDelta[1] = dy;
+        mImageQuad.limitTranslation(mImageQuadRect, mImageQuadDelta);
+        dx = mImageQuadDelta[0];
+        dy = mImageQuadDelta[1];
+        if (dx != 0 || dy != 0) {
+            mImageMatrix.postTranslate(dx, dy);
+            mZoomOffsetX += dx / mZoom;
+            mZoomOffsetY += dy / mZoom;
+            onImageMatrixChanged();
+        }
+    }
+
+    /**
+     * Zoom the image by the given scale around the given focus point in view pixels, limited to the allowed zoom
+     * range and so the image keeps covering the crop window.<br>
+     * The image matrix is changed incrementally, the crop window stays in place.
+     */
+    private void zoomImage(float scale, float focusX, float focusY) {
+        setImageQuad();
+        float minScale = Math.max(1 / mZoom, mImageQuad.getMinScale(mImageQuadRect));
+        scale = Math.max(minScale, Math.min(scale, mMaxZoom / mZoom));
+        if (scale != 1) {
+            mImageMatrix.postScale(scale, scale, focusX, focusY);
+            mZoom *= scale;
+            mapImagePointsByImageMatrix();
+
+            // zoom out may uncover the crop window, translate the image back over it
+            setImageQuad();
+            mImageQuadDelta[0] = 0;
+            mImageQuadDelta[1] = 0;
+            mImageQuad.limitTranslation(mImageQuadRect, mImageQuadDelta);
+            float dx = mImageQuadDelta[0];
+            float dy = mImageQuadDelta[1];
+            mImageMatrix.postTranslate(dx, dy);
+
+            // the image center is translated by the zoom offset from the view center
+            mZoomOffsetX = (BitmapUtils.getRectCenterX(mImagePoints) + dx - getWidth() / 2f) / mZoom;
+            mZoomOffsetY = (BitmapUtils.getRectCenterY(mImagePoints) + dy - getHeight() / 2f) / mZoom;
+            onImageMatrixChanged();
+        }
+    }
+
+    /**
+     * Apply image matrix changed by image gesture to the image and crop overlay.
+     */
+    private void onImageMatrixChanged() {
+        long startTime = mMetrics != null ? System.nanoTime() : 0;
+        CropImageMetrics.beginSection("AIC#applyImageMatrix");
+        mapImagePointsByImageMatrix();
+        mImageView.setImageMatrix(mImageMatrix);
+        updateImageBounds(false);
+        updateImageDisplayLevel(0);
+        mCropOverlayView.invalidateChange();
+        onCropRegionChanged();
+        CropImageMetrics.endSection();
+        if (mMetrics != null) {
+            mMetrics.recordApplyImageMatrix(startTime);
+        }
+    }
+
+    /**
+     * Start fling of the image by the given velocity, limited so the image keeps covering the crop window.
+     */
+    private void startFling(float velocityX, float velocityY) {
+        if (mFlingScroller == null) {
+            mFlingScroller = new OverScroller(getContext());
+        }
+        setImageQuad();
+        mImageQuad.getTranslationBounds(mImageQuadRect, mImageQuadDelta);
+        mFlingLastX = 0;
+        mFlingLastY = 0;
+        mFlingScroller.fling(0, 0, (int) velocityX, (int) velocityY,
+                (int) mImageQuadDelta[0], (int) mImageQuadDelta[2], (int) mImageQuadDelta[1], (int) mImageQuadDelta[3]);
+        postFlingFrame();
+    }
+
+    /**
+     * Set {@link #mImageQuad} to the current image points and {@link #mImageQuadRect} to the crop window.
+     */
+    private void setImageQuad() {
+        RectF cropRect = mCropOverlayView.getCropWindowRect();
+        CropWindowGeometry.set(mImageQuadRect, cropRect.left, cropRect.top, cropRect.right, cropRect.bottom);
+        mImageQuad.setQuad(mImagePoints);
+    }
+
+    /**
+     * Stop image fling in progress leaving the image where it is.
+     */
+    private void stopFling() {
+        if (mFlingScroller != null && !mFlingScroller.isFinished()) {
+            mFlingScroller.forceFinished(true);
+        }
+        removeCallbacks(mFlingRunnable);
+    }
+
+    /**
+     * Schedule the next image fling frame.
+     */
+    private void postFlingFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(mFlingRunnable);
+        } else {
+            postDelayed(mFlingRunnable, 16);
+        }
+    }
+
+    /**
+     * Stop zoom animation in progress jumping to its end state.
+     */
+    private void endAnimation() {
+        if (mAnimation != null) {
+            mAnimation.end();
+        }
+    }
+
+    /**
+     * Get the scale the image bitmap is shown on screen by the current image matrix.
+     */
+    private float getImageDisplayScale() {
+        mImageMatrix.getValues(mImageMatrixValues);
+        return (float) Math.hypot(mImageMatrixValues[Matrix.MSCALE_X], mImageMatrixValues[Matrix.MSKEW_Y]);
+    }
+
+    /**
+     * Select the mip level of the shown image by the current on-screen scale so zoomed-out image is drawn from a
+     * smaller bitmap, the level switches as the zoom changes.
+     *
+     * @param minScale the minimal scale the level must cover, used for zoom animation start state
+     */
+    private void updateImageDisplayLevel(float minScale) {
+        if (mImageDrawable != null && mImageDrawable.setDisplayScale(Math.max(minScale, getImageDisplayScale())) && mMetrics != null) {
+            mMetrics.recordBitmapUpload(mImageDrawable.getLevelByteCount());
         }
     }
 
@@ -1482,6 +3005,144 @@ public class CropImageView extends FrameLayout {
         // set the bitmap rectangle and update the crop window after scale factor is set
         mCropOverlayView.setBounds(clear ? null : mImagePoints, getWidth(), getHeight());
     }
+
+    /**
+     * Record the current crop window, rotation, zoom and aspect ratio in the edit history.<br>
+     * The crop window is recorded by its center and size in the original image pixels, the size along the view axes.
+     */
+    private void recordEditState() {
+        RectF cropRect = mCropOverlayView.getCropWindowRect();
+        if (mBitmap == null || mFreeRotating || mEditHistorySuspended || cropRect.width() <= 0 || cropRect.height() <= 0) {
+            return;
+        }
+
+        mImageMatrix.invert(mImageInverseMatrix);
+        BitmapUtils.POINTS[0] = cropRect.centerX();
+        BitmapUtils.POINTS[1] = cropRect.centerY();
+        BitmapUtils.POINTS[2] = 0;
+        BitmapUtils.POINTS[3] = 0;
+        BitmapUtils.POINTS[4] = 1;
+        BitmapUtils.POINTS[5] = 0;
+        mImageInverseMatrix.mapPoints(BitmapUtils.POINTS);
+        float scale = mLoadedSampleSize * (float) Math.hypot(BitmapUtils.POINTS[4] - BitmapUtils.POINTS[2], BitmapUtils.POINTS[5] - BitmapUtils.POINTS[3]);
+
+        float[] state = new float[CropEditHistory.STATE_SIZE];
+        state[CropEditHistory.DEGREES_ROTATED] = mDegreesRotated;
+        state[CropEditHistory.ZOOM] = mZoom;
+        state[CropEditHistory.ZOOM_OFFSET_X] = mZoomOffsetX;
+        state[CropEditHistory.ZOOM_OFFSET_Y] = mZoomOffsetY;
+        state[CropEditHistory.CROP_CENTER_X] = BitmapUtils.POINTS[0] * mLoadedSampleSize;
+        state[CropEditHistory.CROP_CENTER_Y] = BitmapUtils.POINTS[1] * mLoadedSampleSize;
+        state[CropEditHistory.CROP_WIDTH] = cropRect.width() * scale;
+        state[CropEditHistory.CROP_HEIGHT] = cropRect.height() * scale;
+        state[CropEditHistory.ASPECT_RATIO_X] = mCropOverlayView.getAspectRatioX();
+        state[CropEditHistory.ASPECT_RATIO_Y] = mCropOverlayView.getAspectRatioY();
+        state[CropEditHistory.FIXED_ASPECT_RATIO] = mCropOverlayView.isFixAspectRatio() ? 1 : 0;
+        mEditHistory.record(state);
+    }
+
+    /**
+     * Replay the given edit history state through the image matrix.
+     */
+    private void applyEditState(float[] state) {
+        interruptAnimation();
+        stopFling();
+
+        mDegreesRotated = state[CropEditHistory.DEGREES_ROTATED];
+        mZoom = state[CropEditHistory.ZOOM];
+        mZoomOffsetX = state[CropEditHistory.ZOOM_OFFSET_X];
+        mZoomOffsetY = state[CropEditHistory.ZOOM_OFFSET_Y];
+        mCropOverlayView.setAspectRatioX((int) state[CropEditHistory.ASPECT_RATIO_X]);
+        mCropOverlayView.setAspectRatioY((int) state[CropEditHistory.ASPECT_RATIO_Y]);
+        mCropOverlayView.setFixedAspectRatio(state[CropEditHistory.FIXED_ASPECT_RATIO] != 0);
+
+        int width = getWidth();
+        int height = getHeight();
+        applyImageMatrix(width, height, false, false);
+
+        BitmapUtils.POINTS[0] = state[CropEditHistory.CROP_CENTER_X] / mLoadedSampleSize;
+        BitmapUtils.POINTS[1] = state[CropEditHistory.CROP_CENTER_Y] / mLoadedSampleSize;
+        BitmapUtils.POINTS[2] = 0;
+        BitmapUtils.POINTS[3] = 0;
+        BitmapUtils.POINTS[4] = 1;
+        BitmapUtils.POINTS[5] = 0;
+        mImageMatrix.mapPoints(BitmapUtils.POINTS2, BitmapUtils.POINTS);
+        float scale = (float) Math.hypot(BitmapUtils.POINTS2[4] - BitmapUtils.POINTS2[2], BitmapUtils.POINTS2[5] - BitmapUtils.POINTS2[3]) / mLoadedSampleSize;
+        float halfWidth = state[CropEditHistory.CROP_WIDTH] * scale / 2;
+        float halfHeight = state[CropEditHistory.CROP_HEIGHT] * scale / 2;
+        BitmapUtils.RECT.set(BitmapUtils.POINTS2[0] - halfWidth, BitmapUtils.POINTS2[1] - halfHeight,
+                BitmapUtils.POINTS2[0] + halfWidth, BitmapUtils.POINTS2[1] + halfHeight);
+        mCropOverlayView.setCropWindowRect(BitmapUtils.RECT);
+
+        // the zoom offset was kept inside the view for the crop window before the replay, adjust it to the replayed
+        if (BitmapUtils.RECT.left < 0 || BitmapUtils.RECT.top < 0 || BitmapUtils.RECT.right > width || BitmapUtils.RECT.bottom > height) {
+            applyImageMatrix(width, height, false, false);
+        }
+        mCropOverlayView.fixCurrentCropWindowRect();
+        mCropOverlayView.invalidate();
+
+        // notify as a user edit of the crop window does, without recording the replayed state again
+        handleCropWindowChanged(false, false);
+        scheduleSpeculativeCrop();
+        scheduleMetricsReport();
+    }
+    //endregion
+
+    //region: Inner class: ImageGestureHandler
+
+    /**
+     * Pan, zoom and fling the image by the image gestures of the crop overlay.
+     */
+    private class ImageGestureHandler implements CropOverlayView.ImageGestureListener {
+
+        @Override
+        public void onImageGestureStart() {
+            stopFling();
+            interruptAnimation();
+            cancelSpeculativeCrop();
+            mImageGestureRotation = 0;
+        }
+
+        @Override
+        public void onImagePan(float dx, float dy) {
+            if (mBitmap != null && !mFreeRotating) {
+                panImage(dx, dy);
+            }
+        }
+
+        @Override
+        public void onImageZoom(float scale, float focusX, float focusY) {
+            if (mBitmap != null && !mFreeRotating) {
+                zoomImage(scale, focusX, focusY);
+            }
+        }
+
+        @Override
+        public void onImageRotate(float degrees) {
+            if (mBitmap != null && mImageRotateGestureEnabled) {
+                // once rotating, pan and zoom are locked so the free rotation applies on a fixed start state
+                mImageGestureRotation += degrees;
+                if (mFreeRotating) {
+                    setFreeRotatedDegrees(mFreeRotationDegrees + degrees);
+                } else if (Math.abs(mImageGestureRotation) > ROTATE_GESTURE_SLOP) {
+                    setFreeRotatedDegrees(mDegreesRotated + mImageGestureRotation);
+                }
+            }
+        }
+
+        @Override
+        public void onImageGestureEnd(float velocityX, float velocityY) {
+            if (mFreeRotating) {
+                endFreeRotation();
+            } else if (mBitmap != null && Math.hypot(velocityX, velocityY) > ViewConfiguration.get(getContext()).getScaledMinimumFlingVelocity()) {
+                startFling(velocityX, velocityY);
+            } else {
+                scheduleSpeculativeCrop();
+                recordEditState();
+            }
+            scheduleMetricsReport();
+        }
+    }
     //endregion
 
     //region: Inner class: CropShape
@@ -1605,6 +3266,34 @@ public class CropImageView extends FrameLayout {
     }
     //endregion
 
+    //region: Inner class: OutputCompressMode
+
+    /**
+     * Possible options for choosing the compression quality when saving the cropped image.
+     */
+    public enum OutputCompressMode {
+
+        /**
+         * Compress once using the given compression quality.
+         */
+        QUALITY,
+
+        /**
+         * Use the highest quality (up to the given compression quality) that keeps the saved image within the
+         * target size in bytes.<br>
+         * If even the lowest quality doesn't fit, the lowest quality is used.
+         */
+        TARGET_SIZE,
+
+        /**
+         * Use the lowest quality (up to the given compression quality) that keeps the structural similarity (SSIM)
+         * of the saved image to the cropped image at least the target value.<br>
+         * If even the given quality doesn't reach the target, the given quality is used.
+         */
+        TARGET_SSIM
+    }
+    //endregion
+
     //region: Inner class: OnSetImageUriCompleteListener
 
     /**
@@ -1666,6 +3355,59 @@ public class CropImageView extends FrameLayout {
     }
     //endregion
 
+    //region: Inner class: OnMetricsListener
+
+    /**
+     * Interface definition for a callback to be invoked with aggregated performance metrics.
+     */
+    public interface OnMetricsListener {
+
+        /**
+         * Called with the metrics aggregated since the previous call.
+         *
+         * @param view The crop image view the metrics were collected for.
+         * @param metrics the histograms of the collected metrics
+         */
+        void onMetrics(CropImageView view, CropImageMetrics metrics);
+    }
+    //endregion
+
+    //region: Inner class: OnStraightenDetectedListener
+
+    /**
+     * Interface definition for a callback to be invoked when straighten angle async detection is complete.
+     */
+    public interface OnStraightenDetectedListener {
+
+        /**
+         * Called when a crop image view has completed detecting the straighten angle of the image.
+         *
+         * @param view The crop image view the angle was detected for.
+         * @param degrees the degrees to rotate the image clockwise by to straighten it, 0 if no dominant lines found
+         * @param cropPoints the 4 points of the largest crop window without empty corners when straightened,
+         * relative to the source image as {@link CropResult#getCropPoints()}
+         */
+        void onStraightenDetected(CropImageView view, float degrees, float[] cropPoints);
+    }
+    //endregion
+
+    //region: Inner class: OnCropHistogramListener
+
+    /**
+     * Interface definition for a callback to be invoked with the histogram of the crop window region.
+     */
+    public interface OnCropHistogramListener {
+
+        /**
+         * Called on the UI thread with the histogram of the crop window region after it changed.
+         *
+         * @param view The crop image view the histogram was computed for.
+         * @param histogram the luminance and RGB histogram of the crop window region
+         */
+        void onCropHistogram(CropImageView view, CropHistogram histogram);
+    }
+    //endregion
+
     //region: Inner class: OnSaveCroppedImageCompleteListener
 
     /**
@@ -1733,7 +3475,22 @@ public class CropImageView extends FrameLayout {
          */
         private final int mSampleSize;
 
+        /**
+         * is the result a preview quality crop of the in-memory image, full resolution result will follow
+         */
+        private final boolean mPreview;
+
+        /**
+         * The color adjustments applied to the cropped image, null if none
+         */
+        private final ColorAdjustments mColorAdjustments;
+
         CropResult(Bitmap bitmap, Uri uri, Exception error, float[] cropPoints, Rect cropRect, int rotation, int sampleSize) {
+            this(bitmap, uri, error, cropPoints, cropRect, rotation, sampleSize, null, false);
+        }
+
+        CropResult(Bitmap bitmap, Uri uri, Exception error, float[] cropPoints, Rect cropRect, int rotation, int sampleSize,
+                   ColorAdjustments colorAdjustments, boolean preview) {
             mBitmap = bitmap;
             mUri = uri;
             mError = error;
@@ -1741,6 +3498,8 @@ public class CropImageView extends FrameLayout {
             mCropRect = cropRect;
             mRotation = rotation;
             mSampleSize = sampleSize;
+            mColorAdjustments = colorAdjustments;
+            mPreview = preview;
         }
 
         /**
@@ -1800,6 +3559,23 @@ public class CropImageView extends FrameLayout {
         public int getSampleSize() {
             return mSampleSize;
         }
+
+        /**
+         * Is the result a preview quality crop of the in-memory image, delivered before the full resolution result
+         * (see {@link CropImageView#setPreviewCropResult(boolean)}).<br>
+         * Preview result always has bitmap, even if save cropped image was executed.
+         */
+        public boolean isPreview() {
+            return mPreview;
+        }
+
+        /**
+         * The color adjustments applied to the cropped image, null if none.<br>
+         * Use to re-apply the same adjustments on another crop of the source image.
+         */
+        public ColorAdjustments getColorAdjustments() {
+            return mColorAdjustments;
+        }
     }
     //endregion
 }
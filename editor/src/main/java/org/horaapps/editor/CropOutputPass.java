@@ -0,0 +1,288 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.ColorMatrix;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Final per-pixel pass over the cropped (and resized) bitmap, applied in place one row at a time so the output
+ * costs no extra full-size bitmap allocation.<br>
+ * Handles the convolution filter, the 3D LUT color grading, the color adjustments matrix and the oval crop shape
+ * mask with anti-aliased edge, fused so each output pixel is read and written once. Large bitmaps are split to row
+ * bands applied in parallel on the {@link BitmapWorkerPool}.
+ */
+final class CropOutputPass {
+
+    //region: Fields and Consts
+
+    /**
+     * The fixed point precision (bits) of the color matrix coefficients
+     */
+    private static final int COLOR_SHIFT = 12;
+
+    /**
+     * The min number of pixels to split the pass to parallel row bands, smaller is faster on a single thread
+     */
+    private static final int MIN_PARALLEL_PIXELS = 256 * 256;
+
+    /**
+     * if to make the pixels beyond the oval inscribed in the bitmap transparent
+     */
+    private final boolean mOvalMask;
+
+    /**
+     * The color matrix RGB rows in fixed point, offsets scaled and rounded, null if no color adjustments
+     */
+    private final int[] mColorMatrix;
+
+    /**
+     * The LUT to grade the pixels color by, before the color matrix, null if none
+     */
+    private final ColorLut mColorLut;
+
+    /**
+     * The convolution filter applied before the color, null if none
+     */
+    private final ConvolutionStage mConvolution;
+    //endregion
+
+    /**
+     * @param ovalMask if to make the pixels beyond the oval inscribed in the bitmap transparent
+     * @param filter the convolution filter to apply on the pixels before the color, null if none
+     * @param colorLut the LUT to grade the pixels color by, null if none
+     * @param colorMatrix the color adjustments to apply on the pixels color after the LUT, alpha is not changed, null
+     * if none
+     */
+    public CropOutputPass(boolean ovalMask, ConvolutionFilter filter, ColorLut colorLut, ColorMatrix colorMatrix) {
+        mOvalMask = ovalMask;
+        mConvolution = filter != null ? new ConvolutionStage(filter) : null;
+        mColorLut = colorLut;
+        mColorMatrix = colorMatrix != null ? toFixedPoint(colorMatrix.getArray()) : null;
+    }
+
+    /**
+     * Is there nothing for this pass to do.
+     */
+    public boolean isEmpty() {
+        return !mOvalMask && mConvolution == null && mColorLut == null && mColorMatrix == null;
+    }
+
+    /**
+     * Apply the pass on the given bitmap.<br>
+     * The bitmap is changed in place if it is mutable ARGB_8888, otherwise it is copied and the original is recycled.
+     *
+     * @return the bitmap with the pass applied
+     */
+    public Bitmap apply(Bitmap bitmap) {
+        if (bitmap == null || isEmpty()) {
+            return bitmap;
+        }
+
+        // no way to set alpha on opaque bitmap in place before API 12, mask in the old canvas way after the color
+        boolean ovalMaskInPlace = mOvalMask && Build.VERSION.SDK_INT >= 12;
+        if (mConvolution != null || mColorLut != null || mColorMatrix != null || ovalMaskInPlace) {
+            if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+                bitmap.recycle();
+                bitmap = copy;
+            }
+            if (ovalMaskInPlace) {
+                bitmap.setHasAlpha(true);
+            }
+
+            int height = bitmap.getHeight();
+            int bands = bitmap.getWidth() * height >= MIN_PARALLEL_PIXELS ? Math.min(height, BitmapWorkerPool.getParallelism()) : 1;
+            List<Callable<Void>> tasks = new ArrayList<>(bands);
+            for (int i = 0; i < bands; i++) {
+                int startY = height * i / bands;
+                int endY = height * (i + 1) / bands;
+                // the bands read their halo rows now, before any band writes its filtered rows
+                ConvolutionStage.Band convolution = mConvolution != null ? mConvolution.createBand(bitmap, startY, endY) : null;
+                tasks.add(new RowBandTask(bitmap, convolution, ovalMaskInPlace, startY, endY));
+            }
+            try {
+                BitmapWorkerPool.invokeAll(tasks);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (mOvalMask && !ovalMaskInPlace) {
+            bitmap = CropImage.toOvalBitmap(bitmap);
+        }
+        return bitmap;
+    }
+
+    //region: Private methods
+
+    /**
+     * Apply the pass on the bitmap pixels of the given rows, one row at a time, or one strip of rows at a time
+     * filtered by the given convolution band.
+     */
+    private void applyRows(Bitmap bitmap, ConvolutionStage.Band convolution, boolean ovalMask, int startY, int endY) {
+        int width = bitmap.getWidth();
+        if (convolution != null) {
+            int[] strip = new int[ConvolutionStage.STRIP_ROWS * width];
+            int rows;
+            for (int y = startY; (rows = convolution.filterStrip(y, strip)) > 0; y += rows) {
+                for (int i = 0; i < rows; i++) {
+                    applyRow(strip, i * width, width, bitmap.getHeight(), y + i, ovalMask);
+                }
+                bitmap.setPixels(strip, 0, width, 0, y, width, rows);
+            }
+        } else {
+            int[] row = new int[width];
+            for (int y = startY; y < endY; y++) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                applyRow(row, 0, width, bitmap.getHeight(), y, ovalMask);
+                bitmap.setPixels(row, 0, width, 0, y, width, 1);
+            }
+        }
+    }
+
+    /**
+     * Apply the LUT, the color matrix and the oval mask on the given row of pixels.
+     */
+    private void applyRow(int[] pixels, int offset, int width, int height, int y, boolean ovalMask) {
+        if (mColorLut != null) {
+            mColorLut.apply(pixels, offset, width);
+        }
+        if (mColorMatrix != null) {
+            applyColorMatrix(pixels, offset, width);
+        }
+        if (ovalMask) {
+            maskOvalRow(pixels, offset, width, height, y);
+        }
+    }
+
+    /**
+     * Apply the fixed point color matrix on the given (not premultiplied) pixels, alpha is kept.
+     */
+    private void applyColorMatrix(int[] row, int offset, int width) {
+        int[] m = mColorMatrix;
+        for (int x = offset, end = offset + width; x < end; x++) {
+            int pixel = row[x];
+            int a = pixel >>> 24;
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+            int nr = (m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4]) >> COLOR_SHIFT;
+            int ng = (m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9]) >> COLOR_SHIFT;
+            int nb = (m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14]) >> COLOR_SHIFT;
+            nr = nr < 0 ? 0 : nr > 255 ? 255 : nr;
+            ng = ng < 0 ? 0 : ng > 255 ? 255 : ng;
+            nb = nb < 0 ? 0 : nb > 255 ? 255 : nb;
+            row[x] = (pixel & 0xff000000) | (nr << 16) | (ng << 8) | nb;
+        }
+    }
+
+    /**
+     * Mask the given row of pixels by the oval inscribed in the bitmap.<br>
+     * Makes the pixels outside the oval transparent, anti-aliasing the pixels on the oval edge by their distance from
+     * it, pixels that are surely inside the oval are not masked.
+     */
+    private static void maskOvalRow(int[] row, int offset, int width, int height, int y) {
+        float rx = width / 2f;
+        float ry = height / 2f;
+        float rx2 = rx * rx;
+        float ry2 = ry * ry;
+        float dy = y + 0.5f - ry;
+
+        // horizontal span that is surely inside (1px inner oval) / surely outside (1px outer oval)
+        int innerStart = width;
+        int innerEnd = 0;
+        if (rx > 1 && ry > 1 && Math.abs(dy) < ry - 1) {
+            float half = (rx - 1) * (float) Math.sqrt(1 - (dy * dy) / ((ry - 1) * (ry - 1)));
+            innerStart = (int) Math.ceil(rx - half);
+            innerEnd = (int) Math.floor(rx + half) - 1;
+        }
+
+        for (int x = 0; x < width; x++) {
+            if (x == innerStart && innerEnd >= innerStart) {
+                x = innerEnd;
+                continue;
+            }
+            float dx = x + 0.5f - rx;
+
+            // signed distance approximation: f(x,y) / |grad f(x,y)|
+            float f = dx * dx / rx2 + dy * dy / ry2 - 1;
+            float gx = dx / rx2;
+            float gy = dy / ry2;
+            float grad = 2 * (float) Math.sqrt(gx * gx + gy * gy);
+            float coverage = grad > 0 ? 0.5f - f / grad : 1;
+
+            if (coverage <= 0) {
+                row[offset + x] = 0;
+            } else if (coverage < 1) {
+                int pixel = row[offset + x];
+                int alpha = (int) ((pixel >>> 24) * coverage + 0.5f);
+                row[offset + x] = alpha > 0 ? (alpha << 24) | (pixel & 0xffffff) : 0;
+            }
+        }
+    }
+
+    /**
+     * Convert the RGB rows of the given 4x5 color matrix to fixed point, the offsets rounded.
+     */
+    private static int[] toFixedPoint(float[] matrix) {
+        int[] fixed = new int[15];
+        for (int i = 0; i < 15; i++) {
+            fixed[i] = Math.round(matrix[i] * (1 << COLOR_SHIFT));
+        }
+        fixed[4] += 1 << (COLOR_SHIFT - 1);
+        fixed[9] += 1 << (COLOR_SHIFT - 1);
+        fixed[14] += 1 << (COLOR_SHIFT - 1);
+        return fixed;
+    }
+    //endregion
+
+    //region: Inner class: RowBandTask
+
+    /**
+     * Apply the pass on a band of rows of the bitmap.
+     */
+    private final class RowBandTask implements Callable<Void> {
+
+        private final Bitmap mBitmap;
+
+        private final ConvolutionStage.Band mConvolution;
+
+        private final boolean mOvalMaskInPlace;
+
+        private final int mStartY;
+
+        private final int mEndY;
+
+        RowBandTask(Bitmap bitmap, ConvolutionStage.Band convolution, boolean ovalMaskInPlace, int startY, int endY) {
+            mBitmap = bitmap;
+            mConvolution = convolution;
+            mOvalMaskInPlace = ovalMaskInPlace;
+            mStartY = startY;
+            mEndY = endY;
+        }
+
+        @Override
+        public Void call() {
+            applyRows(mBitmap, mConvolution, mOvalMaskInPlace, mStartY, mEndY);
+            return null;
+        }
+    }
+    //endregion
+}
@@ -19,12 +19,14 @@ import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Region;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
+import android.view.VelocityTracker;
 import android.view.View;
 
 import java.util.Arrays;
@@ -36,6 +38,11 @@ public class CropOverlayView extends View {
 
     //region: Fields and Consts
 
+    /**
+     * How far ahead (in milliseconds) to predict the touch position when applying coalesced move on frame
+     */
+    private static final int MOVE_PREDICTION_HORIZON = 8;
+
     /**
      * Gesture detector used for multi touch box scaling
      */
@@ -82,19 +89,146 @@ public class CropOverlayView extends View {
     private Paint mBackgroundPaint;
 
     /**
-     * Used for oval crop window shape or non-straight rotation drawing.
+     * Used for oval crop window shape or non-straight rotation drawing.<br>
+     * Cached shadow geometry, rebuilt only when the crop window, image bounds or crop shape change.
      */
     private Path mPath = new Path();
 
+    /**
+     * The crop window rectangle {@link #mPath} was built for
+     */
+    private final RectF mPathWindowRect = new RectF();
+
+    /**
+     * The background rectangle {@link #mPath} was built for
+     */
+    private final RectF mPathBackgroundRect = new RectF();
+
+    /**
+     * The image bounds points {@link #mPath} was built for
+     */
+    private final float[] mPathBoundsPoints = new float[8];
+
+    /**
+     * The crop shape {@link #mPath} was built for, null if not built
+     */
+    private CropImageView.CropShape mPathCropShape;
+
+    /**
+     * Reusable lines points for drawing guidelines in a single call
+     */
+    private final float[] mGuidelinesPoints = new float[16];
+
+    /**
+     * Reusable lines points for drawing border corners in a single call
+     */
+    private final float[] mCornersPoints = new float[32];
+
+    /**
+     * Frame callback to apply the coalesced touch moves once per frame, null if Choreographer is not available
+     */
+    private MoveFrameCallback mMoveFrameCallback;
+
+    /**
+     * if there is touch move not yet applied to the crop window, waiting for the next frame
+     */
+    private boolean mMovePending;
+
+    /**
+     * The latest touch move sample x
+     */
+    private float mMoveX;
+
+    /**
+     * The latest touch move sample y
+     */
+    private float mMoveY;
+
+    /**
+     * The time (uptime millis) of the latest touch move sample
+     */
+    private long mMoveTime;
+
+    /**
+     * The smoothed touch move x velocity in pixels per millisecond, used for prediction
+     */
+    private float mMoveVelocityX;
+
+    /**
+     * The smoothed touch move y velocity in pixels per millisecond, used for prediction
+     */
+    private float mMoveVelocityY;
+
+    /**
+     * The time (uptime millis) of the touch sample being applied to the crop window, 0 if none
+     */
+    private long mAppliedMoveTime;
+
+    /**
+     * The performance metrics to record to, null if metrics are not collected
+     */
+    private CropImageMetrics mMetrics;
+
+    /**
+     * Listener for pan/zoom gestures of the image, null if image gestures are disabled
+     */
+    private ImageGestureListener mImageGestureListener;
+
+    /**
+     * Gesture detector used for image pinch-zoom
+     */
+    private ScaleGestureDetector mImageScaleDetector;
+
+    /**
+     * Used to know the image pan velocity on gesture end for fling
+     */
+    private VelocityTracker mVelocityTracker;
+
+    /**
+     * if the current touch gesture pans/zooms the image instead of moving the crop window
+     */
+    private boolean mImageGesture;
+
+    /**
+     * The last focus point of the touch pointers of image gesture
+     */
+    private float mImageGestureX;
+
+    /**
+     * The last focus point of the touch pointers of image gesture
+     */
+    private float mImageGestureY;
+
+    /**
+     * The last angle (degrees) of the line between the first two touch pointers of image gesture, NaN if less than
+     * two pointers
+     */
+    private float mImageGestureAngle = Float.NaN;
+
     /**
      * The bounding box around the Bitmap that we are cropping.
      */
     private final float[] mBoundsPoints = new float[8];
 
     /**
-     * The bounding box around the Bitmap that we are cropping.
+     * The bounding box around the Bitmap that we are cropping (left, top, right, bottom).
      */
-    private final RectF mCalcBounds = new RectF();
+    private final float[] mCalcBounds = new float[4];
+
+    /**
+     * The crop window rectangle used in crop window geometry calculation (reusing array instance)
+     */
+    private final float[] mCalcRect = new float[4];
+
+    /**
+     * Solve the bounds of the crop window in the image, cached for the current bounds points
+     */
+    private final InscribedRectSolver mBoundsSolver = new InscribedRectSolver();
+
+    /**
+     * The strong image edges to snap the crop window edges to, null if not available
+     */
+    private EdgeSnapMap mEdgeSnapMap;
 
     /**
      * The bounding image view width used to know the crop overlay is at view edges.
@@ -182,6 +316,26 @@ public class CropOverlayView extends View {
      * Used to set back LayerType after changing to software.
      */
     private Integer mOriginalLayerType;
+
+    /**
+     * The area of the crop window (including border and corners) drawn in the last draw, empty if not drawn yet
+     */
+    private final RectF mDrawnWindowRect = new RectF();
+
+    /**
+     * The area of the background shadow drawn in the last draw
+     */
+    private final RectF mDrawnBackgroundRect = new RectF();
+
+    /**
+     * Rectangle used for dirty region calculation
+     */
+    private final RectF mDirtyRect = new RectF();
+
+    /**
+     * Rectangle used for dirty region calculation
+     */
+    private final RectF mDirtyRect2 = new RectF();
     //endregion
 
     public CropOverlayView(Context context) {
@@ -190,6 +344,9 @@ public class CropOverlayView extends View {
 
     public CropOverlayView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mMoveFrameCallback = new MoveFrameCallback();
+        }
     }
 
     /**
@@ -199,6 +356,24 @@ public class CropOverlayView extends View {
         mCropWindowChangeListener = listener;
     }
 
+    /**
+     * Set the performance metrics to record to, null to not collect.
+     */
+    void setMetrics(CropImageMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Set the listener for pan/zoom gestures of the image, touch outside the crop window or pinch (if crop window
+     * multi-touch is disabled) will pan/zoom the image. null to disable.
+     */
+    void setImageGestureListener(ImageGestureListener listener) {
+        mImageGestureListener = listener;
+        if (listener != null && mImageScaleDetector == null) {
+            mImageScaleDetector = new ScaleGestureDetector(getContext(), new ImageScaleListener());
+        }
+    }
+
     /**
      * Get the left/top/right/bottom coordinates of the crop window.
      */
@@ -237,6 +412,10 @@ public class CropOverlayView extends View {
             } else {
                 System.arraycopy(boundsPoints, 0, mBoundsPoints, 0, boundsPoints.length);
             }
+            mBoundsSolver.setQuad(mBoundsPoints);
+            if (mEdgeSnapMap != null) {
+                mEdgeSnapMap.setBounds(mBoundsPoints);
+            }
             mViewWidth = viewWidth;
             mViewHeight = viewHeight;
             RectF cropRect = mCropWindowHandler.getRect();
@@ -388,6 +567,16 @@ public class CropOverlayView extends View {
         mSnapRadius = snapRadius;
     }
 
+    /**
+     * Set the strong image edges to snap the crop window edges to, null to snap only to the image bounds.
+     */
+    void setEdgeSnapMap(EdgeSnapMap edgeSnapMap) {
+        mEdgeSnapMap = edgeSnapMap;
+        if (edgeSnapMap != null) {
+            edgeSnapMap.setBounds(mBoundsPoints);
+        }
+    }
+
     /**
      * Set multi touch functionality to enabled/disabled.
      */
@@ -584,57 +773,12 @@ public class CropOverlayView extends View {
      * Fix the given rect to fit into bitmap rect and follow min, max and aspect ratio rules.
      */
     private void fixCropWindowRectByRules(RectF rect) {
-        if (rect.width() < mCropWindowHandler.getMinCropWidth()) {
-            float adj = (mCropWindowHandler.getMinCropWidth() - rect.width()) / 2;
-            rect.left -= adj;
-            rect.right += adj;
-        }
-        if (rect.height() < mCropWindowHandler.getMinCropHeight()) {
-            float adj = (mCropWindowHandler.getMinCropHeight() - rect.height()) / 2;
-            rect.top -= adj;
-            rect.bottom += adj;
-        }
-        if (rect.width() > mCropWindowHandler.getMaxCropWidth()) {
-            float adj = (rect.width() - mCropWindowHandler.getMaxCropWidth()) / 2;
-            rect.left += adj;
-            rect.right -= adj;
-        }
-        if (rect.height() > mCropWindowHandler.getMaxCropHeight()) {
-            float adj = (rect.height() - mCropWindowHandler.getMaxCropHeight()) / 2;
-            rect.top += adj;
-            rect.bottom -= adj;
-        }
-
-        calculateBounds(rect);
-        if (mCalcBounds.width() > 0 && mCalcBounds.height() > 0) {
-            float leftLimit = Math.max(mCalcBounds.left, 0);
-            float topLimit = Math.max(mCalcBounds.top, 0);
-            float rightLimit = Math.min(mCalcBounds.right, getWidth());
-            float bottomLimit = Math.min(mCalcBounds.bottom, getHeight());
-            if (rect.left < leftLimit) {
-                rect.left = leftLimit;
-            }
-            if (rect.top < topLimit) {
-                rect.top = topLimit;
-            }
-            if (rect.right > rightLimit) {
-                rect.right = rightLimit;
-            }
-            if (rect.bottom > bottomLimit) {
-                rect.bottom = bottomLimit;
-            }
-        }
-        if (mFixAspectRatio && Math.abs(rect.width() - rect.height() * mTargetAspectRatio) > 0.1) {
-            if (rect.width() > rect.height() * mTargetAspectRatio) {
-                float adj = Math.abs(rect.height() * mTargetAspectRatio - rect.width()) / 2;
-                rect.left += adj;
-                rect.right -= adj;
-            } else {
-                float adj = Math.abs(rect.width() / mTargetAspectRatio - rect.height()) / 2;
-                rect.top += adj;
-                rect.bottom -= adj;
-            }
-        }
+        CropWindowGeometry.set(mCalcRect, rect.left, rect.top, rect.right, rect.bottom);
+        CropWindowGeometry.fixRectByRules(mCalcRect, mBoundsSolver, mCalcBounds, getWidth(), getHeight(),
+                mCropWindowHandler.getMinCropWidth(), mCropWindowHandler.getMinCropHeight(),
+                mCropWindowHandler.getMaxCropWidth(), mCropWindowHandler.getMaxCropHeight(),
+                mFixAspectRatio, mTargetAspectRatio);
+        rect.set(mCalcRect[0], mCalcRect[1], mCalcRect[2], mCalcRect[3]);
     }
 
     /**
@@ -645,6 +789,9 @@ public class CropOverlayView extends View {
 
         super.onDraw(canvas);
 
+        long startTime = mMetrics != null ? System.nanoTime() : 0;
+        CropImageMetrics.beginSection("AIC#overlayDraw");
+
         // Draw translucent background for the cropped area.
         drawBackground(canvas);
 
@@ -661,6 +808,66 @@ public class CropOverlayView extends View {
         drawBorders(canvas);
 
         drawCorners(canvas);
+
+        getWindowDrawRect(mDrawnWindowRect);
+        getBackgroundDrawRect(mDrawnBackgroundRect);
+
+        CropImageMetrics.endSection();
+        if (mMetrics != null) {
+            mMetrics.recordOverlayDraw(startTime);
+        }
+    }
+
+    /**
+     * Invalidate only the area of the view affected by the change of crop window and image bounds since the
+     * last draw: the union of the old and new crop window draw areas and, if the image bounds changed, of the
+     * old and new background areas.<br>
+     * The dirty rectangle only limits the redraw of software rendering (e.g. the software layer of oval shapes on
+     * API 11-17), with hardware acceleration on API 21+ it is ignored and the whole view is redrawn. The frame cost
+     * against {@link #invalidate()} has not been measured.
+     */
+    void invalidateChange() {
+        if (mDrawnWindowRect.isEmpty()) {
+            invalidate();
+            return;
+        }
+
+        getWindowDrawRect(mDirtyRect);
+        mDirtyRect.union(mDrawnWindowRect);
+
+        getBackgroundDrawRect(mDirtyRect2);
+        if (!mDirtyRect2.equals(mDrawnBackgroundRect)) {
+            mDirtyRect.union(mDirtyRect2);
+            mDirtyRect.union(mDrawnBackgroundRect);
+        }
+
+        invalidate((int) Math.floor(mDirtyRect.left), (int) Math.floor(mDirtyRect.top),
+                (int) Math.ceil(mDirtyRect.right), (int) Math.ceil(mDirtyRect.bottom));
+    }
+
+    /**
+     * Get the area the crop window is drawn in, including the border corners that may extend beyond the crop window
+     * and a pixel for anti-aliasing.
+     */
+    private void getWindowDrawRect(RectF rect) {
+        rect.set(mCropWindowHandler.getRect());
+        float outset = 1;
+        if (mBorderCornerPaint != null) {
+            float lineWidth = mBorderPaint != null ? mBorderPaint.getStrokeWidth() : 0;
+            float cornerOffset = (mBorderCornerPaint.getStrokeWidth() - lineWidth) / 2;
+            outset += Math.max(0, cornerOffset - mBorderCornerOffset);
+        }
+        rect.inset(-outset, -outset);
+    }
+
+    /**
+     * Get the area the background shadow is drawn in, the image bounds limited to the view.
+     */
+    private void getBackgroundDrawRect(RectF rect) {
+        rect.set(Math.max(BitmapUtils.getRectLeft(mBoundsPoints), 0),
+                Math.max(BitmapUtils.getRectTop(mBoundsPoints), 0),
+                Math.min(BitmapUtils.getRectRight(mBoundsPoints), getWidth()),
+                Math.min(BitmapUtils.getRectBottom(mBoundsPoints), getHeight()));
     }
 
     /**
@@ -675,38 +882,54 @@ public class CropOverlayView extends View {
         float right = Math.min(BitmapUtils.getRectRight(mBoundsPoints), getWidth());
         float bottom = Math.min(BitmapUtils.getRectBottom(mBoundsPoints), getHeight());
 
+        if (mCropShape == CropImageView.CropShape.RECTANGLE && !isNonStraightAngleRotated()) {
+            canvas.drawRect(left, top, right, rect.top, mBackgroundPaint);
+            canvas.drawRect(left, rect.bottom, right, bottom, mBackgroundPaint);
+            canvas.drawRect(left, rect.top, rect.left, rect.bottom, mBackgroundPaint);
+            canvas.drawRect(rect.right, rect.top, right, rect.bottom, mBackgroundPaint);
+        } else {
+            // draw the cached even-odd shadow geometry, no per-frame path clipping
+            updateBackgroundPath(rect, left, top, right, bottom);
+            canvas.drawPath(mPath, mBackgroundPaint);
+        }
+    }
+
+    /**
+     * Build the shadow geometry of the area outside the crop window as a single even-odd path: the image bounds
+     * (polygon if rotated non-straight, rectangle limited to the view otherwise) with the crop window shape as a hole.<br>
+     * The path is rebuilt only if the crop window, image bounds or crop shape changed since it was last built.
+     */
+    private void updateBackgroundPath(RectF rect, float left, float top, float right, float bottom) {
+        mDrawRect.set(left, top, right, bottom);
+        if (mPathCropShape == mCropShape &&
+                mPathWindowRect.equals(rect) &&
+                mPathBackgroundRect.equals(mDrawRect) &&
+                Arrays.equals(mPathBoundsPoints, mBoundsPoints)) {
+            return;
+        }
+
+        mPathCropShape = mCropShape;
+        mPathWindowRect.set(rect);
+        mPathBackgroundRect.set(mDrawRect);
+        System.arraycopy(mBoundsPoints, 0, mPathBoundsPoints, 0, mBoundsPoints.length);
+
+        mPath.reset();
+        mPath.setFillType(Path.FillType.EVEN_ODD);
         if (mCropShape == CropImageView.CropShape.RECTANGLE) {
-            if (!isNonStraightAngleRotated() || Build.VERSION.SDK_INT <= 17) {
-                canvas.drawRect(left, top, right, rect.top, mBackgroundPaint);
-                canvas.drawRect(left, rect.bottom, right, bottom, mBackgroundPaint);
-                canvas.drawRect(left, rect.top, rect.left, rect.bottom, mBackgroundPaint);
-                canvas.drawRect(rect.right, rect.top, right, rect.bottom, mBackgroundPaint);
-            } else {
-                mPath.reset();
-                mPath.moveTo(mBoundsPoints[0], mBoundsPoints[1]);
-                mPath.lineTo(mBoundsPoints[2], mBoundsPoints[3]);
-                mPath.lineTo(mBoundsPoints[4], mBoundsPoints[5]);
-                mPath.lineTo(mBoundsPoints[6], mBoundsPoints[7]);
-                mPath.close();
-
-                canvas.save();
-                canvas.clipPath(mPath, Region.Op.INTERSECT);
-                canvas.clipRect(rect, Region.Op.XOR);
-                canvas.drawRect(left, top, right, bottom, mBackgroundPaint);
-                canvas.restore();
-            }
+            mPath.moveTo(mBoundsPoints[0], mBoundsPoints[1]);
+            mPath.lineTo(mBoundsPoints[2], mBoundsPoints[3]);
+            mPath.lineTo(mBoundsPoints[4], mBoundsPoints[5]);
+            mPath.lineTo(mBoundsPoints[6], mBoundsPoints[7]);
+            mPath.close();
+            mPath.addRect(rect, Path.Direction.CW);
         } else {
-            mPath.reset();
+            mPath.addRect(mDrawRect, Path.Direction.CW);
             if (Build.VERSION.SDK_INT >= 11 && Build.VERSION.SDK_INT <= 17 && mCropShape == CropImageView.CropShape.OVAL) {
                 mDrawRect.set(rect.left + 2, rect.top + 2, rect.right - 2, rect.bottom - 2);
             } else {
                 mDrawRect.set(rect.left, rect.top, rect.right, rect.bottom);
             }
             mPath.addOval(mDrawRect, Path.Direction.CW);
-            canvas.save();
-            canvas.clipPath(mPath, Region.Op.XOR);
-            canvas.drawRect(left, top, right, bottom, mBackgroundPaint);
-            canvas.restore();
         }
     }
 
@@ -727,33 +950,34 @@ public class CropOverlayView extends View {
                 float w = rect.width() / 2 - sw;
                 float h = rect.height() / 2 - sw;
 
-                // Draw vertical guidelines.
+                // Vertical guidelines.
                 float x1 = rect.left + oneThirdCropWidth;
                 float x2 = rect.right - oneThirdCropWidth;
                 float yv = (float) (h * Math.sin(Math.acos((w - oneThirdCropWidth) / w)));
-                canvas.drawLine(x1, rect.top + h - yv, x1, rect.bottom - h + yv, mGuidelinePaint);
-                canvas.drawLine(x2, rect.top + h - yv, x2, rect.bottom - h + yv, mGuidelinePaint);
+                setLine(mGuidelinesPoints, 0, x1, rect.top + h - yv, x1, rect.bottom - h + yv);
+                setLine(mGuidelinesPoints, 1, x2, rect.top + h - yv, x2, rect.bottom - h + yv);
 
-                // Draw horizontal guidelines.
+                // Horizontal guidelines.
                 float y1 = rect.top + oneThirdCropHeight;
                 float y2 = rect.bottom - oneThirdCropHeight;
                 float xv = (float) (w * Math.cos(Math.asin((h - oneThirdCropHeight) / h)));
-                canvas.drawLine(rect.left + w - xv, y1, rect.right - w + xv, y1, mGuidelinePaint);
-                canvas.drawLine(rect.left + w - xv, y2, rect.right - w + xv, y2, mGuidelinePaint);
+                setLine(mGuidelinesPoints, 2, rect.left + w - xv, y1, rect.right - w + xv, y1);
+                setLine(mGuidelinesPoints, 3, rect.left + w - xv, y2, rect.right - w + xv, y2);
             } else {
 
-                // Draw vertical guidelines.
+                // Vertical guidelines.
                 float x1 = rect.left + oneThirdCropWidth;
                 float x2 = rect.right - oneThirdCropWidth;
-                canvas.drawLine(x1, rect.top, x1, rect.bottom, mGuidelinePaint);
-                canvas.drawLine(x2, rect.top, x2, rect.bottom, mGuidelinePaint);
+                setLine(mGuidelinesPoints, 0, x1, rect.top, x1, rect.bottom);
+                setLine(mGuidelinesPoints, 1, x2, rect.top, x2, rect.bottom);
 
-                // Draw horizontal guidelines.
+                // Horizontal guidelines.
                 float y1 = rect.top + oneThirdCropHeight;
                 float y2 = rect.bottom - oneThirdCropHeight;
-                canvas.drawLine(rect.left, y1, rect.right, y1, mGuidelinePaint);
-                canvas.drawLine(rect.left, y2, rect.right, y2, mGuidelinePaint);
+                setLine(mGuidelinesPoints, 2, rect.left, y1, rect.right, y1);
+                setLine(mGuidelinesPoints, 3, rect.left, y2, rect.right, y2);
             }
+            canvas.drawLines(mGuidelinesPoints, mGuidelinePaint);
         }
     }
 
@@ -792,23 +1016,36 @@ public class CropOverlayView extends View {
             float cornerExtension = cornerWidth / 2 + cornerOffset;
 
             // Top left
-            canvas.drawLine(rect.left - cornerOffset, rect.top - cornerExtension, rect.left - cornerOffset, rect.top + mBorderCornerLength, mBorderCornerPaint);
-            canvas.drawLine(rect.left - cornerExtension, rect.top - cornerOffset, rect.left + mBorderCornerLength, rect.top - cornerOffset, mBorderCornerPaint);
+            setLine(mCornersPoints, 0, rect.left - cornerOffset, rect.top - cornerExtension, rect.left - cornerOffset, rect.top + mBorderCornerLength);
+            setLine(mCornersPoints, 1, rect.left - cornerExtension, rect.top - cornerOffset, rect.left + mBorderCornerLength, rect.top - cornerOffset);
 
             // Top right
-            canvas.drawLine(rect.right + cornerOffset, rect.top - cornerExtension, rect.right + cornerOffset, rect.top + mBorderCornerLength, mBorderCornerPaint);
-            canvas.drawLine(rect.right + cornerExtension, rect.top - cornerOffset, rect.right - mBorderCornerLength, rect.top - cornerOffset, mBorderCornerPaint);
+            setLine(mCornersPoints, 2, rect.right + cornerOffset, rect.top - cornerExtension, rect.right + cornerOffset, rect.top + mBorderCornerLength);
+            setLine(mCornersPoints, 3, rect.right + cornerExtension, rect.top - cornerOffset, rect.right - mBorderCornerLength, rect.top - cornerOffset);
 
             // Bottom left
-            canvas.drawLine(rect.left - cornerOffset, rect.bottom + cornerExtension, rect.left - cornerOffset, rect.bottom - mBorderCornerLength, mBorderCornerPaint);
-            canvas.drawLine(rect.left - cornerExtension, rect.bottom + cornerOffset, rect.left + mBorderCornerLength, rect.bottom + cornerOffset, mBorderCornerPaint);
+            setLine(mCornersPoints, 4, rect.left - cornerOffset, rect.bottom + cornerExtension, rect.left - cornerOffset, rect.bottom - mBorderCornerLength);
+            setLine(mCornersPoints, 5, rect.left - cornerExtension, rect.bottom + cornerOffset, rect.left + mBorderCornerLength, rect.bottom + cornerOffset);
 
-            // Bottom left
-            canvas.drawLine(rect.right + cornerOffset, rect.bottom + cornerExtension, rect.right + cornerOffset, rect.bottom - mBorderCornerLength, mBorderCornerPaint);
-            canvas.drawLine(rect.right + cornerExtension, rect.bottom + cornerOffset, rect.right - mBorderCornerLength, rect.bottom + cornerOffset, mBorderCornerPaint);
+            // Bottom right
+            setLine(mCornersPoints, 6, rect.right + cornerOffset, rect.bottom + cornerExtension, rect.right + cornerOffset, rect.bottom - mBorderCornerLength);
+            setLine(mCornersPoints, 7, rect.right + cornerExtension, rect.bottom + cornerOffset, rect.right - mBorderCornerLength, rect.bottom + cornerOffset);
+
+            canvas.drawLines(mCornersPoints, mBorderCornerPaint);
         }
     }
 
+    /**
+     * Set the start and end points of the line at the given index in lines points array used for
+     * {@link Canvas#drawLines(float[], Paint)}.
+     */
+    private static void setLine(float[] points, int index, float startX, float startY, float stopX, float stopY) {
+        points[index * 4] = startX;
+        points[index * 4 + 1] = startY;
+        points[index * 4 + 2] = stopX;
+        points[index * 4 + 3] = stopY;
+    }
+
     /**
      * Creates the Paint object for drawing.
      */
@@ -838,21 +1075,35 @@ public class CropOverlayView extends View {
     public boolean onTouchEvent(MotionEvent event) {
         // If this View is not enabled, don't allow for touch interactions.
         if (isEnabled()) {
-            if (mMultiTouchEnabled) {
+            if (mImageGestureListener != null && onImageGestureTouchEvent(event)) {
+                return true;
+            }
+
+            // the crop window pinch gets only the pointers that didn't start an image gesture, so one pinch doesn't
+            // both resize the crop window and zoom the image
+            if (mMultiTouchEnabled && event.getAction() != MotionEvent.ACTION_DOWN) {
                 mScaleDetector.onTouchEvent(event);
             }
 
             switch (event.getAction()) {
                 case MotionEvent.ACTION_DOWN:
+                    resetMoveSamples(event);
                     onActionDown(event.getX(), event.getY());
+                    if (mMoveHandler == null && mImageGestureListener != null) {
+                        startImageGesture(event);
+                    } else if (mMultiTouchEnabled) {
+                        mScaleDetector.onTouchEvent(event);
+                    }
                     return true;
                 case MotionEvent.ACTION_UP:
                 case MotionEvent.ACTION_CANCEL:
                     getParent().requestDisallowInterceptTouchEvent(false);
+                    flushPendingMove();
                     onActionUp();
+                    logTouchLatency();
                     return true;
                 case MotionEvent.ACTION_MOVE:
-                    onActionMove(event.getX(), event.getY());
+                    onActionMove(event);
                     getParent().requestDisallowInterceptTouchEvent(true);
                     return true;
                 default:
@@ -863,6 +1114,112 @@ public class CropOverlayView extends View {
         }
     }
 
+    /**
+     * Handle the touch event as image pan/zoom gesture if one is in progress or a second pointer starts a pinch
+     * (when crop window multi-touch is disabled).
+     *
+     * @return true - the event was handled as image gesture, false - otherwise
+     */
+    private boolean onImageGestureTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (!mImageGesture) {
+            if (action == MotionEvent.ACTION_POINTER_DOWN && !mMultiTouchEnabled) {
+                // pinch switches from crop window move to image zoom
+                flushPendingMove();
+                onActionUp();
+                startImageGesture(event);
+                return true;
+            }
+            return false;
+        }
+
+        mImageScaleDetector.onTouchEvent(event);
+        mVelocityTracker.addMovement(event);
+
+        switch (action) {
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+                // pointers changed, restart the focus point and angle so the image doesn't jump
+                updateImageGestureFocus(event);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                float lastX = mImageGestureX;
+                float lastY = mImageGestureY;
+                float lastAngle = mImageGestureAngle;
+                updateImageGestureFocus(event);
+                mImageGestureListener.onImagePan(mImageGestureX - lastX, mImageGestureY - lastY);
+                if (!Float.isNaN(lastAngle) && !Float.isNaN(mImageGestureAngle)) {
+                    float delta = mImageGestureAngle - lastAngle;
+                    delta = delta > 180 ? delta - 360 : delta < -180 ? delta + 360 : delta;
+                    mImageGestureListener.onImageRotate(delta);
+                }
+                getParent().requestDisallowInterceptTouchEvent(true);
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                getParent().requestDisallowInterceptTouchEvent(false);
+                float velocityX = 0;
+                float velocityY = 0;
+                if (action == MotionEvent.ACTION_UP) {
+                    mVelocityTracker.computeCurrentVelocity(1000);
+                    velocityX = mVelocityTracker.getXVelocity();
+                    velocityY = mVelocityTracker.getYVelocity();
+                }
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+                mImageGesture = false;
+                mImageGestureListener.onImageGestureEnd(velocityX, velocityY);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Start image pan/zoom gesture from the given event.
+     */
+    private void startImageGesture(MotionEvent event) {
+        mImageGesture = true;
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+        mImageScaleDetector.onTouchEvent(event);
+        updateImageGestureFocus(event);
+        mImageGestureListener.onImageGestureStart();
+    }
+
+    /**
+     * Set the image gesture focus point to the average of the touch pointers and the angle to the angle of the line
+     * between the first two, excluding the pointer going up.
+     */
+    private void updateImageGestureFocus(MotionEvent event) {
+        int skipIndex = event.getActionMasked() == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1;
+        float sumX = 0;
+        float sumY = 0;
+        int count = 0;
+        int first = -1;
+        int second = -1;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != skipIndex) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                count++;
+                if (first < 0) {
+                    first = i;
+                } else if (second < 0) {
+                    second = i;
+                }
+            }
+        }
+        if (count > 0) {
+            mImageGestureX = sumX / count;
+            mImageGestureY = sumY / count;
+        }
+        mImageGestureAngle = second >= 0
+                ? (float) Math.toDegrees(Math.atan2(event.getY(second) - event.getY(first), event.getX(second) - event.getX(first)))
+                : Float.NaN;
+    }
+
     /**
      * On press down start crop window movment depending on the location of the press.<br>
      * if press is far from crop window then no move handler is returned (null).
@@ -885,104 +1242,120 @@ public class CropOverlayView extends View {
         }
     }
 
+    /**
+     * Collect the touch move samples (including historical) of the given event and schedule applying the latest
+     * to the crop window on the next frame, so multiple move events in a frame result in a single crop window update.
+     * <br>
+     * If Choreographer is not available the move is applied immediately.
+     */
+    private void onActionMove(MotionEvent event) {
+        if (mMoveHandler != null) {
+            for (int i = 0; i < event.getHistorySize(); i++) {
+                addMoveSample(event.getHistoricalX(i), event.getHistoricalY(i), event.getHistoricalEventTime(i));
+            }
+            addMoveSample(event.getX(), event.getY(), event.getEventTime());
+
+            if (mMoveFrameCallback != null) {
+                if (!mMovePending) {
+                    mMovePending = true;
+                    mMoveFrameCallback.post();
+                }
+            } else {
+                mAppliedMoveTime = mMoveTime;
+                onActionMove(mMoveX, mMoveY);
+            }
+        }
+    }
+
+    /**
+     * Apply the latest touch move sample to the crop window, predicting a short time ahead by the touch velocity
+     * to reduce the perceived latency.
+     */
+    private void applyPendingMove() {
+        if (mMovePending) {
+            mMovePending = false;
+            mAppliedMoveTime = mMoveTime;
+            onActionMove(mMoveX + mMoveVelocityX * MOVE_PREDICTION_HORIZON, mMoveY + mMoveVelocityY * MOVE_PREDICTION_HORIZON);
+        }
+    }
+
+    /**
+     * On touch end apply the exact last touch position so the final crop window doesn't include prediction.
+     */
+    private void flushPendingMove() {
+        if (mMoveFrameCallback != null && mMoveHandler != null &&
+                (mMovePending || mMoveVelocityX != 0 || mMoveVelocityY != 0)) {
+            mMoveFrameCallback.remove();
+            mMovePending = false;
+            onActionMove(mMoveX, mMoveY);
+        }
+    }
+
+    /**
+     * Start collecting touch move samples from the given touch down event.
+     */
+    private void resetMoveSamples(MotionEvent event) {
+        if (mMoveFrameCallback != null) {
+            mMoveFrameCallback.remove();
+        }
+        mMovePending = false;
+        mMoveX = event.getX();
+        mMoveY = event.getY();
+        mMoveTime = event.getEventTime();
+        mMoveVelocityX = 0;
+        mMoveVelocityY = 0;
+    }
+
+    /**
+     * Add touch move sample, update the latest position and the smoothed velocity.
+     */
+    private void addMoveSample(float x, float y, long time) {
+        long dt = time - mMoveTime;
+        if (dt > 0) {
+            mMoveVelocityX = (mMoveVelocityX + (x - mMoveX) / dt) / 2;
+            mMoveVelocityY = (mMoveVelocityY + (y - mMoveY) / dt) / 2;
+        }
+        mMoveX = x;
+        mMoveY = y;
+        mMoveTime = time;
+    }
+
+    /**
+     * Log the touch latency collected by the metrics since their last report, enable by setting a metrics listener
+     * and "adb shell setprop log.tag.AIC DEBUG".
+     */
+    private void logTouchLatency() {
+        if (mMetrics != null && mMetrics.getTouchLatency().getCount() > 0 && Log.isLoggable("AIC", Log.DEBUG)) {
+            Log.d("AIC", "Touch to invalidate latency (ms): " + mMetrics.getTouchLatency());
+        }
+    }
+
     /**
      * Handle move of crop window using the move handler created in {@link #onActionDown(float, float)}.<br>
      * The move handler will do the proper move/resize of the crop window.
      */
     private void onActionMove(float x, float y) {
         if (mMoveHandler != null) {
+            CropImageMetrics.beginSection("AIC#cropWindowMove");
             float snapRadius = mSnapRadius;
             RectF rect = mCropWindowHandler.getRect();
+            CropWindowGeometry.set(mCalcRect, rect.left, rect.top, rect.right, rect.bottom);
 
-            if (calculateBounds(rect)) {
+            if (mBoundsSolver.solve(mCalcRect, mFixAspectRatio, mTargetAspectRatio, mCalcBounds)) {
                 snapRadius = 0;
             }
 
-            mMoveHandler.move(rect, x, y, mCalcBounds, mViewWidth, mViewHeight, snapRadius, mFixAspectRatio, mTargetAspectRatio);
+            mMoveHandler.move(mCalcRect, x, y, mCalcBounds, mViewWidth, mViewHeight, snapRadius, mFixAspectRatio, mTargetAspectRatio, mEdgeSnapMap);
+            rect.set(mCalcRect[0], mCalcRect[1], mCalcRect[2], mCalcRect[3]);
             mCropWindowHandler.setRect(rect);
             callOnCropWindowChanged(true);
-            invalidate();
-        }
-    }
-
-    /**
-     * Calculate the bounding rectangle for current crop window, handle non-straight rotation angles.<br>
-     * If the rotation angle is straight then the bounds rectangle is the bitmap rectangle,
-     * otherwsie we find the max rectangle that is within the image bounds starting from the crop window rectangle.
-     *
-     * @param rect the crop window rectangle to start finsing bounded rectangle from
-     * @return true - non straight rotation in place, false - otherwise.
-     */
-    private boolean calculateBounds(RectF rect) {
+            invalidateChange();
+            CropImageMetrics.endSection();
 
-        float left = BitmapUtils.getRectLeft(mBoundsPoints);
-        float top = BitmapUtils.getRectTop(mBoundsPoints);
-        float right = BitmapUtils.getRectRight(mBoundsPoints);
-        float bottom = BitmapUtils.getRectBottom(mBoundsPoints);
-
-        if (!isNonStraightAngleRotated()) {
-            mCalcBounds.set(left, top, right, bottom);
-            return false;
-        } else {
-            float x0 = mBoundsPoints[0];
-            float y0 = mBoundsPoints[1];
-            float x2 = mBoundsPoints[4];
-            float y2 = mBoundsPoints[5];
-            float x3 = mBoundsPoints[6];
-            float y3 = mBoundsPoints[7];
-
-            if (mBoundsPoints[7] < mBoundsPoints[1]) {
-                if (mBoundsPoints[1] < mBoundsPoints[3]) {
-                    x0 = mBoundsPoints[6];
-                    y0 = mBoundsPoints[7];
-                    x2 = mBoundsPoints[2];
-                    y2 = mBoundsPoints[3];
-                    x3 = mBoundsPoints[4];
-                    y3 = mBoundsPoints[5];
-                } else {
-                    x0 = mBoundsPoints[4];
-                    y0 = mBoundsPoints[5];
-                    x2 = mBoundsPoints[0];
-                    y2 = mBoundsPoints[1];
-                    x3 = mBoundsPoints[2];
-                    y3 = mBoundsPoints[3];
-                }
-            } else if (mBoundsPoints[1] > mBoundsPoints[3]) {
-                x0 = mBoundsPoints[2];
-                y0 = mBoundsPoints[3];
-                x2 = mBoundsPoints[6];
-                y2 = mBoundsPoints[7];
-                x3 = mBoundsPoints[0];
-                y3 = mBoundsPoints[1];
+            if (mMetrics != null && mAppliedMoveTime > 0) {
+                mMetrics.recordTouchLatency(SystemClock.uptimeMillis() - mAppliedMoveTime);
             }
-
-            float a0 = (y3 - y0) / (x3 - x0);
-            float a1 = -1f / a0;
-            float b0 = y0 - a0 * x0;
-            float b1 = y0 - a1 * x0;
-            float b2 = y2 - a0 * x2;
-            float b3 = y2 - a1 * x2;
-
-            float c0 = (rect.centerY() - rect.top) / (rect.centerX() - rect.left);
-            float c1 = -c0;
-            float d0 = rect.top - c0 * rect.left;
-            float d1 = rect.top - c1 * rect.right;
-
-            left = Math.max(left, (d0 - b0) / (a0 - c0) < rect.right ? (d0 - b0) / (a0 - c0) : left);
-            left = Math.max(left, (d0 - b1) / (a1 - c0) < rect.right ? (d0 - b1) / (a1 - c0) : left);
-            left = Math.max(left, (d1 - b3) / (a1 - c1) < rect.right ? (d1 - b3) / (a1 - c1) : left);
-            right = Math.min(right, (d1 - b1) / (a1 - c1) > rect.left ? (d1 - b1) / (a1 - c1) : right);
-            right = Math.min(right, (d1 - b2) / (a0 - c1) > rect.left ? (d1 - b2) / (a0 - c1) : right);
-            right = Math.min(right, (d0 - b2) / (a0 - c0) > rect.left ? (d0 - b2) / (a0 - c0) : right);
-
-            top = Math.max(top, Math.max(a0 * left + b0, a1 * right + b1));
-            bottom = Math.min(bottom, Math.min(a1 * left + b3, a0 * right + b2));
-
-            mCalcBounds.left = left;
-            mCalcBounds.top = top;
-            mCalcBounds.right = right;
-            mCalcBounds.bottom = bottom;
-            return true;
+            mAppliedMoveTime = 0;
         }
     }
 
@@ -990,7 +1363,7 @@ public class CropOverlayView extends View {
      * Is the cropping image has been rotated by NOT 0,90,180 or 270 degrees.
      */
     private boolean isNonStraightAngleRotated() {
-        return mBoundsPoints[0] != mBoundsPoints[6] && mBoundsPoints[1] != mBoundsPoints[7];
+        return CropWindowGeometry.isNonStraightAngleRotated(mBoundsPoints);
     }
 
     /**
@@ -1023,6 +1396,80 @@ public class CropOverlayView extends View {
     }
     //endregion
 
+    //region: Inner class: ImageGestureListener
+
+    /**
+     * Interface definition for callbacks of image pan/zoom touch gestures.
+     */
+    interface ImageGestureListener {
+
+        /**
+         * Called when image gesture starts.
+         */
+        void onImageGestureStart();
+
+        /**
+         * Called when the touch pointers moved by the given delta.
+         */
+        void onImagePan(float dx, float dy);
+
+        /**
+         * Called when the touch pointers span changed by the given scale around the given focus point.
+         */
+        void onImageZoom(float scale, float focusX, float focusY);
+
+        /**
+         * Called when the line between the first two touch pointers rotated by the given degrees clockwise.
+         */
+        void onImageRotate(float degrees);
+
+        /**
+         * Called when image gesture ends with the pan velocity (pixels per second) for fling.
+         */
+        void onImageGestureEnd(float velocityX, float velocityY);
+    }
+    //endregion
+
+    //region: Inner class: ImageScaleListener
+
+    /**
+     * Handle zooming the image based on two finger input
+     */
+    private class ImageScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            if (mImageGesture && mImageGestureListener != null) {
+                mImageGestureListener.onImageZoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            }
+            return true;
+        }
+    }
+    //endregion
+
+    //region: Inner class: MoveFrameCallback
+
+    /**
+     * Apply the coalesced touch move once per frame, before the frame is drawn.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class MoveFrameCallback implements Choreographer.FrameCallback {
+
+        public void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        public void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyPendingMove();
+        }
+    }
+    //endregion
+
     //region: Inner class: ScaleListener
 
     /**
@@ -1054,7 +1501,7 @@ public class CropOverlayView extends View {
 
                 rect.set(newLeft, newTop, newRight, newBottom);
                 mCropWindowHandler.setRect(rect);
-                invalidate();
+                invalidateChange();
             }
 
             return true;
@@ -0,0 +1,251 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+/**
+ * Saliency of an image to place the initial crop window on its most salient region.<br>
+ * Built once per image from the luminance of a small down-scaled preview: the saliency of a pixel is its gradient
+ * strength plus its contrast to the mean of its surrounding, summed in an integral image so the saliency of any
+ * window is O(1).<br>
+ * The best window is searched on a few scales by a coarse grid refined by halving steps, so the search is sub-linear
+ * in the number of window positions.
+ */
+final class CropSaliency {
+
+    //region: Fields and Consts
+
+    /**
+     * The max size of the down-scaled image the saliency is computed from
+     */
+    static final int MAX_MAP_SIZE = 128;
+
+    /**
+     * The penalty of the window area fraction subtracted from the saliency fraction it covers, the higher the
+     * tighter the window is around the salient region
+     */
+    private static final float AREA_PENALTY = 0.5f;
+
+    /**
+     * The smallest window scale relative to the largest window of the aspect ratio
+     */
+    private static final float MIN_WINDOW_SCALE = 0.5f;
+
+    /**
+     * The number of window scales searched from the largest window down to {@link #MIN_WINDOW_SCALE}
+     */
+    private static final int WINDOW_SCALES = 6;
+
+    /**
+     * The number of coarse grid steps on each axis before refining
+     */
+    private static final int COARSE_STEPS = 8;
+
+    /**
+     * The width of the saliency map
+     */
+    private final int mWidth;
+
+    /**
+     * The height of the saliency map
+     */
+    private final int mHeight;
+
+    /**
+     * The integral image of the saliency, (width + 1) * (height + 1) with zero first row and column
+     */
+    private final double[] mIntegral;
+    //endregion
+
+    private CropSaliency(int width, int height, double[] integral) {
+        mWidth = width;
+        mHeight = height;
+        mIntegral = integral;
+    }
+
+    /**
+     * Compute the saliency from the given luminance (0-255) of the image.
+     *
+     * @param luma the luminance of the image pixels row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public static CropSaliency compute(int[] luma, int width, int height) {
+        int stride = width + 1;
+
+        // integral of the luminance for the mean of the surrounding of every pixel
+        long[] lumaIntegral = new long[stride * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            long rowSum = 0;
+            for (int x = 0; x < width; x++) {
+                rowSum += luma[y * width + x];
+                lumaIntegral[(y + 1) * stride + x + 1] = lumaIntegral[y * stride + x + 1] + rowSum;
+            }
+        }
+
+        int radius = Math.max(1, Math.max(width, height) / 8);
+        double[] integral = new double[stride * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            int top = Math.max(0, y - radius);
+            int bottom = Math.min(height, y + radius + 1);
+            double rowSum = 0;
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int left = Math.max(0, x - radius);
+                int right = Math.min(width, x + radius + 1);
+                long surroundSum = lumaIntegral[bottom * stride + right] - lumaIntegral[top * stride + right]
+                        - lumaIntegral[bottom * stride + left] + lumaIntegral[top * stride + left];
+                float surroundMean = surroundSum / (float) ((right - left) * (bottom - top));
+
+                int gradientX = luma[Math.min(x + 1, width - 1) + y * width] - luma[Math.max(x - 1, 0) + y * width];
+                int gradientY = luma[x + Math.min(y + 1, height - 1) * width] - luma[x + Math.max(y - 1, 0) * width];
+
+                rowSum += Math.abs(gradientX) + Math.abs(gradientY) + Math.abs(luma[i] - surroundMean);
+                integral[(y + 1) * stride + x + 1] = integral[y * stride + x + 1] + rowSum;
+            }
+        }
+        return new CropSaliency(width, height, integral);
+    }
+
+    /**
+     * The width of the saliency map, the image width it was computed from.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * The height of the saliency map, the image height it was computed from.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Find the window of the given aspect ratio that best covers the salient region of the image.<br>
+     * The window is scored by the fraction of the image saliency it covers minus the fraction of the image area it
+     * takes, so a uniform image results in the largest window.
+     *
+     * @param aspectRatio the width to height ratio of the window
+     * @param outRect the found window (left, top, right, bottom) in fractions of the image size
+     */
+    public void findBestWindow(float aspectRatio, float[] outRect) {
+        float maxWidth = Math.min(mWidth, mHeight * aspectRatio);
+        float maxHeight = maxWidth / aspectRatio;
+        double total = sum(0, 0, mWidth, mHeight);
+
+        double bestScore = -Double.MAX_VALUE;
+        int bestLeft = 0;
+        int bestTop = 0;
+        int bestWidth = mWidth;
+        int bestHeight = mHeight;
+        int[] position = new int[2];
+        for (int i = 0; i < WINDOW_SCALES; i++) {
+            float scale = 1 - i * (1 - MIN_WINDOW_SCALE) / (WINDOW_SCALES - 1);
+            int width = Math.max(1, Math.round(maxWidth * scale));
+            int height = Math.max(1, Math.round(maxHeight * scale));
+            double areaPenalty = AREA_PENALTY * width * height / ((double) mWidth * mHeight);
+
+            double covered;
+            if (total > 0) {
+                covered = findBestPosition(width, height, position) / total;
+            } else {
+                // nothing salient, as uniform saliency: centered and covering its area
+                position[0] = (mWidth - width) / 2;
+                position[1] = (mHeight - height) / 2;
+                covered = width * height / ((double) mWidth * mHeight);
+            }
+            double score = covered - areaPenalty;
+            if (score > bestScore) {
+                bestScore = score;
+                bestLeft = position[0];
+                bestTop = position[1];
+                bestWidth = width;
+                bestHeight = height;
+            }
+        }
+
+        CropWindowGeometry.set(outRect,
+                bestLeft / (float) mWidth, bestTop / (float) mHeight,
+                (bestLeft + bestWidth) / (float) mWidth, (bestTop + bestHeight) / (float) mHeight);
+    }
+
+    //region: Private methods
+
+    /**
+     * Find the position of the window of the given size that covers the most saliency: the best of a coarse grid
+     * over all positions is refined by climbing to better neighbors while halving the step.
+     *
+     * @param position the found left and top of the window
+     * @return the saliency covered by the window at the found position
+     */
+    private double findBestPosition(int width, int height, int[] position) {
+        int rangeX = mWidth - width;
+        int rangeY = mHeight - height;
+        int stepX = Math.max(1, (rangeX + COARSE_STEPS - 1) / COARSE_STEPS);
+        int stepY = Math.max(1, (rangeY + COARSE_STEPS - 1) / COARSE_STEPS);
+
+        double best = -1;
+        int bestX = rangeX / 2;
+        int bestY = rangeY / 2;
+        for (int y = 0; y <= rangeY; y = y < rangeY ? Math.min(y + stepY, rangeY) : rangeY + 1) {
+            for (int x = 0; x <= rangeX; x = x < rangeX ? Math.min(x + stepX, rangeX) : rangeX + 1) {
+                double value = sum(x, y, x + width, y + height);
+                if (value > best) {
+                    best = value;
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+        }
+
+        while (stepX > 1 || stepY > 1) {
+            stepX = Math.max(1, stepX / 2);
+            stepY = Math.max(1, stepY / 2);
+            boolean moved = true;
+            while (moved) {
+                moved = false;
+                int centerX = bestX;
+                int centerY = bestY;
+                for (int dy = -stepY; dy <= stepY; dy += stepY) {
+                    for (int dx = -stepX; dx <= stepX; dx += stepX) {
+                        int x = centerX + dx;
+                        int y = centerY + dy;
+                        if ((dx != 0 || dy != 0) && x >= 0 && x <= rangeX && y >= 0 && y <= rangeY) {
+                            double value = sum(x, y, x + width, y + height);
+                            if (value > best) {
+                                best = value;
+                                bestX = x;
+                                bestY = y;
+                                moved = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        position[0] = bestX;
+        position[1] = bestY;
+        return best;
+    }
+
+    /**
+     * The saliency sum of the given window by the integral image.
+     */
+    private double sum(int left, int top, int right, int bottom) {
+        int stride = mWidth + 1;
+        return mIntegral[bottom * stride + right] - mIntegral[top * stride + right]
+                - mIntegral[bottom * stride + left] + mIntegral[top * stride + left];
+    }
+    //endregion
+}
@@ -0,0 +1,177 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+/**
+ * Pure geometry of the crop window: rectangle helpers and fixing a rectangle by the crop window rules, see
+ * {@link InscribedRectSolver} for the bounds of rotated image.<br>
+ * Rectangles are float arrays of 4 (left, top, right, bottom) and image bounds are float arrays of 8 (the 4 corner
+ * points), no Android types are used and no allocation is made so it can run on every touch event and in plain
+ * Java environment.
+ */
+final class CropWindowGeometry {
+
+    //region: Fields and Consts
+
+    /**
+     * The index of the left edge in rectangle array
+     */
+    static final int LEFT = 0;
+
+    /**
+     * The index of the top edge in rectangle array
+     */
+    static final int TOP = 1;
+
+    /**
+     * The index of the right edge in rectangle array
+     */
+    static final int RIGHT = 2;
+
+    /**
+     * The index of the bottom edge in rectangle array
+     */
+    static final int BOTTOM = 3;
+    //endregion
+
+    private CropWindowGeometry() {
+    }
+
+    /**
+     * Get the width of the given rectangle.
+     */
+    static float width(float[] rect) {
+        return rect[RIGHT] - rect[LEFT];
+    }
+
+    /**
+     * Get the height of the given rectangle.
+     */
+    static float height(float[] rect) {
+        return rect[BOTTOM] - rect[TOP];
+    }
+
+    /**
+     * Get the center X of the given rectangle.
+     */
+    static float centerX(float[] rect) {
+        return (rect[LEFT] + rect[RIGHT]) / 2;
+    }
+
+    /**
+     * Get the center Y of the given rectangle.
+     */
+    static float centerY(float[] rect) {
+        return (rect[TOP] + rect[BOTTOM]) / 2;
+    }
+
+    /**
+     * Set the edges of the given rectangle.
+     */
+    static void set(float[] rect, float left, float top, float right, float bottom) {
+        rect[LEFT] = left;
+        rect[TOP] = top;
+        rect[RIGHT] = right;
+        rect[BOTTOM] = bottom;
+    }
+
+    /**
+     * Move the given rectangle by the given delta.
+     */
+    static void offset(float[] rect, float dx, float dy) {
+        rect[LEFT] += dx;
+        rect[TOP] += dy;
+        rect[RIGHT] += dx;
+        rect[BOTTOM] += dy;
+    }
+
+    /**
+     * Inset the given rectangle by the given delta on each side, negative delta to outset.
+     */
+    static void inset(float[] rect, float dx, float dy) {
+        rect[LEFT] += dx;
+        rect[TOP] += dy;
+        rect[RIGHT] -= dx;
+        rect[BOTTOM] -= dy;
+    }
+
+    /**
+     * Is the image of the given bounds points rotated by NOT 0,90,180 or 270 degrees.
+     */
+    static boolean isNonStraightAngleRotated(float[] boundsPoints) {
+        return boundsPoints[0] != boundsPoints[6] && boundsPoints[1] != boundsPoints[7];
+    }
+
+    /**
+     * Fix the given rect to fit into image bounds and view and follow min, max and aspect ratio rules.
+     *
+     * @param rect the rectangle to fix
+     * @param boundsSolver the solver of the bounds in the image
+     * @param calcBounds used to calculate the bounds of the rectangle (reusing array instance)
+     */
+    static void fixRectByRules(float[] rect, InscribedRectSolver boundsSolver, float[] calcBounds, int viewWidth, int viewHeight,
+                               float minCropWidth, float minCropHeight, float maxCropWidth, float maxCropHeight,
+                               boolean fixAspectRatio, float aspectRatio) {
+        if (width(rect) < minCropWidth) {
+            float adj = (minCropWidth - width(rect)) / 2;
+            rect[LEFT] -= adj;
+            rect[RIGHT] += adj;
+        }
+        if (height(rect) < minCropHeight) {
+            float adj = (minCropHeight - height(rect)) / 2;
+            rect[TOP] -= adj;
+            rect[BOTTOM] += adj;
+        }
+        if (width(rect) > maxCropWidth) {
+            float adj = (width(rect) - maxCropWidth) / 2;
+            rect[LEFT] += adj;
+            rect[RIGHT] -= adj;
+        }
+        if (height(rect) > maxCropHeight) {
+            float adj = (height(rect) - maxCropHeight) / 2;
+            rect[TOP] += adj;
+            rect[BOTTOM] -= adj;
+        }
+
+        boundsSolver.solve(rect, fixAspectRatio, aspectRatio, calcBounds);
+        if (width(calcBounds) > 0 && height(calcBounds) > 0) {
+            float leftLimit = Math.max(calcBounds[LEFT], 0);
+            float topLimit = Math.max(calcBounds[TOP], 0);
+            float rightLimit = Math.min(calcBounds[RIGHT], viewWidth);
+            float bottomLimit = Math.min(calcBounds[BOTTOM], viewHeight);
+            if (rect[LEFT] < leftLimit) {
+                rect[LEFT] = leftLimit;
+            }
+            if (rect[TOP] < topLimit) {
+                rect[TOP] = topLimit;
+            }
+            if (rect[RIGHT] > rightLimit) {
+                rect[RIGHT] = rightLimit;
+            }
+            if (rect[BOTTOM] > bottomLimit) {
+                rect[BOTTOM] = bottomLimit;
+            }
+        }
+        if (fixAspectRatio && Math.abs(width(rect) - height(rect) * aspectRatio) > 0.1) {
+            if (width(rect) > height(rect) * aspectRatio) {
+                float adj = Math.abs(height(rect) * aspectRatio - width(rect)) / 2;
+                rect[LEFT] += adj;
+                rect[RIGHT] -= adj;
+            } else {
+                float adj = Math.abs(width(rect) / aspectRatio - height(rect)) / 2;
+                rect[TOP] += adj;
+                rect[BOTTOM] -= adj;
+            }
+        }
+    }
+}
@@ -208,7 +208,10 @@ final class CropWindowHandler {
         CropWindowMoveHandler.Type type = cropShape == CropImageView.CropShape.OVAL
                 ? getOvalPressedMoveType(x, y)
                 : getRectanglePressedMoveType(x, y, targetRadius);
-        return type != null ? new CropWindowMoveHandler(type, this, x, y) : null;
+        return type != null
+                ? new CropWindowMoveHandler(type, getMinCropWidth(), getMinCropHeight(), getMaxCropWidth(), getMaxCropHeight(),
+                new float[]{mEdges.left, mEdges.top, mEdges.right, mEdges.bottom}, x, y)
+                : null;
     }
 
     //region: Private methods
@@ -12,21 +12,22 @@
 
 package org.horaapps.editor;
 
-import android.graphics.Matrix;
-import android.graphics.PointF;
-import android.graphics.RectF;
-
 /**
  * Handler to update crop window edges by the move type - Horizontal, Vertical, Corner or Center.<br/>
+ * Plain geometry over primitive floats, see {@link CropWindowGeometry} for the rectangle arrays, no allocation is
+ * made per move.
  */
 final class CropWindowMoveHandler {
 
     //region: Fields and Consts
 
-    /**
-     * Matrix used for rectangle rotation handling
-     */
-    private static final Matrix MATRIX = new Matrix();
+    private static final int LEFT = CropWindowGeometry.LEFT;
+
+    private static final int TOP = CropWindowGeometry.TOP;
+
+    private static final int RIGHT = CropWindowGeometry.RIGHT;
+
+    private static final int BOTTOM = CropWindowGeometry.BOTTOM;
 
     /**
      * Minimum width in pixels that the crop window can get.
@@ -59,24 +60,37 @@ final class CropWindowMoveHandler {
      * However, we want to maintain these offset values while the handle is being dragged so that the handle
      * doesn't jump.
      */
-    private final PointF mTouchOffset = new PointF();
+    private float mTouchOffsetX;
+
+    /**
+     * See {@link #mTouchOffsetX}
+     */
+    private float mTouchOffsetY;
+
+    /**
+     * The strong image edges to snap the resized crop window edges to, null if not available
+     */
+    private EdgeSnapMap mEdgeSnapMap;
     //endregion
 
     /**
-     * @param edgeMoveType the type of move this handler is executing
-     * @param horizontalEdge the primary edge associated with this handle; may be null
-     * @param verticalEdge the secondary edge associated with this handle; may be null
-     * @param cropWindowHandler main crop window handle to get and update the crop window edges
+     * @param type the type of move this handler is executing
+     * @param minCropWidth the minimum width the crop window can get
+     * @param minCropHeight the minimum height the crop window can get
+     * @param maxCropWidth the maximum width the crop window can get
+     * @param maxCropHeight the maximum height the crop window can get
+     * @param rect the crop window rectangle when the move starts
      * @param touchX the location of the initial toch possition to measure move distance
      * @param touchY the location of the initial toch possition to measure move distance
      */
-    public CropWindowMoveHandler(Type type, CropWindowHandler cropWindowHandler, float touchX, float touchY) {
+    public CropWindowMoveHandler(Type type, float minCropWidth, float minCropHeight, float maxCropWidth, float maxCropHeight,
+                                 float[] rect, float touchX, float touchY) {
         mType = type;
-        mMinCropWidth = cropWindowHandler.getMinCropWidth();
-        mMinCropHeight = cropWindowHandler.getMinCropHeight();
-        mMaxCropWidth = cropWindowHandler.getMaxCropWidth();
-        mMaxCropHeight = cropWindowHandler.getMaxCropHeight();
-        calculateTouchOffset(cropWindowHandler.getRect(), touchX, touchY);
+        mMinCropWidth = minCropWidth;
+        mMinCropHeight = minCropHeight;
+        mMaxCropWidth = maxCropWidth;
+        mMaxCropHeight = maxCropHeight;
+        calculateTouchOffset(rect, touchX, touchY);
     }
 
     /**
@@ -98,15 +112,18 @@ final class CropWindowMoveHandler {
      * @param snapMargin the maximum distance (in pixels) at which the crop window should snap to the image
      * @param fixedAspectRatio is the aspect ration fixed and 'targetAspectRatio' should be used
      * @param aspectRatio the aspect ratio to maintain
+     * @param edgeSnapMap the strong image edges to snap resized edges to within the snap margin, may be null
      */
-    public void move(RectF rect, float x, float y, RectF bounds, int viewWidth, int viewHeight, float snapMargin, boolean fixedAspectRatio, float aspectRatio) {
+    public void move(float[] rect, float x, float y, float[] bounds, int viewWidth, int viewHeight, float snapMargin, boolean fixedAspectRatio, float aspectRatio,
+                     EdgeSnapMap edgeSnapMap) {
+        mEdgeSnapMap = edgeSnapMap;
 
         // Adjust the coordinates for the finger position's offset (i.e. the
         // distance from the initial touch to the precise handle location).
         // We want to maintain the initial touch's distance to the pressed
         // handle so that the crop window size does not "jump".
-        float adjX = x + mTouchOffset.x;
-        float adjY = y + mTouchOffset.y;
+        float adjX = x + mTouchOffsetX;
+        float adjY = y + mTouchOffsetY;
 
         if (mType == Type.CENTER) {
             moveCenter(rect, adjX, adjY, bounds, viewWidth, viewHeight, snapMargin);
@@ -125,7 +142,7 @@ final class CropWindowMoveHandler {
      * Calculates the offset of the touch point from the precise location of the specified handle.<br>
      * Save these values in a member variable since we want to maintain this offset as we drag the handle.
      */
-    private void calculateTouchOffset(RectF rect, float touchX, float touchY) {
+    private void calculateTouchOffset(float[] rect, float touchX, float touchY) {
 
         float touchOffsetX = 0;
         float touchOffsetY = 0;
@@ -133,64 +150,64 @@ final class CropWindowMoveHandler {
         // Calculate the offset from the appropriate handle.
         switch (mType) {
             case TOP_LEFT:
-                touchOffsetX = rect.left - touchX;
-                touchOffsetY = rect.top - touchY;
+                touchOffsetX = rect[LEFT] - touchX;
+                touchOffsetY = rect[TOP] - touchY;
                 break;
             case TOP_RIGHT:
-                touchOffsetX = rect.right - touchX;
-                touchOffsetY = rect.top - touchY;
+                touchOffsetX = rect[RIGHT] - touchX;
+                touchOffsetY = rect[TOP] - touchY;
                 break;
             case BOTTOM_LEFT:
-                touchOffsetX = rect.left - touchX;
-                touchOffsetY = rect.bottom - touchY;
+                touchOffsetX = rect[LEFT] - touchX;
+                touchOffsetY = rect[BOTTOM] - touchY;
                 break;
             case BOTTOM_RIGHT:
-                touchOffsetX = rect.right - touchX;
-                touchOffsetY = rect.bottom - touchY;
+                touchOffsetX = rect[RIGHT] - touchX;
+                touchOffsetY = rect[BOTTOM] - touchY;
                 break;
             case LEFT:
-                touchOffsetX = rect.left - touchX;
+                touchOffsetX = rect[LEFT] - touchX;
                 touchOffsetY = 0;
                 break;
             case TOP:
                 touchOffsetX = 0;
-                touchOffsetY = rect.top - touchY;
+                touchOffsetY = rect[TOP] - touchY;
                 break;
             case RIGHT:
-                touchOffsetX = rect.right - touchX;
+                touchOffsetX = rect[RIGHT] - touchX;
                 touchOffsetY = 0;
                 break;
             case BOTTOM:
                 touchOffsetX = 0;
-                touchOffsetY = rect.bottom - touchY;
+                touchOffsetY = rect[BOTTOM] - touchY;
                 break;
             case CENTER:
-                touchOffsetX = rect.centerX() - touchX;
-                touchOffsetY = rect.centerY() - touchY;
+                touchOffsetX = CropWindowGeometry.centerX(rect) - touchX;
+                touchOffsetY = CropWindowGeometry.centerY(rect) - touchY;
                 break;
             default:
                 break;
         }
 
-        mTouchOffset.x = touchOffsetX;
-        mTouchOffset.y = touchOffsetY;
+        mTouchOffsetX = touchOffsetX;
+        mTouchOffsetY = touchOffsetY;
     }
 
     /**
      * Center move only changes the position of the crop window without changing the size.
      */
-    private void moveCenter(RectF rect, float x, float y, RectF bounds, int viewWidth, int viewHeight, float snapRadius) {
-        float dx = x - rect.centerX();
-        float dy = y - rect.centerY();
-        if (rect.left + dx < 0 || rect.right + dx > viewWidth || rect.left + dx < bounds.left || rect.right + dx > bounds.right) {
+    private void moveCenter(float[] rect, float x, float y, float[] bounds, int viewWidth, int viewHeight, float snapRadius) {
+        float dx = x - CropWindowGeometry.centerX(rect);
+        float dy = y - CropWindowGeometry.centerY(rect);
+        if (rect[LEFT] + dx < 0 || rect[RIGHT] + dx > viewWidth || rect[LEFT] + dx < bounds[LEFT] || rect[RIGHT] + dx > bounds[RIGHT]) {
             dx /= 1.05f;
-            mTouchOffset.x -= dx / 2;
+            mTouchOffsetX -= dx / 2;
         }
-        if (rect.top + dy < 0 || rect.bottom + dy > viewHeight || rect.top + dy < bounds.top || rect.bottom + dy > bounds.bottom) {
+        if (rect[TOP] + dy < 0 || rect[BOTTOM] + dy > viewHeight || rect[TOP] + dy < bounds[TOP] || rect[BOTTOM] + dy > bounds[BOTTOM]) {
             dy /= 1.05f;
-            mTouchOffset.y -= dy / 2;
+            mTouchOffsetY -= dy / 2;
         }
-        rect.offset(dx, dy);
+        CropWindowGeometry.offset(rect, dx, dy);
         snapEdgesToBounds(rect, bounds, snapRadius);
     }
 
@@ -199,7 +216,7 @@ final class CropWindowMoveHandler {
      * affecting "secondary" edges.<br>
      * Only the primary edge(s) are fixed to stay within limits.
      */
-    private void moveSizeWithFreeAspectRatio(RectF rect, float x, float y, RectF bounds, int viewWidth, int viewHeight, float snapMargin) {
+    private void moveSizeWithFreeAspectRatio(float[] rect, float x, float y, float[] bounds, int viewWidth, int viewHeight, float snapMargin) {
         switch (mType) {
             case TOP_LEFT:
                 adjustTop(rect, y, bounds, snapMargin, 0, false, false);
@@ -240,10 +257,10 @@ final class CropWindowMoveHandler {
      * Example: change in the left edge (primary) will affect top and bottom edges (secondary) to preserve the
      * given aspect ratio.
      */
-    private void moveSizeWithFixedAspectRatio(RectF rect, float x, float y, RectF bounds, int viewWidth, int viewHeight, float snapMargin, float aspectRatio) {
+    private void moveSizeWithFixedAspectRatio(float[] rect, float x, float y, float[] bounds, int viewWidth, int viewHeight, float snapMargin, float aspectRatio) {
         switch (mType) {
             case TOP_LEFT:
-                if (calculateAspectRatio(x, y, rect.right, rect.bottom) < aspectRatio) {
+                if (calculateAspectRatio(x, y, rect[RIGHT], rect[BOTTOM]) < aspectRatio) {
                     adjustTop(rect, y, bounds, snapMargin, aspectRatio, true, false);
                     adjustLeftByAspectRatio(rect, aspectRatio);
                 } else {
@@ -252,7 +269,7 @@ final class CropWindowMoveHandler {
                 }
                 break;
             case TOP_RIGHT:
-                if (calculateAspectRatio(rect.left, y, x, rect.bottom) < aspectRatio) {
+                if (calculateAspectRatio(rect[LEFT], y, x, rect[BOTTOM]) < aspectRatio) {
                     adjustTop(rect, y, bounds, snapMargin, aspectRatio, false, true);
                     adjustRightByAspectRatio(rect, aspectRatio);
                 } else {
@@ -261,7 +278,7 @@ final class CropWindowMoveHandler {
                 }
                 break;
             case BOTTOM_LEFT:
-                if (calculateAspectRatio(x, rect.top, rect.right, y) < aspectRatio) {
+                if (calculateAspectRatio(x, rect[TOP], rect[RIGHT], y) < aspectRatio) {
                     adjustBottom(rect, y, bounds, viewHeight, snapMargin, aspectRatio, true, false);
                     adjustLeftByAspectRatio(rect, aspectRatio);
                 } else {
@@ -270,7 +287,7 @@ final class CropWindowMoveHandler {
                 }
                 break;
             case BOTTOM_RIGHT:
-                if (calculateAspectRatio(rect.left, rect.top, x, y) < aspectRatio) {
+                if (calculateAspectRatio(rect[LEFT], rect[TOP], x, y) < aspectRatio) {
                     adjustBottom(rect, y, bounds, viewHeight, snapMargin, aspectRatio, false, true);
                     adjustRightByAspectRatio(rect, aspectRatio);
                 } else {
@@ -302,18 +319,18 @@ final class CropWindowMoveHandler {
     /**
      * Check if edges have gone out of bounds (including snap margin), and fix if needed.
      */
-    private void snapEdgesToBounds(RectF edges, RectF bounds, float margin) {
-        if (edges.left < bounds.left + margin) {
-            edges.offset(bounds.left - edges.left, 0);
+    private void snapEdgesToBounds(float[] edges, float[] bounds, float margin) {
+        if (edges[LEFT] < bounds[LEFT] + margin) {
+            CropWindowGeometry.offset(edges, bounds[LEFT] - edges[LEFT], 0);
         }
-        if (edges.top < bounds.top + margin) {
-            edges.offset(0, bounds.top - edges.top);
+        if (edges[TOP] < bounds[TOP] + margin) {
+            CropWindowGeometry.offset(edges, 0, bounds[TOP] - edges[TOP]);
         }
-        if (edges.right > bounds.right - margin) {
-            edges.offset(bounds.right - edges.right, 0);
+        if (edges[RIGHT] > bounds[RIGHT] - margin) {
+            CropWindowGeometry.offset(edges, bounds[RIGHT] - edges[RIGHT], 0);
         }
-        if (edges.bottom > bounds.bottom - margin) {
-            edges.offset(0, bounds.bottom - edges.bottom);
+        if (edges[BOTTOM] > bounds[BOTTOM] - margin) {
+            CropWindowGeometry.offset(edges, 0, bounds[BOTTOM] - edges[BOTTOM]);
         }
     }
 
@@ -325,71 +342,73 @@ final class CropWindowMoveHandler {
      * @param bounds the bounding box of the image that is being cropped
      * @param snapMargin the snap distance to the image edge (in pixels)
      */
-    private void adjustLeft(RectF rect, float left, RectF bounds, float snapMargin, float aspectRatio, boolean topMoves, boolean bottomMoves) {
+    private void adjustLeft(float[] rect, float left, float[] bounds, float snapMargin, float aspectRatio, boolean topMoves, boolean bottomMoves) {
 
         float newLeft = left;
 
         if (newLeft < 0) {
             newLeft /= 1.05f;
-            mTouchOffset.x -= newLeft / 1.1f;
+            mTouchOffsetX -= newLeft / 1.1f;
         }
 
-        if (newLeft < bounds.left) {
-            mTouchOffset.x -= (newLeft - bounds.left) / 2f;
+        if (newLeft < bounds[LEFT]) {
+            mTouchOffsetX -= (newLeft - bounds[LEFT]) / 2f;
         }
 
-        if (newLeft - bounds.left < snapMargin) {
-            newLeft = bounds.left;
+        if (newLeft - bounds[LEFT] < snapMargin) {
+            newLeft = bounds[LEFT];
+        } else if (mEdgeSnapMap != null) {
+            newLeft = mEdgeSnapMap.snapX(newLeft, snapMargin);
         }
 
         // Checks if the window is too small horizontally
-        if (rect.right - newLeft < mMinCropWidth) {
-            newLeft = rect.right - mMinCropWidth;
+        if (rect[RIGHT] - newLeft < mMinCropWidth) {
+            newLeft = rect[RIGHT] - mMinCropWidth;
         }
 
         // Checks if the window is too large horizontally
-        if (rect.right - newLeft > mMaxCropWidth) {
-            newLeft = rect.right - mMaxCropWidth;
+        if (rect[RIGHT] - newLeft > mMaxCropWidth) {
+            newLeft = rect[RIGHT] - mMaxCropWidth;
         }
 
-        if (newLeft - bounds.left < snapMargin) {
-            newLeft = bounds.left;
+        if (newLeft - bounds[LEFT] < snapMargin) {
+            newLeft = bounds[LEFT];
         }
 
         // check vertical bounds if aspect ratio is in play
         if (aspectRatio > 0) {
-            float newHeight = (rect.right - newLeft) / aspectRatio;
+            float newHeight = (rect[RIGHT] - newLeft) / aspectRatio;
 
             // Checks if the window is too small vertically
             if (newHeight < mMinCropHeight) {
-                newLeft = Math.max(bounds.left, rect.right - mMinCropHeight * aspectRatio);
-                newHeight = (rect.right - newLeft) / aspectRatio;
+                newLeft = Math.max(bounds[LEFT], rect[RIGHT] - mMinCropHeight * aspectRatio);
+                newHeight = (rect[RIGHT] - newLeft) / aspectRatio;
             }
 
             // Checks if the window is too large vertically
             if (newHeight > mMaxCropHeight) {
-                newLeft = Math.max(bounds.left, rect.right - mMaxCropHeight * aspectRatio);
-                newHeight = (rect.right - newLeft) / aspectRatio;
+                newLeft = Math.max(bounds[LEFT], rect[RIGHT] - mMaxCropHeight * aspectRatio);
+                newHeight = (rect[RIGHT] - newLeft) / aspectRatio;
             }
 
             // if top AND bottom edge moves by aspect ratio check that it is within full height bounds
             if (topMoves && bottomMoves) {
-                newLeft = Math.max(newLeft, Math.max(bounds.left, rect.right - bounds.height() * aspectRatio));
+                newLeft = Math.max(newLeft, Math.max(bounds[LEFT], rect[RIGHT] - CropWindowGeometry.height(bounds) * aspectRatio));
             } else {
                 // if top edge moves by aspect ratio check that it is within bounds
-                if (topMoves && rect.bottom - newHeight < bounds.top) {
-                    newLeft = Math.max(bounds.left, rect.right - (rect.bottom - bounds.top) * aspectRatio);
-                    newHeight = (rect.right - newLeft) / aspectRatio;
+                if (topMoves && rect[BOTTOM] - newHeight < bounds[TOP]) {
+                    newLeft = Math.max(bounds[LEFT], rect[RIGHT] - (rect[BOTTOM] - bounds[TOP]) * aspectRatio);
+                    newHeight = (rect[RIGHT] - newLeft) / aspectRatio;
                 }
 
                 // if bottom edge moves by aspect ratio check that it is within bounds
-                if (bottomMoves && rect.top + newHeight > bounds.bottom) {
-                    newLeft = Math.max(newLeft, Math.max(bounds.left, rect.right - (bounds.bottom - rect.top) * aspectRatio));
+                if (bottomMoves && rect[TOP] + newHeight > bounds[BOTTOM]) {
+                    newLeft = Math.max(newLeft, Math.max(bounds[LEFT], rect[RIGHT] - (bounds[BOTTOM] - rect[TOP]) * aspectRatio));
                 }
             }
         }
 
-        rect.left = newLeft;
+        rect[LEFT] = newLeft;
     }
 
     /**
@@ -401,73 +420,75 @@ final class CropWindowMoveHandler {
      * @param viewWidth
      * @param snapMargin the snap distance to the image edge (in pixels)
      */
-    private void adjustRight(RectF rect, float right, RectF bounds, int viewWidth, float snapMargin, float aspectRatio, boolean topMoves, boolean bottomMoves) {
+    private void adjustRight(float[] rect, float right, float[] bounds, int viewWidth, float snapMargin, float aspectRatio, boolean topMoves, boolean bottomMoves) {
 
         float newRight = right;
 
         if (newRight > viewWidth) {
             newRight = viewWidth + (newRight - viewWidth) / 1.05f;
-            mTouchOffset.x -= (newRight - viewWidth) / 1.1f;
+            mTouchOffsetX -= (newRight - viewWidth) / 1.1f;
         }
 
-        if (newRight > bounds.right) {
-            mTouchOffset.x -= (newRight - bounds.right) / 2f;
+        if (newRight > bounds[RIGHT]) {
+            mTouchOffsetX -= (newRight - bounds[RIGHT]) / 2f;
         }
 
         // If close to the edge
-        if (bounds.right - newRight < snapMargin) {
-            newRight = bounds.right;
+        if (bounds[RIGHT] - newRight < snapMargin) {
+            newRight = bounds[RIGHT];
+        } else if (mEdgeSnapMap != null) {
+            newRight = mEdgeSnapMap.snapX(newRight, snapMargin);
         }
 
         // Checks if the window is too small horizontally
-        if (newRight - rect.left < mMinCropWidth) {
-            newRight = rect.left + mMinCropWidth;
+        if (newRight - rect[LEFT] < mMinCropWidth) {
+            newRight = rect[LEFT] + mMinCropWidth;
         }
 
         // Checks if the window is too large horizontally
-        if (newRight - rect.left > mMaxCropWidth) {
-            newRight = rect.left + mMaxCropWidth;
+        if (newRight - rect[LEFT] > mMaxCropWidth) {
+            newRight = rect[LEFT] + mMaxCropWidth;
         }
 
         // If close to the edge
-        if (bounds.right - newRight < snapMargin) {
-            newRight = bounds.right;
+        if (bounds[RIGHT] - newRight < snapMargin) {
+            newRight = bounds[RIGHT];
         }
 
         // check vertical bounds if aspect ratio is in play
         if (aspectRatio > 0) {
-            float newHeight = (newRight - rect.left) / aspectRatio;
+            float newHeight = (newRight - rect[LEFT]) / aspectRatio;
 
             // Checks if the window is too small vertically
             if (newHeight < mMinCropHeight) {
-                newRight = Math.min(bounds.right, rect.left + mMinCropHeight * aspectRatio);
-                newHeight = (newRight - rect.left) / aspectRatio;
+                newRight = Math.min(bounds[RIGHT], rect[LEFT] + mMinCropHeight * aspectRatio);
+                newHeight = (newRight - rect[LEFT]) / aspectRatio;
             }
 
             // Checks if the window is too large vertically
             if (newHeight > mMaxCropHeight) {
-                newRight = Math.min(bounds.right, rect.left + mMaxCropHeight * aspectRatio);
-                newHeight = (newRight - rect.left) / aspectRatio;
+                newRight = Math.min(bounds[RIGHT], rect[LEFT] + mMaxCropHeight * aspectRatio);
+                newHeight = (newRight - rect[LEFT]) / aspectRatio;
             }
 
             // if top AND bottom edge moves by aspect ratio check that it is within full height bounds
             if (topMoves && bottomMoves) {
-                newRight = Math.min(newRight, Math.min(bounds.right, rect.left + bounds.height() * aspectRatio));
+                newRight = Math.min(newRight, Math.min(bounds[RIGHT], rect[LEFT] + CropWindowGeometry.height(bounds) * aspectRatio));
             } else {
                 // if top edge moves by aspect ratio check that it is within bounds
-                if (topMoves && rect.bottom - newHeight < bounds.top) {
-                    newRight = Math.min(bounds.right, rect.left + (rect.bottom - bounds.top) * aspectRatio);
-                    newHeight = (newRight - rect.left) / aspectRatio;
+                if (topMoves && rect[BOTTOM] - newHeight < bounds[TOP]) {
+                    newRight = Math.min(bounds[RIGHT], rect[LEFT] + (rect[BOTTOM] - bounds[TOP]) * aspectRatio);
+                    newHeight = (newRight - rect[LEFT]) / aspectRatio;
                 }
 
                 // if bottom edge moves by aspect ratio check that it is within bounds
-                if (bottomMoves && rect.top + newHeight > bounds.bottom) {
-                    newRight = Math.min(newRight, Math.min(bounds.right, rect.left + (bounds.bottom - rect.top) * aspectRatio));
+                if (bottomMoves && rect[TOP] + newHeight > bounds[BOTTOM]) {
+                    newRight = Math.min(newRight, Math.min(bounds[RIGHT], rect[LEFT] + (bounds[BOTTOM] - rect[TOP]) * aspectRatio));
                 }
             }
         }
 
-        rect.right = newRight;
+        rect[RIGHT] = newRight;
     }
 
     /**
@@ -478,71 +499,73 @@ final class CropWindowMoveHandler {
      * @param bounds the bounding box of the image that is being cropped
      * @param snapMargin the snap distance to the image edge (in pixels)
      */
-    private void adjustTop(RectF rect, float top, RectF bounds, float snapMargin, float aspectRatio, boolean leftMoves, boolean rightMoves) {
+    private void adjustTop(float[] rect, float top, float[] bounds, float snapMargin, float aspectRatio, boolean leftMoves, boolean rightMoves) {
 
         float newTop = top;
 
         if (newTop < 0) {
             newTop /= 1.05f;
-            mTouchOffset.y -= newTop / 1.1f;
+            mTouchOffsetY -= newTop / 1.1f;
         }
 
-        if (newTop < bounds.top) {
-            mTouchOffset.y -= (newTop - bounds.top) / 2f;
+        if (newTop < bounds[TOP]) {
+            mTouchOffsetY -= (newTop - bounds[TOP]) / 2f;
         }
 
-        if (newTop - bounds.top < snapMargin) {
-            newTop = bounds.top;
+        if (newTop - bounds[TOP] < snapMargin) {
+            newTop = bounds[TOP];
+        } else if (mEdgeSnapMap != null) {
+            newTop = mEdgeSnapMap.snapY(newTop, snapMargin);
         }
 
         // Checks if the window is too small vertically
-        if (rect.bottom - newTop < mMinCropHeight) {
-            newTop = rect.bottom - mMinCropHeight;
+        if (rect[BOTTOM] - newTop < mMinCropHeight) {
+            newTop = rect[BOTTOM] - mMinCropHeight;
         }
 
         // Checks if the window is too large vertically
-        if (rect.bottom - newTop > mMaxCropHeight) {
-            newTop = rect.bottom - mMaxCropHeight;
+        if (rect[BOTTOM] - newTop > mMaxCropHeight) {
+            newTop = rect[BOTTOM] - mMaxCropHeight;
         }
 
-        if (newTop - bounds.top < snapMargin) {
-            newTop = bounds.top;
+        if (newTop - bounds[TOP] < snapMargin) {
+            newTop = bounds[TOP];
         }
 
         // check horizontal bounds if aspect ratio is in play
         if (aspectRatio > 0) {
-            float newWidth = (rect.bottom - newTop) * aspectRatio;
+            float newWidth = (rect[BOTTOM] - newTop) * aspectRatio;
 
             // Checks if the crop window is too small horizontally due to aspect ratio adjustment
             if (newWidth < mMinCropWidth) {
-                newTop = Math.max(bounds.top, rect.bottom - (mMinCropWidth / aspectRatio));
-                newWidth = (rect.bottom - newTop) * aspectRatio;
+                newTop = Math.max(bounds[TOP], rect[BOTTOM] - (mMinCropWidth / aspectRatio));
+                newWidth = (rect[BOTTOM] - newTop) * aspectRatio;
             }
 
             // Checks if the crop window is too large horizontally due to aspect ratio adjustment
             if (newWidth > mMaxCropWidth) {
-                newTop = Math.max(bounds.top, rect.bottom - (mMaxCropWidth / aspectRatio));
-                newWidth = (rect.bottom - newTop) * aspectRatio;
+                newTop = Math.max(bounds[TOP], rect[BOTTOM] - (mMaxCropWidth / aspectRatio));
+                newWidth = (rect[BOTTOM] - newTop) * aspectRatio;
             }
 
             // if left AND right edge moves by aspect ratio check that it is within full width bounds
             if (leftMoves && rightMoves) {
-                newTop = Math.max(newTop, Math.max(bounds.top, rect.bottom - bounds.width() / aspectRatio));
+                newTop = Math.max(newTop, Math.max(bounds[TOP], rect[BOTTOM] - CropWindowGeometry.width(bounds) / aspectRatio));
             } else {
                 // if left edge moves by aspect ratio check that it is within bounds
-                if (leftMoves && rect.right - newWidth < bounds.left) {
-                    newTop = Math.max(bounds.top, rect.bottom - (rect.right - bounds.left) / aspectRatio);
-                    newWidth = (rect.bottom - newTop) * aspectRatio;
+                if (leftMoves && rect[RIGHT] - newWidth < bounds[LEFT]) {
+                    newTop = Math.max(bounds[TOP], rect[BOTTOM] - (rect[RIGHT] - bounds[LEFT]) / aspectRatio);
+                    newWidth = (rect[BOTTOM] - newTop) * aspectRatio;
                 }
 
                 // if right edge moves by aspect ratio check that it is within bounds
-                if (rightMoves && rect.left + newWidth > bounds.right) {
-                    newTop = Math.max(newTop, Math.max(bounds.top, rect.bottom - (bounds.right - rect.left) / aspectRatio));
+                if (rightMoves && rect[LEFT] + newWidth > bounds[RIGHT]) {
+                    newTop = Math.max(newTop, Math.max(bounds[TOP], rect[BOTTOM] - (bounds[RIGHT] - rect[LEFT]) / aspectRatio));
                 }
             }
         }
 
-        rect.top = newTop;
+        rect[TOP] = newTop;
     }
 
     /**
@@ -554,116 +577,118 @@ final class CropWindowMoveHandler {
      * @param viewHeight
      * @param snapMargin the snap distance to the image edge (in pixels)
      */
-    private void adjustBottom(RectF rect, float bottom, RectF bounds, int viewHeight, float snapMargin, float aspectRatio, boolean leftMoves, boolean rightMoves) {
+    private void adjustBottom(float[] rect, float bottom, float[] bounds, int viewHeight, float snapMargin, float aspectRatio, boolean leftMoves, boolean rightMoves) {
 
         float newBottom = bottom;
 
         if (newBottom > viewHeight) {
             newBottom = viewHeight + (newBottom - viewHeight) / 1.05f;
-            mTouchOffset.y -= (newBottom - viewHeight) / 1.1f;
+            mTouchOffsetY -= (newBottom - viewHeight) / 1.1f;
         }
 
-        if (newBottom > bounds.bottom) {
-            mTouchOffset.y -= (newBottom - bounds.bottom) / 2f;
+        if (newBottom > bounds[BOTTOM]) {
+            mTouchOffsetY -= (newBottom - bounds[BOTTOM]) / 2f;
         }
 
-        if (bounds.bottom - newBottom < snapMargin) {
-            newBottom = bounds.bottom;
+        if (bounds[BOTTOM] - newBottom < snapMargin) {
+            newBottom = bounds[BOTTOM];
+        } else if (mEdgeSnapMap != null) {
+            newBottom = mEdgeSnapMap.snapY(newBottom, snapMargin);
         }
 
         // Checks if the window is too small vertically
-        if (newBottom - rect.top < mMinCropHeight) {
-            newBottom = rect.top + mMinCropHeight;
+        if (newBottom - rect[TOP] < mMinCropHeight) {
+            newBottom = rect[TOP] + mMinCropHeight;
         }
 
         // Checks if the window is too small vertically
-        if (newBottom - rect.top > mMaxCropHeight) {
-            newBottom = rect.top + mMaxCropHeight;
+        if (newBottom - rect[TOP] > mMaxCropHeight) {
+            newBottom = rect[TOP] + mMaxCropHeight;
         }
 
-        if (bounds.bottom - newBottom < snapMargin) {
-            newBottom = bounds.bottom;
+        if (bounds[BOTTOM] - newBottom < snapMargin) {
+            newBottom = bounds[BOTTOM];
         }
 
         // check horizontal bounds if aspect ratio is in play
         if (aspectRatio > 0) {
-            float newWidth = (newBottom - rect.top) * aspectRatio;
+            float newWidth = (newBottom - rect[TOP]) * aspectRatio;
 
             // Checks if the window is too small horizontally
             if (newWidth < mMinCropWidth) {
-                newBottom = Math.min(bounds.bottom, rect.top + mMinCropWidth / aspectRatio);
-                newWidth = (newBottom - rect.top) * aspectRatio;
+                newBottom = Math.min(bounds[BOTTOM], rect[TOP] + mMinCropWidth / aspectRatio);
+                newWidth = (newBottom - rect[TOP]) * aspectRatio;
             }
 
             // Checks if the window is too large horizontally
             if (newWidth > mMaxCropWidth) {
-                newBottom = Math.min(bounds.bottom, rect.top + mMaxCropWidth / aspectRatio);
-                newWidth = (newBottom - rect.top) * aspectRatio;
+                newBottom = Math.min(bounds[BOTTOM], rect[TOP] + mMaxCropWidth / aspectRatio);
+                newWidth = (newBottom - rect[TOP]) * aspectRatio;
             }
 
             // if left AND right edge moves by aspect ratio check that it is within full width bounds
             if (leftMoves && rightMoves) {
-                newBottom = Math.min(newBottom, Math.min(bounds.bottom, rect.top + bounds.width() / aspectRatio));
+                newBottom = Math.min(newBottom, Math.min(bounds[BOTTOM], rect[TOP] + CropWindowGeometry.width(bounds) / aspectRatio));
             } else {
                 // if left edge moves by aspect ratio check that it is within bounds
-                if (leftMoves && rect.right - newWidth < bounds.left) {
-                    newBottom = Math.min(bounds.bottom, rect.top + (rect.right - bounds.left) / aspectRatio);
-                    newWidth = (newBottom - rect.top) * aspectRatio;
+                if (leftMoves && rect[RIGHT] - newWidth < bounds[LEFT]) {
+                    newBottom = Math.min(bounds[BOTTOM], rect[TOP] + (rect[RIGHT] - bounds[LEFT]) / aspectRatio);
+                    newWidth = (newBottom - rect[TOP]) * aspectRatio;
                 }
 
                 // if right edge moves by aspect ratio check that it is within bounds
-                if (rightMoves && rect.left + newWidth > bounds.right) {
-                    newBottom = Math.min(newBottom, Math.min(bounds.bottom, rect.top + (bounds.right - rect.left) / aspectRatio));
+                if (rightMoves && rect[LEFT] + newWidth > bounds[RIGHT]) {
+                    newBottom = Math.min(newBottom, Math.min(bounds[BOTTOM], rect[TOP] + (bounds[RIGHT] - rect[LEFT]) / aspectRatio));
                 }
             }
         }
 
-        rect.bottom = newBottom;
+        rect[BOTTOM] = newBottom;
     }
 
     /**
      * Adjust left edge by current crop window height and the given aspect ratio,
      * the right edge remains in possition while the left adjusts to keep aspect ratio to the height.
      */
-    private void adjustLeftByAspectRatio(RectF rect, float aspectRatio) {
-        rect.left = rect.right - rect.height() * aspectRatio;
+    private void adjustLeftByAspectRatio(float[] rect, float aspectRatio) {
+        rect[LEFT] = rect[RIGHT] - CropWindowGeometry.height(rect) * aspectRatio;
     }
 
     /**
      * Adjust top edge by current crop window width and the given aspect ratio,
      * the bottom edge remains in possition while the top adjusts to keep aspect ratio to the width.
      */
-    private void adjustTopByAspectRatio(RectF rect, float aspectRatio) {
-        rect.top = rect.bottom - rect.width() / aspectRatio;
+    private void adjustTopByAspectRatio(float[] rect, float aspectRatio) {
+        rect[TOP] = rect[BOTTOM] - CropWindowGeometry.width(rect) / aspectRatio;
     }
 
     /**
      * Adjust right edge by current crop window height and the given aspect ratio,
      * the left edge remains in possition while the left adjusts to keep aspect ratio to the height.
      */
-    private void adjustRightByAspectRatio(RectF rect, float aspectRatio) {
-        rect.right = rect.left + rect.height() * aspectRatio;
+    private void adjustRightByAspectRatio(float[] rect, float aspectRatio) {
+        rect[RIGHT] = rect[LEFT] + CropWindowGeometry.height(rect) * aspectRatio;
     }
 
     /**
      * Adjust bottom edge by current crop window width and the given aspect ratio,
      * the top edge remains in possition while the top adjusts to keep aspect ratio to the width.
      */
-    private void adjustBottomByAspectRatio(RectF rect, float aspectRatio) {
-        rect.bottom = rect.top + rect.width() / aspectRatio;
+    private void adjustBottomByAspectRatio(float[] rect, float aspectRatio) {
+        rect[BOTTOM] = rect[TOP] + CropWindowGeometry.width(rect) / aspectRatio;
     }
 
     /**
      * Adjust left and right edges by current crop window height and the given aspect ratio,
      * both right and left edges adjusts equally relative to center to keep aspect ratio to the height.
      */
-    private void adjustLeftRightByAspectRatio(RectF rect, RectF bounds, float aspectRatio) {
-        rect.inset((rect.width() - rect.height() * aspectRatio) / 2, 0);
-        if (rect.left < bounds.left) {
-            rect.offset(bounds.left - rect.left, 0);
+    private void adjustLeftRightByAspectRatio(float[] rect, float[] bounds, float aspectRatio) {
+        CropWindowGeometry.inset(rect, (CropWindowGeometry.width(rect) - CropWindowGeometry.height(rect) * aspectRatio) / 2, 0);
+        if (rect[LEFT] < bounds[LEFT]) {
+            CropWindowGeometry.offset(rect, bounds[LEFT] - rect[LEFT], 0);
         }
-        if (rect.right > bounds.right) {
-            rect.offset(bounds.right - rect.right, 0);
+        if (rect[RIGHT] > bounds[RIGHT]) {
+            CropWindowGeometry.offset(rect, bounds[RIGHT] - rect[RIGHT], 0);
         }
     }
 
@@ -671,13 +696,13 @@ final class CropWindowMoveHandler {
      * Adjust top and bottom edges by current crop window width and the given aspect ratio,
      * both top and bottom edges adjusts equally relative to center to keep aspect ratio to the width.
      */
-    private void adjustTopBottomByAspectRatio(RectF rect, RectF bounds, float aspectRatio) {
-        rect.inset(0, (rect.height() - rect.width() / aspectRatio) / 2);
-        if (rect.top < bounds.top) {
-            rect.offset(0, bounds.top - rect.top);
+    private void adjustTopBottomByAspectRatio(float[] rect, float[] bounds, float aspectRatio) {
+        CropWindowGeometry.inset(rect, 0, (CropWindowGeometry.height(rect) - CropWindowGeometry.width(rect) / aspectRatio) / 2);
+        if (rect[TOP] < bounds[TOP]) {
+            CropWindowGeometry.offset(rect, 0, bounds[TOP] - rect[TOP]);
         }
-        if (rect.bottom > bounds.bottom) {
-            rect.offset(0, bounds.bottom - rect.bottom);
+        if (rect[BOTTOM] > bounds[BOTTOM]) {
+            CropWindowGeometry.offset(rect, 0, bounds[BOTTOM] - rect[BOTTOM]);
         }
     }
 
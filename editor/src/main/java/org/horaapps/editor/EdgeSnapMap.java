@@ -0,0 +1,229 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+/**
+ * Strong image edges to snap the crop window edges to.<br>
+ * Built once per image from the luminance of a down-scaled preview: the gradient strength is projected on the image
+ * columns (vertical edges) and rows (horizontal edges), the local maxima of the projections that stand out of the
+ * rest are the strong edges. For every column/row the nearest strong edge before and after it is precomputed so the
+ * query per crop window move is O(1).<br>
+ * Queries are in view coordinates by the image bounds points, straight rotations only.
+ */
+final class EdgeSnapMap {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of standard deviations above the mean projection strength for an edge to be strong
+     */
+    private static final float STRONG_EDGE_DEVIATIONS = 2;
+
+    /**
+     * For each image column the nearest strong vertical edge at or before it, -1 if none
+     */
+    private final int[] mColumnEdgeBefore;
+
+    /**
+     * For each image column the nearest strong vertical edge at or after it, -1 if none
+     */
+    private final int[] mColumnEdgeAfter;
+
+    /**
+     * For each image row the nearest strong horizontal edge at or before it, -1 if none
+     */
+    private final int[] mRowEdgeBefore;
+
+    /**
+     * For each image row the nearest strong horizontal edge at or after it, -1 if none
+     */
+    private final int[] mRowEdgeAfter;
+
+    /**
+     * if the view X axis is along the image columns (not rotated by 90/270 degrees)
+     */
+    private boolean mViewXAlongColumns;
+
+    /**
+     * The view position of the image origin on view X axis
+     */
+    private float mViewXOrigin;
+
+    /**
+     * The view pixels per map cell on view X axis, negative if reversed
+     */
+    private float mViewXScale;
+
+    /**
+     * The view position of the image origin on view Y axis
+     */
+    private float mViewYOrigin;
+
+    /**
+     * The view pixels per map cell on view Y axis, negative if reversed
+     */
+    private float mViewYScale;
+
+    /**
+     * if the image is rotated by NOT 0,90,180 or 270 degrees, snapping is disabled
+     */
+    private boolean mRotated = true;
+    //endregion
+
+    private EdgeSnapMap(float[] columnStrength, float[] rowStrength) {
+        mColumnEdgeBefore = new int[columnStrength.length];
+        mColumnEdgeAfter = new int[columnStrength.length];
+        mRowEdgeBefore = new int[rowStrength.length];
+        mRowEdgeAfter = new int[rowStrength.length];
+        findStrongEdges(columnStrength, mColumnEdgeBefore, mColumnEdgeAfter);
+        findStrongEdges(rowStrength, mRowEdgeBefore, mRowEdgeAfter);
+    }
+
+    /**
+     * Compute the edge snap map from the given luminance (0-255) of the image.
+     *
+     * @param luma the luminance of the image pixels row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public static EdgeSnapMap compute(int[] luma, int width, int height) {
+        float[] columnStrength = new float[width];
+        float[] rowStrength = new float[height];
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                // central differences, horizontal change is vertical edge
+                columnStrength[x] += Math.abs(luma[i + 1] - luma[i - 1]);
+                rowStrength[y] += Math.abs(luma[i + width] - luma[i - width]);
+            }
+        }
+        return new EdgeSnapMap(columnStrength, rowStrength);
+    }
+
+    /**
+     * Set the mapping from the image to view coordinates by the 4 corner points of the image in the view.
+     */
+    public void setBounds(float[] boundsPoints) {
+        mRotated = CropWindowGeometry.isNonStraightAngleRotated(boundsPoints);
+        if (!mRotated) {
+            // image (0,0), (w,0) and (0,h) corners
+            float x0 = boundsPoints[0];
+            float y0 = boundsPoints[1];
+            mViewXAlongColumns = boundsPoints[2] != x0;
+            mViewXOrigin = x0;
+            mViewYOrigin = y0;
+            if (mViewXAlongColumns) {
+                mViewXScale = (boundsPoints[2] - x0) / mColumnEdgeBefore.length;
+                mViewYScale = (boundsPoints[7] - y0) / mRowEdgeBefore.length;
+            } else {
+                mViewXScale = (boundsPoints[6] - x0) / mRowEdgeBefore.length;
+                mViewYScale = (boundsPoints[3] - y0) / mColumnEdgeBefore.length;
+            }
+        }
+    }
+
+    /**
+     * Get the view X of the strong vertical (in view) edge nearest to the given view X within the given radius.
+     *
+     * @return the edge view X or the given X if no strong edge within the radius
+     */
+    public float snapX(float x, float radius) {
+        if (mRotated || radius <= 0) {
+            return x;
+        }
+        return mViewXAlongColumns
+                ? snap(x, radius, mViewXOrigin, mViewXScale, mColumnEdgeBefore, mColumnEdgeAfter)
+                : snap(x, radius, mViewXOrigin, mViewXScale, mRowEdgeBefore, mRowEdgeAfter);
+    }
+
+    /**
+     * Get the view Y of the strong horizontal (in view) edge nearest to the given view Y within the given radius.
+     *
+     * @return the edge view Y or the given Y if no strong edge within the radius
+     */
+    public float snapY(float y, float radius) {
+        if (mRotated || radius <= 0) {
+            return y;
+        }
+        return mViewXAlongColumns
+                ? snap(y, radius, mViewYOrigin, mViewYScale, mRowEdgeBefore, mRowEdgeAfter)
+                : snap(y, radius, mViewYOrigin, mViewYScale, mColumnEdgeBefore, mColumnEdgeAfter);
+    }
+
+    //region: Private methods
+
+    /**
+     * Snap the given view position to the nearest edge on the axis.
+     */
+    private static float snap(float pos, float radius, float origin, float scale, int[] edgeBefore, int[] edgeAfter) {
+        int cell = (int) Math.floor((pos - origin) / scale);
+        if (cell < 0 || cell >= edgeBefore.length || scale == 0) {
+            return pos;
+        }
+        float snapped = pos;
+        float best = radius;
+        int before = edgeBefore[cell];
+        if (before >= 0) {
+            float edge = origin + (before + 0.5f) * scale;
+            if (Math.abs(edge - pos) <= best) {
+                best = Math.abs(edge - pos);
+                snapped = edge;
+            }
+        }
+        int after = edgeAfter[cell];
+        if (after >= 0) {
+            float edge = origin + (after + 0.5f) * scale;
+            if (Math.abs(edge - pos) < best) {
+                snapped = edge;
+            }
+        }
+        return snapped;
+    }
+
+    /**
+     * Find the strong edges in the given projection strength: local maxima above the mean by
+     * {@link #STRONG_EDGE_DEVIATIONS}, and set the nearest strong edge before and after every position.
+     */
+    private static void findStrongEdges(float[] strength, int[] edgeBefore, int[] edgeAfter) {
+        int length = strength.length;
+        double sum = 0;
+        double sumSquares = 0;
+        for (float value : strength) {
+            sum += value;
+            sumSquares += value * value;
+        }
+        double mean = length > 0 ? sum / length : 0;
+        double deviation = length > 0 ? Math.sqrt(Math.max(0, sumSquares / length - mean * mean)) : 0;
+        double threshold = mean + STRONG_EDGE_DEVIATIONS * deviation;
+
+        int last = -1;
+        for (int i = 0; i < length; i++) {
+            boolean strong = strength[i] > threshold &&
+                    (i == 0 || strength[i] >= strength[i - 1]) &&
+                    (i == length - 1 || strength[i] > strength[i + 1]);
+            if (strong) {
+                last = i;
+            }
+            edgeBefore[i] = last;
+        }
+        last = -1;
+        for (int i = length - 1; i >= 0; i--) {
+            if (edgeBefore[i] == i) {
+                last = i;
+            }
+            edgeAfter[i] = last;
+        }
+    }
+    //endregion
+}
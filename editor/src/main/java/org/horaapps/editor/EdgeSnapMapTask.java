@@ -0,0 +1,47 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+
+/**
+ * Task to compute the {@link EdgeSnapMap} of the cropping image in the background.<br>
+ * The map is computed from the luma of a down-scaled snapshot of the image, see {@link BitmapSnapshotTask}.
+ */
+final class EdgeSnapMapTask extends BitmapSnapshotTask<EdgeSnapMap> {
+
+    //region: Fields and Consts
+
+    /**
+     * The max size of the down-scaled image the map is computed from
+     */
+    private static final int MAX_MAP_SIZE = 512;
+    //endregion
+
+    public EdgeSnapMapTask(CropImageView cropImageView, Bitmap bitmap) {
+        super(cropImageView, bitmap, MAX_MAP_SIZE);
+    }
+
+    @Override
+    protected EdgeSnapMap compute(int[] pixels, int width, int height) {
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = BitmapUtils.luma(pixels[i]);
+        }
+        return EdgeSnapMap.compute(pixels, width, height);
+    }
+
+    @Override
+    protected void deliver(CropImageView cropImageView, EdgeSnapMap map) {
+        cropImageView.onEdgeSnapMapComputed(this, map);
+    }
+}
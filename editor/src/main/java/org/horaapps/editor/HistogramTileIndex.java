@@ -0,0 +1,200 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.util.Arrays;
+
+/**
+ * Per-tile histograms of a down-scaled preview of the image, to get the histogram of any region without scanning
+ * all its pixels.<br>
+ * Built once per image: the histogram of each {@link #TILE_SIZE} tile is counted and accumulated into an integral
+ * over the tile grid, so the histogram of a block of whole tiles is merged from 4 entries regardless of its size.
+ * Only the partial tiles on the region edges are scanned pixel by pixel.<br>
+ * Immutable after build, safe to query from a background thread.
+ */
+final class HistogramTileIndex {
+
+    //region: Fields and Consts
+
+    /**
+     * The size of the square tiles in preview pixels
+     */
+    private static final int TILE_SIZE = 32;
+
+    /**
+     * The number of channels per tile entry: red, green, blue and luminance
+     */
+    private static final int CHANNELS = 4;
+
+    /**
+     * The size of the integral entry of a tile grid corner
+     */
+    private static final int ENTRY_SIZE = CHANNELS * CropHistogram.BINS;
+
+    /**
+     * The preview pixels
+     */
+    private final int[] mPixels;
+
+    /**
+     * The preview width
+     */
+    private final int mWidth;
+
+    /**
+     * The preview height
+     */
+    private final int mHeight;
+
+    /**
+     * The number of tile grid corners on the X axis, the number of whole tile columns + 1
+     */
+    private final int mCornersX;
+
+    /**
+     * For each tile grid corner the histogram of all the tiles above and left of it
+     */
+    private final int[] mIntegral;
+    //endregion
+
+    private HistogramTileIndex(int[] pixels, int width, int height, int cornersX, int[] integral) {
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+        mCornersX = cornersX;
+        mIntegral = integral;
+    }
+
+    /**
+     * Build the index of the given preview pixels.
+     *
+     * @param pixels the preview ARGB pixels, kept by the index to scan the region edges
+     */
+    public static HistogramTileIndex build(int[] pixels, int width, int height) {
+        int cornersX = width / TILE_SIZE + 1;
+        int cornersY = height / TILE_SIZE + 1;
+        int[] integral = new int[cornersX * cornersY * ENTRY_SIZE];
+        int[] tile = new int[ENTRY_SIZE];
+
+        // corner (tx, ty) = tile (tx-1, ty-1) + corner (tx-1, ty) + corner (tx, ty-1) - corner (tx-1, ty-1)
+        for (int ty = 1; ty < cornersY; ty++) {
+            for (int tx = 1; tx < cornersX; tx++) {
+                Arrays.fill(tile, 0);
+                count(pixels, width, (tx - 1) * TILE_SIZE, (ty - 1) * TILE_SIZE, tx * TILE_SIZE, ty * TILE_SIZE, tile);
+                int entry = (ty * cornersX + tx) * ENTRY_SIZE;
+                int left = entry - ENTRY_SIZE;
+                int top = entry - cornersX * ENTRY_SIZE;
+                int topLeft = top - ENTRY_SIZE;
+                for (int i = 0; i < ENTRY_SIZE; i++) {
+                    integral[entry + i] = tile[i] + integral[left + i] + integral[top + i] - integral[topLeft + i];
+                }
+            }
+        }
+        return new HistogramTileIndex(pixels, width, height, cornersX, integral);
+    }
+
+    /**
+     * The preview width.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * The preview height.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Get the histogram of the given region of the preview, clamped to the preview bounds.
+     *
+     * @param left the region left, preview pixels, inclusive
+     * @param top the region top, preview pixels, inclusive
+     * @param right the region right, preview pixels, exclusive
+     * @param bottom the region bottom, preview pixels, exclusive
+     */
+    public CropHistogram compute(int left, int top, int right, int bottom) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(mWidth, right);
+        bottom = Math.min(mHeight, bottom);
+
+        int[] bins = new int[ENTRY_SIZE];
+        int pixelCount = Math.max(0, right - left) * Math.max(0, bottom - top);
+        if (pixelCount > 0) {
+            // the block of whole tiles inside the region
+            int tx0 = (left + TILE_SIZE - 1) / TILE_SIZE;
+            int ty0 = (top + TILE_SIZE - 1) / TILE_SIZE;
+            int tx1 = right / TILE_SIZE;
+            int ty1 = bottom / TILE_SIZE;
+            if (tx0 < tx1 && ty0 < ty1) {
+                int bottomRight = (ty1 * mCornersX + tx1) * ENTRY_SIZE;
+                int bottomLeft = (ty1 * mCornersX + tx0) * ENTRY_SIZE;
+                int topRight = (ty0 * mCornersX + tx1) * ENTRY_SIZE;
+                int topLeft = (ty0 * mCornersX + tx0) * ENTRY_SIZE;
+                for (int i = 0; i < ENTRY_SIZE; i++) {
+                    bins[i] = mIntegral[bottomRight + i] - mIntegral[bottomLeft + i]
+                            - mIntegral[topRight + i] + mIntegral[topLeft + i];
+                }
+
+                // the edge strips around the block: full width above and below, block height on the sides
+                int blockLeft = tx0 * TILE_SIZE;
+                int blockTop = ty0 * TILE_SIZE;
+                int blockRight = tx1 * TILE_SIZE;
+                int blockBottom = ty1 * TILE_SIZE;
+                count(mPixels, mWidth, left, top, right, blockTop, bins);
+                count(mPixels, mWidth, left, blockBottom, right, bottom, bins);
+                count(mPixels, mWidth, left, blockTop, blockLeft, blockBottom, bins);
+                count(mPixels, mWidth, blockRight, blockTop, right, blockBottom, bins);
+            } else {
+                count(mPixels, mWidth, left, top, right, bottom, bins);
+            }
+        }
+
+        int[] red = new int[CropHistogram.BINS];
+        int[] green = new int[CropHistogram.BINS];
+        int[] blue = new int[CropHistogram.BINS];
+        int[] luminance = new int[CropHistogram.BINS];
+        System.arraycopy(bins, 0, red, 0, CropHistogram.BINS);
+        System.arraycopy(bins, CropHistogram.BINS, green, 0, CropHistogram.BINS);
+        System.arraycopy(bins, 2 * CropHistogram.BINS, blue, 0, CropHistogram.BINS);
+        System.arraycopy(bins, 3 * CropHistogram.BINS, luminance, 0, CropHistogram.BINS);
+        return new CropHistogram(red, green, blue, luminance, pixelCount);
+    }
+
+    //region: Private methods
+
+    /**
+     * Add the pixels of the given rectangle to the given red, green, blue and luminance bins.
+     */
+    private static void count(int[] pixels, int width, int left, int top, int right, int bottom, int[] bins) {
+        int greenBins = CropHistogram.BINS;
+        int blueBins = 2 * CropHistogram.BINS;
+        int luminanceBins = 3 * CropHistogram.BINS;
+        for (int y = top; y < bottom; y++) {
+            for (int i = y * width + left, end = y * width + right; i < end; i++) {
+                int pixel = pixels[i];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+                bins[r]++;
+                bins[greenBins + g]++;
+                bins[blueBins + b]++;
+                bins[luminanceBins + BitmapUtils.luma(pixel)]++;
+            }
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,413 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * On-disk snapshot of the cropping image set by bitmap, used for instance state instead of putting the bitmap in
+ * the state Bundle.<br>
+ * The raw pixels are written and read through a memory mapped file, so restore (even after process death) copies
+ * the pixels back without decoding. The snapshot is written in the background when the image is set and read back
+ * in the background on restore, the file starts with a small header of the bitmap size written last so a partially
+ * written snapshot is not loaded. The crop parameters are in the state Bundle.<br>
+ * Only the key of the snapshot goes in the Bundle, the file is deleted when the image is cleared. A restored snapshot
+ * is adopted by the restored image, so a configuration change doesn't write the image again.
+ */
+final class ImageStateSnapshot implements Runnable {
+
+    //region: Fields and Consts
+
+    /**
+     * The directory in the cache directory the snapshots are written to
+     */
+    private static final String DIRECTORY = "crop_image_state";
+
+    /**
+     * Written last to the header so partially written snapshot is not loaded
+     */
+    private static final int MAGIC = 0x41494354;
+
+    /**
+     * The size of the header before the pixels
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Snapshots older than this (milliseconds) are left by activity that finished and are deleted
+     */
+    private static final long MAX_AGE = 24 * 60 * 60 * 1000;
+
+    /**
+     * The application context to get the cache directory by
+     */
+    private final Context mContext;
+
+    /**
+     * The key of the snapshot, the name of its file
+     */
+    private final String mKey;
+
+    /**
+     * The bitmap to write, not read after the snapshot is written or deleted
+     */
+    private Bitmap mBitmap;
+
+    /**
+     * if the snapshot is fully written and can be loaded
+     */
+    private boolean mWritten;
+
+    /**
+     * if the snapshot is being written, {@link #awaitWritten()} waits for it
+     */
+    private boolean mWriting;
+
+    /**
+     * if the snapshot was deleted, the write is skipped or its file deleted when done
+     */
+    private boolean mDeleted;
+    //endregion
+
+    private ImageStateSnapshot(Context context, String key, Bitmap bitmap) {
+        mContext = context.getApplicationContext();
+        mKey = key;
+        mBitmap = bitmap;
+    }
+
+    /**
+     * Start writing the snapshot of the given bitmap on the background executor.<br>
+     * The bitmap must not be changed until the snapshot is written or deleted.
+     *
+     * @return the snapshot, its key goes in the state Bundle once {@link #awaitWritten()}
+     */
+    public static ImageStateSnapshot save(Context context, Bitmap bitmap) {
+        ImageStateSnapshot snapshot = new ImageStateSnapshot(context, UUID.randomUUID().toString(), bitmap);
+        BitmapWorkerPool.executeBackground(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Adopt the already written snapshot of the given key, used for the image restored from it.<br>
+     * The file is touched so it isn't deleted as stale while in use.
+     *
+     * @return the snapshot, written
+     */
+    public static ImageStateSnapshot adopt(Context context, String key) {
+        ImageStateSnapshot snapshot = new ImageStateSnapshot(context, key, null);
+        snapshot.mWritten = true;
+        // noinspection ResultOfMethodCallIgnored
+        getFile(context, key).setLastModified(System.currentTimeMillis());
+        return snapshot;
+    }
+
+    /**
+     * Load the bitmap of the snapshot of the given key, called on a background thread.
+     *
+     * @return the bitmap, null if not found or not valid
+     */
+    public static Bitmap load(Context context, String key) {
+        File file = getFile(context, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC) {
+                    return null;
+                }
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                Bitmap.Config config = Bitmap.Config.values()[buffer.getInt()];
+                int byteCount = buffer.getInt();
+                if (channel.size() != HEADER_SIZE + byteCount) {
+                    return null;
+                }
+
+                Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+                buffer.position(HEADER_SIZE);
+                bitmap.copyPixelsFromBuffer(buffer);
+                return bitmap;
+            } finally {
+                input.close();
+            }
+        } catch (Exception | OutOfMemoryError e) {
+            Log.w("AIC", "Failed to load image state snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the snapshot of the given key.
+     */
+    public static void delete(Context context, String key) {
+        // noinspection ResultOfMethodCallIgnored
+        getFile(context, key).delete();
+    }
+
+    /**
+     * The key of the snapshot to put in the state Bundle.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Make sure the snapshot is written before its key goes in the state Bundle: if the background write didn't
+     * start yet the snapshot is written on the calling thread, if it is in progress it is waited for.
+     *
+     * @return true - the snapshot is written, false - the write failed or the snapshot was deleted
+     */
+    public boolean awaitWritten() {
+        Bitmap bitmap = takeBitmap();
+        if (bitmap != null) {
+            write(bitmap);
+        }
+        synchronized (this) {
+            while (mWriting) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return mWritten;
+        }
+    }
+
+    /**
+     * Delete the snapshot, a write in progress deletes its file when done. Doesn't wait for the write.
+     */
+    public void delete() {
+        synchronized (this) {
+            mDeleted = true;
+            mWritten = false;
+        }
+        delete(mContext, mKey);
+    }
+
+    @Override
+    public void run() {
+        Bitmap bitmap = takeBitmap();
+        if (bitmap != null) {
+            write(bitmap);
+        }
+    }
+
+    //region: Private methods
+
+    /**
+     * Take the bitmap to write, only the first caller gets it so the snapshot is written once.
+     *
+     * @return the bitmap, null if already taken or the snapshot was deleted
+     */
+    private synchronized Bitmap takeBitmap() {
+        Bitmap bitmap = mBitmap;
+        mBitmap = null;
+        if (mDeleted || bitmap == null) {
+            return null;
+        }
+        mWriting = true;
+        return bitmap;
+    }
+
+    /**
+     * Write the snapshot of the given bitmap, taken by {@link #takeBitmap()}.
+     */
+    private void write(Bitmap bitmap) {
+        File file = getFile(mContext, mKey);
+        boolean written = false;
+        try {
+            Bitmap.Config config = bitmap.getConfig();
+            if (config == null) {
+                throw new IOException("Unsupported bitmap config");
+            }
+            deleteStale(mContext);
+            file.getParentFile().mkdirs();
+            writeSnapshot(file, bitmap, config, bitmap.getRowBytes() * bitmap.getHeight());
+            written = true;
+        } catch (IOException e) {
+            Log.w("AIC", "Failed to save image state snapshot", e);
+        }
+
+        synchronized (this) {
+            mWriting = false;
+            if (mDeleted) {
+                // noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else {
+                mWritten = written;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Get the file of the snapshot of the given key.
+     */
+    private static File getFile(Context context, String key) {
+        return new File(new File(context.getCacheDir(), DIRECTORY), key);
+    }
+
+    /**
+     * Write the header and pixels of the given bitmap to the given file through memory mapping, the header last.
+     */
+    private static void writeSnapshot(File file, Bitmap bitmap, Bitmap.Config config, int byteCount) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(HEADER_SIZE + byteCount);
+            FileChannel channel = output.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + byteCount);
+            buffer.position(HEADER_SIZE);
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.position(0);
+            buffer.put(createHeader(bitmap, config, byteCount));
+        } catch (IOException | RuntimeException e) {
+            output.close();
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        output.close();
+    }
+
+    /**
+     * Create the snapshot header of the given bitmap.
+     */
+    private static ByteBuffer createHeader(Bitmap bitmap, Bitmap.Config config, int byteCount) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(bitmap.getWidth());
+        header.putInt(bitmap.getHeight());
+        header.putInt(config.ordinal());
+        header.putInt(byteCount);
+        header.position(0);
+        return header;
+    }
+
+    /**
+     * Delete the snapshots older than {@link #MAX_AGE}.
+     */
+    private static void deleteStale(Context context) {
+        File[] files = new File(context.getCacheDir(), DIRECTORY).listFiles();
+        if (files != null) {
+            long now = System.currentTimeMillis();
+            for (File file : files) {
+                if (now - file.lastModified() > MAX_AGE) {
+                    // noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+    }
+    //endregion
+
+    //region: Inner class: RestoreTask
+
+    /**
+     * Load the bitmap of a snapshot in the background and deliver it to the view on the UI thread.
+     */
+    static final class RestoreTask implements Runnable {
+
+        /**
+         * Use a WeakReference to ensure the ImageView can be garbage collected
+         */
+        private final WeakReference<CropImageView> mCropImageViewReference;
+
+        /**
+         * The application context to get the cache directory by
+         */
+        private final Context mContext;
+
+        /**
+         * The key of the snapshot to load
+         */
+        private final String mKey;
+
+        /**
+         * Used to deliver the bitmap on the UI thread
+         */
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        /**
+         * if the key was put in a state Bundle again before the restore completed, so the snapshot must be kept
+         */
+        private boolean mKeySaved;
+
+        RestoreTask(CropImageView cropImageView, String key) {
+            mCropImageViewReference = new WeakReference<>(cropImageView);
+            mContext = cropImageView.getContext().getApplicationContext();
+            mKey = key;
+        }
+
+        /**
+         * The key of the snapshot being loaded.
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * Is the key in a state Bundle again, called on the UI thread.
+         */
+        public boolean isKeySaved() {
+            return mKeySaved;
+        }
+
+        /**
+         * Set the key was put in a state Bundle again, called on the UI thread.
+         */
+        public void setKeySaved() {
+            mKeySaved = true;
+        }
+
+        /**
+         * Start loading the snapshot on the background executor.
+         */
+        public void start() {
+            BitmapWorkerPool.executeBackground(this);
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = load(mContext, mKey);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    CropImageView cropImageView = mCropImageViewReference.get();
+                    if (cropImageView != null) {
+                        cropImageView.onImageStateRestored(RestoreTask.this, bitmap);
+                    }
+                }
+            });
+        }
+    }
+    //endregion
+}
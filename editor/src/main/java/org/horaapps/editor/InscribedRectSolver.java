@@ -0,0 +1,488 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+/**
+ * Solve the crop window bounds inside the image quad: the largest axis-aligned rectangle that contains the crop
+ * window and is inside the (possibly rotated) image, optionally for fixed aspect ratio crop window.<br>
+ * The image quad is a rotated rectangle so every edge of it limits a single corner of an axis-aligned rectangle
+ * inside it, given the top and bottom of the rectangle its max left/right are closed-form. The area (or the height
+ * of fixed aspect ratio window) is log-concave over top/bottom so it is maximized by nested golden-section search.
+ * <br>
+ * The quad coefficients and the unconstrained largest rectangle (closed-form) are cached until the quad changes,
+ * crop window inside the unconstrained rectangle is solved by it directly. No allocation is made per solve.<br>
+ * Also limits the quad translation and scale so the quad keeps containing the crop window, for image pan and zoom.
+ */
+final class InscribedRectSolver {
+
+    //region: Fields and Consts
+
+    private static final int LEFT = CropWindowGeometry.LEFT;
+
+    private static final int TOP = CropWindowGeometry.TOP;
+
+    private static final int RIGHT = CropWindowGeometry.RIGHT;
+
+    private static final int BOTTOM = CropWindowGeometry.BOTTOM;
+
+    /**
+     * The number of golden-section iterations, the search range shrinks to 0.618^n
+     */
+    private static final int ITERATIONS = 24;
+
+    private static final float GOLDEN = 0.618034f;
+
+    /**
+     * The bounding rectangle of the quad
+     */
+    private final float[] mQuadBounds = new float[4];
+
+    /**
+     * The X of the outward normal of each quad edge
+     */
+    private final float[] mNormalX = new float[4];
+
+    /**
+     * The Y of the outward normal of each quad edge
+     */
+    private final float[] mNormalY = new float[4];
+
+    /**
+     * The edge line distance, point (x,y) is inside the edge if normalX * x + normalY * y <= distance
+     */
+    private final float[] mDistance = new float[4];
+
+    /**
+     * The largest rectangle inside the quad without crop window constraint, per the cached aspect ratio mode
+     */
+    private final float[] mGlobalBounds = new float[4];
+
+    /**
+     * The crop window of the last solve
+     */
+    private final float[] mLastRect = new float[4];
+
+    /**
+     * The result of the last solve
+     */
+    private final float[] mLastBounds = new float[4];
+
+    /**
+     * Cosine of the quad rotation (absolute)
+     */
+    private float mCos;
+
+    /**
+     * Sine of the quad rotation (absolute)
+     */
+    private float mSin;
+
+    /**
+     * The half width of the quad (along its rotated X axis)
+     */
+    private float mHalfWidth;
+
+    /**
+     * The half height of the quad (along its rotated Y axis)
+     */
+    private float mHalfHeight;
+
+    /**
+     * The center X of the quad
+     */
+    private float mCenterX;
+
+    /**
+     * The center Y of the quad
+     */
+    private float mCenterY;
+
+    /**
+     * if the quad is rotated by NOT 0,90,180 or 270 degrees
+     */
+    private boolean mRotated;
+
+    /**
+     * The aspect ratio {@link #mGlobalBounds} is for, 0 for free aspect ratio, -1 if not calculated
+     */
+    private float mGlobalAspectRatio = -1;
+
+    /**
+     * The aspect ratio of the last solve, 0 for free aspect ratio, -1 if no last solve
+     */
+    private float mLastAspectRatio = -1;
+
+    /**
+     * The bottom maximizing the objective of the last search over bottom
+     */
+    private float mBestBottom;
+
+    /**
+     * The min/max of the search range over bottom
+     */
+    private float mBottomLow;
+
+    /**
+     * The min/max of the search range over bottom
+     */
+    private float mBottomHigh;
+    //endregion
+
+    /**
+     * Set the image quad to solve in, the 4 corner points in order (x0,y0,x1,y1,x2,y2,x3,y3).
+     */
+    public void setQuad(float[] points) {
+        mRotated = CropWindowGeometry.isNonStraightAngleRotated(points);
+        CropWindowGeometry.set(mQuadBounds,
+                Math.min(Math.min(Math.min(points[0], points[2]), points[4]), points[6]),
+                Math.min(Math.min(Math.min(points[1], points[3]), points[5]), points[7]),
+                Math.max(Math.max(Math.max(points[0], points[2]), points[4]), points[6]),
+                Math.max(Math.max(Math.max(points[1], points[3]), points[5]), points[7]));
+        mGlobalAspectRatio = -1;
+        mLastAspectRatio = -1;
+
+        if (mRotated) {
+            mCenterX = (points[0] + points[2] + points[4] + points[6]) / 4;
+            mCenterY = (points[1] + points[3] + points[5] + points[7]) / 4;
+
+            // the quad axes: u along the first edge, v along the last edge
+            float ux = points[2] - points[0];
+            float uy = points[3] - points[1];
+            float vx = points[6] - points[0];
+            float vy = points[7] - points[1];
+            float uLength = (float) Math.sqrt(ux * ux + uy * uy);
+            float vLength = (float) Math.sqrt(vx * vx + vy * vy);
+            ux /= uLength;
+            uy /= uLength;
+            vx /= vLength;
+            vy /= vLength;
+            mHalfWidth = uLength / 2;
+            mHalfHeight = vLength / 2;
+            mCos = Math.abs(ux);
+            mSin = Math.abs(uy);
+
+            setEdge(0, ux, uy, mHalfWidth);
+            setEdge(1, -ux, -uy, mHalfWidth);
+            setEdge(2, vx, vy, mHalfHeight);
+            setEdge(3, -vx, -vy, mHalfHeight);
+        }
+    }
+
+    /**
+     * Solve the largest rectangle inside the quad that contains the given crop window.<br>
+     * For fixed aspect ratio the bounds maximize the crop window of the aspect ratio that can fit in them, the bounds
+     * themselves are not of the aspect ratio.
+     *
+     * @param rect the crop window rectangle
+     * @param fixAspectRatio if the crop window has fixed aspect ratio
+     * @param aspectRatio the fixed aspect ratio (width / height) of the crop window
+     * @param outBounds the rectangle to set the bounds into
+     * @return true - non straight rotation in place, false - otherwise (the bounds are the quad bounds).
+     */
+    public boolean solve(float[] rect, boolean fixAspectRatio, float aspectRatio, float[] outBounds) {
+        if (!mRotated) {
+            System.arraycopy(mQuadBounds, 0, outBounds, 0, 4);
+            return false;
+        }
+
+        float ratio = fixAspectRatio && aspectRatio > 0 ? aspectRatio : 0;
+        if (ratio == mLastAspectRatio && rect[LEFT] == mLastRect[LEFT] && rect[TOP] == mLastRect[TOP] &&
+                rect[RIGHT] == mLastRect[RIGHT] && rect[BOTTOM] == mLastRect[BOTTOM]) {
+            System.arraycopy(mLastBounds, 0, outBounds, 0, 4);
+            return true;
+        }
+
+        if (ratio != mGlobalAspectRatio) {
+            solveGlobal(ratio);
+        }
+
+        if (contains(mGlobalBounds, rect) || !solveContaining(rect, ratio, outBounds)) {
+            // the unconstrained largest rectangle contains the window, or the window is not inside the quad and
+            // must be fixed into the largest rectangle
+            System.arraycopy(mGlobalBounds, 0, outBounds, 0, 4);
+        }
+
+        mLastAspectRatio = ratio;
+        System.arraycopy(rect, 0, mLastRect, 0, 4);
+        System.arraycopy(outBounds, 0, mLastBounds, 0, 4);
+        return true;
+    }
+
+    /**
+     * Get the min scale of the quad around its center so it can contain the given crop window, the crop window fits
+     * in the quad if it is 1 or less.
+     */
+    public float getMinScale(float[] rect) {
+        if (!mRotated) {
+            return Math.max(CropWindowGeometry.width(rect) / CropWindowGeometry.width(mQuadBounds),
+                    CropWindowGeometry.height(rect) / CropWindowGeometry.height(mQuadBounds));
+        }
+        // rectangle of half size (a,b) is inside if a*cos + b*sin <= halfWidth and a*sin + b*cos <= halfHeight
+        float a = CropWindowGeometry.width(rect) / 2;
+        float b = CropWindowGeometry.height(rect) / 2;
+        return Math.max((a * mCos + b * mSin) / mHalfWidth, (a * mSin + b * mCos) / mHalfHeight);
+    }
+
+    /**
+     * Limit the given translation of the quad so the quad keeps containing the given crop window.<br>
+     * The translation is clamped along the quad axes so it slides along the edge it hits, a crop window that is not
+     * inside the quad is only allowed to get closer to it. The quad itself is not changed.
+     *
+     * @param rect the crop window rectangle
+     * @param delta the translation (x,y) to limit, set to the limited translation
+     */
+    public void limitTranslation(float[] rect, float[] delta) {
+        if (!mRotated) {
+            delta[0] = Math.max(Math.min(delta[0], rect[LEFT] - mQuadBounds[LEFT]), rect[RIGHT] - mQuadBounds[RIGHT]);
+            delta[1] = Math.max(Math.min(delta[1], rect[TOP] - mQuadBounds[TOP]), rect[BOTTOM] - mQuadBounds[BOTTOM]);
+            return;
+        }
+        // the quad is a rectangle, its axes are the normals of edges 0 and 2 so the limits are separate per axis
+        float u = delta[0] * mNormalX[0] + delta[1] * mNormalY[0];
+        float v = delta[0] * mNormalX[2] + delta[1] * mNormalY[2];
+        u = Math.max(Math.min(u, -getEdgeOverflow(rect, 1)), getEdgeOverflow(rect, 0));
+        v = Math.max(Math.min(v, -getEdgeOverflow(rect, 3)), getEdgeOverflow(rect, 2));
+        delta[0] = u * mNormalX[0] + v * mNormalX[2];
+        delta[1] = u * mNormalY[0] + v * mNormalY[2];
+    }
+
+    /**
+     * Get the bounding rectangle of the translations of the quad that keep it containing the given crop window.
+     *
+     * @param rect the crop window rectangle
+     * @param outBounds the rectangle to set the min (left, top) and max (right, bottom) translation into
+     */
+    public void getTranslationBounds(float[] rect, float[] outBounds) {
+        if (!mRotated) {
+            CropWindowGeometry.set(outBounds, rect[RIGHT] - mQuadBounds[RIGHT], rect[BOTTOM] - mQuadBounds[BOTTOM],
+                    rect[LEFT] - mQuadBounds[LEFT], rect[TOP] - mQuadBounds[TOP]);
+            return;
+        }
+        float uLow = getEdgeOverflow(rect, 0);
+        float uHigh = Math.max(uLow, -getEdgeOverflow(rect, 1));
+        float vLow = getEdgeOverflow(rect, 2);
+        float vHigh = Math.max(vLow, -getEdgeOverflow(rect, 3));
+        CropWindowGeometry.set(outBounds, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+        for (int i = 0; i < 4; i++) {
+            float u = i < 2 ? uLow : uHigh;
+            float v = i % 2 == 0 ? vLow : vHigh;
+            float x = u * mNormalX[0] + v * mNormalX[2];
+            float y = u * mNormalY[0] + v * mNormalY[2];
+            CropWindowGeometry.set(outBounds, Math.min(outBounds[LEFT], x), Math.min(outBounds[TOP], y),
+                    Math.max(outBounds[RIGHT], x), Math.max(outBounds[BOTTOM], y));
+        }
+    }
+
+    //region: Private methods
+
+    /**
+     * Get by how much the given crop window is beyond the quad edge along its outward normal, negative if inside.
+     */
+    private float getEdgeOverflow(float[] rect, int i) {
+        float x = mNormalX[i] > 0 ? rect[RIGHT] : rect[LEFT];
+        float y = mNormalY[i] > 0 ? rect[BOTTOM] : rect[TOP];
+        return mNormalX[i] * x + mNormalY[i] * y - mDistance[i];
+    }
+
+    /**
+     * Set the quad edge by its outward normal and the distance of the edge from the quad center.
+     */
+    private void setEdge(int i, float normalX, float normalY, float halfSize) {
+        mNormalX[i] = normalX;
+        mNormalY[i] = normalY;
+        mDistance[i] = halfSize + normalX * mCenterX + normalY * mCenterY;
+    }
+
+    /**
+     * Closed-form largest rectangle inside the quad without crop window constraint, centered in the quad.<br>
+     * Rectangle of half size (a,b) is inside if a*cos + b*sin <= halfWidth and a*sin + b*cos <= halfHeight.
+     */
+    private void solveGlobal(float ratio) {
+        float a;
+        float b;
+        if (ratio > 0) {
+            // a = ratio * b, the tighter of the two constraints
+            b = Math.min(mHalfWidth / (ratio * mCos + mSin), mHalfHeight / (ratio * mSin + mCos));
+            a = ratio * b;
+        } else {
+            // max a*b: on a single constraint line at its middle, or at the intersection of both lines
+            a = 0;
+            b = 0;
+            float a1 = mHalfWidth / (2 * mCos);
+            float b1 = mHalfWidth / (2 * mSin);
+            if (a1 * mSin + b1 * mCos <= mHalfHeight) {
+                a = a1;
+                b = b1;
+            }
+            float a2 = mHalfHeight / (2 * mSin);
+            float b2 = mHalfHeight / (2 * mCos);
+            if (a2 * mCos + b2 * mSin <= mHalfWidth && a2 * b2 > a * b) {
+                a = a2;
+                b = b2;
+            }
+            float det = mCos * mCos - mSin * mSin;
+            if (Math.abs(det) > 0.0001f) {
+                float a3 = (mHalfWidth * mCos - mHalfHeight * mSin) / det;
+                float b3 = (mHalfHeight * mCos - mHalfWidth * mSin) / det;
+                if (a3 > 0 && b3 > 0 && a3 * b3 > a * b) {
+                    a = a3;
+                    b = b3;
+                }
+            }
+        }
+
+        float top = mCenterY - b;
+        float bottom = mCenterY + b;
+        if (ratio > 0) {
+            // give the full available width at the solved top/bottom
+            CropWindowGeometry.set(mGlobalBounds, getMinLeft(top, bottom), top, getMaxRight(top, bottom), bottom);
+        } else {
+            CropWindowGeometry.set(mGlobalBounds, mCenterX - a, top, mCenterX + a, bottom);
+        }
+        mGlobalAspectRatio = ratio;
+    }
+
+    /**
+     * Solve the largest rectangle inside the quad containing the given crop window.
+     *
+     * @return true - solved, false - the crop window is not inside the quad
+     */
+    private boolean solveContaining(float[] rect, float ratio, float[] outBounds) {
+        // each edge limits top or bottom so the window stays inside the left/right limit
+        float topLow = mQuadBounds[TOP];
+        float topHigh = rect[TOP];
+        float bottomLow = rect[BOTTOM];
+        float bottomHigh = mQuadBounds[BOTTOM];
+        for (int i = 0; i < 4; i++) {
+            float x = mNormalX[i] > 0 ? rect[RIGHT] : rect[LEFT];
+            float limit = (mDistance[i] - mNormalX[i] * x) / mNormalY[i];
+            if (mNormalY[i] > 0) {
+                bottomHigh = Math.min(bottomHigh, limit);
+            } else {
+                topLow = Math.max(topLow, limit);
+            }
+        }
+        if (topLow > topHigh || bottomLow > bottomHigh) {
+            return false;
+        }
+        mBottomLow = bottomLow;
+        mBottomHigh = bottomHigh;
+
+        // golden-section search over top of the best objective over bottom
+        float low = topLow;
+        float high = topHigh;
+        float t1 = high - GOLDEN * (high - low);
+        float t2 = low + GOLDEN * (high - low);
+        float f1 = maxOverBottom(t1, ratio);
+        float f2 = maxOverBottom(t2, ratio);
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (f1 < f2) {
+                low = t1;
+                t1 = t2;
+                f1 = f2;
+                t2 = low + GOLDEN * (high - low);
+                f2 = maxOverBottom(t2, ratio);
+            } else {
+                high = t2;
+                t2 = t1;
+                f2 = f1;
+                t1 = high - GOLDEN * (high - low);
+                f1 = maxOverBottom(t1, ratio);
+            }
+        }
+
+        float top = (low + high) / 2;
+        maxOverBottom(top, ratio);
+        float bottom = mBestBottom;
+        CropWindowGeometry.set(outBounds,
+                Math.min(getMinLeft(top, bottom), rect[LEFT]), top, Math.max(getMaxRight(top, bottom), rect[RIGHT]), bottom);
+        return true;
+    }
+
+    /**
+     * Golden-section search over bottom for the given top, the best bottom is set to {@link #mBestBottom}.
+     *
+     * @return the best objective value
+     */
+    private float maxOverBottom(float top, float ratio) {
+        float low = mBottomLow;
+        float high = mBottomHigh;
+        float b1 = high - GOLDEN * (high - low);
+        float b2 = low + GOLDEN * (high - low);
+        float f1 = objective(top, b1, ratio);
+        float f2 = objective(top, b2, ratio);
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (f1 < f2) {
+                low = b1;
+                b1 = b2;
+                f1 = f2;
+                b2 = low + GOLDEN * (high - low);
+                f2 = objective(top, b2, ratio);
+            } else {
+                high = b2;
+                b2 = b1;
+                f2 = f1;
+                b1 = high - GOLDEN * (high - low);
+                f1 = objective(top, b1, ratio);
+            }
+        }
+        mBestBottom = (low + high) / 2;
+        return objective(top, mBestBottom, ratio);
+    }
+
+    /**
+     * The value to maximize for the given top/bottom: the area of free aspect ratio rectangle or the height of the
+     * largest fixed aspect ratio rectangle.
+     */
+    private float objective(float top, float bottom, float ratio) {
+        float width = Math.max(0, getMaxRight(top, bottom) - getMinLeft(top, bottom));
+        return ratio > 0 ? Math.min(bottom - top, width / ratio) : (bottom - top) * width;
+    }
+
+    /**
+     * The min left of rectangle inside the quad with the given top/bottom.
+     */
+    private float getMinLeft(float top, float bottom) {
+        float left = mQuadBounds[LEFT];
+        for (int i = 0; i < 4; i++) {
+            if (mNormalX[i] < 0) {
+                float y = mNormalY[i] > 0 ? bottom : top;
+                left = Math.max(left, (mDistance[i] - mNormalY[i] * y) / mNormalX[i]);
+            }
+        }
+        return left;
+    }
+
+    /**
+     * The max right of rectangle inside the quad with the given top/bottom.
+     */
+    private float getMaxRight(float top, float bottom) {
+        float right = mQuadBounds[RIGHT];
+        for (int i = 0; i < 4; i++) {
+            if (mNormalX[i] > 0) {
+                float y = mNormalY[i] > 0 ? bottom : top;
+                right = Math.min(right, (mDistance[i] - mNormalY[i] * y) / mNormalX[i]);
+            }
+        }
+        return right;
+    }
+
+    /**
+     * Is the given inner rectangle inside the given outer rectangle.
+     */
+    private static boolean contains(float[] outer, float[] inner) {
+        return inner[LEFT] >= outer[LEFT] && inner[TOP] >= outer[TOP] &&
+                inner[RIGHT] <= outer[RIGHT] && inner[BOTTOM] <= outer[BOTTOM];
+    }
+    //endregion
+}
@@ -0,0 +1,457 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Drawable of the cropping image that draws the smallest level of a mip chain (each level half the size of the
+ * previous) that covers the on-screen scale, so zoomed-out rendering doesn't upload and sample the full bitmap.<br>
+ * The intrinsic size is always the full bitmap size so the image matrix is not affected by the drawn level.<br>
+ * Levels larger than {@link #MAX_TILE_SIZE} are kept only as a grid of tiles so the shown resolution is not limited by
+ * the device max texture size. The full bitmap is not owned and not copied to tiles, if it doesn't fit a single
+ * texture the first level is the largest drawn.<br>
+ * The chain is built in the background and each level is delivered when ready, until the selected level is ready the
+ * nearest ready level is drawn.<br>
+ * A down-scaled proxy of the bitmap can be set to draw instead of the levels, for live preview of pixel effects that
+ * are too slow to apply on the full bitmap.
+ */
+final class MipBitmapDrawable extends Drawable implements Runnable {
+
+    //region: Fields and Consts
+
+    /**
+     * The smallest size (of the larger dimension) of a mip level
+     */
+    private static final int MIN_LEVEL_SIZE = 256;
+
+    /**
+     * The max size of a tile, every device supports textures of this size
+     */
+    private static final int MAX_TILE_SIZE = 2048;
+
+    /**
+     * The rows of the full bitmap scaled to the first level per lock hold, so release doesn't wait for the whole scale
+     */
+    private static final int STRIP_ROWS = 64;
+
+    /**
+     * The full size bitmap, level 0
+     */
+    private final Bitmap mBitmap;
+
+    /**
+     * Used to deliver the built levels on the UI thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    private final RectF mDstRect = new RectF();
+
+    /**
+     * The bitmap of each delivered level that fits a single tile, null for level not delivered or drawn from tiles
+     */
+    private final Bitmap[] mLevels;
+
+    /**
+     * The tiles grid (row by row) of each delivered level that doesn't fit a single tile, null otherwise
+     */
+    private final Bitmap[][] mLevelTiles;
+
+    /**
+     * The index of the level selected by the display scale
+     */
+    private int mLevel;
+
+    /**
+     * The scale of the full bitmap on screen, used to select the level
+     */
+    private float mDisplayScale = 1;
+
+    /**
+     * The down-scaled bitmap drawn instead of the levels, owned by the drawable, null if none
+     */
+    private Bitmap mProxy;
+
+    /**
+     * if the levels are being built, the build owns and recycles them until it is finished
+     */
+    private boolean mBuilding;
+
+    /**
+     * if the drawable was released, building levels is stopped
+     */
+    private boolean mReleased;
+    //endregion
+
+    public MipBitmapDrawable(Bitmap bitmap) {
+        mBitmap = bitmap;
+        int count = 1;
+        while (Math.max(bitmap.getWidth(), bitmap.getHeight()) >> count >= MIN_LEVEL_SIZE) {
+            count++;
+        }
+        mLevels = new Bitmap[count];
+        mLevelTiles = new Bitmap[count][];
+        if (fitsTile(bitmap)) {
+            mLevels[0] = bitmap;
+        }
+    }
+
+    /**
+     * Start building the mip chain in the background, no-op if the bitmap is small enough.
+     */
+    public void buildLevels() {
+        if (mLevels.length > 1) {
+            mBuilding = true;
+            BitmapWorkerPool.executeBackground(this);
+        }
+    }
+
+    /**
+     * Set the scale the full bitmap is shown on screen by, selects the smallest level that covers it.
+     *
+     * @return true - the selected level changed, false - otherwise
+     */
+    public boolean setDisplayScale(float scale) {
+        mDisplayScale = scale;
+        return selectLevel();
+    }
+
+    /**
+     * The size in bytes of the level currently drawn, 0 if no level is ready to draw.
+     */
+    public int getLevelByteCount() {
+        int level = getDrawnLevel();
+        if (level < 0) {
+            return 0;
+        }
+        if (mLevels[level] != null) {
+            return mLevels[level].getRowBytes() * mLevels[level].getHeight();
+        }
+        int bytes = 0;
+        for (Bitmap tile : mLevelTiles[level]) {
+            bytes += tile.getRowBytes() * tile.getHeight();
+        }
+        return bytes;
+    }
+
+    /**
+     * Set the down-scaled bitmap to draw scaled to the full bitmap size instead of the levels, the previous proxy
+     * is recycled.
+     *
+     * @param proxy the proxy, owned by the drawable, null to draw the levels
+     */
+    public void setProxy(Bitmap proxy) {
+        if (mProxy != null && mProxy != proxy) {
+            mProxy.recycle();
+        }
+        mProxy = proxy;
+        invalidateSelf();
+    }
+
+    /**
+     * Release the levels and proxy bitmaps, the full bitmap is not owned and not recycled.<br>
+     * Must be called before the full bitmap is recycled.
+     */
+    public void release() {
+        synchronized (this) {
+            mReleased = true;
+        }
+        // while building, the build recycles the levels when it stops
+        if (!mBuilding) {
+            recycleLevels(mLevels, mLevelTiles);
+        }
+        Arrays.fill(mLevels, null);
+        Arrays.fill(mLevelTiles, null);
+        if (mProxy != null) {
+            mProxy.recycle();
+            mProxy = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        // the full bitmap is read only under the lock, it may be recycled as soon as release returns, the levels
+        // created here are owned by the build so they are scaled and tiled without it
+        final Bitmap[] levels = new Bitmap[mLevels.length];
+        final Bitmap[][] levelTiles = new Bitmap[mLevels.length][];
+        levels[0] = mBitmap;
+        boolean failed = false;
+        try {
+            for (int i = 1; i < levels.length && !isReleased(); i++) {
+                // scale from the previous level so each pixel averages the one above it
+                levels[i] = i == 1
+                        ? scaleFullBitmap(getLevelWidth(i), getLevelHeight(i))
+                        : Bitmap.createScaledBitmap(levels[i - 1], getLevelWidth(i), getLevelHeight(i), true);
+                if (levels[i] != null && fitsTile(levels[i])) {
+                    deliverLevel(i, levels[i], null);
+                }
+                // the previous level is not scaled from anymore, if it's too large for a texture keep only its tiles
+                if (i > 1 && !fitsTile(levels[i - 1])) {
+                    levelTiles[i - 1] = createTiles(levels[i - 1]);
+                    levels[i - 1].recycle();
+                    levels[i - 1] = null;
+                    deliverLevel(i - 1, null, levelTiles[i - 1]);
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            Log.w("AIC", "Failed to build mip levels of the cropping image", e);
+            failed = true;
+        }
+
+        final boolean recycle = failed;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBuilding = false;
+                if (recycle || mReleased) {
+                    if (!mReleased) {
+                        // drop the delivered levels, only the full bitmap is drawn if it fits
+                        Arrays.fill(mLevels, 1, mLevels.length, null);
+                        Arrays.fill(mLevelTiles, null);
+                        invalidateSelf();
+                    }
+                    recycleLevels(levels, levelTiles);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mProxy != null) {
+            mDstRect.set(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+            canvas.drawBitmap(mProxy, null, mDstRect, mPaint);
+            return;
+        }
+
+        int level = getDrawnLevel();
+        if (level < 0) {
+            // the full bitmap is too large for a single texture and the first levels are not ready yet
+            return;
+        }
+        Bitmap[] tiles = mLevelTiles[level];
+        if (tiles == null) {
+            mDstRect.set(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+            canvas.drawBitmap(mLevels[level], null, mDstRect, mPaint);
+        } else {
+            // draw the tiles grid scaled to the full bitmap size, skipping tiles outside the clip
+            float scaleX = mBitmap.getWidth() / (float) getLevelWidth(level);
+            float scaleY = mBitmap.getHeight() / (float) getLevelHeight(level);
+            int columns = (getLevelWidth(level) + MAX_TILE_SIZE - 1) / MAX_TILE_SIZE;
+            for (int i = 0; i < tiles.length; i++) {
+                int left = (i % columns) * MAX_TILE_SIZE;
+                int top = (i / columns) * MAX_TILE_SIZE;
+                mDstRect.set(left * scaleX, top * scaleY,
+                        (left + tiles[i].getWidth()) * scaleX, (top + tiles[i].getHeight()) * scaleY);
+                if (!canvas.quickReject(mDstRect, Canvas.EdgeType.AA)) {
+                    canvas.drawBitmap(tiles[i], null, mDstRect, mPaint);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return mBitmap.hasAlpha() || mPaint.getAlpha() < 255 ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+    }
+
+    //region: Private methods
+
+    /**
+     * Select the smallest level that is at least the on-screen size of the image.
+     *
+     * @return true - the selected level changed, false - otherwise
+     */
+    private boolean selectLevel() {
+        int level = 0;
+        while (level + 1 < mLevels.length && getLevelWidth(level + 1) >= mBitmap.getWidth() * mDisplayScale) {
+            level++;
+        }
+        if (level != mLevel) {
+            mLevel = level;
+            invalidateSelf();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The level to draw: the selected level if it's ready, otherwise the nearest ready level, the larger first.
+     *
+     * @return the level index, -1 if no level is ready
+     */
+    private int getDrawnLevel() {
+        for (int distance = 0; distance < mLevels.length; distance++) {
+            if (isLevelReady(mLevel - distance)) {
+                return mLevel - distance;
+            }
+            if (isLevelReady(mLevel + distance)) {
+                return mLevel + distance;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isLevelReady(int level) {
+        return level >= 0 && level < mLevels.length && (mLevels[level] != null || mLevelTiles[level] != null);
+    }
+
+    private int getLevelWidth(int level) {
+        return Math.max(1, mBitmap.getWidth() >> level);
+    }
+
+    private int getLevelHeight(int level) {
+        return Math.max(1, mBitmap.getHeight() >> level);
+    }
+
+    /**
+     * Deliver the given ready level to draw on the UI thread, dropped if the drawable was released meanwhile.
+     */
+    private void deliverLevel(final int level, final Bitmap bitmap, final Bitmap[] tiles) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    mLevels[level] = bitmap;
+                    mLevelTiles[level] = tiles;
+                    invalidateSelf();
+                }
+            }
+        });
+    }
+
+    /**
+     * Is the drawable released, checked between the steps of building the levels.
+     */
+    private synchronized boolean isReleased() {
+        return mReleased;
+    }
+
+    /**
+     * Is the given bitmap small enough to be drawn as a single texture.
+     */
+    private static boolean fitsTile(Bitmap bitmap) {
+        return bitmap.getWidth() <= MAX_TILE_SIZE && bitmap.getHeight() <= MAX_TILE_SIZE;
+    }
+
+    /**
+     * Scale the full bitmap to the first level a strip at a time, holding the lock only while a strip is read.
+     *
+     * @return the scaled bitmap, null if the drawable was released meanwhile
+     */
+    private Bitmap scaleFullBitmap(int width, int height) {
+        Bitmap level = Bitmap.createBitmap(width, height,
+                mBitmap.getConfig() != null ? mBitmap.getConfig() : Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(level);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Rect src = new Rect();
+        RectF dst = new RectF();
+        float scaleY = height / (float) mBitmap.getHeight();
+        for (int y = 0; y < mBitmap.getHeight(); y += STRIP_ROWS) {
+            int bottom = Math.min(mBitmap.getHeight(), y + STRIP_ROWS);
+            src.set(0, y, mBitmap.getWidth(), bottom);
+            dst.set(0, y * scaleY, width, bottom * scaleY);
+            synchronized (this) {
+                if (mReleased) {
+                    level.recycle();
+                    return null;
+                }
+                canvas.drawBitmap(mBitmap, src, dst, paint);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Split the given bitmap to grid of tiles no larger than {@link #MAX_TILE_SIZE}, row by row.
+     */
+    private static Bitmap[] createTiles(Bitmap bitmap) {
+        int columns = (bitmap.getWidth() + MAX_TILE_SIZE - 1) / MAX_TILE_SIZE;
+        int rows = (bitmap.getHeight() + MAX_TILE_SIZE - 1) / MAX_TILE_SIZE;
+        Bitmap[] tiles = new Bitmap[columns * rows];
+        try {
+            for (int i = 0; i < tiles.length; i++) {
+                int left = (i % columns) * MAX_TILE_SIZE;
+                int top = (i / columns) * MAX_TILE_SIZE;
+                tiles[i] = Bitmap.createBitmap(bitmap, left, top,
+                        Math.min(MAX_TILE_SIZE, bitmap.getWidth() - left), Math.min(MAX_TILE_SIZE, bitmap.getHeight() - top));
+            }
+        } catch (OutOfMemoryError e) {
+            recycleTiles(tiles);
+            throw e;
+        }
+        return tiles;
+    }
+
+    /**
+     * Recycle the levels and tiles created by this drawable, level 0 is the not owned full bitmap.
+     */
+    private static void recycleLevels(Bitmap[] levels, Bitmap[][] levelTiles) {
+        for (int i = 0; i < levels.length; i++) {
+            if (i > 0 && levels[i] != null) {
+                levels[i].recycle();
+            }
+            if (levelTiles != null && levelTiles[i] != null) {
+                recycleTiles(levelTiles[i]);
+            }
+        }
+    }
+
+    /**
+     * Recycle the given tiles.
+     */
+    private static void recycleTiles(Bitmap[] tiles) {
+        for (Bitmap tile : tiles) {
+            if (tile != null) {
+                tile.recycle();
+            }
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,155 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Task to crop the in-memory (sampled) image in the background for the preview crop result, delivered to the crop
+ * complete listener before the full resolution result.<br>
+ * Only the region of the crop points is read from the bitmap (see {@link BitmapSnapshotTask}). The preview is not
+ * scaled up past the sampled size, so it may be smaller than the requested size, and its output pass has no
+ * convolution filter as the filter is defined in output pixels.
+ */
+final class PreviewCropTask extends BitmapSnapshotTask<CropImageView.CropResult> {
+
+    //region: Fields and Consts
+
+    /**
+     * The crop points relative to the region of the bitmap that is read
+     */
+    private final float[] mRegionPoints;
+
+    private final float mDegreesRotated;
+
+    private final boolean mFixAspectRatio;
+
+    private final int mAspectRatioX;
+
+    private final int mAspectRatioY;
+
+    private final int mReqWidth;
+
+    private final int mReqHeight;
+
+    private final CropImageView.RequestSizeOptions mReqSizeOptions;
+
+    private final CropOutputPass mOutputPass;
+
+    /**
+     * The crop points relative to the original image, for the result
+     */
+    private final float[] mCropPoints;
+
+    /**
+     * The crop rectangle relative to the original image, for the result
+     */
+    private final Rect mCropRect;
+
+    private final int mSampleSize;
+
+    private final ColorAdjustments mColorAdjustments;
+    //endregion
+
+    /**
+     * @param bitmap the in-memory (sampled) image
+     * @param cropPoints the crop points relative to the original image
+     * @param sampleSize the sample size the bitmap was loaded by
+     * @param outputPass the output pass to apply on the preview, without convolution filter
+     */
+    public PreviewCropTask(CropImageView cropImageView, Bitmap bitmap, float[] cropPoints, Rect cropRect, int sampleSize,
+                           float degreesRotated, boolean fixAspectRatio, int aspectRatioX, int aspectRatioY,
+                           int reqWidth, int reqHeight, CropImageView.RequestSizeOptions options,
+                           CropOutputPass outputPass, ColorAdjustments colorAdjustments) {
+        super(cropImageView, bitmap, getPointsBounds(cropPoints, sampleSize, bitmap), Integer.MAX_VALUE);
+        Rect region = getRegion();
+        mRegionPoints = new float[cropPoints.length];
+        for (int i = 0; i < cropPoints.length; i += 2) {
+            mRegionPoints[i] = cropPoints[i] / sampleSize - region.left;
+            mRegionPoints[i + 1] = cropPoints[i + 1] / sampleSize - region.top;
+        }
+        mCropPoints = cropPoints;
+        mCropRect = cropRect;
+        mSampleSize = sampleSize;
+        mDegreesRotated = degreesRotated;
+        mFixAspectRatio = fixAspectRatio;
+        mAspectRatioX = aspectRatioX;
+        mAspectRatioY = aspectRatioY;
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+        mReqSizeOptions = options;
+        mOutputPass = outputPass;
+        mColorAdjustments = colorAdjustments;
+    }
+
+    @Override
+    protected CropImageView.CropResult compute(int[] pixels, int width, int height) {
+        Bitmap bitmap = null;
+        Exception error = null;
+        CropImageMetrics.beginSection("AIC#previewCrop");
+        try {
+            Bitmap region = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            region.setPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap = BitmapUtils.cropBitmap(region, mRegionPoints, mDegreesRotated, mFixAspectRatio, mAspectRatioX, mAspectRatioY);
+            if (bitmap != region) {
+                region.recycle();
+            }
+
+            // don't scale up past the sampled size, keep the requested aspect ratio for exact and fit resize
+            int reqWidth = mReqWidth;
+            int reqHeight = mReqHeight;
+            float upscale = Math.max(reqWidth / (float) bitmap.getWidth(), reqHeight / (float) bitmap.getHeight());
+            if (upscale > 1 && reqWidth > 0 && reqHeight > 0) {
+                reqWidth = Math.max(1, Math.round(reqWidth / upscale));
+                reqHeight = Math.max(1, Math.round(reqHeight / upscale));
+            }
+            bitmap = BitmapUtils.resizeBitmap(bitmap, reqWidth, reqHeight, mReqSizeOptions);
+            bitmap = mOutputPass.apply(bitmap);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            CropImageMetrics.endSection();
+        }
+        return new CropImageView.CropResult(bitmap, null, error, mCropPoints, mCropRect, Math.round(mDegreesRotated) % 360,
+                mSampleSize, mColorAdjustments, true);
+    }
+
+    @Override
+    protected void deliver(CropImageView cropImageView, CropImageView.CropResult result) {
+        cropImageView.onPreviewCropResult(this, result);
+    }
+
+    @Override
+    protected void discard(CropImageView.CropResult result) {
+        if (result.getBitmap() != null) {
+            result.getBitmap().recycle();
+        }
+    }
+
+    //region: Private methods
+
+    /**
+     * Get the bounding rectangle of the given crop points in the sampled bitmap, inside it and not empty.
+     */
+    private static Rect getPointsBounds(float[] cropPoints, int sampleSize, Bitmap bitmap) {
+        int left = Math.max(0, (int) Math.floor(BitmapUtils.getRectLeft(cropPoints) / sampleSize));
+        int top = Math.max(0, (int) Math.floor(BitmapUtils.getRectTop(cropPoints) / sampleSize));
+        int right = Math.min(bitmap.getWidth(), (int) Math.ceil(BitmapUtils.getRectRight(cropPoints) / sampleSize));
+        int bottom = Math.min(bitmap.getHeight(), (int) Math.ceil(BitmapUtils.getRectBottom(cropPoints) / sampleSize));
+        left = Math.min(left, bitmap.getWidth() - 1);
+        top = Math.min(top, bitmap.getHeight() - 1);
+        return new Rect(left, top, Math.max(left + 1, right), Math.max(top + 1, bottom));
+    }
+    //endregion
+}
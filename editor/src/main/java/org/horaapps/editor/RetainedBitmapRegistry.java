@@ -0,0 +1,153 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps the loaded bitmaps of crop image views strongly reachable between state save and restore, so a
+ * configuration change doesn't reload them.<br>
+ * Each saved view gets its own key so multiple views and quick successive changes don't overwrite each other. The
+ * registry is bounded, the oldest bitmap is released when full, and bitmaps not taken back within
+ * {@link #RETAIN_TIMEOUT} are released.<br>
+ * Released bitmaps are only dereferenced, never recycled, as the view that saved them may still show them.
+ */
+final class RetainedBitmapRegistry {
+
+    //region: Fields and Consts
+
+    /**
+     * The max number of retained bitmaps
+     */
+    private static final int MAX_ENTRIES = 4;
+
+    /**
+     * The time in milliseconds a bitmap is retained for, a configuration change restores well within it
+     */
+    private static final long RETAIN_TIMEOUT = 10000;
+
+    /**
+     * The retained bitmaps by key, in retain order
+     */
+    private static final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * Used to release timed out bitmaps on the UI thread
+     */
+    private static Handler mHandler;
+
+    /**
+     * Release the timed out bitmaps
+     */
+    private static final Runnable mReleaseExpiredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            releaseExpired();
+        }
+    };
+    //endregion
+
+    private RetainedBitmapRegistry() {
+    }
+
+    /**
+     * Retain the given bitmap until taken by the returned key, released or timed out.
+     *
+     * @param previousKey the key previously retained by the caller, released as it is replaced, may be null
+     * @return the key to take the bitmap by
+     */
+    public static synchronized String retain(Bitmap bitmap, String previousKey) {
+        if (previousKey != null) {
+            mEntries.remove(previousKey);
+        }
+        while (mEntries.size() >= MAX_ENTRIES) {
+            Iterator<String> iterator = mEntries.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+
+        String key = UUID.randomUUID().toString();
+        mEntries.put(key, new Entry(bitmap, SystemClock.uptimeMillis() + RETAIN_TIMEOUT));
+
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        releaseExpired();
+        return key;
+    }
+
+    /**
+     * Take the bitmap retained by the given key, it is no longer retained.
+     *
+     * @return the bitmap, null if released or recycled
+     */
+    public static synchronized Bitmap take(String key) {
+        Entry entry = mEntries.remove(key);
+        return entry != null && !entry.bitmap.isRecycled() ? entry.bitmap : null;
+    }
+
+    /**
+     * Release the bitmap retained by the given key, used when the owner is finished for good.
+     */
+    public static synchronized void release(String key) {
+        mEntries.remove(key);
+    }
+
+    //region: Private methods
+
+    /**
+     * Release the timed out bitmaps, schedule the release of the next to time out.
+     */
+    private static synchronized void releaseExpired() {
+        mHandler.removeCallbacks(mReleaseExpiredRunnable);
+        long now = SystemClock.uptimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.expireTime <= now) {
+                iterator.remove();
+            } else {
+                // entries are in retain order, the first not expired is the next to expire
+                mHandler.postDelayed(mReleaseExpiredRunnable, entry.expireTime - now);
+                break;
+            }
+        }
+    }
+    //endregion
+
+    //region: Inner class: Entry
+
+    /**
+     * Retained bitmap and the time it is released at.
+     */
+    private static final class Entry {
+
+        final Bitmap bitmap;
+
+        final long expireTime;
+
+        Entry(Bitmap bitmap, long expireTime) {
+            this.bitmap = bitmap;
+            this.expireTime = expireTime;
+        }
+    }
+    //endregion
+}
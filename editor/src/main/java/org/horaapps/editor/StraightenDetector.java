@@ -0,0 +1,269 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Detect the small rotation that straightens the dominant near-horizontal and near-vertical lines of an image.<br>
+ * Edge pixels are found by Sobel gradient of the luminance, each votes in a Hough accumulator for the lines through
+ * it on the angles near its gradient direction. Horizontal and vertical lines rotated by the same angle vote for
+ * the same angle, an angle is scored by how concentrated its votes are on few lines.<br>
+ * The angles are split between the {@link BitmapWorkerPool} threads, each keeps a single accumulator row per line
+ * family so no accumulators are merged.
+ */
+final class StraightenDetector {
+
+    //region: Fields and Consts
+
+    /**
+     * The max rotation (degrees) detected, larger tilt is more likely intended
+     */
+    private static final float MAX_ANGLE = 10;
+
+    /**
+     * The step (degrees) between the accumulator angles
+     */
+    private static final float ANGLE_STEP = 0.2f;
+
+    /**
+     * The max difference (degrees) between the gradient direction of an edge pixel and the angles it votes for,
+     * covers the noise of the Sobel direction
+     */
+    private static final float ANGLE_TOLERANCE = 2;
+
+    /**
+     * The min number of edge pixels to detect an angle
+     */
+    private static final int MIN_EDGE_PIXELS = 100;
+
+    /**
+     * The min gradient strength of an edge pixel, the Sobel of luminance 0-255
+     */
+    private static final int MIN_EDGE_STRENGTH = 64;
+    //endregion
+
+    private StraightenDetector() {
+    }
+
+    /**
+     * Detect the rotation that straightens the image of the given luminance (0-255).
+     *
+     * @param luma the luminance of the image pixels row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the degrees to rotate the image clockwise by to straighten it, 0 if no dominant lines
+     */
+    public static float detect(int[] luma, int width, int height) throws Exception {
+        final int angleCount = Math.round(2 * MAX_ANGLE / ANGLE_STEP) + 1;
+        final int tolerance = Math.round(ANGLE_TOLERANCE / ANGLE_STEP);
+
+        // edge pixels bucketed by the angle their gradient direction suggests, packed x | y << 16
+        int[][] buckets = findEdgePixels(luma, width, height, angleCount, tolerance);
+        int edgeCount = 0;
+        for (int[] bucket : buckets) {
+            edgeCount += bucket[0];
+        }
+        if (edgeCount < MIN_EDGE_PIXELS) {
+            return 0;
+        }
+
+        final float[] scores = new float[angleCount];
+        int parts = BitmapWorkerPool.getParallelism();
+        List<Callable<Void>> tasks = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            tasks.add(new AngleScoreTask(buckets, width, height, tolerance, scores,
+                    angleCount * i / parts, angleCount * (i + 1) / parts));
+        }
+        BitmapWorkerPool.invokeAll(tasks);
+
+        int best = 0;
+        for (int i = 1; i < angleCount; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        if (scores[best] <= 0) {
+            return 0;
+        }
+
+        // refine between the accumulator angles by the parabola through the best and its neighbors
+        float offset = 0;
+        if (best > 0 && best < angleCount - 1) {
+            float denominator = scores[best - 1] - 2 * scores[best] + scores[best + 1];
+            if (denominator < 0) {
+                offset = 0.5f * (scores[best - 1] - scores[best + 1]) / denominator;
+            }
+        }
+        float angle = -MAX_ANGLE + (best + offset) * ANGLE_STEP;
+
+        // the lines are rotated clockwise by the angle, rotate back
+        return Math.abs(angle) < ANGLE_STEP / 2 ? 0 : -angle;
+    }
+
+    /**
+     * Get the scale of the largest crop window of the image aspect ratio, centered, that has no empty corners when
+     * the image is rotated by the given degrees.
+     *
+     * @param degrees the rotation of the image
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the crop window size relative to the image size
+     */
+    public static float getCropScale(float degrees, float width, float height) {
+        double radians = Math.toRadians(Math.abs(degrees));
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        return (float) Math.min(width / (width * cos + height * sin), height / (width * sin + height * cos));
+    }
+
+    //region: Private methods
+
+    /**
+     * Find the edge pixels near-horizontal or near-vertical lines pass by and bucket them by the accumulator angle
+     * index of their gradient direction.<br>
+     * Each bucket array starts with its count, horizontal line pixels are flagged by the highest bit.
+     */
+    private static int[][] findEdgePixels(int[] luma, int width, int height, int angleCount, int tolerance) {
+        int[] counts = new int[angleCount];
+        int[] indices = new int[width * height];
+        int[] pixels = new int[width * height];
+        int edgeCount = 0;
+        double maxTan = Math.tan(Math.toRadians(MAX_ANGLE + ANGLE_TOLERANCE));
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int topLeft = luma[i - width - 1];
+                int topRight = luma[i - width + 1];
+                int bottomLeft = luma[i + width - 1];
+                int bottomRight = luma[i + width + 1];
+                int gx = topRight + 2 * luma[i + 1] + bottomRight - topLeft - 2 * luma[i - 1] - bottomLeft;
+                int gy = bottomLeft + 2 * luma[i + width] + bottomRight - topLeft - 2 * luma[i - width] - topRight;
+                int absX = Math.abs(gx);
+                int absY = Math.abs(gy);
+                if (absX + absY < MIN_EDGE_STRENGTH) {
+                    continue;
+                }
+
+                // horizontal line (cos a, sin a) has gradient (-sin a, cos a),
+                // vertical line (-sin a, cos a) has gradient (cos a, sin a)
+                boolean horizontal = absY > absX;
+                double tan = horizontal ? -gx / (double) gy : gy / (double) gx;
+                if (Math.abs(tan) > maxTan) {
+                    continue;
+                }
+                int index = Math.round(((float) Math.toDegrees(Math.atan(tan)) + MAX_ANGLE) / ANGLE_STEP);
+                if (index < -tolerance || index >= angleCount + tolerance) {
+                    continue;
+                }
+                index = Math.max(0, Math.min(angleCount - 1, index));
+                counts[index]++;
+                indices[edgeCount] = index;
+                pixels[edgeCount] = x | y << 16 | (horizontal ? 0x80000000 : 0);
+                edgeCount++;
+            }
+        }
+
+        int[][] buckets = new int[angleCount][];
+        for (int i = 0; i < angleCount; i++) {
+            buckets[i] = new int[counts[i] + 1];
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            int[] bucket = buckets[indices[i]];
+            bucket[++bucket[0]] = pixels[i];
+        }
+        return buckets;
+    }
+    //endregion
+
+    //region: Inner class: AngleScoreTask
+
+    /**
+     * Score a range of the accumulator angles by the sum of squared votes of their lines.
+     */
+    private static final class AngleScoreTask implements Callable<Void> {
+
+        private final int[][] mBuckets;
+
+        private final int mWidth;
+
+        private final int mHeight;
+
+        private final int mTolerance;
+
+        private final float[] mScores;
+
+        private final int mStart;
+
+        private final int mEnd;
+
+        AngleScoreTask(int[][] buckets, int width, int height, int tolerance, float[] scores, int start, int end) {
+            mBuckets = buckets;
+            mWidth = width;
+            mHeight = height;
+            mTolerance = tolerance;
+            mScores = scores;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public Void call() {
+            float maxSin = (float) Math.sin(Math.toRadians(MAX_ANGLE));
+            int horizontalOffset = (int) Math.ceil(mWidth * maxSin) + 1;
+            int verticalOffset = (int) Math.ceil(mHeight * maxSin) + 1;
+            int[] horizontalVotes = new int[mHeight + 2 * horizontalOffset + 1];
+            int[] verticalVotes = new int[mWidth + 2 * verticalOffset + 1];
+
+            for (int a = mStart; a < mEnd; a++) {
+                double radians = Math.toRadians(-MAX_ANGLE + a * ANGLE_STEP);
+                float cos = (float) Math.cos(radians);
+                float sin = (float) Math.sin(radians);
+                Arrays.fill(horizontalVotes, 0);
+                Arrays.fill(verticalVotes, 0);
+
+                int from = Math.max(0, a - mTolerance);
+                int to = Math.min(mBuckets.length - 1, a + mTolerance);
+                for (int b = from; b <= to; b++) {
+                    int[] bucket = mBuckets[b];
+                    for (int i = 1; i <= bucket[0]; i++) {
+                        int pixel = bucket[i];
+                        int x = pixel & 0xFFFF;
+                        int y = (pixel >> 16) & 0x7FFF;
+                        if (pixel < 0) {
+                            // line normal (-sin, cos)
+                            horizontalVotes[Math.round(y * cos - x * sin) + horizontalOffset]++;
+                        } else {
+                            // line normal (cos, sin)
+                            verticalVotes[Math.round(x * cos + y * sin) + verticalOffset]++;
+                        }
+                    }
+                }
+
+                float score = 0;
+                for (int votes : horizontalVotes) {
+                    score += votes * (float) votes;
+                }
+                for (int votes : verticalVotes) {
+                    score += votes * (float) votes;
+                }
+                mScores[a] = score;
+            }
+            return null;
+        }
+    }
+    //endregion
+}
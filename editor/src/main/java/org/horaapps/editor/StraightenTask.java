@@ -0,0 +1,56 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import android.graphics.Bitmap;
+
+/**
+ * Task to detect the straighten angle of the cropping image by {@link StraightenDetector} in the background.<br>
+ * The angle is detected on the luma of a down-scaled snapshot of the image, see {@link BitmapSnapshotTask}.
+ */
+final class StraightenTask extends BitmapSnapshotTask<Float> {
+
+    //region: Fields and Consts
+
+    /**
+     * The max size of the down-scaled image the angle is detected on, enough for a fraction of degree precision
+     */
+    private static final int MAX_DETECT_SIZE = 640;
+    //endregion
+
+    public StraightenTask(CropImageView cropImageView, Bitmap bitmap) {
+        super(cropImageView, bitmap, MAX_DETECT_SIZE);
+    }
+
+    @Override
+    protected Float compute(int[] pixels, int width, int height) {
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = BitmapUtils.luma(pixels[i]);
+        }
+        CropImageMetrics.beginSection("AIC#detectStraighten");
+        try {
+            return StraightenDetector.detect(pixels, width, height);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            CropImageMetrics.endSection();
+        }
+    }
+
+    @Override
+    protected void deliver(CropImageView cropImageView, Float degrees) {
+        cropImageView.onStraightenDetected(this, degrees);
+    }
+}
@@ -0,0 +1,231 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link ColorLut} parsing and of the fixed point tetrahedral interpolation against a float reference.
+ */
+public class ColorLutTest {
+
+    //region: Fields and Consts
+
+    /**
+     * The max difference of a channel from the float reference
+     */
+    private static final int TOLERANCE = 1;
+    //endregion
+
+    @Test
+    public void parseCube_keywords() throws IOException {
+        ColorLut lut = parse("# comment\nTITLE \"Film look\"\nLUT_3D_SIZE 2\n\n" + identityTable(2));
+        assertEquals("Film look", lut.getTitle());
+        assertEquals(2, lut.getSize());
+
+        assertNull(parse("LUT_3D_SIZE 2\n" + identityTable(2)).getTitle());
+    }
+
+    @Test
+    public void parseCube_invalid_throws() {
+        String table = identityTable(2);
+        assertParseFails(table);
+        assertParseFails("LUT_3D_SIZE 2\n" + table.substring(table.indexOf('\n') + 1));
+        assertParseFails("LUT_3D_SIZE 2\n" + table + "0 0 0\n");
+        assertParseFails("LUT_3D_SIZE 1\n0 0 0\n");
+        assertParseFails("LUT_1D_SIZE 2\n0 0 0\n1 1 1\n");
+        assertParseFails("LUT_3D_SIZE 2\n0 0\n");
+        assertParseFails("LUT_3D_SIZE 2\nDOMAIN_MIN 1 1 1\nDOMAIN_MAX 0 0 0\n" + table);
+    }
+
+    @Test
+    public void apply_identity_keepsPixels() throws IOException {
+        int[] pixels = randomPixels(new Random(48), 4096);
+        for (int size : new int[]{2, 17, 33}) {
+            int[] graded = pixels.clone();
+            parse("LUT_3D_SIZE " + size + "\n" + identityTable(size)).apply(graded, 0, graded.length);
+            assertPixelsEqual(pixels, graded, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void apply_randomTable_matchesFloatReference() throws IOException {
+        Random random = new Random(49);
+        for (int size : new int[]{2, 5, 17}) {
+            float[] table = new float[size * size * size * 3];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = random.nextFloat();
+            }
+            ColorLut lut = parse("LUT_3D_SIZE " + size + "\n" + formatTable(table));
+
+            int[] pixels = randomPixels(random, 4096);
+            int[] graded = pixels.clone();
+            lut.apply(graded, 0, graded.length);
+            int[] expected = new int[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                expected[i] = referenceApply(table, size, pixels[i]);
+            }
+            assertPixelsEqual(expected, graded, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void apply_domain_mapsToUnitRange() throws IOException {
+        ColorLut scaled = parse("LUT_3D_SIZE 2\nDOMAIN_MIN 0 0 0\nDOMAIN_MAX 2 2 2\n" + formatTable(identity(2, 2)));
+        ColorLut identity = parse("LUT_3D_SIZE 2\n" + identityTable(2));
+        int[] pixels = randomPixels(new Random(50), 1024);
+        int[] expected = pixels.clone();
+        identity.apply(expected, 0, expected.length);
+        scaled.apply(pixels, 0, pixels.length);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void apply_range_onlyGivenPixels() throws IOException {
+        ColorLut lut = parse("LUT_3D_SIZE 2\n0 0 0\n0 0 0\n0 0 0\n0 0 0\n0 0 0\n0 0 0\n0 0 0\n0 0 0\n");
+        int[] pixels = new int[10];
+        Arrays.fill(pixels, 0x80ffffff);
+        lut.apply(pixels, 3, 4);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(i >= 3 && i < 7 ? 0x80000000 : 0x80ffffff, pixels[i]);
+        }
+    }
+
+    //region: Private methods
+
+    private static ColorLut parse(String content) throws IOException {
+        return ColorLut.parseCube(new ByteArrayInputStream(content.getBytes("US-ASCII")));
+    }
+
+    private static void assertParseFails(String content) {
+        try {
+            parse(content);
+            fail("parsed invalid LUT: " + content);
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * The identity table of the given size, red changing fastest.
+     */
+    private static float[] identity(int size, float max) {
+        float[] table = new float[size * size * size * 3];
+        int i = 0;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    table[i++] = r * max / (size - 1);
+                    table[i++] = g * max / (size - 1);
+                    table[i++] = b * max / (size - 1);
+                }
+            }
+        }
+        return table;
+    }
+
+    private static String identityTable(int size) {
+        return formatTable(identity(size, 1));
+    }
+
+    private static String formatTable(float[] table) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < table.length; i += 3) {
+            sb.append(String.format(Locale.US, "%.6f %.6f %.6f\n", table[i], table[i + 1], table[i + 2]));
+        }
+        return sb.toString();
+    }
+
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        // the corner and edge colors of the cube
+        pixels[0] = 0xff000000;
+        pixels[1] = 0xffffffff;
+        pixels[2] = 0x00ff0080;
+        return pixels;
+    }
+
+    /**
+     * Tetrahedral interpolation of the given float table in double precision.
+     */
+    private static int referenceApply(float[] table, int size, int pixel) {
+        double[] position = {
+                ((pixel >> 16) & 0xff) / 255.0 * (size - 1),
+                ((pixel >> 8) & 0xff) / 255.0 * (size - 1),
+                (pixel & 0xff) / 255.0 * (size - 1)};
+        int[] lower = new int[3];
+        double[] fraction = new double[3];
+        for (int c = 0; c < 3; c++) {
+            lower[c] = Math.min((int) position[c], size - 2);
+            fraction[c] = position[c] - lower[c];
+        }
+
+        // walk from the lower corner along the axes in descending fraction order
+        Integer[] order = {0, 1, 2};
+        final double[] f = fraction;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(f[b], f[a]);
+            }
+        });
+        int[] corner = lower.clone();
+        double[] result = new double[3];
+        double previous = 1;
+        for (int step = 0; step <= 3; step++) {
+            double weight = previous - (step < 3 ? fraction[order[step]] : 0);
+            int index = ((corner[2] * size + corner[1]) * size + corner[0]) * 3;
+            for (int c = 0; c < 3; c++) {
+                result[c] += weight * table[index + c];
+            }
+            if (step < 3) {
+                previous = fraction[order[step]];
+                corner[order[step]]++;
+            }
+        }
+
+        int color = pixel & 0xff000000;
+        for (int c = 0; c < 3; c++) {
+            color |= (int) Math.round(Math.max(0, Math.min(1, result[c])) * 255) << (16 - 8 * c);
+        }
+        return color;
+    }
+
+    private static void assertPixelsEqual(int[] expected, int[] actual, int tolerance) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = Math.abs(((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff));
+                assertTrue(String.format("pixel %d: expected %08x, was %08x", i, expected[i], actual[i]),
+                        difference <= (shift == 24 ? 0 : tolerance));
+            }
+        }
+    }
+    //endregion
+}
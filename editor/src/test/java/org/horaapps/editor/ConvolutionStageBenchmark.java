@@ -0,0 +1,146 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Throughput benchmark of the {@link ConvolutionStage} kernels per number of parallel row bands.<br>
+ * Filters a random image in place the way {@link CropOutputPass} does, all the bands are created before any of them
+ * runs and each band writes its strips back to the image. Not a unit test, run its main method on the JVM:
+ * <pre>
+ * ConvolutionStageBenchmark [width] [height] [max bands]
+ * </pre>
+ * Prints the median megapixels per second of each kernel at 1 to max bands (default: the available processors).
+ */
+public final class ConvolutionStageBenchmark {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of untimed runs per case, to let the JIT compile the filter loops
+     */
+    private static final int WARMUP_RUNS = 3;
+
+    /**
+     * The number of timed runs per case, the median is reported
+     */
+    private static final int TIMED_RUNS = 7;
+    //endregion
+
+    private ConvolutionStageBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int maxBands = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        String[] names = {"blur sigma 0.5", "blur sigma 2", "blur sigma 8", "unsharp sigma 1", "unsharp sigma 1.5",
+                "3x3 kernel", "5x5 kernel"};
+        float[] box5x5 = new float[25];
+        for (int i = 0; i < box5x5.length; i++) {
+            box5x5[i] = 1 / 25f;
+        }
+        ConvolutionFilter[] filters = {
+                ConvolutionFilter.gaussianBlur(0.5f),
+                ConvolutionFilter.gaussianBlur(2),
+                ConvolutionFilter.gaussianBlur(8),
+                ConvolutionFilter.unsharpMask(1, 1, 2),
+                ConvolutionFilter.unsharpMask(1.5f, 1, 2),
+                ConvolutionFilter.kernel3x3(0, -1, 0, -1, 5, -1, 0, -1, 0),
+                ConvolutionFilter.kernel5x5(box5x5)};
+
+        int[] source = new int[width * height];
+        Random random = new Random(49);
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextInt();
+        }
+
+        System.out.println(String.format(Locale.US, "%dx%d, %d processors, Mpx/s median of %d runs",
+                width, height, Runtime.getRuntime().availableProcessors(), TIMED_RUNS));
+        StringBuilder header = new StringBuilder(String.format(Locale.US, "%-18s", "kernel"));
+        for (int bands = 1; bands <= maxBands; bands++) {
+            header.append(String.format(Locale.US, "%10s", bands + (bands > 1 ? " bands" : " band")));
+        }
+        System.out.println(header);
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxBands);
+        try {
+            for (int f = 0; f < filters.length; f++) {
+                StringBuilder line = new StringBuilder(String.format(Locale.US, "%-18s", names[f]));
+                for (int bands = 1; bands <= maxBands; bands++) {
+                    long[] times = new long[TIMED_RUNS];
+                    for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+                        int[] image = source.clone();
+                        long start = System.nanoTime();
+                        filter(executor, filters[f], image, width, height, bands);
+                        if (run >= WARMUP_RUNS) {
+                            times[run - WARMUP_RUNS] = System.nanoTime() - start;
+                        }
+                    }
+                    Arrays.sort(times);
+                    double megapixels = width * (double) height / 1e6;
+                    line.append(String.format(Locale.US, "%10.1f", megapixels / (times[TIMED_RUNS / 2] / 1e9)));
+                }
+                System.out.println(line);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    //region: Private methods
+
+    /**
+     * Filter the image in place split to the given number of bands run on the executor.
+     */
+    private static void filter(ExecutorService executor, ConvolutionFilter filter, final int[] image, final int width,
+                               int height, int bandCount) throws Exception {
+        ConvolutionStage.RowSource source = new ConvolutionStage.RowSource() {
+            @Override
+            public void readRow(int y, int[] buffer, int offset, int rowWidth) {
+                System.arraycopy(image, y * rowWidth, buffer, offset, rowWidth);
+            }
+        };
+        ConvolutionStage stage = new ConvolutionStage(filter);
+        List<Callable<Void>> tasks = new ArrayList<>(bandCount);
+        for (int i = 0; i < bandCount; i++) {
+            final int startY = height * i / bandCount;
+            final ConvolutionStage.Band band = stage.createBand(source, width, height, startY, height * (i + 1) / bandCount);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int[] strip = new int[ConvolutionStage.STRIP_ROWS * width];
+                    int rows;
+                    for (int y = startY; (rows = band.filterStrip(y, strip)) > 0; y += rows) {
+                        System.arraycopy(strip, 0, image, y * width, rows * width);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,211 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link ConvolutionStage} against a clamp-to-edge float reference convolution, and of the band split
+ * being bit-exact with filtering the image as a single band in place.
+ */
+public class ConvolutionStageTest {
+
+    //region: Fields and Consts
+
+    /**
+     * The max difference of a channel from the float reference
+     */
+    private static final int TOLERANCE = 1;
+
+    private static final int WIDTH = 53;
+
+    /**
+     * Not a multiple of the strip rows so the bands end with a partial strip
+     */
+    private static final int HEIGHT = 150;
+    //endregion
+
+    @Test
+    public void gaussianBlur_matchesReference() {
+        for (float sigma : new float[]{0.5f, 1, 2.3f, ConvolutionFilter.MAX_SIGMA}) {
+            assertMatchesReference(ConvolutionFilter.gaussianBlur(sigma), WIDTH, HEIGHT);
+        }
+    }
+
+    @Test
+    public void unsharpMask_matchesReference() {
+        for (float sigma : new float[]{0.5f, 1, 2}) {
+            assertMatchesReference(ConvolutionFilter.unsharpMask(sigma, 1.2f, 0), WIDTH, HEIGHT);
+        }
+    }
+
+    @Test
+    public void unsharpMask_belowThreshold_keepsPixels() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(49);
+        for (int i = 0; i < pixels.length; i++) {
+            int value = 128 + random.nextInt(3);
+            pixels[i] = 0xff000000 | value << 16 | value << 8 | value;
+        }
+        assertArrayEquals(pixels, filter(ConvolutionFilter.unsharpMask(1, 2, 8), pixels, WIDTH, HEIGHT, 1));
+    }
+
+    @Test
+    public void kernel_matchesReference() {
+        assertMatchesReference(ConvolutionFilter.kernel3x3(0, -1, 0, -1, 5, -1, 0, -1, 0), WIDTH, HEIGHT);
+        float[] weights = new float[25];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1 / 25f;
+        }
+        assertMatchesReference(ConvolutionFilter.kernel5x5(weights), WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void smallImage_matchesReference() {
+        assertMatchesReference(ConvolutionFilter.gaussianBlur(3), 7, 5);
+        assertMatchesReference(ConvolutionFilter.gaussianBlur(3), 1, 1);
+        assertMatchesReference(ConvolutionFilter.kernel3x3(1, 2, 1, 2, 4, 2, 1, 2, 1), 1, 40);
+    }
+
+    @Test
+    public void bands_bitExactWithSingleBand() {
+        ConvolutionFilter[] filters = {
+                ConvolutionFilter.gaussianBlur(2.3f),
+                ConvolutionFilter.unsharpMask(1, 1.5f, 2),
+                ConvolutionFilter.kernel3x3(0, -1, 0, -1, 5, -1, 0, -1, 0)};
+        int[] pixels = randomPixels(new Random(50), WIDTH * HEIGHT);
+        for (ConvolutionFilter filter : filters) {
+            int[] expected = filter(filter, pixels, WIDTH, HEIGHT, 1);
+            for (int bands = 2; bands <= 6; bands++) {
+                assertArrayEquals("bands " + bands, expected, filter(filter, pixels, WIDTH, HEIGHT, bands));
+            }
+        }
+    }
+
+    //region: Private methods
+
+    private static void assertMatchesReference(ConvolutionFilter filter, int width, int height) {
+        int[] pixels = randomPixels(new Random(width * 31 + height), width * height);
+        int[] actual = filter(filter, pixels, width, height, 1);
+        int[] expected = referenceFilter(filter, pixels, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(expected[i] >>> 24, actual[i] >>> 24);
+            for (int shift = 0; shift < 24; shift += 8) {
+                int difference = Math.abs(((expected[i] >> shift) & 0xff) - ((actual[i] >> shift) & 0xff));
+                assertTrue(String.format("%s pixel %d: expected %08x, was %08x", filter.getType(), i, expected[i], actual[i]),
+                        difference <= TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Filter a copy of the given pixels in place by the given number of bands, the strips of the bands are
+     * interleaved as if the bands ran in parallel.
+     */
+    private static int[] filter(ConvolutionFilter filter, int[] pixels, int width, int height, int bandCount) {
+        final int[] image = pixels.clone();
+        ConvolutionStage.RowSource source = new ConvolutionStage.RowSource() {
+            @Override
+            public void readRow(int y, int[] buffer, int offset, int rowWidth) {
+                System.arraycopy(image, y * rowWidth, buffer, offset, rowWidth);
+            }
+        };
+        ConvolutionStage stage = new ConvolutionStage(filter);
+        ConvolutionStage.Band[] bands = new ConvolutionStage.Band[bandCount];
+        int[] positions = new int[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            positions[i] = height * i / bandCount;
+            bands[i] = stage.createBand(source, width, height, positions[i], height * (i + 1) / bandCount);
+        }
+
+        int[] strip = new int[ConvolutionStage.STRIP_ROWS * width];
+        boolean filtering = true;
+        while (filtering) {
+            filtering = false;
+            for (int i = 0; i < bandCount; i++) {
+                int rows = bands[i].filterStrip(positions[i], strip);
+                System.arraycopy(strip, 0, image, positions[i] * width, rows * width);
+                positions[i] += rows;
+                filtering |= rows > 0;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * The filter applied in double precision with the image edge pixels repeated outside it.
+     */
+    private static int[] referenceFilter(ConvolutionFilter filter, int[] pixels, int width, int height) {
+        int radius = filter.getRadius();
+        int size = 2 * radius + 1;
+        double[] kernel = new double[size * size];
+        if (filter.getType() == ConvolutionFilter.Type.KERNEL) {
+            float[] weights = filter.getKernel();
+            for (int i = 0; i < kernel.length; i++) {
+                kernel[i] = weights[i];
+            }
+        } else {
+            double sum = 0;
+            for (int ky = -radius; ky <= radius; ky++) {
+                for (int kx = -radius; kx <= radius; kx++) {
+                    double weight = Math.exp(-(kx * kx + ky * ky) / (2.0 * filter.getSigma() * filter.getSigma()));
+                    kernel[(ky + radius) * size + kx + radius] = weight;
+                    sum += weight;
+                }
+            }
+            for (int i = 0; i < kernel.length; i++) {
+                kernel[i] /= sum;
+            }
+        }
+
+        int[] result = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                int color = pixel & 0xff000000;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    double sum = 0;
+                    for (int ky = -radius; ky <= radius; ky++) {
+                        int sy = Math.max(0, Math.min(height - 1, y + ky));
+                        for (int kx = -radius; kx <= radius; kx++) {
+                            int sx = Math.max(0, Math.min(width - 1, x + kx));
+                            sum += kernel[(ky + radius) * size + kx + radius] * ((pixels[sy * width + sx] >> shift) & 0xff);
+                        }
+                    }
+                    if (filter.getType() == ConvolutionFilter.Type.UNSHARP_MASK) {
+                        int value = (pixel >> shift) & 0xff;
+                        sum = value + filter.getAmount() * (value - sum);
+                    }
+                    color |= (int) Math.round(Math.max(0, Math.min(255, sum))) << shift;
+                }
+                result[y * width + x] = color;
+            }
+        }
+        return result;
+    }
+
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+    //endregion
+}
@@ -0,0 +1,136 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Time per call benchmark of {@link CropWindowGeometry#fixRectByRules}, the crop window fix run on every touch move.
+ * <br>
+ * Each case fixes a pool of random crop windows against random image quads, a new window per call so the solver
+ * cache of the last window doesn't hide the solve cost, except for the repeated window case. Not a unit test, run its
+ * main method on the JVM:
+ * <pre>
+ * CropWindowGeometryBenchmark [calls per run]
+ * </pre>
+ * Prints the median nanoseconds per call of each case.
+ */
+public final class CropWindowGeometryBenchmark {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of untimed runs per case, to let the JIT compile the geometry
+     */
+    private static final int WARMUP_RUNS = 5;
+
+    /**
+     * The number of timed runs per case, the median is reported
+     */
+    private static final int TIMED_RUNS = 9;
+
+    /**
+     * The number of random quads, the crop windows of each quad are fixed before the next quad is set
+     */
+    private static final int QUADS = 64;
+
+    /**
+     * The number of random crop windows per quad
+     */
+    private static final int WINDOWS = 64;
+
+    private static final int VIEW_WIDTH = 800;
+
+    private static final int VIEW_HEIGHT = 800;
+
+    /**
+     * Keeps the results used so the JIT can't drop the calls
+     */
+    private static float sSink;
+    //endregion
+
+    private CropWindowGeometryBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+
+        Random random = new Random(38);
+        float[][] straightQuads = new float[QUADS][];
+        float[][] rotatedQuads = new float[QUADS][];
+        float[][] straightWindows = new float[QUADS * WINDOWS][];
+        float[][] rotatedWindows = new float[QUADS * WINDOWS][];
+        for (int q = 0; q < QUADS; q++) {
+            straightQuads[q] = TestQuads.straightQuad(random);
+            rotatedQuads[q] = TestQuads.randomQuad(random);
+            for (int w = 0; w < WINDOWS; w++) {
+                straightWindows[q * WINDOWS + w] = TestQuads.randomWindowInside(random, straightQuads[q]);
+                rotatedWindows[q * WINDOWS + w] = TestQuads.randomWindowInside(random, rotatedQuads[q]);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%d calls per run, ns per call median of %d runs", calls, TIMED_RUNS));
+        print("straight quad", straightQuads, straightWindows, false, calls, false);
+        print("rotated, free ratio", rotatedQuads, rotatedWindows, false, calls, false);
+        print("rotated, fixed ratio", rotatedQuads, rotatedWindows, true, calls, false);
+        print("rotated, same window", rotatedQuads, rotatedWindows, false, calls, true);
+        if (sSink == 42) {
+            System.out.println();
+        }
+    }
+
+    //region: Private methods
+
+    private static void print(String name, float[][] quads, float[][] windows, boolean fixAspectRatio, int calls,
+                              boolean sameWindow) {
+        long[] times = new long[TIMED_RUNS];
+        for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+            long time = run(quads, windows, fixAspectRatio, calls, sameWindow);
+            if (run >= WARMUP_RUNS) {
+                times[run - WARMUP_RUNS] = time;
+            }
+        }
+        Arrays.sort(times);
+        System.out.println(String.format(Locale.US, "%-22s%8.1f", name, times[TIMED_RUNS / 2] / (double) calls));
+    }
+
+    /**
+     * Fix the given number of crop windows, the windows of each quad in turn.
+     *
+     * @return the time of all the calls, nanoseconds
+     */
+    private static long run(float[][] quads, float[][] windows, boolean fixAspectRatio, int calls, boolean sameWindow) {
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] rect = new float[4];
+        float[] calcBounds = new float[4];
+        float sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            int window = sameWindow ? (i / WINDOWS) * WINDOWS : i;
+            window %= windows.length;
+            if (i % WINDOWS == 0) {
+                solver.setQuad(quads[window / WINDOWS]);
+            }
+            System.arraycopy(windows[window], 0, rect, 0, 4);
+            CropWindowGeometry.fixRectByRules(rect, solver, calcBounds, VIEW_WIDTH, VIEW_HEIGHT,
+                    20, 20, VIEW_WIDTH, VIEW_HEIGHT, fixAspectRatio, 1.5f);
+            sink += rect[CropWindowGeometry.RIGHT];
+        }
+        long time = System.nanoTime() - start;
+        sSink += sink;
+        return time;
+    }
+    //endregion
+}
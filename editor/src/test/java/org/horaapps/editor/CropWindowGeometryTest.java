@@ -0,0 +1,166 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link CropWindowGeometry}, the rules fix is checked by its properties on random crop windows.
+ */
+public class CropWindowGeometryTest {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of random cases per test
+     */
+    private static final int CASES = 500;
+
+    /**
+     * The tolerance of the bounds checks, view pixels
+     */
+    private static final float EPSILON = 0.05f;
+
+    private static final int VIEW_WIDTH = 800;
+
+    private static final int VIEW_HEIGHT = 800;
+
+    private static final int LEFT = CropWindowGeometry.LEFT;
+
+    private static final int TOP = CropWindowGeometry.TOP;
+
+    private static final int RIGHT = CropWindowGeometry.RIGHT;
+
+    private static final int BOTTOM = CropWindowGeometry.BOTTOM;
+    //endregion
+
+    @Test
+    public void rectHelpers() {
+        float[] rect = new float[4];
+        CropWindowGeometry.set(rect, 10, 20, 50, 100);
+        assertEquals(40, CropWindowGeometry.width(rect), 0);
+        assertEquals(80, CropWindowGeometry.height(rect), 0);
+        assertEquals(30, CropWindowGeometry.centerX(rect), 0);
+        assertEquals(60, CropWindowGeometry.centerY(rect), 0);
+
+        CropWindowGeometry.offset(rect, 5, -10);
+        assertArrayEquals(new float[]{15, 10, 55, 90}, rect, 0);
+
+        CropWindowGeometry.inset(rect, 5, 10);
+        assertArrayEquals(new float[]{20, 20, 50, 80}, rect, 0);
+
+        CropWindowGeometry.inset(rect, -5, -10);
+        assertArrayEquals(new float[]{15, 10, 55, 90}, rect, 0);
+    }
+
+    @Test
+    public void isNonStraightAngleRotated() {
+        assertFalse(CropWindowGeometry.isNonStraightAngleRotated(new float[]{0, 0, 100, 0, 100, 50, 0, 50}));
+        assertFalse(CropWindowGeometry.isNonStraightAngleRotated(new float[]{100, 0, 100, 50, 0, 50, 0, 0}));
+        assertTrue(CropWindowGeometry.isNonStraightAngleRotated(TestQuads.quad(100, 100, 50, 30, 0.3f)));
+    }
+
+    @Test
+    public void fixRectByRules_straightQuad_keepsRulesAndBounds() {
+        Random random = new Random(38);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] calcBounds = new float[4];
+        for (int i = 0; i < CASES; i++) {
+            float[] quad = TestQuads.straightQuad(random);
+            solver.setQuad(quad);
+            float[] quadBounds = getBounds(quad);
+            float minSize = 20 + random.nextFloat() * 40;
+            float maxSize = 300 + random.nextFloat() * 500;
+            boolean fixAspectRatio = random.nextBoolean();
+            float aspectRatio = 0.5f + random.nextFloat() * 1.5f;
+            float[] rect = randomRect(random, quad);
+
+            CropWindowGeometry.fixRectByRules(rect, solver, calcBounds, VIEW_WIDTH, VIEW_HEIGHT,
+                    minSize, minSize, maxSize, maxSize, fixAspectRatio, aspectRatio);
+
+            assertTrue(rect[LEFT] >= Math.max(quadBounds[LEFT], 0) - EPSILON);
+            assertTrue(rect[TOP] >= Math.max(quadBounds[TOP], 0) - EPSILON);
+            assertTrue(rect[RIGHT] <= Math.min(quadBounds[RIGHT], VIEW_WIDTH) + EPSILON);
+            assertTrue(rect[BOTTOM] <= Math.min(quadBounds[BOTTOM], VIEW_HEIGHT) + EPSILON);
+            assertTrue(CropWindowGeometry.width(rect) <= maxSize + EPSILON);
+            assertTrue(CropWindowGeometry.height(rect) <= maxSize + EPSILON);
+            assertAspectRatio(rect, fixAspectRatio, aspectRatio);
+        }
+    }
+
+    @Test
+    public void fixRectByRules_rotatedQuad_keepsWindowInsideQuad() {
+        Random random = new Random(39);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] calcBounds = new float[4];
+        for (int i = 0; i < CASES; i++) {
+            float[] quad = TestQuads.randomQuad(random);
+            solver.setQuad(quad);
+            boolean fixAspectRatio = random.nextBoolean();
+            float aspectRatio = 0.5f + random.nextFloat() * 1.5f;
+            float[] rect = randomRect(random, quad);
+
+            CropWindowGeometry.fixRectByRules(rect, solver, calcBounds, VIEW_WIDTH, VIEW_HEIGHT,
+                    0, 0, Float.MAX_VALUE, Float.MAX_VALUE, fixAspectRatio, aspectRatio);
+
+            TestQuads.assertRectInsideQuad(quad, rect);
+            assertAspectRatio(rect, fixAspectRatio, aspectRatio);
+        }
+    }
+
+    @Test
+    public void fixRectByRules_windowInsideBounds_notChanged() {
+        InscribedRectSolver solver = new InscribedRectSolver();
+        solver.setQuad(new float[]{0, 0, 400, 0, 400, 300, 0, 300});
+        float[] rect = {50, 50, 250, 150};
+
+        CropWindowGeometry.fixRectByRules(rect, solver, new float[4], VIEW_WIDTH, VIEW_HEIGHT,
+                10, 10, 500, 500, true, 2);
+        assertArrayEquals(new float[]{50, 50, 250, 150}, rect, 0);
+    }
+
+    //region: Private methods
+
+    /**
+     * Create a random crop window around the quad center, may be outside the view and the quad and of any size.
+     */
+    private static float[] randomRect(Random random, float[] quad) {
+        float x = (quad[0] + quad[4]) / 2 + (random.nextFloat() - 0.5f) * 100;
+        float y = (quad[1] + quad[5]) / 2 + (random.nextFloat() - 0.5f) * 100;
+        float halfWidth = 1 + random.nextFloat() * 400;
+        float halfHeight = 1 + random.nextFloat() * 400;
+        return new float[]{x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight};
+    }
+
+    private static float[] getBounds(float[] quad) {
+        return new float[]{
+                Math.min(Math.min(quad[0], quad[2]), Math.min(quad[4], quad[6])),
+                Math.min(Math.min(quad[1], quad[3]), Math.min(quad[5], quad[7])),
+                Math.max(Math.max(quad[0], quad[2]), Math.max(quad[4], quad[6])),
+                Math.max(Math.max(quad[1], quad[3]), Math.max(quad[5], quad[7]))};
+    }
+
+    private static void assertAspectRatio(float[] rect, boolean fixAspectRatio, float aspectRatio) {
+        if (fixAspectRatio) {
+            assertEquals(CropWindowGeometry.height(rect) * aspectRatio, CropWindowGeometry.width(rect), 0.1 + EPSILON);
+        }
+    }
+    //endregion
+}
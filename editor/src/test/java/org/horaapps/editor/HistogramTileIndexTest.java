@@ -0,0 +1,122 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link HistogramTileIndex} against counting all the region pixels.
+ */
+public class HistogramTileIndexTest {
+
+    //region: Fields and Consts
+
+    /**
+     * Not a multiple of the tile size so the grid has partial tiles on the right and bottom
+     */
+    private static final int WIDTH = 150;
+
+    private static final int HEIGHT = 97;
+    //endregion
+
+    @Test
+    public void compute_randomRegions_matchesBruteForce() {
+        Random random = new Random(50);
+        int[] pixels = randomPixels(random, WIDTH * HEIGHT);
+        HistogramTileIndex index = HistogramTileIndex.build(pixels, WIDTH, HEIGHT);
+        assertEquals(WIDTH, index.getWidth());
+        assertEquals(HEIGHT, index.getHeight());
+
+        for (int i = 0; i < 500; i++) {
+            int left = random.nextInt(WIDTH + 20) - 10;
+            int top = random.nextInt(HEIGHT + 20) - 10;
+            int right = left + random.nextInt(WIDTH + 10);
+            int bottom = top + random.nextInt(HEIGHT + 10);
+            assertHistogram(pixels, index, left, top, right, bottom);
+        }
+    }
+
+    @Test
+    public void compute_tileAlignedRegions_matchesBruteForce() {
+        int[] pixels = randomPixels(new Random(51), WIDTH * HEIGHT);
+        HistogramTileIndex index = HistogramTileIndex.build(pixels, WIDTH, HEIGHT);
+        assertHistogram(pixels, index, 0, 0, WIDTH, HEIGHT);
+        assertHistogram(pixels, index, 32, 32, 128, 96);
+        assertHistogram(pixels, index, 31, 31, 129, 97);
+        assertHistogram(pixels, index, 32, 0, 64, 32);
+    }
+
+    @Test
+    public void compute_emptyRegion_noPixels() {
+        HistogramTileIndex index = HistogramTileIndex.build(randomPixels(new Random(52), WIDTH * HEIGHT), WIDTH, HEIGHT);
+        assertEquals(0, index.compute(40, 40, 40, 80).getPixelCount());
+        assertEquals(0, index.compute(WIDTH, 0, WIDTH + 10, 10).getPixelCount());
+        assertArrayEquals(new int[CropHistogram.BINS], index.compute(50, 60, 20, 10).getLuminance());
+    }
+
+    @Test
+    public void build_imageSmallerThanTile_matchesBruteForce() {
+        int[] pixels = randomPixels(new Random(53), 20 * 7);
+        HistogramTileIndex index = HistogramTileIndex.build(pixels, 20, 7);
+        assertHistogram(pixels, index, 0, 0, 20, 7);
+        assertHistogram(pixels, index, 3, 2, 11, 6);
+    }
+
+    //region: Private methods
+
+    private static void assertHistogram(int[] pixels, HistogramTileIndex index, int left, int top, int right, int bottom) {
+        int[] red = new int[CropHistogram.BINS];
+        int[] green = new int[CropHistogram.BINS];
+        int[] blue = new int[CropHistogram.BINS];
+        int[] luminance = new int[CropHistogram.BINS];
+        int count = 0;
+        for (int y = Math.max(0, top); y < Math.min(index.getHeight(), bottom); y++) {
+            for (int x = Math.max(0, left); x < Math.min(index.getWidth(), right); x++) {
+                int pixel = pixels[y * index.getWidth() + x];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+                red[r]++;
+                green[g]++;
+                blue[b]++;
+                luminance[(r * 77 + g * 150 + b * 29) >> 8]++;
+                count++;
+            }
+        }
+
+        String region = "region " + left + "," + top + "," + right + "," + bottom;
+        CropHistogram histogram = index.compute(left, top, right, bottom);
+        assertEquals(region, count, histogram.getPixelCount());
+        assertArrayEquals(region, red, histogram.getRed());
+        assertArrayEquals(region, green, histogram.getGreen());
+        assertArrayEquals(region, blue, histogram.getBlue());
+        assertArrayEquals(region, luminance, histogram.getLuminance());
+    }
+
+    /**
+     * Random pixels of few distinct values so the bins have large counts.
+     */
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(8) << 21 | random.nextInt(256) << 8 | random.nextInt(4) << 6;
+        }
+        return pixels;
+    }
+    //endregion
+}
@@ -0,0 +1,236 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark of {@link InscribedRectSolver} against the line intersections bounds calculation it replaced, on random
+ * rotated image quads and crop windows inside them.<br>
+ * Prints the median nanoseconds per call of each, and the quality of the bounds: the mean area relative to the
+ * solver, how often the bounds leave the quad and how often they don't contain the crop window. Not a unit test, run
+ * its main method on the JVM:
+ * <pre>
+ * InscribedRectSolverBenchmark [calls per run]
+ * </pre>
+ */
+public final class InscribedRectSolverBenchmark {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of untimed runs per case, to let the JIT compile the solvers
+     */
+    private static final int WARMUP_RUNS = 5;
+
+    /**
+     * The number of timed runs per case, the median is reported
+     */
+    private static final int TIMED_RUNS = 9;
+
+    /**
+     * The number of random quads, the crop windows of each quad are solved before the next quad is set
+     */
+    private static final int QUADS = 64;
+
+    /**
+     * The number of random crop windows per quad
+     */
+    private static final int WINDOWS = 64;
+
+    private static final int LEFT = CropWindowGeometry.LEFT;
+
+    private static final int TOP = CropWindowGeometry.TOP;
+
+    private static final int RIGHT = CropWindowGeometry.RIGHT;
+
+    private static final int BOTTOM = CropWindowGeometry.BOTTOM;
+
+    /**
+     * Keeps the results used so the JIT can't drop the calls
+     */
+    private static float sSink;
+    //endregion
+
+    private InscribedRectSolverBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+
+        Random random = new Random(39);
+        float[][] quads = new float[QUADS][];
+        float[][] windows = new float[QUADS * WINDOWS][];
+        for (int q = 0; q < QUADS; q++) {
+            quads[q] = TestQuads.randomQuad(random);
+            for (int w = 0; w < WINDOWS; w++) {
+                windows[q * WINDOWS + w] = TestQuads.randomWindowInside(random, quads[q]);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%d calls per run, ns per call median of %d runs", calls, TIMED_RUNS));
+        for (int mode = 0; mode < 3; mode++) {
+            long[] times = new long[TIMED_RUNS];
+            for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+                long time = run(mode, quads, windows, calls);
+                if (run >= WARMUP_RUNS) {
+                    times[run - WARMUP_RUNS] = time;
+                }
+            }
+            Arrays.sort(times);
+            String name = mode == 0 ? "line intersections" : mode == 1 ? "solver" : "solver, same window";
+            System.out.println(String.format(Locale.US, "%-22s%8.1f", name, times[TIMED_RUNS / 2] / (double) calls));
+        }
+
+        printQuality(quads, windows);
+        if (sSink == 42) {
+            System.out.println();
+        }
+    }
+
+    //region: Private methods
+
+    /**
+     * Calculate the bounds of the given number of crop windows, the windows of each quad in turn.
+     *
+     * @param mode 0 - line intersections, 1 - solver, 2 - solver with the same window for all the calls of a quad
+     * @return the time of all the calls, nanoseconds
+     */
+    private static long run(int mode, float[][] quads, float[][] windows, int calls) {
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] bounds = new float[4];
+        float sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            int window = (mode == 2 ? (i / WINDOWS) * WINDOWS : i) % windows.length;
+            float[] quad = quads[window / WINDOWS];
+            if (mode == 0) {
+                calculateBounds(quad, windows[window], bounds);
+            } else {
+                if (i % WINDOWS == 0) {
+                    solver.setQuad(quad);
+                }
+                solver.solve(windows[window], false, 0, bounds);
+            }
+            sink += bounds[RIGHT];
+        }
+        long time = System.nanoTime() - start;
+        sSink += sink;
+        return time;
+    }
+
+    /**
+     * Print the quality of the line intersections bounds relative to the solver bounds.
+     */
+    private static void printQuality(float[][] quads, float[][] windows) {
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] bounds = new float[4];
+        float[] solved = new float[4];
+        double areaRatio = 0;
+        int outside = 0;
+        int notContaining = 0;
+        int solverOutside = 0;
+        for (int i = 0; i < windows.length; i++) {
+            float[] quad = quads[i / WINDOWS];
+            float[] rect = windows[i];
+            solver.setQuad(quad);
+            solver.solve(rect, false, 0, solved);
+            calculateBounds(quad, rect, bounds);
+
+            areaRatio += CropWindowGeometry.width(bounds) * CropWindowGeometry.height(bounds)
+                    / (CropWindowGeometry.width(solved) * CropWindowGeometry.height(solved));
+            if (!TestQuads.isRectInsideQuad(quad, bounds, TestQuads.EPSILON)) {
+                outside++;
+            }
+            if (!TestQuads.isRectInsideQuad(quad, solved, TestQuads.EPSILON)) {
+                solverOutside++;
+            }
+            if (bounds[LEFT] > rect[LEFT] || bounds[TOP] > rect[TOP] || bounds[RIGHT] < rect[RIGHT] || bounds[BOTTOM] < rect[BOTTOM]) {
+                notContaining++;
+            }
+        }
+        System.out.println(String.format(Locale.US, "line intersections: area %.3f of the solver, outside the quad %.1f%%, "
+                        + "not containing the window %.1f%% (solver outside the quad %.1f%%)",
+                areaRatio / windows.length, 100f * outside / windows.length, 100f * notContaining / windows.length,
+                100f * solverOutside / windows.length));
+    }
+
+    /**
+     * The bounds calculation of non-straight rotation the solver replaced, as it was in {@link CropWindowGeometry}.
+     */
+    private static void calculateBounds(float[] boundsPoints, float[] rect, float[] outBounds) {
+        float left = Math.min(Math.min(Math.min(boundsPoints[0], boundsPoints[2]), boundsPoints[4]), boundsPoints[6]);
+        float top = Math.min(Math.min(Math.min(boundsPoints[1], boundsPoints[3]), boundsPoints[5]), boundsPoints[7]);
+        float right = Math.max(Math.max(Math.max(boundsPoints[0], boundsPoints[2]), boundsPoints[4]), boundsPoints[6]);
+        float bottom = Math.max(Math.max(Math.max(boundsPoints[1], boundsPoints[3]), boundsPoints[5]), boundsPoints[7]);
+
+        float x0 = boundsPoints[0];
+        float y0 = boundsPoints[1];
+        float x2 = boundsPoints[4];
+        float y2 = boundsPoints[5];
+        float x3 = boundsPoints[6];
+        float y3 = boundsPoints[7];
+
+        if (boundsPoints[7] < boundsPoints[1]) {
+            if (boundsPoints[1] < boundsPoints[3]) {
+                x0 = boundsPoints[6];
+                y0 = boundsPoints[7];
+                x2 = boundsPoints[2];
+                y2 = boundsPoints[3];
+                x3 = boundsPoints[4];
+                y3 = boundsPoints[5];
+            } else {
+                x0 = boundsPoints[4];
+                y0 = boundsPoints[5];
+                x2 = boundsPoints[0];
+                y2 = boundsPoints[1];
+                x3 = boundsPoints[2];
+                y3 = boundsPoints[3];
+            }
+        } else if (boundsPoints[1] > boundsPoints[3]) {
+            x0 = boundsPoints[2];
+            y0 = boundsPoints[3];
+            x2 = boundsPoints[6];
+            y2 = boundsPoints[7];
+            x3 = boundsPoints[0];
+            y3 = boundsPoints[1];
+        }
+
+        float a0 = (y3 - y0) / (x3 - x0);
+        float a1 = -1f / a0;
+        float b0 = y0 - a0 * x0;
+        float b1 = y0 - a1 * x0;
+        float b2 = y2 - a0 * x2;
+        float b3 = y2 - a1 * x2;
+
+        float c0 = (CropWindowGeometry.centerY(rect) - rect[TOP]) / (CropWindowGeometry.centerX(rect) - rect[LEFT]);
+        float c1 = -c0;
+        float d0 = rect[TOP] - c0 * rect[LEFT];
+        float d1 = rect[TOP] - c1 * rect[RIGHT];
+
+        left = Math.max(left, (d0 - b0) / (a0 - c0) < rect[RIGHT] ? (d0 - b0) / (a0 - c0) : left);
+        left = Math.max(left, (d0 - b1) / (a1 - c0) < rect[RIGHT] ? (d0 - b1) / (a1 - c0) : left);
+        left = Math.max(left, (d1 - b3) / (a1 - c1) < rect[RIGHT] ? (d1 - b3) / (a1 - c1) : left);
+        right = Math.min(right, (d1 - b1) / (a1 - c1) > rect[LEFT] ? (d1 - b1) / (a1 - c1) : right);
+        right = Math.min(right, (d1 - b2) / (a0 - c1) > rect[LEFT] ? (d1 - b2) / (a0 - c1) : right);
+        right = Math.min(right, (d0 - b2) / (a0 - c0) > rect[LEFT] ? (d0 - b2) / (a0 - c0) : right);
+
+        top = Math.max(top, Math.max(a0 * left + b0, a1 * right + b1));
+        bottom = Math.min(bottom, Math.min(a1 * left + b3, a0 * right + b2));
+
+        CropWindowGeometry.set(outBounds, left, top, right, bottom);
+    }
+    //endregion
+}
@@ -0,0 +1,232 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Property tests of {@link InscribedRectSolver} on random rotated quads, the largest rectangle is checked against a
+ * brute-force search over the rectangle top and bottom.
+ */
+public class InscribedRectSolverTest {
+
+    //region: Fields and Consts
+
+    /**
+     * The number of random cases per test
+     */
+    private static final int CASES = 200;
+
+    private static final float EPSILON = TestQuads.EPSILON;
+
+    private static final int LEFT = CropWindowGeometry.LEFT;
+
+    private static final int TOP = CropWindowGeometry.TOP;
+
+    private static final int RIGHT = CropWindowGeometry.RIGHT;
+
+    private static final int BOTTOM = CropWindowGeometry.BOTTOM;
+    //endregion
+
+    @Test
+    public void solve_notRotated_returnsQuadBounds() {
+        InscribedRectSolver solver = new InscribedRectSolver();
+        solver.setQuad(new float[]{10, 20, 110, 20, 110, 80, 10, 80});
+        float[] bounds = new float[4];
+
+        assertFalse(solver.solve(new float[]{30, 30, 60, 60}, false, 0, bounds));
+        assertArrayEquals(new float[]{10, 20, 110, 80}, bounds, 0);
+    }
+
+    @Test
+    public void solve_rotated_boundsContainWindowInsideQuad() {
+        Random random = new Random(38);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] bounds = new float[4];
+        for (int i = 0; i < CASES; i++) {
+            float[] quad = TestQuads.randomQuad(random);
+            float[] rect = TestQuads.randomWindowInside(random, quad);
+            boolean fixAspectRatio = random.nextBoolean();
+            float aspectRatio = 0.5f + random.nextFloat() * 1.5f;
+            solver.setQuad(quad);
+
+            assertTrue(solver.solve(rect, fixAspectRatio, aspectRatio, bounds));
+            assertContains(bounds, rect);
+            TestQuads.assertRectInsideQuad(quad, bounds);
+        }
+    }
+
+    @Test
+    public void solve_rotatedFreeAspectRatio_matchesBruteForce() {
+        Random random = new Random(39);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] bounds = new float[4];
+        for (int i = 0; i < CASES / 4; i++) {
+            float[] quad = TestQuads.randomQuad(random);
+            float[] rect = TestQuads.randomWindowInside(random, quad);
+            solver.setQuad(quad);
+            solver.solve(rect, false, 0, bounds);
+
+            float area = CropWindowGeometry.width(bounds) * CropWindowGeometry.height(bounds);
+            float bruteForce = bruteForceLargestArea(quad, rect, 200);
+            assertTrue("case " + i + ": " + area + " < " + bruteForce, area >= bruteForce * 0.995f);
+        }
+    }
+
+    @Test
+    public void solve_sameWindow_returnsSameBounds() {
+        Random random = new Random(40);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] quad = TestQuads.randomQuad(random);
+        float[] rect = TestQuads.randomWindowInside(random, quad);
+        solver.setQuad(quad);
+        float[] first = new float[4];
+        float[] second = new float[4];
+
+        solver.solve(rect, true, 1.5f, first);
+        solver.solve(rect, true, 1.5f, second);
+        assertArrayEquals(first, second, 0);
+    }
+
+    @Test
+    public void getMinScale_scaledQuadJustContainsWindow() {
+        Random random = new Random(41);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        for (int i = 0; i < CASES; i++) {
+            float[] quad = random.nextInt(4) == 0 ? TestQuads.straightQuad(random) : TestQuads.randomQuad(random);
+            float[] center = TestQuads.quadCenter(quad);
+            float halfWidth = 10 + random.nextFloat() * 300;
+            float halfHeight = 10 + random.nextFloat() * 300;
+            float[] rect = {center[0] - halfWidth, center[1] - halfHeight, center[0] + halfWidth, center[1] + halfHeight};
+            solver.setQuad(quad);
+
+            float scale = solver.getMinScale(rect);
+            TestQuads.assertRectInsideQuad(scaleQuad(quad, scale * 1.001f), rect);
+            assertFalse(TestQuads.isRectInsideQuad(scaleQuad(quad, scale * 0.99f), rect, 0));
+        }
+    }
+
+    @Test
+    public void limitTranslation_keepsWindowInsideQuad() {
+        Random random = new Random(42);
+        InscribedRectSolver solver = new InscribedRectSolver();
+        float[] delta = new float[2];
+        float[] bounds = new float[4];
+        for (int i = 0; i < CASES; i++) {
+            float[] quad = random.nextInt(4) == 0 ? TestQuads.straightQuad(random) : TestQuads.randomQuad(random);
+            float[] rect = TestQuads.randomWindowInside(random, quad);
+            solver.setQuad(quad);
+            float dx = (random.nextFloat() - 0.5f) * 800;
+            float dy = (random.nextFloat() - 0.5f) * 800;
+            boolean allowed = TestQuads.isRectInsideQuad(translateQuad(quad, dx, dy), rect, -EPSILON);
+
+            delta[0] = dx;
+            delta[1] = dy;
+            solver.limitTranslation(rect, delta);
+            TestQuads.assertRectInsideQuad(translateQuad(quad, delta[0], delta[1]), rect);
+            if (allowed) {
+                assertEquals(dx, delta[0], EPSILON);
+                assertEquals(dy, delta[1], EPSILON);
+            }
+
+            solver.getTranslationBounds(rect, bounds);
+            assertTrue(delta[0] >= bounds[LEFT] - EPSILON && delta[0] <= bounds[RIGHT] + EPSILON);
+            assertTrue(delta[1] >= bounds[TOP] - EPSILON && delta[1] <= bounds[BOTTOM] + EPSILON);
+        }
+    }
+
+    //region: Private methods
+
+    private static void assertContains(float[] outer, float[] inner) {
+        assertTrue(outer[LEFT] <= inner[LEFT] + EPSILON && outer[TOP] <= inner[TOP] + EPSILON
+                && outer[RIGHT] >= inner[RIGHT] - EPSILON && outer[BOTTOM] >= inner[BOTTOM] - EPSILON);
+    }
+
+    private static float[] scaleQuad(float[] quad, float scale) {
+        float[] center = TestQuads.quadCenter(quad);
+        float[] scaled = new float[8];
+        for (int i = 0; i < 8; i += 2) {
+            scaled[i] = center[0] + (quad[i] - center[0]) * scale;
+            scaled[i + 1] = center[1] + (quad[i + 1] - center[1]) * scale;
+        }
+        return scaled;
+    }
+
+    private static float[] translateQuad(float[] quad, float dx, float dy) {
+        float[] translated = new float[8];
+        for (int i = 0; i < 8; i += 2) {
+            translated[i] = quad[i] + dx;
+            translated[i + 1] = quad[i + 1] + dy;
+        }
+        return translated;
+    }
+
+    /**
+     * The largest area of axis aligned rectangle inside the quad that contains the window, by trying every top and
+     * bottom on a grid. The quad is convex so the horizontal span inside it over a range of rows is limited by the
+     * span at the range top and bottom.
+     */
+    private static float bruteForceLargestArea(float[] quad, float[] rect, int steps) {
+        float minY = Math.min(Math.min(quad[1], quad[3]), Math.min(quad[5], quad[7]));
+        float maxY = Math.max(Math.max(quad[1], quad[3]), Math.max(quad[5], quad[7]));
+        float best = 0;
+        float[] topSpan = new float[2];
+        float[] bottomSpan = new float[2];
+        for (int i = 0; i <= steps; i++) {
+            float top = minY + (rect[TOP] - minY) * i / steps;
+            if (!getSpan(quad, top, topSpan)) {
+                continue;
+            }
+            for (int j = 0; j <= steps; j++) {
+                float bottom = rect[BOTTOM] + (maxY - rect[BOTTOM]) * j / steps;
+                if (!getSpan(quad, bottom, bottomSpan)) {
+                    continue;
+                }
+                float left = Math.max(topSpan[0], bottomSpan[0]);
+                float right = Math.min(topSpan[1], bottomSpan[1]);
+                if (left <= rect[LEFT] && right >= rect[RIGHT]) {
+                    best = Math.max(best, (right - left) * (bottom - top));
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the horizontal span of the quad on the given row.
+     */
+    private static boolean getSpan(float[] quad, float y, float[] outSpan) {
+        outSpan[0] = Float.MAX_VALUE;
+        outSpan[1] = -Float.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            float ax = quad[i * 2];
+            float ay = quad[i * 2 + 1];
+            float bx = quad[(i + 1) % 4 * 2];
+            float by = quad[(i + 1) % 4 * 2 + 1];
+            if (ay != by && y >= Math.min(ay, by) && y <= Math.max(ay, by)) {
+                float x = ax + (bx - ax) * (y - ay) / (by - ay);
+                outSpan[0] = Math.min(outSpan[0], x);
+                outSpan[1] = Math.max(outSpan[1], x);
+            }
+        }
+        return outSpan[0] <= outSpan[1];
+    }
+    //endregion
+}
@@ -0,0 +1,141 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package org.horaapps.editor;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Random image quads and crop windows for the geometry tests and benchmarks, the quad points are in the order
+ * {@link InscribedRectSolver#setQuad(float[])} expects.
+ */
+final class TestQuads {
+
+    //region: Fields and Consts
+
+    /**
+     * The tolerance of the containment checks, view pixels
+     */
+    static final float EPSILON = 0.05f;
+
+    private static final int LEFT = CropWindowGeometry.LEFT;
+
+    private static final int TOP = CropWindowGeometry.TOP;
+
+    private static final int RIGHT = CropWindowGeometry.RIGHT;
+
+    private static final int BOTTOM = CropWindowGeometry.BOTTOM;
+    //endregion
+
+    private TestQuads() {
+    }
+
+    /**
+     * Create a random quad of a rectangle rotated by a non straight angle, points in order around it.
+     */
+    static float[] randomQuad(Random random) {
+        float angle;
+        do {
+            angle = (float) (random.nextFloat() * Math.PI * 2);
+        } while (Math.abs(Math.sin(2 * angle)) < 0.02);
+        return quad(200 + random.nextFloat() * 400, 200 + random.nextFloat() * 400,
+                100 + random.nextFloat() * 300, 100 + random.nextFloat() * 300, angle);
+    }
+
+    /**
+     * Create a random quad that is not rotated (or rotated by straight angle).
+     */
+    static float[] straightQuad(Random random) {
+        return quad(200 + random.nextFloat() * 400, 200 + random.nextFloat() * 400,
+                100 + random.nextFloat() * 300, 100 + random.nextFloat() * 300, random.nextInt(4) * (float) Math.PI / 2);
+    }
+
+    /**
+     * Create the quad of the rectangle of the given center and half size rotated by the given angle (radians).
+     */
+    static float[] quad(float centerX, float centerY, float halfWidth, float halfHeight, float angle) {
+        float ux = (float) Math.cos(angle);
+        float uy = (float) Math.sin(angle);
+        float vx = -uy;
+        float vy = ux;
+        // snap the straight angles so the straight quads are exactly axis aligned
+        if (Math.abs(ux) < 1e-6f || Math.abs(uy) < 1e-6f) {
+            ux = Math.round(ux);
+            uy = Math.round(uy);
+            vx = Math.round(vx);
+            vy = Math.round(vy);
+        }
+        float[] quad = new float[8];
+        float[] signs = {-1, -1, 1, -1, 1, 1, -1, 1};
+        for (int i = 0; i < 4; i++) {
+            float a = signs[i * 2] * halfWidth;
+            float b = signs[i * 2 + 1] * halfHeight;
+            quad[i * 2] = centerX + a * ux + b * vx;
+            quad[i * 2 + 1] = centerY + a * uy + b * vy;
+        }
+        return quad;
+    }
+
+    /**
+     * Create a random crop window inside the given quad.
+     */
+    static float[] randomWindowInside(Random random, float[] quad) {
+        float[] center = quadCenter(quad);
+        float[] rect = new float[4];
+        do {
+            float x = center[0] + (random.nextFloat() - 0.5f) * 200;
+            float y = center[1] + (random.nextFloat() - 0.5f) * 200;
+            float halfWidth = 5 + random.nextFloat() * 150;
+            float halfHeight = 5 + random.nextFloat() * 150;
+            CropWindowGeometry.set(rect, x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight);
+        } while (!isRectInsideQuad(quad, rect, -1));
+        return rect;
+    }
+
+    /**
+     * Is the given rectangle inside the given quad by the given tolerance, negative tolerance to require a margin.
+     */
+    static boolean isRectInsideQuad(float[] quad, float[] rect, float tolerance) {
+        float[] corners = {rect[LEFT], rect[TOP], rect[RIGHT], rect[TOP], rect[RIGHT], rect[BOTTOM], rect[LEFT], rect[BOTTOM]};
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < 4; i++) {
+                // the quad points are clockwise in view coordinates (Y down), inside is right of each edge
+                float ax = quad[i * 2];
+                float ay = quad[i * 2 + 1];
+                float bx = quad[(i + 1) % 4 * 2];
+                float by = quad[(i + 1) % 4 * 2 + 1];
+                float length = (float) Math.hypot(bx - ax, by - ay);
+                float cross = ((bx - ax) * (corners[c * 2 + 1] - ay) - (by - ay) * (corners[c * 2] - ax)) / length;
+                if (cross < -tolerance) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Assert the given rectangle is inside the given quad by {@link #EPSILON}.
+     */
+    static void assertRectInsideQuad(float[] quad, float[] rect) {
+        assertTrue("rect outside quad", isRectInsideQuad(quad, rect, EPSILON));
+    }
+
+    /**
+     * Get the center of the given quad.
+     */
+    static float[] quadCenter(float[] quad) {
+        return new float[]{(quad[0] + quad[2] + quad[4] + quad[6]) / 4, (quad[1] + quad[3] + quad[5] + quad[7]) / 4};
+    }
+}